@@ -19,6 +19,8 @@ package org.apache.onami.persist;
  * under the License.
  */
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * Interface for aggregation of multiple {@link PersistenceService PersistenceServices}.
  */
@@ -31,8 +33,19 @@ public interface AllPersistenceServices
     void startAllStoppedPersistenceServices();
 
     /**
-     * Calls {@link PersistenceService#stop()} on all persistence services.
+     * Calls {@link PersistenceService#stop()} on all persistence services. If a stop timeout has been configured
+     * the persistence services are stopped as by {@link #stopAllPersistenceServices(long, TimeUnit)}.
      */
     void stopAllPersistenceServices();
 
+    /**
+     * Calls {@link PersistenceService#stop()} on all persistence services in parallel and waits at most the given
+     * time for them to stop. Persistence services which did not stop in time are abandoned and reported with a
+     * {@link java.util.concurrent.TimeoutException} in the thrown exception.
+     *
+     * @param timeout the maximum time to wait for the persistence services to stop.
+     * @param unit    the unit of the timeout. Must not be {@code null}.
+     */
+    void stopAllPersistenceServices( long timeout, TimeUnit unit );
+
 }
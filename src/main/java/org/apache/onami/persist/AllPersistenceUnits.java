@@ -28,6 +28,13 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static org.apache.onami.persist.Preconditions.checkNotNull;
 
@@ -59,6 +66,31 @@ class AllPersistenceUnits
      */
     private final Set<Key<UnitOfWork>> unitOfWorkKeys = new HashSet<Key<UnitOfWork>>();
 
+    /**
+     * The time in nanoseconds to wait for the persistence services to stop. Negative to stop them sequentially
+     * without timeout.
+     */
+    private final long stopTimeoutNanos;
+
+    /**
+     * Constructor for stopping the persistence services sequentially without timeout.
+     */
+    AllPersistenceUnits()
+    {
+        this( -1 );
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param stopTimeoutNanos the time in nanoseconds to wait for the persistence services to stop. Negative to stop
+     *                         them sequentially without timeout.
+     */
+    AllPersistenceUnits( long stopTimeoutNanos )
+    {
+        this.stopTimeoutNanos = stopTimeoutNanos;
+    }
+
     /**
      * Adds a persistence service and a unit of work to this collection.
      *
@@ -115,6 +147,11 @@ class AllPersistenceUnits
     // @Override
     public void stopAllPersistenceServices()
     {
+        if ( stopTimeoutNanos >= 0 )
+        {
+            stopAllPersistenceServices( stopTimeoutNanos, TimeUnit.NANOSECONDS );
+            return;
+        }
         AggregatedException.Builder exceptionBuilder = new AggregatedException.Builder();
         for ( PersistenceService ps : persistenceServices )
         {
@@ -131,6 +168,62 @@ class AllPersistenceUnits
             "multiple exception occurred while stopping the persistence service" );
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void stopAllPersistenceServices( long timeout, TimeUnit unit )
+    {
+        checkNotNull( unit, "unit is mandatory!" );
+        final ExecutorService executor =
+            Executors.newCachedThreadPool( new DaemonThreadFactory( "onami-persist-stop" ) );
+        final List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        for ( final PersistenceService ps : persistenceServices )
+        {
+            futures.add( executor.submit( new Callable<Object>()
+            {
+                // @Override
+                public Object call()
+                {
+                    ps.stop();
+                    return null;
+                }
+            } ) );
+        }
+        executor.shutdown();
+
+        final long deadline = System.nanoTime() + unit.toNanos( timeout );
+        AggregatedException.Builder exceptionBuilder = new AggregatedException.Builder();
+        for ( int i = 0; i < futures.size(); i++ )
+        {
+            try
+            {
+                futures.get( i ).get( deadline - System.nanoTime(), TimeUnit.NANOSECONDS );
+            }
+            catch ( ExecutionException e )
+            {
+                exceptionBuilder.add( e.getCause() );
+            }
+            catch ( TimeoutException e )
+            {
+                exceptionBuilder.add( new TimeoutException(
+                    "persistence service did not stop within " + unit.toMillis( timeout ) + " ms, abandoning "
+                        + persistenceServices.get( i ) ) );
+            }
+            catch ( InterruptedException e )
+            {
+                // stop waiting. the remaining persistence services are interrupted below.
+                Thread.currentThread().interrupt();
+                exceptionBuilder.add( e );
+                break;
+            }
+        }
+        // interrupt the hung persistence services. the daemon threads do not prevent the JVM from terminating.
+        executor.shutdownNow();
+        exceptionBuilder.throwRuntimeExceptionIfHasCauses(
+            "multiple exception occurred while stopping the persistence service" );
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -23,6 +23,7 @@ import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import javax.persistence.EntityManagerFactory;
+import java.util.Properties;
 
 import static org.apache.onami.persist.Preconditions.checkNotNull;
 
@@ -40,21 +41,137 @@ class ApplicationManagedEntityManagerFactoryProvider
      */
     private final EntityManagerFactoryFactory emfFactory;
 
+    /**
+     * Router owning the entity manager factories of the read replicas.
+     */
+    private final ReadReplicaRouter replicaRouter;
+
+    /**
+     * Router owning the entity manager factories of the shards.
+     */
+    private final ShardRouter shardRouter;
+
+    /**
+     * Router owning the entity manager factories of the tenants.
+     */
+    private final TenantRouter tenantRouter;
+
+    /**
+     * Executor for asynchronous transactions. Started and stopped with the persistence service.
+     */
+    private final AsyncTransactionExecutor asyncExecutor;
+
+    /**
+     * Detector for leaked units of work. Started and stopped with the persistence service.
+     */
+    private final UnitOfWorkLeakDetector leakDetector;
+
+    /**
+     * Profiler of the transactional methods. Started and stopped with the persistence service.
+     */
+    private final TransactionalMethodProfiler profiler;
+
+    /**
+     * Detector for slow transactions. Its stack sampler is stopped with the persistence service.
+     */
+    private final SlowTransactionDetector slowTransactionDetector;
+
+    /**
+     * Bridge to the statistics of the persistence provider. Started and stopped with the persistence service.
+     */
+    private final ProviderStatisticsBridge providerStatistics;
+
+    /**
+     * Warm-up of the persistence unit. Run when the persistence service is started.
+     */
+    private final PersistenceUnitWarmUp warmUp;
+
+    /**
+     * Registry of the entity managers kept for reuse. Closes them when the persistence service is stopped or
+     * their entity manager factory is closed.
+     */
+    private final ParkedEntityManagers parkedEntityManagers;
+
+    /**
+     * Notifier for the lifecycle listeners.
+     */
+    private final PersistenceLifecycleNotifier lifecycleNotifier;
+
+    /**
+     * Lock guarding the replacement and the acquisition of the entity manager factory.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * Thread local store of the entity manager factory acquired by the unit of work of the current thread.
+     */
+    private final ThreadLocal<TrackedEntityManagerFactory> acquiredFactories =
+        new ThreadLocal<TrackedEntityManagerFactory>();
+
     /**
      * Currently active entity manager factory.
-     * Is {@code null} when the persistence service is not running.
+     * Is {@code null} when the persistence service is not running or the persistence unit is sharded or
+     * multi tenant.
      */
-    private EntityManagerFactory emf;
+    private volatile EntityManagerFactory emf;
+
+    /**
+     * The currently active entity manager factory tracking the units of work using it. Guarded by {@link #lock}.
+     * Is {@code null} when the persistence service is not running or the persistence unit is sharded or
+     * multi tenant.
+     */
+    private TrackedEntityManagerFactory trackedEmf;
+
+    /**
+     * Flag indicating if the persistence service is running.
+     */
+    private volatile boolean running;
 
     /**
      * Constructor.
      *
-     * @param emfFactory the factory for the  {@link EntityManagerFactory}. Must not be {@code null}.
+     * @param emfFactory              the factory for the  {@link EntityManagerFactory}. Must not be {@code null}.
+     * @param replicaRouter           the router owning the entity manager factories of the read replicas.
+     *                                Must not be {@code null}.
+     * @param shardRouter             the router owning the entity manager factories of the shards.
+     *                                Must not be {@code null}.
+     * @param tenantRouter            the router owning the entity manager factories of the tenants.
+     *                                Must not be {@code null}.
+     * @param asyncExecutor           the executor for asynchronous transactions. Must not be {@code null}.
+     * @param leakDetector            the detector for leaked units of work. Must not be {@code null}.
+     * @param profiler                the profiler of the transactional methods. Must not be {@code null}.
+     * @param slowTransactionDetector the detector for slow transactions. Must not be {@code null}.
+     * @param providerStatistics      the bridge to the statistics of the persistence provider. Must not be
+     *                                {@code null}.
+     * @param warmUp                  the warm-up of the persistence unit. Must not be {@code null}.
+     * @param parkedEntityManagers    the registry of the entity managers kept for reuse. Must not be {@code null}.
+     * @param lifecycleNotifier       the notifier for the lifecycle listeners. Must not be {@code null}.
      */
     @Inject
-    ApplicationManagedEntityManagerFactoryProvider( EntityManagerFactoryFactory emfFactory )
+    ApplicationManagedEntityManagerFactoryProvider( EntityManagerFactoryFactory emfFactory,
+                                                    ReadReplicaRouter replicaRouter, ShardRouter shardRouter,
+                                                    TenantRouter tenantRouter, AsyncTransactionExecutor asyncExecutor,
+                                                    UnitOfWorkLeakDetector leakDetector,
+                                                    TransactionalMethodProfiler profiler,
+                                                    SlowTransactionDetector slowTransactionDetector,
+                                                    ProviderStatisticsBridge providerStatistics,
+                                                    PersistenceUnitWarmUp warmUp,
+                                                    ParkedEntityManagers parkedEntityManagers,
+                                                    PersistenceLifecycleNotifier lifecycleNotifier )
     {
         this.emfFactory = checkNotNull( emfFactory, "emfFactory is mandatory!" );
+        this.replicaRouter = checkNotNull( replicaRouter, "replicaRouter is mandatory!" );
+        this.shardRouter = checkNotNull( shardRouter, "shardRouter is mandatory!" );
+        this.tenantRouter = checkNotNull( tenantRouter, "tenantRouter is mandatory!" );
+        this.asyncExecutor = checkNotNull( asyncExecutor, "asyncExecutor is mandatory!" );
+        this.leakDetector = checkNotNull( leakDetector, "leakDetector is mandatory!" );
+        this.profiler = checkNotNull( profiler, "profiler is mandatory!" );
+        this.slowTransactionDetector =
+            checkNotNull( slowTransactionDetector, "slowTransactionDetector is mandatory!" );
+        this.providerStatistics = checkNotNull( providerStatistics, "providerStatistics is mandatory!" );
+        this.warmUp = checkNotNull( warmUp, "warmUp is mandatory!" );
+        this.parkedEntityManagers = checkNotNull( parkedEntityManagers, "parkedEntityManagers is mandatory!" );
+        this.lifecycleNotifier = checkNotNull( lifecycleNotifier, "lifecycleNotifier is mandatory!" );
     }
 
     /**
@@ -63,12 +180,97 @@ class ApplicationManagedEntityManagerFactoryProvider
     // @Override
     public EntityManagerFactory get()
     {
-        if ( isRunning() )
+        if ( !isRunning() )
+        {
+            throw new IllegalStateException( "PersistenceService is not running." );
+        }
+        if ( emf == null )
         {
-            return emf;
+            throw new IllegalStateException(
+                "A sharded or multi tenant persistence unit has no default EntityManagerFactory." );
         }
+        return emf;
+    }
 
-        throw new IllegalStateException( "PersistenceService is not running." );
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public EntityManagerFactory acquire()
+    {
+        synchronized ( lock )
+        {
+            get();
+            acquiredFactories.set( trackedEmf );
+            return trackedEmf.acquire();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void release()
+    {
+        final TrackedEntityManagerFactory factory = acquiredFactories.get();
+        if ( factory != null )
+        {
+            acquiredFactories.remove();
+            factory.release();
+        }
+    }
+
+    /**
+     * @return the entity manager factory acquired by the current thread. {@code null} if the current thread has
+     *         not acquired the entity manager factory.
+     */
+    TrackedEntityManagerFactory getAcquiredFactory()
+    {
+        return acquiredFactories.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public synchronized void reconfigure( Properties properties )
+    {
+        checkNotNull( properties, "properties is mandatory!" );
+        if ( !isRunning() )
+        {
+            throw new IllegalStateException( "PersistenceService is not running." );
+        }
+        if ( emf == null )
+        {
+            throw new UnsupportedOperationException(
+                "A sharded or multi tenant persistence unit cannot be reconfigured." );
+        }
+
+        final EntityManagerFactory created = emfFactory.createApplicationManagedEntityManagerFactory( properties );
+        try
+        {
+            warmUp.warmUp( created );
+        }
+        catch ( RuntimeException e )
+        {
+            created.close();
+            throw e;
+        }
+        final TrackedEntityManagerFactory retired;
+        synchronized ( lock )
+        {
+            if ( !isRunning() )
+            {
+                created.close();
+                throw new IllegalStateException( "PersistenceService has been stopped while reconfiguring." );
+            }
+            retired = trackedEmf;
+            trackedEmf = new TrackedEntityManagerFactory( created, parkedEntityManagers );
+            emf = created;
+        }
+        providerStatistics.stop();
+        providerStatistics.start( created );
+        retired.retire();
     }
 
     /**
@@ -81,7 +283,65 @@ class ApplicationManagedEntityManagerFactoryProvider
         {
             throw new IllegalStateException( "PersistenceService is already running." );
         }
-        emf = emfFactory.createApplicationManagedEntityManagerFactory();
+        if ( shardRouter.isSharded() )
+        {
+            shardRouter.start( emfFactory );
+        }
+        else if ( tenantRouter.isMultiTenant() )
+        {
+            tenantRouter.start( emfFactory );
+        }
+        else
+        {
+            final EntityManagerFactory primary = emfFactory.createApplicationManagedEntityManagerFactory();
+            try
+            {
+                replicaRouter.start( emfFactory );
+            }
+            catch ( RuntimeException e )
+            {
+                primary.close();
+                throw e;
+            }
+            synchronized ( lock )
+            {
+                emf = primary;
+                trackedEmf = new TrackedEntityManagerFactory( primary, parkedEntityManagers );
+            }
+        }
+        try
+        {
+            warmUpEntityManagerFactories();
+        }
+        catch ( RuntimeException e )
+        {
+            closeEntityManagerFactories();
+            throw e;
+        }
+        parkedEntityManagers.start();
+        asyncExecutor.start();
+        leakDetector.start();
+        profiler.start();
+        providerStatistics.start( emf );
+        running = true;
+        lifecycleNotifier.persistenceServiceStarted();
+    }
+
+    /**
+     * Warms the entity manager factory or the entity manager factories of all shards up. The factories of the
+     * tenants are created on demand and therefore not warmed up.
+     */
+    private void warmUpEntityManagerFactories()
+    {
+        if ( emf != null )
+        {
+            warmUp.warmUp( emf );
+            return;
+        }
+        for ( EntityManagerFactory shard : shardRouter.getShards() )
+        {
+            warmUp.warmUp( shard );
+        }
     }
 
     /**
@@ -90,7 +350,7 @@ class ApplicationManagedEntityManagerFactoryProvider
     // @Override
     public boolean isRunning()
     {
-        return null != emf;
+        return running;
     }
 
     /**
@@ -101,15 +361,56 @@ class ApplicationManagedEntityManagerFactoryProvider
     {
         if ( isRunning() )
         {
+            running = false;
             try
             {
-                emf.close();
+                closeEntityManagerFactories();
             }
             finally
             {
-                emf = null;
+                lifecycleNotifier.persistenceServiceStopped();
             }
         }
     }
 
+    /**
+     * Stops the executor and the leak detector, closes the parked entity managers and the entity manager factories.
+     */
+    private void closeEntityManagerFactories()
+    {
+        asyncExecutor.stop();
+        leakDetector.stop();
+        profiler.stop();
+        slowTransactionDetector.stop();
+        providerStatistics.stop();
+        parkedEntityManagers.stop();
+        final EntityManagerFactory closing;
+        synchronized ( lock )
+        {
+            closing = emf;
+            emf = null;
+            trackedEmf = null;
+        }
+        if ( closing == null )
+        {
+            try
+            {
+                shardRouter.stop();
+            }
+            finally
+            {
+                tenantRouter.stop();
+            }
+            return;
+        }
+        try
+        {
+            replicaRouter.stop();
+        }
+        finally
+        {
+            closing.close();
+        }
+    }
+
 }
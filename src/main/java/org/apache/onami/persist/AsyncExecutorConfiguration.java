@@ -0,0 +1,70 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Configuration of the executor running the {@link Transactional#async() asynchronous} transactions of a
+ * persistence unit.
+ */
+class AsyncExecutorConfiguration
+{
+
+    /**
+     * The number of worker threads.
+     */
+    private final int threads;
+
+    /**
+     * The maximal number of transactions waiting for a worker thread.
+     */
+    private final int queueCapacity;
+
+    /**
+     * Constructor.
+     *
+     * @param threads       the number of worker threads. Must be greater than zero.
+     * @param queueCapacity the maximal number of transactions waiting for a worker thread. Must be greater than
+     *                      zero.
+     */
+    AsyncExecutorConfiguration( int threads, int queueCapacity )
+    {
+        if ( threads <= 0 )
+        {
+            throw new IllegalArgumentException( "threads must be greater than zero but was " + threads );
+        }
+        if ( queueCapacity <= 0 )
+        {
+            throw new IllegalArgumentException( "queueCapacity must be greater than zero but was " + queueCapacity );
+        }
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+    }
+
+    int getThreads()
+    {
+        return threads;
+    }
+
+    int getQueueCapacity()
+    {
+        return queueCapacity;
+    }
+
+}
@@ -0,0 +1,62 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Statistics about the executor running the {@link Transactional#async() asynchronous} transactions of a
+ * persistence unit. All values are 0 if no executor has been configured or the persistence service is not running.
+ *
+ * @see UnconfiguredPersistenceUnitBuilder#useAsyncExecutor(int, int)
+ */
+public interface AsyncExecutorStatistics
+{
+
+    /**
+     * @return the number of transactions waiting for a worker thread.
+     */
+    int getQueueDepth();
+
+    /**
+     * @return the maximal number of transactions waiting for a worker thread.
+     */
+    int getQueueCapacity();
+
+    /**
+     * @return the number of worker threads currently running a transaction.
+     */
+    int getActiveThreads();
+
+    /**
+     * @return the number of worker threads.
+     */
+    int getMaximumThreads();
+
+    /**
+     * @return the ratio of running and waiting transactions to the capacity of the executor. 1.0 means that
+     *         further transactions are rejected.
+     */
+    double getSaturation();
+
+    /**
+     * @return the number of transactions which have been rejected because the executor was saturated.
+     */
+    long getRejectedCount();
+
+}
@@ -0,0 +1,100 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Result of an {@link Transactional#async() asynchronous} transactional method.
+ * <p/>
+ * The method returns its value wrapped in an async result. The caller receives a different {@link Future} which
+ * is completed with the value once the transaction has been committed.
+ *
+ * @param <V> the type of the value.
+ */
+public final class AsyncResult<V>
+    implements Future<V>
+{
+
+    /**
+     * The value of the method.
+     */
+    private final V value;
+
+    /**
+     * Constructor.
+     *
+     * @param value the value of the method.
+     */
+    public AsyncResult( V value )
+    {
+        this.value = value;
+    }
+
+    /**
+     * Cannot be cancelled as the value is already present.
+     *
+     * @param mayInterruptIfRunning ignored.
+     * @return always {@code false}.
+     */
+    // @Override
+    public boolean cancel( boolean mayInterruptIfRunning )
+    {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public boolean isCancelled()
+    {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public boolean isDone()
+    {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public V get()
+    {
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public V get( long timeout, TimeUnit unit )
+    {
+        return value;
+    }
+
+}
@@ -0,0 +1,228 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded executor running the {@link Transactional#async() asynchronous} transactions of a persistence unit.
+ * The executor is started and stopped together with the {@link PersistenceService} of the persistence unit.
+ */
+@Singleton
+class AsyncTransactionExecutor
+    implements AsyncExecutorStatistics
+{
+
+    /**
+     * Flag marking the worker threads of all executors while they run a transaction.
+     */
+    private static final ThreadLocal<Boolean> RUNNING_ASYNC = new ThreadLocal<Boolean>();
+
+    /**
+     * The configuration of the executor. {@code null} if asynchronous transactions are not supported.
+     */
+    private final AsyncExecutorConfiguration config;
+
+    /**
+     * Number of rejected transactions.
+     */
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * The executor. {@code null} if not running.
+     */
+    private volatile ThreadPoolExecutor executor;
+
+    /**
+     * Constructor.
+     *
+     * @param config the configuration of the executor. {@code null} if asynchronous transactions are not supported.
+     */
+    @Inject
+    AsyncTransactionExecutor( @Nullable AsyncExecutorConfiguration config )
+    {
+        this.config = config;
+    }
+
+    /**
+     * @return {@code true} if the current thread is running an asynchronous transaction. The interceptors run
+     *         the transaction synchronously in this case instead of submitting it again.
+     */
+    static boolean isRunningAsync()
+    {
+        return RUNNING_ASYNC.get() != null;
+    }
+
+    /**
+     * Starts the executor. Does nothing if no executor is configured.
+     */
+    void start()
+    {
+        if ( config != null )
+        {
+            executor = new ThreadPoolExecutor( config.getThreads(), config.getThreads(), 0L, TimeUnit.MILLISECONDS,
+                                               new ArrayBlockingQueue<Runnable>( config.getQueueCapacity() ),
+                                               new DaemonThreadFactory( "onami-persist-async" ) );
+        }
+    }
+
+    /**
+     * Stops the executor. Transactions which are still waiting for a worker thread are cancelled. Running
+     * transactions are completed.
+     */
+    void stop()
+    {
+        final ThreadPoolExecutor current = executor;
+        executor = null;
+        if ( current != null )
+        {
+            current.shutdown();
+            final List<Runnable> waitingTransactions = new ArrayList<Runnable>();
+            current.getQueue().drainTo( waitingTransactions );
+            for ( Runnable waiting : waitingTransactions )
+            {
+                if ( waiting instanceof Future )
+                {
+                    ( (Future<?>) waiting ).cancel( false );
+                }
+            }
+        }
+    }
+
+    /**
+     * Submits a transaction.
+     *
+     * @param transaction the transaction to run.
+     * @param <T>         the type of the result.
+     * @return the future for the result of the transaction.
+     * @throws IllegalStateException      if no executor is configured or the persistence service is not running.
+     * @throws RejectedExecutionException if the executor is saturated.
+     */
+    <T> Future<T> submit( final Callable<T> transaction )
+    {
+        final ThreadPoolExecutor current = executor;
+        if ( current == null )
+        {
+            if ( config == null )
+            {
+                throw new IllegalStateException(
+                    "Asynchronous transactions require an executor. Configure one with useAsyncExecutor()." );
+            }
+            throw new IllegalStateException( "PersistenceService is not running." );
+        }
+        try
+        {
+            return current.submit( new Callable<T>()
+            {
+                // @Override
+                public T call()
+                    throws Exception
+                {
+                    RUNNING_ASYNC.set( Boolean.TRUE );
+                    try
+                    {
+                        return transaction.call();
+                    }
+                    finally
+                    {
+                        RUNNING_ASYNC.remove();
+                    }
+                }
+            } );
+        }
+        catch ( RejectedExecutionException e )
+        {
+            rejectedCount.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public int getQueueDepth()
+    {
+        final ThreadPoolExecutor current = executor;
+        return current == null ? 0 : current.getQueue().size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public int getQueueCapacity()
+    {
+        return config == null ? 0 : config.getQueueCapacity();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public int getActiveThreads()
+    {
+        final ThreadPoolExecutor current = executor;
+        return current == null ? 0 : current.getActiveCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public int getMaximumThreads()
+    {
+        return config == null ? 0 : config.getThreads();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public double getSaturation()
+    {
+        final int capacity = getMaximumThreads() + getQueueCapacity();
+        if ( capacity == 0 )
+        {
+            return 0.0;
+        }
+        return Math.min( 1.0, ( getActiveThreads() + getQueueDepth() ) / (double) capacity );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public long getRejectedCount()
+    {
+        return rejectedCount.get();
+    }
+
+}
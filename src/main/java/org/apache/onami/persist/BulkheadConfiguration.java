@@ -0,0 +1,82 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Configuration of the bulkhead limiting the number of concurrent units of work of a persistence unit.
+ */
+class BulkheadConfiguration
+{
+
+    /**
+     * The maximal number of concurrent units of work.
+     */
+    private final int maxConcurrent;
+
+    /**
+     * The maximal time in milliseconds a thread waits for a permit.
+     */
+    private final long acquireTimeoutMillis;
+
+    /**
+     * {@code true} if waiting threads are admitted in arrival order.
+     */
+    private final boolean fair;
+
+    /**
+     * Constructor.
+     *
+     * @param maxConcurrent        the maximal number of concurrent units of work. Must be greater than zero.
+     * @param acquireTimeoutMillis the maximal time in milliseconds a thread waits for a permit. Must not be
+     *                             negative.
+     * @param fair                 {@code true} if waiting threads are admitted in arrival order.
+     */
+    BulkheadConfiguration( int maxConcurrent, long acquireTimeoutMillis, boolean fair )
+    {
+        if ( maxConcurrent <= 0 )
+        {
+            throw new IllegalArgumentException( "maxConcurrent must be greater than zero but was " + maxConcurrent );
+        }
+        if ( acquireTimeoutMillis < 0 )
+        {
+            throw new IllegalArgumentException(
+                "acquireTimeoutMillis must not be negative but was " + acquireTimeoutMillis );
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.fair = fair;
+    }
+
+    int getMaxConcurrent()
+    {
+        return maxConcurrent;
+    }
+
+    long getAcquireTimeoutMillis()
+    {
+        return acquireTimeoutMillis;
+    }
+
+    boolean isFair()
+    {
+        return fair;
+    }
+
+}
@@ -0,0 +1,60 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Exception thrown when a unit of work cannot be started because the bulkhead of the persistence unit did not
+ * grant a permit within the configured timeout. The {@link PersistenceFilter} responds with
+ * {@code 503 Service Unavailable} in this case.
+ *
+ * @see UnconfiguredPersistenceUnitBuilder#limitConcurrentUnitsOfWork(int, long, boolean)
+ */
+public class BulkheadRejectedException
+    extends RuntimeException
+{
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The maximal number of concurrent units of work.
+     */
+    private final int maxConcurrent;
+
+    /**
+     * Constructor.
+     *
+     * @param maxConcurrent        the maximal number of concurrent units of work.
+     * @param acquireTimeoutMillis the time waited for a permit.
+     */
+    BulkheadRejectedException( int maxConcurrent, long acquireTimeoutMillis )
+    {
+        super( "no permit for a unit of work within " + acquireTimeoutMillis + "ms. all " + maxConcurrent
+                   + " permits are in use" );
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    /**
+     * @return the maximal number of concurrent units of work.
+     */
+    public int getMaxConcurrent()
+    {
+        return maxConcurrent;
+    }
+}
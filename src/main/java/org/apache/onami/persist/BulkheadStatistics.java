@@ -0,0 +1,58 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Statistics about the bulkhead limiting the number of concurrent units of work of a persistence unit.
+ * All values are 0 if no limit has been configured.
+ *
+ * @see UnconfiguredPersistenceUnitBuilder#limitConcurrentUnitsOfWork(int, long, boolean)
+ */
+public interface BulkheadStatistics
+{
+
+    /**
+     * @return the maximal number of concurrent units of work.
+     */
+    int getMaxConcurrent();
+
+    /**
+     * @return the number of units of work which may currently be started without waiting.
+     */
+    int getAvailablePermits();
+
+    /**
+     * @return an estimate of the number of threads waiting for a permit.
+     */
+    int getWaitingThreads();
+
+    /**
+     * @param priority the priority. Must not be {@code null}.
+     * @return the number of active units of work admitted with the given priority.
+     * @see UnconfiguredPersistenceUnitBuilder#configurePriorityLane(TransactionPriority, int, int)
+     */
+    int getActiveUnitsOfWork( TransactionPriority priority );
+
+    /**
+     * @return the number of units of work which have been rejected.
+     */
+    long getRejectedCount();
+
+}
@@ -0,0 +1,388 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import javax.inject.Singleton;
+import javax.persistence.RollbackException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+/**
+ * Coordinator for {@link Transactional#chained() chained} transactions spanning multiple persistence units.
+ * <p/>
+ * The first {@link TxnInterceptor} intercepting a chained method opens the chain and becomes its root. The
+ * interceptors of the other participating persistence units register themselves as participants once the method
+ * returned. They never commit or roll back on their own. When the root returns it completes the chain by flushing
+ * and committing all participants in the reverse order of their registration, i.e. the outermost participant first.
+ * If a participant has been registered as rollback only all participants are rolled back instead.
+ */
+@Singleton
+class ChainedTransactionCoordinator
+{
+
+    /**
+     * The chain of the current thread.
+     */
+    private final ThreadLocal<Chain> chains = new ThreadLocal<Chain>();
+
+    /**
+     * Executor for flushing the participants in parallel. Created on first use.
+     */
+    private ExecutorService flushExecutor;
+
+    /**
+     * Opens a new chain for the current thread unless there is already an open chain.
+     *
+     * @param parallelFlush {@code true} if the participants should be flushed in parallel.
+     * @return {@code true} if a new chain was opened and the caller is therefore its root.
+     */
+    boolean openChain( boolean parallelFlush )
+    {
+        if ( chains.get() != null )
+        {
+            return false;
+        }
+        chains.set( new Chain( parallelFlush ) );
+        return true;
+    }
+
+    /**
+     * @return {@code true} if there is an open chain for the current thread.
+     */
+    boolean isChainOpen()
+    {
+        return chains.get() != null;
+    }
+
+    /**
+     * Registers a participant in the chain of the current thread. A participant replaces an earlier registered
+     * participant of the same persistence unit. This is the case for nested chained methods where the outermost
+     * invocation owns the transaction of the persistence unit.
+     *
+     * @param participant the participant to register.
+     * @throws IllegalStateException if there is no open chain.
+     */
+    void register( ChainedTransactionParticipant participant )
+    {
+        checkNotNull( participant, "participant is mandatory!" );
+        final Chain chain = chains.get();
+        if ( chain == null )
+        {
+            throw new IllegalStateException( "there is no open chained transaction." );
+        }
+        final String unitName = participant.getUnitName();
+        for ( int i = 0; i < chain.participants.size(); i++ )
+        {
+            if ( chain.participants.get( i ).getUnitName().equals( unitName ) )
+            {
+                chain.participants.remove( i );
+                break;
+            }
+        }
+        chain.participants.add( participant );
+    }
+
+    /**
+     * Registers a participant whose method threw an exception requiring a rollback. Marks the chain of the current
+     * thread as rollback only. All participants are rolled back when the chain is completed.
+     *
+     * @param participant the participant to register.
+     * @throws IllegalStateException if there is no open chain.
+     */
+    void registerRollbackOnly( ChainedTransactionParticipant participant )
+    {
+        register( participant );
+        final Chain chain = chains.get();
+        if ( chain.rollbackOnlyUnit == null )
+        {
+            chain.rollbackOnlyUnit = participant.getUnitName();
+        }
+    }
+
+    /**
+     * Completes the chain of the current thread. All participants are flushed and then committed in the reverse
+     * order of their registration. Participants register when their method returns, so the outermost participant
+     * is committed first. For a single method intercepted by the interceptors of all persistence units this is the
+     * order in which the persistence units were configured.
+     * <p/>
+     * If the chain is rollback only, a flush fails or a commit fails all not yet committed participants are
+     * rolled back. In any case the units of work of all participants are ended.
+     *
+     * @throws RollbackException      if the chain has been marked rollback only.
+     * @throws PartialCommitException if a commit failed after other participants have already been committed.
+     * @throws Throwable              the exception of the failed flush or commit if nothing has been committed.
+     */
+    void completeChain()
+        throws Throwable
+    {
+        final Chain chain = closeChain();
+        final List<ChainedTransactionParticipant> participants = chain.getParticipantsInCommitOrder();
+
+        if ( chain.rollbackOnlyUnit != null )
+        {
+            rollback( participants );
+            end( participants );
+            throw new RollbackException(
+                "the chained transaction has been marked rollback only by persistence unit " + chain.rollbackOnlyUnit );
+        }
+
+        try
+        {
+            flush( participants, chain.parallelFlush );
+        }
+        catch ( Throwable exc )
+        {
+            rollback( participants );
+            end( participants );
+            throw exc;
+        }
+
+        final List<String> committedUnits = new ArrayList<String>();
+        for ( int i = 0; i < participants.size(); i++ )
+        {
+            final ChainedTransactionParticipant participant = participants.get( i );
+            try
+            {
+                participant.commit();
+            }
+            catch ( Throwable exc )
+            {
+                rollback( Collections.singletonList( participant ) );
+                final List<String> rolledBackUnits = rollback( participants.subList( i + 1, participants.size() ) );
+                end( participants );
+                if ( committedUnits.isEmpty() )
+                {
+                    throw exc;
+                }
+                throw new PartialCommitException( committedUnits, participant.getUnitName(), rolledBackUnits, exc );
+            }
+            committedUnits.add( participant.getUnitName() );
+        }
+
+        final AggregatedException.Builder exceptionBuilder = new AggregatedException.Builder();
+        for ( ChainedTransactionParticipant participant : participants )
+        {
+            try
+            {
+                participant.end();
+            }
+            catch ( Throwable exc )
+            {
+                exceptionBuilder.add( exc );
+            }
+        }
+        exceptionBuilder.throwRuntimeExceptionIfHasCauses( "exceptions occurred while ending the units of work" );
+    }
+
+    /**
+     * Aborts the chain of the current thread. All participants are rolled back and their units of work are ended.
+     * Exceptions are swallowed in favor of the exception which caused the abort.
+     */
+    void abortChain()
+    {
+        final List<ChainedTransactionParticipant> participants = closeChain().getParticipantsInCommitOrder();
+        rollback( participants );
+        end( participants );
+    }
+
+    /**
+     * Removes the chain from the current thread.
+     *
+     * @return the removed chain.
+     * @throws IllegalStateException if there is no open chain.
+     */
+    private Chain closeChain()
+    {
+        final Chain chain = chains.get();
+        if ( chain == null )
+        {
+            throw new IllegalStateException( "there is no open chained transaction." );
+        }
+        chains.remove();
+        return chain;
+    }
+
+    /**
+     * Flushes the given participants.
+     *
+     * @param participants  the participants to flush.
+     * @param parallelFlush {@code true} if the participants should be flushed in parallel.
+     * @throws Throwable the first exception thrown by a flush.
+     */
+    private void flush( List<ChainedTransactionParticipant> participants, boolean parallelFlush )
+        throws Throwable
+    {
+        if ( !parallelFlush || participants.size() < 2 )
+        {
+            for ( ChainedTransactionParticipant participant : participants )
+            {
+                participant.flush();
+            }
+            return;
+        }
+
+        final ExecutorService executor = getFlushExecutor();
+        final List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        for ( final ChainedTransactionParticipant participant : participants )
+        {
+            futures.add( executor.submit( new Callable<Object>()
+            {
+                // @Override
+                public Object call()
+                {
+                    participant.flush();
+                    return null;
+                }
+            } ) );
+        }
+
+        // wait for all flushes before reporting a failure. the participants must not be rolled back while flushing.
+        Throwable firstException = null;
+        for ( Future<Object> future : futures )
+        {
+            try
+            {
+                future.get();
+            }
+            catch ( ExecutionException exc )
+            {
+                if ( firstException == null )
+                {
+                    firstException = exc.getCause();
+                }
+            }
+        }
+        if ( firstException != null )
+        {
+            throw firstException;
+        }
+    }
+
+    /**
+     * Rolls the given participants back. Exceptions are swallowed.
+     *
+     * @param participants the participants to roll back.
+     * @return the names of the persistence units which have been rolled back successfully.
+     */
+    private List<String> rollback( List<ChainedTransactionParticipant> participants )
+    {
+        final List<String> rolledBackUnits = new ArrayList<String>();
+        for ( ChainedTransactionParticipant participant : participants )
+        {
+            try
+            {
+                participant.rollback();
+                rolledBackUnits.add( participant.getUnitName() );
+            }
+            catch ( Exception swallowedException )
+            {
+                // swallow exception in favor of the exception which caused the roll back.
+            }
+        }
+        return rolledBackUnits;
+    }
+
+    /**
+     * Ends the units of work of the given participants. Exceptions are swallowed.
+     *
+     * @param participants the participants whose units of work to end.
+     */
+    private void end( List<ChainedTransactionParticipant> participants )
+    {
+        for ( ChainedTransactionParticipant participant : participants )
+        {
+            try
+            {
+                participant.end();
+            }
+            catch ( Exception swallowedException )
+            {
+                // swallow exception in favor of the exception which caused the roll back.
+            }
+        }
+    }
+
+    /**
+     * @return the executor for flushing the participants in parallel.
+     */
+    private synchronized ExecutorService getFlushExecutor()
+    {
+        if ( flushExecutor == null )
+        {
+            flushExecutor =
+                Executors.newCachedThreadPool( new DaemonThreadFactory( "onami-persist-chained-flush" ) );
+        }
+        return flushExecutor;
+    }
+
+    /**
+     * The chain of a thread.
+     */
+    private static class Chain
+    {
+
+        /**
+         * {@code true} if the participants should be flushed in parallel.
+         */
+        private final boolean parallelFlush;
+
+        /**
+         * The participants in the order of their registration.
+         */
+        private final List<ChainedTransactionParticipant> participants =
+            new ArrayList<ChainedTransactionParticipant>();
+
+        /**
+         * The name of the first persistence unit which marked the chain rollback only. {@code null} if the chain
+         * may be committed.
+         */
+        private String rollbackOnlyUnit;
+
+        /**
+         * Constructor.
+         *
+         * @param parallelFlush {@code true} if the participants should be flushed in parallel.
+         */
+        Chain( boolean parallelFlush )
+        {
+            this.parallelFlush = parallelFlush;
+        }
+
+        /**
+         * @return the participants in the order in which they have to be committed.
+         */
+        List<ChainedTransactionParticipant> getParticipantsInCommitOrder()
+        {
+            final List<ChainedTransactionParticipant> result =
+                new ArrayList<ChainedTransactionParticipant>( participants );
+            Collections.reverse( result );
+            return result;
+        }
+    }
+
+}
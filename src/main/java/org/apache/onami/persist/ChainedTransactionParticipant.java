@@ -0,0 +1,55 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * A persistence unit taking part in a {@link Transactional#chained() chained} transaction.
+ * The participant has successfully executed its part of the work and defers the commit and the end of its unit of
+ * work to the {@link ChainedTransactionCoordinator}.
+ */
+interface ChainedTransactionParticipant
+{
+
+    /**
+     * @return the name of the persistence unit for reporting.
+     */
+    String getUnitName();
+
+    /**
+     * Flushes the persistence context of the unit.
+     */
+    void flush();
+
+    /**
+     * Commits the transaction of the unit.
+     */
+    void commit();
+
+    /**
+     * Rolls the transaction of the unit back.
+     */
+    void rollback();
+
+    /**
+     * Ends the unit of work if the participant has started it.
+     */
+    void end();
+
+}
@@ -0,0 +1,267 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+/**
+ * Base class of the {@link ResultStream} implementations. Holds one chunk of the result in memory. Before the
+ * next chunk is loaded the pending changes are flushed and the entities of the consumed chunk are detached
+ * from the entity manager.
+ *
+ * @param <T> the type of the query result.
+ */
+abstract class ChunkedResultStream<T>
+    implements ResultStream<T>
+{
+
+    /**
+     * Query hints used to pass the fetch size to the persistence provider.
+     * Providers silently ignore hints they do not know.
+     */
+    private static final String[] FETCH_SIZE_HINTS =
+        { "org.hibernate.fetchSize", "eclipselink.jdbc.fetch-size", "openjpa.FetchPlan.FetchBatchSize" };
+
+    /**
+     * The entity manager which created the query. Used for detaching consumed entities.
+     */
+    private final EntityManager em;
+
+    /**
+     * The maximal number of elements in a chunk.
+     */
+    private final int fetchSize;
+
+    /**
+     * The current chunk.
+     */
+    private List<T> chunk = Collections.emptyList();
+
+    /**
+     * The index of the next element in the current chunk.
+     */
+    private int indexInChunk = 0;
+
+    /**
+     * {@code true} if the current chunk is the last one of the result.
+     */
+    private boolean lastChunk = false;
+
+    /**
+     * {@code true} if the stream has been closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * Constructor.
+     *
+     * @param em        the entity manager which created the query. Must not be {@code null}.
+     * @param fetchSize the maximal number of elements in a chunk. Must be greater than zero.
+     */
+    ChunkedResultStream( EntityManager em, int fetchSize )
+    {
+        this.em = checkNotNull( em, "em is mandatory!" );
+        this.fetchSize = checkFetchSize( fetchSize );
+    }
+
+    /**
+     * Passes the fetch size on to the persistence provider.
+     *
+     * @param query     the query.
+     * @param fetchSize the fetch size.
+     */
+    static void applyFetchSizeHints( Query query, int fetchSize )
+    {
+        for ( String hint : FETCH_SIZE_HINTS )
+        {
+            query.setHint( hint, fetchSize );
+        }
+    }
+
+    /**
+     * @param fetchSize the fetch size to check.
+     * @return the fetch size.
+     * @throws IllegalArgumentException if the fetch size is not greater than zero.
+     */
+    static int checkFetchSize( int fetchSize )
+    {
+        if ( fetchSize <= 0 )
+        {
+            throw new IllegalArgumentException( "fetchSize must be greater than zero but was " + fetchSize );
+        }
+        return fetchSize;
+    }
+
+    /**
+     * Loads the next chunk of the result.
+     *
+     * @param maxSize the maximal number of elements to load.
+     * @return the elements. A list smaller than {@code maxSize} marks the end of the result.
+     */
+    abstract List<T> loadChunk( int maxSize );
+
+    /**
+     * Releases the resources held by the underlying query. Called exactly once when the stream is closed.
+     */
+    abstract void releaseQuery();
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public boolean hasNext()
+    {
+        if ( closed )
+        {
+            return false;
+        }
+        if ( indexInChunk < chunk.size() )
+        {
+            return true;
+        }
+        if ( lastChunk )
+        {
+            close();
+            return false;
+        }
+        loadNextChunk();
+        return hasNext();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public T next()
+    {
+        if ( !hasNext() )
+        {
+            throw new NoSuchElementException();
+        }
+        return chunk.get( indexInChunk++ );
+    }
+
+    /**
+     * Not supported.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    // @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException( "a result stream is read only" );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void close()
+    {
+        if ( !closed )
+        {
+            closed = true;
+            try
+            {
+                releaseCurrentChunk();
+            }
+            finally
+            {
+                releaseQuery();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    /**
+     * Releases the current chunk and loads the next one.
+     */
+    private void loadNextChunk()
+    {
+        releaseCurrentChunk();
+        chunk = loadChunk( fetchSize );
+        lastChunk = chunk.size() < fetchSize;
+    }
+
+    /**
+     * Detaches the entities of the current chunk from the entity manager and drops the chunk.
+     * Changes made to these entities are flushed first so that detaching them does not discard the changes.
+     */
+    private void releaseCurrentChunk()
+    {
+        if ( em.isOpen() )
+        {
+            final List<T> managed = new ArrayList<T>();
+            for ( T element : chunk )
+            {
+                if ( isManaged( element ) )
+                {
+                    managed.add( element );
+                }
+            }
+            if ( !managed.isEmpty() )
+            {
+                if ( em.isJoinedToTransaction() )
+                {
+                    em.flush();
+                }
+                for ( T element : managed )
+                {
+                    em.detach( element );
+                }
+            }
+        }
+        chunk = Collections.emptyList();
+        indexInChunk = 0;
+    }
+
+    /**
+     * @param element an element of the result.
+     * @return {@code true} if the element is an entity managed by the entity manager.
+     */
+    private boolean isManaged( T element )
+    {
+        try
+        {
+            return element != null && em.contains( element );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            // not an entity (i.e. a scalar or an object array) - nothing to detach
+            return false;
+        }
+    }
+
+}
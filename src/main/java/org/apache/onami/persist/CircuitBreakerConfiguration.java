@@ -0,0 +1,103 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+/**
+ * Configuration of the health check and the circuit breaker of a persistence unit.
+ */
+class CircuitBreakerConfiguration
+{
+
+    /**
+     * The native SQL query validating that the database is reachable.
+     */
+    private final String validationQuery;
+
+    /**
+     * The time in nanoseconds for which the result of a health check is cached.
+     */
+    private final long healthTtlNanos;
+
+    /**
+     * The number of consecutive failures which open the circuit.
+     */
+    private final int failureThreshold;
+
+    /**
+     * The time in nanoseconds after which an open circuit probes the database.
+     */
+    private final long probeIntervalNanos;
+
+    /**
+     * Constructor.
+     *
+     * @param validationQuery     the native SQL query validating that the database is reachable.
+     *                            Must not be {@code null}.
+     * @param healthTtlMillis     the time in milliseconds for which the result of a health check is cached.
+     *                            Must not be negative.
+     * @param failureThreshold    the number of consecutive failures which open the circuit. Must be positive.
+     * @param probeIntervalMillis the time in milliseconds after which an open circuit probes the database.
+     *                            Must not be negative.
+     */
+    CircuitBreakerConfiguration( String validationQuery, long healthTtlMillis, int failureThreshold,
+                                 long probeIntervalMillis )
+    {
+        this.validationQuery = checkNotNull( validationQuery, "validationQuery is mandatory!" );
+        if ( healthTtlMillis < 0 )
+        {
+            throw new IllegalArgumentException( "healthTtlMillis must not be negative but was " + healthTtlMillis );
+        }
+        if ( failureThreshold < 1 )
+        {
+            throw new IllegalArgumentException( "failureThreshold must be positive but was " + failureThreshold );
+        }
+        if ( probeIntervalMillis < 0 )
+        {
+            throw new IllegalArgumentException(
+                "probeIntervalMillis must not be negative but was " + probeIntervalMillis );
+        }
+        this.healthTtlNanos = healthTtlMillis * 1000L * 1000L;
+        this.failureThreshold = failureThreshold;
+        this.probeIntervalNanos = probeIntervalMillis * 1000L * 1000L;
+    }
+
+    String getValidationQuery()
+    {
+        return validationQuery;
+    }
+
+    long getHealthTtlNanos()
+    {
+        return healthTtlNanos;
+    }
+
+    int getFailureThreshold()
+    {
+        return failureThreshold;
+    }
+
+    long getProbeIntervalNanos()
+    {
+        return probeIntervalNanos;
+    }
+
+}
@@ -0,0 +1,58 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Exception thrown when a unit of work or a transaction cannot be started because the circuit breaker of the
+ * persistence unit is open. The {@link PersistenceFilter} responds with {@code 503 Service Unavailable} in this
+ * case.
+ *
+ * @see UnconfiguredPersistenceUnitBuilder#useCircuitBreaker(String, long, int, long)
+ */
+public class CircuitBreakerOpenException
+    extends RuntimeException
+{
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The state of the circuit breaker.
+     */
+    private final CircuitState state;
+
+    /**
+     * Constructor.
+     *
+     * @param state the state of the circuit breaker.
+     */
+    CircuitBreakerOpenException( CircuitState state )
+    {
+        super( "the circuit breaker of the persistence unit is " + state + ". the database is considered unreachable" );
+        this.state = state;
+    }
+
+    /**
+     * @return the state of the circuit breaker.
+     */
+    public CircuitState getState()
+    {
+        return state;
+    }
+}
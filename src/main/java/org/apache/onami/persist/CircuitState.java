@@ -0,0 +1,45 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * State of the circuit breaker of a persistence unit.
+ *
+ * @see UnconfiguredPersistenceUnitBuilder#useCircuitBreaker(String, long, int, long)
+ */
+public enum CircuitState
+{
+
+    /**
+     * Units of work and transactions are begun normally.
+     */
+    CLOSED,
+
+    /**
+     * The database is considered unreachable. Units of work and transactions are rejected without accessing it.
+     */
+    OPEN,
+
+    /**
+     * The database is being probed. Units of work and transactions are rejected until the probe succeeded.
+     */
+    HALF_OPEN
+
+}
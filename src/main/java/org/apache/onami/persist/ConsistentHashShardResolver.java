@@ -0,0 +1,133 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.Arrays;
+
+/**
+ * {@link ShardResolver} using consistent hashing on the {@link Object#hashCode()} of the shard key.
+ * <p/>
+ * Every shard is placed on a hash ring multiple times. A key belongs to the first shard following its hash
+ * on the ring. When shards are added only a small fraction of the keys is moved to another shard.
+ */
+class ConsistentHashShardResolver
+    implements ShardResolver
+{
+
+    /**
+     * The number of places of each shard on the ring.
+     */
+    private static final int VIRTUAL_NODES_PER_SHARD = 64;
+
+    /**
+     * The ring for the most recently used number of shards.
+     */
+    private volatile Ring ring;
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public int resolveShard( Object shardKey, int numberOfShards )
+    {
+        Ring current = ring;
+        if ( current == null || current.numberOfShards != numberOfShards )
+        {
+            current = new Ring( numberOfShards );
+            ring = current;
+        }
+        return current.lookup( mix( shardKey.hashCode() ) );
+    }
+
+    /**
+     * Spreads the bits of a hash code (finalizer of the murmur3 hash function).
+     *
+     * @param hash the hash code.
+     * @return the mixed hash code.
+     */
+    private static int mix( int hash )
+    {
+        int h = hash;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Hash ring for a fixed number of shards.
+     */
+    private static class Ring
+    {
+        private final int numberOfShards;
+
+        private final int[] points;
+
+        private final int[] shards;
+
+        Ring( int numberOfShards )
+        {
+            if ( numberOfShards <= 0 )
+            {
+                throw new IllegalArgumentException( "numberOfShards must be greater than zero but was "
+                                                        + numberOfShards );
+            }
+            this.numberOfShards = numberOfShards;
+
+            // the hash in the upper and the shard in the lower half for sorting both together
+            final long[] entries = new long[numberOfShards * VIRTUAL_NODES_PER_SHARD];
+            int i = 0;
+            for ( int shard = 0; shard < numberOfShards; shard++ )
+            {
+                for ( int node = 0; node < VIRTUAL_NODES_PER_SHARD; node++ )
+                {
+                    final int point = mix( mix( shard ) + node );
+                    entries[i++] = ( (long) point << 32 ) | shard;
+                }
+            }
+            Arrays.sort( entries );
+
+            points = new int[entries.length];
+            shards = new int[entries.length];
+            for ( int j = 0; j < entries.length; j++ )
+            {
+                points[j] = (int) ( entries[j] >> 32 );
+                shards[j] = (int) entries[j];
+            }
+        }
+
+        /**
+         * @param hash the mixed hash of a shard key.
+         * @return the shard following the hash on the ring.
+         */
+        int lookup( int hash )
+        {
+            int index = Arrays.binarySearch( points, hash );
+            if ( index < 0 )
+            {
+                index = -index - 1;
+            }
+            return shards[index == points.length ? 0 : index];
+        }
+    }
+
+}
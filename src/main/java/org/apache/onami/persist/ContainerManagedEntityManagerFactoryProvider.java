@@ -23,6 +23,7 @@ import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import javax.persistence.EntityManagerFactory;
+import java.util.Properties;
 
 import static org.apache.onami.persist.Preconditions.checkNotNull;
 
@@ -40,6 +41,46 @@ class ContainerManagedEntityManagerFactoryProvider
      */
     private final EntityManagerFactorySource emfSource;
 
+    /**
+     * Executor for asynchronous transactions. Started and stopped with the persistence service.
+     */
+    private final AsyncTransactionExecutor asyncExecutor;
+
+    /**
+     * Detector for leaked units of work. Started and stopped with the persistence service.
+     */
+    private final UnitOfWorkLeakDetector leakDetector;
+
+    /**
+     * Profiler of the transactional methods. Started and stopped with the persistence service.
+     */
+    private final TransactionalMethodProfiler profiler;
+
+    /**
+     * Detector for slow transactions. Its stack sampler is stopped with the persistence service.
+     */
+    private final SlowTransactionDetector slowTransactionDetector;
+
+    /**
+     * Bridge to the statistics of the persistence provider. Started and stopped with the persistence service.
+     */
+    private final ProviderStatisticsBridge providerStatistics;
+
+    /**
+     * Warm-up of the persistence unit. Run when the persistence service is started.
+     */
+    private final PersistenceUnitWarmUp warmUp;
+
+    /**
+     * Registry of the entity managers kept for reuse. Closes them when the persistence service is stopped.
+     */
+    private final ParkedEntityManagers parkedEntityManagers;
+
+    /**
+     * Notifier for the lifecycle listeners.
+     */
+    private final PersistenceLifecycleNotifier lifecycleNotifier;
+
     /**
      * Currently active entity manager factory.
      * Is {@code null} when the persistence service is not running.
@@ -49,12 +90,38 @@ class ContainerManagedEntityManagerFactoryProvider
     /**
      * Constructor.
      *
-     * @param emfSource the source for the  {@link EntityManagerFactory}. Must not be {@code null}.
+     * @param emfSource               the source for the  {@link EntityManagerFactory}. Must not be {@code null}.
+     * @param asyncExecutor           the executor for asynchronous transactions. Must not be {@code null}.
+     * @param leakDetector            the detector for leaked units of work. Must not be {@code null}.
+     * @param profiler                the profiler of the transactional methods. Must not be {@code null}.
+     * @param slowTransactionDetector the detector for slow transactions. Must not be {@code null}.
+     * @param providerStatistics      the bridge to the statistics of the persistence provider. Must not be
+     *                                {@code null}.
+     * @param warmUp                  the warm-up of the persistence unit. Must not be {@code null}.
+     * @param parkedEntityManagers    the registry of the entity managers kept for reuse. Must not be {@code null}.
+     * @param lifecycleNotifier       the notifier for the lifecycle listeners. Must not be {@code null}.
      */
     @Inject
-    ContainerManagedEntityManagerFactoryProvider( EntityManagerFactorySource emfSource )
+    ContainerManagedEntityManagerFactoryProvider( EntityManagerFactorySource emfSource,
+                                                  AsyncTransactionExecutor asyncExecutor,
+                                                  UnitOfWorkLeakDetector leakDetector,
+                                                  TransactionalMethodProfiler profiler,
+                                                  SlowTransactionDetector slowTransactionDetector,
+                                                  ProviderStatisticsBridge providerStatistics,
+                                                  PersistenceUnitWarmUp warmUp,
+                                                  ParkedEntityManagers parkedEntityManagers,
+                                                  PersistenceLifecycleNotifier lifecycleNotifier )
     {
         this.emfSource = checkNotNull( emfSource, "emfSource is mandatory!" );
+        this.asyncExecutor = checkNotNull( asyncExecutor, "asyncExecutor is mandatory!" );
+        this.leakDetector = checkNotNull( leakDetector, "leakDetector is mandatory!" );
+        this.profiler = checkNotNull( profiler, "profiler is mandatory!" );
+        this.slowTransactionDetector =
+            checkNotNull( slowTransactionDetector, "slowTransactionDetector is mandatory!" );
+        this.providerStatistics = checkNotNull( providerStatistics, "providerStatistics is mandatory!" );
+        this.warmUp = checkNotNull( warmUp, "warmUp is mandatory!" );
+        this.parkedEntityManagers = checkNotNull( parkedEntityManagers, "parkedEntityManagers is mandatory!" );
+        this.lifecycleNotifier = checkNotNull( lifecycleNotifier, "lifecycleNotifier is mandatory!" );
     }
 
     /**
@@ -71,6 +138,36 @@ class ContainerManagedEntityManagerFactoryProvider
         throw new IllegalStateException( "PersistenceService is not running." );
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public EntityManagerFactory acquire()
+    {
+        return get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void release()
+    {
+        // nothing to release
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The entity manager factory of a container managed persistence unit is owned by the container and can therefore
+     * not be replaced.
+     */
+    // @Override
+    public void reconfigure( Properties properties )
+    {
+        throw new UnsupportedOperationException( "A container managed persistence unit cannot be reconfigured." );
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -82,7 +179,15 @@ class ContainerManagedEntityManagerFactoryProvider
             throw new IllegalStateException( "PersistenceService is already running." );
         }
 
-        emf = emfSource.getEntityManagerFactory();
+        final EntityManagerFactory started = emfSource.getEntityManagerFactory();
+        warmUp.warmUp( started );
+        emf = started;
+        parkedEntityManagers.start();
+        asyncExecutor.start();
+        leakDetector.start();
+        profiler.start();
+        providerStatistics.start( emf );
+        lifecycleNotifier.persistenceServiceStarted();
     }
 
     /**
@@ -100,7 +205,18 @@ class ContainerManagedEntityManagerFactoryProvider
     // @Override
     public void stop()
     {
+        final boolean wasRunning = isRunning();
+        asyncExecutor.stop();
+        leakDetector.stop();
+        profiler.stop();
+        slowTransactionDetector.stop();
+        providerStatistics.stop();
+        parkedEntityManagers.stop();
         emf = null;
+        if ( wasRunning )
+        {
+            lifecycleNotifier.persistenceServiceStopped();
+        }
         // the entity manager factory must NOT be closed:
         // - it was created by the container and it is therefore the responsibility of the container to close it
         // - we cannot know if another part of the application has obtained the same instance
@@ -0,0 +1,67 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+/**
+ * Factory for the daemon threads of the background executors. Daemon threads do not prevent the JVM from
+ * shutting down if a persistence service is never stopped. The threads are named by a prefix followed by a
+ * sequence number.
+ */
+class DaemonThreadFactory
+    implements ThreadFactory
+{
+
+    /**
+     * The prefix of the thread names.
+     */
+    private final String prefix;
+
+    /**
+     * Counter for naming the threads.
+     */
+    private final AtomicInteger counter = new AtomicInteger();
+
+    /**
+     * Constructor.
+     *
+     * @param prefix the prefix of the thread names, i.e. {@code onami-persist-stop}. Must not be {@code null}.
+     */
+    DaemonThreadFactory( String prefix )
+    {
+        this.prefix = checkNotNull( prefix, "prefix is mandatory!" );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public Thread newThread( Runnable runnable )
+    {
+        final Thread thread = new Thread( runnable, prefix + "-" + counter.incrementAndGet() );
+        thread.setDaemon( true );
+        return thread;
+    }
+
+}
@@ -70,4 +70,23 @@ class EntityManagerFactoryFactory
         return Persistence.createEntityManagerFactory( puName, properties );
     }
 
+    /**
+     * Creates a new {@link EntityManagerFactory} with some properties overridden.
+     *
+     * @param overrides the properties overriding the additional properties of the persistence unit.
+     *                  Must not be {@code null}.
+     * @return the newly created entity manager factory.
+     */
+    EntityManagerFactory createApplicationManagedEntityManagerFactory( Properties overrides )
+    {
+        checkNotNull( overrides, "overrides is mandatory!" );
+        final Properties merged = new Properties();
+        if ( properties != null )
+        {
+            merged.putAll( properties );
+        }
+        merged.putAll( overrides );
+        return Persistence.createEntityManagerFactory( puName, merged );
+    }
+
 }
@@ -33,4 +33,21 @@ interface EntityManagerFactoryProvider
     EntityManagerFactory get()
         throws IllegalStateException;
 
+    /**
+     * Acquires the entity manager factory for the unit of work of the current thread. An entity manager factory
+     * replaced by {@link PersistenceService#reconfigure(java.util.Properties)} is closed only after all units of work
+     * which acquired it have {@link #release() released} it.
+     *
+     * @return the entity manager factory.
+     * @throws IllegalStateException if {@link PersistenceService#isRunning()} returns {@code false}.
+     */
+    EntityManagerFactory acquire()
+        throws IllegalStateException;
+
+    /**
+     * Releases the entity manager factory acquired by the unit of work of the current thread.
+     * Does nothing if no entity manager factory has been acquired.
+     */
+    void release();
+
 }
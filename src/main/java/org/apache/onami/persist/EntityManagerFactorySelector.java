@@ -0,0 +1,150 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import javax.persistence.EntityManagerFactory;
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+/**
+ * Selects the {@link EntityManagerFactory} for a unit of work. Depending on the configuration of the
+ * persistence unit this is the factory of a shard, of a tenant, of a read replica or the default one.
+ */
+@Singleton
+class EntityManagerFactorySelector
+{
+
+    /**
+     * Provider for the default {@link EntityManagerFactory}.
+     */
+    private final EntityManagerFactoryProvider emfProvider;
+
+    /**
+     * Router for read only units of work.
+     */
+    private final ReadReplicaRouter replicaRouter;
+
+    /**
+     * Router for sharded persistence units.
+     */
+    private final ShardRouter shardRouter;
+
+    /**
+     * Router for multi tenant persistence units.
+     */
+    private final TenantRouter tenantRouter;
+
+    /**
+     * Constructor.
+     *
+     * @param emfProvider   the provider for the default {@link EntityManagerFactory}. Must not be {@code null}.
+     * @param replicaRouter the router for read only units of work. Must not be {@code null}.
+     * @param shardRouter   the router for sharded persistence units. Must not be {@code null}.
+     * @param tenantRouter  the router for multi tenant persistence units. Must not be {@code null}.
+     */
+    @Inject
+    EntityManagerFactorySelector( EntityManagerFactoryProvider emfProvider, ReadReplicaRouter replicaRouter,
+                                  ShardRouter shardRouter, TenantRouter tenantRouter )
+    {
+        this.emfProvider = checkNotNull( emfProvider, "emfProvider is mandatory!" );
+        this.replicaRouter = checkNotNull( replicaRouter, "replicaRouter is mandatory!" );
+        this.shardRouter = checkNotNull( shardRouter, "shardRouter is mandatory!" );
+        this.tenantRouter = checkNotNull( tenantRouter, "tenantRouter is mandatory!" );
+    }
+
+    /**
+     * Selects the entity manager factory for a new unit of work of the current thread.
+     * Must be followed by a call to {@link #release()} at the end of the unit of work, even if this method fails.
+     *
+     * @param readOnly {@code true} if the unit of work only reads.
+     * @return the entity manager factory for the unit of work.
+     */
+    EntityManagerFactory select( boolean readOnly )
+    {
+        final EntityManagerFactory shard = shardRouter.acquireShard();
+        if ( shard != null )
+        {
+            return shard;
+        }
+        final EntityManagerFactory tenant = tenantRouter.acquireTenant();
+        if ( tenant != null )
+        {
+            return tenant;
+        }
+        final EntityManagerFactory replica = readOnly ? replicaRouter.acquireReplica() : null;
+        return replica == null ? emfProvider.acquire() : replica;
+    }
+
+    /**
+     * @return the entity manager factory selected for the unit of work of the current thread if its usage is
+     *         tracked. {@code null} if no factory has been selected or the factory is managed by the container.
+     */
+    TrackedEntityManagerFactory getAcquiredFactory()
+    {
+        final TrackedEntityManagerFactory replica = replicaRouter.getAcquiredReplica();
+        if ( replica != null )
+        {
+            return replica;
+        }
+        final TrackedEntityManagerFactory tenant = tenantRouter.getAcquiredFactory();
+        if ( tenant != null )
+        {
+            return tenant;
+        }
+        if ( emfProvider instanceof ApplicationManagedEntityManagerFactoryProvider )
+        {
+            return ( (ApplicationManagedEntityManagerFactoryProvider) emfProvider ).getAcquiredFactory();
+        }
+        return null;
+    }
+
+    /**
+     * Releases the entity manager factory selected for the unit of work of the current thread.
+     */
+    void release()
+    {
+        try
+        {
+            replicaRouter.release();
+        }
+        finally
+        {
+            try
+            {
+                emfProvider.release();
+            }
+            finally
+            {
+                try
+                {
+                    tenantRouter.release();
+                }
+                finally
+                {
+                    shardRouter.release();
+                }
+            }
+        }
+    }
+
+}
@@ -24,45 +24,140 @@ import javax.inject.Singleton;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
+import javax.persistence.TypedQuery;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
 
 import static org.apache.onami.persist.Preconditions.checkNotNull;
 
 /**
- * Implementation of {@link EntityManagerProvider} and {@link UnitOfWork}.
+ * Implementation of {@link EntityManagerProvider}, {@link UnitOfWork} and {@link ResultStreamFactory}.
  */
 @Singleton
 class EntityManagerProviderImpl
-    implements EntityManagerProvider, UnitOfWork
+    implements EntityManagerProvider, UnitOfWork, ResultStreamFactory
 {
 
     /**
-     * Provider for {@link javax.persistence.EntityManagerFactory}.
+     * Selector for the {@link EntityManagerFactory} of a unit of work.
      */
-    private final EntityManagerFactoryProvider emfProvider;
+    private final EntityManagerFactorySelector emfSelector;
 
     /**
      * Additional properties to be set on every {@link EntityManager} which is created.
      */
     private final Properties properties;
 
+    /**
+     * Configuration for reusing entity managers. {@code null} if entity managers are not reused.
+     */
+    private final EntityManagerReuse reuse;
+
+    /**
+     * Configuration for beginning transactions lazily. {@code null} if transactions are begun eagerly.
+     */
+    private final LazyTransactionBegin lazyBegin;
+
+    /**
+     * Bulkhead limiting the number of concurrent units of work.
+     */
+    private final UnitOfWorkBulkhead bulkhead;
+
+    /**
+     * Registry detecting units of work which are never ended.
+     */
+    private final UnitOfWorkLeakDetector leakDetector;
+
+    /**
+     * Notifier for the lifecycle listeners.
+     */
+    private final PersistenceLifecycleNotifier lifecycleNotifier;
+
+    /**
+     * Counter for the data accesses of the units of work.
+     */
+    private final QueryCounter queryCounter;
+
+    /**
+     * Circuit breaker rejecting units of work while the database is unreachable.
+     */
+    private final UnitOfWorkCircuitBreaker circuitBreaker;
+
+    /**
+     * Registry of the entity managers kept for reuse. Closes them when the persistence service is stopped or
+     * their entity manager factory is closed.
+     */
+    private final ParkedEntityManagers parkedEntityManagers;
+
     /**
      * Thread local store of {@link EntityManager}s.
      */
     private final ThreadLocal<EntityManager> entityManagers = new ThreadLocal<EntityManager>();
 
+    /**
+     * Thread local store of the {@link ResultStream}s created in the current unit of work.
+     */
+    private final ThreadLocal<List<ResultStream<?>>> resultStreams = new ThreadLocal<List<ResultStream<?>>>();
+
+    /**
+     * Thread local store of the registration of the current unit of work at the leak detector.
+     */
+    private final ThreadLocal<UnitOfWorkLeakDetector.ActiveUnitOfWork> leakRegistrations =
+        new ThreadLocal<UnitOfWorkLeakDetector.ActiveUnitOfWork>();
+
+    /**
+     * Thread local store of the lifecycle context of the current unit of work. Only set if a lifecycle listener was
+     * registered when the unit of work was begun.
+     */
+    private final ThreadLocal<PersistenceLifecycleContext> lifecycleContexts =
+        new ThreadLocal<PersistenceLifecycleContext>();
+
+    /**
+     * Thread local store of the {@link EntityManager}s kept for reuse in the next unit of work.
+     * Only used if entity managers are reused.
+     */
+    private final ThreadLocal<ReusableEntityManager> reusableEntityManagers =
+        new ThreadLocal<ReusableEntityManager>();
+
     /**
      * Constructor.
      *
-     * @param emfProvider the provider for {@link EntityManagerFactory}. Must not be {@code null}.
-     * @param properties  additional properties to be set on every {@link EntityManager} which is created.
+     * @param emfSelector          the selector for the {@link EntityManagerFactory} of a unit of work.
+     *                             Must not be {@code null}.
+     * @param properties           additional properties to be set on every {@link EntityManager} which is created.
+     * @param reuse                configuration for reusing entity managers. {@code null} if entity managers are
+     *                             not reused.
+     * @param lazyBegin            configuration for beginning transactions lazily. {@code null} if transactions are
+     *                             begun eagerly.
+     * @param bulkhead             bulkhead limiting the number of concurrent units of work. Must not be {@code null}.
+     * @param leakDetector         registry detecting units of work which are never ended. Must not be {@code null}.
+     * @param lifecycleNotifier    notifier for the lifecycle listeners. Must not be {@code null}.
+     * @param queryCounter         counter for the data accesses of the units of work. Must not be {@code null}.
+     * @param circuitBreaker       circuit breaker rejecting units of work while the database is unreachable.
+     *                             Must not be {@code null}.
+     * @param parkedEntityManagers registry of the entity managers kept for reuse. Must not be {@code null}.
      */
     @Inject
-    public EntityManagerProviderImpl( EntityManagerFactoryProvider emfProvider,
-                                      @Nullable @ForContainerManaged Properties properties )
+    public EntityManagerProviderImpl( EntityManagerFactorySelector emfSelector,
+                                      @Nullable @ForContainerManaged Properties properties,
+                                      @Nullable EntityManagerReuse reuse, @Nullable LazyTransactionBegin lazyBegin,
+                                      UnitOfWorkBulkhead bulkhead, UnitOfWorkLeakDetector leakDetector,
+                                      PersistenceLifecycleNotifier lifecycleNotifier, QueryCounter queryCounter,
+                                      UnitOfWorkCircuitBreaker circuitBreaker,
+                                      ParkedEntityManagers parkedEntityManagers )
     {
-        this.emfProvider = checkNotNull( emfProvider, "emfProvider is mandatory!" );
+        this.emfSelector = checkNotNull( emfSelector, "emfSelector is mandatory!" );
         this.properties = properties;
+        this.reuse = reuse;
+        this.lazyBegin = lazyBegin;
+        this.bulkhead = checkNotNull( bulkhead, "bulkhead is mandatory!" );
+        this.leakDetector = checkNotNull( leakDetector, "leakDetector is mandatory!" );
+        this.lifecycleNotifier = checkNotNull( lifecycleNotifier, "lifecycleNotifier is mandatory!" );
+        this.queryCounter = checkNotNull( queryCounter, "queryCounter is mandatory!" );
+        this.circuitBreaker = checkNotNull( circuitBreaker, "circuitBreaker is mandatory!" );
+        this.parkedEntityManagers = checkNotNull( parkedEntityManagers, "parkedEntityManagers is mandatory!" );
     }
 
     /**
@@ -75,6 +170,7 @@ class EntityManagerProviderImpl
         final EntityManager entityManager = entityManagers.get();
         if ( entityManager != null )
         {
+            leakDetector.touch( leakRegistrations.get() );
             return entityManager;
         }
         else
@@ -83,11 +179,71 @@ class EntityManagerProviderImpl
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public <T> ResultStream<T> stream( TypedQuery<T> query, int fetchSize )
+        throws IllegalStateException
+    {
+        final EntityManager em = get();
+        ResultStream<T> stream = ScrollingResultStream.open( query, em, fetchSize );
+        if ( stream == null )
+        {
+            stream = new PagedResultStream<T>( query, em, fetchSize );
+        }
+        List<ResultStream<?>> streams = resultStreams.get();
+        if ( streams == null )
+        {
+            streams = new ArrayList<ResultStream<?>>();
+            resultStreams.set( streams );
+        }
+        removeClosedStreams( streams );
+        streams.add( stream );
+        return stream;
+    }
+
+    /**
+     * Removes all closed streams from the given list.
+     *
+     * @param streams the list of streams.
+     */
+    private void removeClosedStreams( List<ResultStream<?>> streams )
+    {
+        final Iterator<ResultStream<?>> it = streams.iterator();
+        while ( it.hasNext() )
+        {
+            if ( it.next().isClosed() )
+            {
+                it.remove();
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     // @Override
     public void begin()
+    {
+        begin( false );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void beginReadOnly()
+    {
+        begin( true );
+    }
+
+    /**
+     * Begins the unit of work.
+     *
+     * @param readOnly {@code true} if the unit of work only reads and may therefore use a read replica.
+     */
+    private void begin( boolean readOnly )
     {
         if ( isActive() )
         {
@@ -95,17 +251,68 @@ class EntityManagerProviderImpl
         }
         else
         {
-            final EntityManager em = createEntityManager();
-            entityManagers.set( em );
+            final long setupStartNanos = lifecycleNotifier.isEnabled() ? System.nanoTime() : 0;
+            circuitBreaker.beforeBegin();
+            bulkhead.acquire();
+            try
+            {
+                final EntityManagerFactory emf = emfSelector.select( readOnly );
+                final EntityManager em =
+                    reuse == null ? createEntityManager( emf ) : obtainReusableEntityManager( emf );
+                final EntityManager counted = queryCounter.wrap( em );
+                entityManagers.set( lazyBegin == null ? counted : lazyBegin.wrap( counted ) );
+                leakRegistrations.set( leakDetector.register( em, emfSelector.getAcquiredFactory(), bulkhead ) );
+            }
+            catch ( RuntimeException e )
+            {
+                circuitBreaker.recordFailure( e );
+                queryCounter.unitOfWorkEnded();
+                releaseEntityManagerFactory();
+                throw e;
+            }
+            final PersistenceLifecycleContext lifecycleContext = lifecycleNotifier.unitOfWorkBegun( setupStartNanos );
+            if ( lifecycleContext != null )
+            {
+                lifecycleContexts.set( lifecycleContext );
+            }
+        }
+    }
+
+    /**
+     * @param emf the entity manager factory of the unit of work.
+     * @return the entity manager kept from the previous unit of work if it may be reused or a new
+     *         entity manager instance otherwise.
+     */
+    private EntityManager obtainReusableEntityManager( EntityManagerFactory emf )
+    {
+        final ReusableEntityManager reusable = reusableEntityManagers.get();
+        if ( reusable != null )
+        {
+            reusableEntityManagers.remove();
+            // unparking fails if the entity manager has been closed while it was parked
+            if ( parkedEntityManagers.unpark( reusable.em ) )
+            {
+                if ( reusable.mayBeReusedFor( emf, reuse ) )
+                {
+                    reusable.uses++;
+                    reusableEntityManagers.set( reusable );
+                    return reusable.em;
+                }
+                closeQuietly( reusable.em );
+            }
         }
+
+        final ReusableEntityManager created = new ReusableEntityManager( createEntityManager( emf ), emf );
+        reusableEntityManagers.set( created );
+        return created.em;
     }
 
     /**
+     * @param emf the entity manager factory of the unit of work.
      * @return a new entity manager instance.
      */
-    private EntityManager createEntityManager()
+    private EntityManager createEntityManager( EntityManagerFactory emf )
     {
-        final EntityManagerFactory emf = emfProvider.get();
         if ( null == properties )
         {
             return emf.createEntityManager();
@@ -134,10 +341,134 @@ class EntityManagerProviderImpl
         final EntityManager em = entityManagers.get();
         if ( em != null )
         {
+            final UnitOfWorkLeakDetector.ActiveUnitOfWork registration = leakRegistrations.get();
+            leakRegistrations.remove();
+            leakDetector.unregister( registration );
+            try
+            {
+                closeAndRemoveResultStreams();
+            }
+            finally
+            {
+                try
+                {
+                    if ( reuse == null )
+                    {
+                        closeAndRemoveEntityManager( em );
+                    }
+                    else
+                    {
+                        keepOrCloseAndRemoveEntityManager( em );
+                    }
+                }
+                finally
+                {
+                    releaseEntityManagerFactory();
+                    notifyUnitOfWorkEnded();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops counting the queries and notifies the lifecycle listeners about the end of the unit of work. If queries
+     * are counted the {@link QueryCounts} of the unit of work are attached to the lifecycle context.
+     */
+    private void notifyUnitOfWorkEnded()
+    {
+        final PersistenceLifecycleContext lifecycleContext = lifecycleContexts.get();
+        if ( lifecycleContext == null )
+        {
+            queryCounter.unitOfWorkEnded();
+            return;
+        }
+        lifecycleContexts.remove();
+        if ( queryCounter.isEnabled() )
+        {
+            lifecycleContext.setAttachment( QueryCounts.class, queryCounter.getUnitOfWorkCounts() );
+        }
+        queryCounter.unitOfWorkEnded();
+        lifecycleNotifier.unitOfWorkEnded( lifecycleContext );
+    }
+
+    /**
+     * Releases the entity manager factory and the bulkhead permit of the unit of work.
+     */
+    private void releaseEntityManagerFactory()
+    {
+        try
+        {
+            emfSelector.release();
+        }
+        finally
+        {
+            bulkhead.release();
+        }
+    }
+
+    /**
+     * Clears the entity manager and parks it for the next unit of work. If the entity manager is in an active
+     * transaction, cannot be cleared or the persistence service has been stopped it is closed instead.
+     *
+     * @param em the entity manager to keep or close.
+     */
+    private void keepOrCloseAndRemoveEntityManager( EntityManager em )
+    {
+        final ReusableEntityManager reusable = reusableEntityManagers.get();
+        if ( clearForReuse( em ) && reusable != null && parkedEntityManagers.park( reusable.em, reusable.emf ) )
+        {
+            entityManagers.remove();
+        }
+        else
+        {
+            reusableEntityManagers.remove();
             closeAndRemoveEntityManager( em );
         }
     }
 
+    /**
+     * Clears the persistence context of an entity manager for reusing it.
+     *
+     * @param em the entity manager to clear.
+     * @return {@code true} if the entity manager may be reused.
+     */
+    private boolean clearForReuse( EntityManager em )
+    {
+        try
+        {
+            if ( em.isOpen() && !TransactionStatus.isActive( em ) )
+            {
+                em.clear();
+                return true;
+            }
+        }
+        catch ( RuntimeException e )
+        {
+            // fall back to closing the entity manager
+        }
+        return false;
+    }
+
+    /**
+     * Closes an entity manager which is no longer needed. Exceptions are ignored.
+     *
+     * @param em the entity manager to close.
+     */
+    private void closeQuietly( EntityManager em )
+    {
+        try
+        {
+            if ( em.isOpen() )
+            {
+                em.close();
+            }
+        }
+        catch ( RuntimeException e )
+        {
+            // the entity manager is discarded anyway
+        }
+    }
+
     /**
      * closes the entity manager and removes it from the internal storage.
      *
@@ -155,4 +486,63 @@ class EntityManagerProviderImpl
         }
     }
 
+    /**
+     * closes all result streams of the current unit of work and removes them from the internal storage.
+     */
+    private void closeAndRemoveResultStreams()
+    {
+        final List<ResultStream<?>> streams = resultStreams.get();
+        if ( streams != null )
+        {
+            resultStreams.remove();
+            for ( ResultStream<?> stream : streams )
+            {
+                stream.close();
+            }
+        }
+    }
+
+    /**
+     * An entity manager which can be used for multiple consecutive units of work of the same thread.
+     */
+    private static class ReusableEntityManager
+    {
+        private final EntityManager em;
+
+        /**
+         * The entity manager factory which created the entity manager.
+         */
+        private final EntityManagerFactory emf;
+
+        private final long createdNanos = System.nanoTime();
+
+        private int uses = 1;
+
+        ReusableEntityManager( EntityManager em, EntityManagerFactory emf )
+        {
+            this.em = em;
+            this.emf = emf;
+        }
+
+        /**
+         * Decides if the entity manager may be used for another unit of work.
+         *
+         * @param emf   the currently active entity manager factory.
+         * @param reuse the configuration for reusing entity managers.
+         * @return {@code true} if the entity manager may be reused.
+         */
+        boolean mayBeReusedFor( EntityManagerFactory emf, EntityManagerReuse reuse )
+        {
+            try
+            {
+                return reuse.mayReuse( uses, createdNanos ) && em.isOpen() && em.getEntityManagerFactory() == emf;
+            }
+            catch ( IllegalStateException e )
+            {
+                // the entity manager factory has been closed in the meantime
+                return false;
+            }
+        }
+    }
+
 }
@@ -0,0 +1,82 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Configuration for reusing {@link javax.persistence.EntityManager}s across consecutive units of work
+ * on the same thread.
+ */
+class EntityManagerReuse
+{
+
+    /**
+     * The maximal number of units of work an entity manager is used for.
+     */
+    private final int maxUses;
+
+    /**
+     * The maximal age of an entity manager in nanoseconds.
+     */
+    private final long maxAgeNanos;
+
+    /**
+     * Constructor.
+     *
+     * @param maxUses      the maximal number of units of work an entity manager is used for.
+     *                     Must be greater than zero.
+     * @param maxAgeMillis the maximal age of an entity manager in milliseconds. Must be greater than zero.
+     */
+    EntityManagerReuse( int maxUses, long maxAgeMillis )
+    {
+        if ( maxUses <= 0 )
+        {
+            throw new IllegalArgumentException( "maxUses must be greater than zero but was " + maxUses );
+        }
+        if ( maxAgeMillis <= 0 )
+        {
+            throw new IllegalArgumentException( "maxAgeMillis must be greater than zero but was " + maxAgeMillis );
+        }
+        this.maxUses = maxUses;
+        this.maxAgeNanos = maxAgeMillis * 1000L * 1000L;
+    }
+
+    /**
+     * Decides if an entity manager may be used for another unit of work.
+     *
+     * @param uses         the number of units of work the entity manager has been used for.
+     * @param createdNanos the {@link System#nanoTime()} when the entity manager was created.
+     * @return {@code true} if the entity manager may be reused.
+     */
+    boolean mayReuse( int uses, long createdNanos )
+    {
+        return uses < maxUses && System.nanoTime() - createdNanos < maxAgeNanos;
+    }
+
+    int getMaxUses()
+    {
+        return maxUses;
+    }
+
+    long getMaxAgeMillis()
+    {
+        return maxAgeNanos / 1000L / 1000L;
+    }
+
+}
@@ -0,0 +1,146 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import javax.persistence.EntityManager;
+import java.lang.reflect.Method;
+
+/**
+ * {@link PersistenceContextSizeEstimator} returning the number of entities managed by a Hibernate session.
+ * <p/>
+ * Hibernate is accessed by reflection. This way onami persist does not depend on Hibernate. For other
+ * persistence providers the size cannot be determined. The session is obtained through
+ * {@link EntityManager#getDelegate()}. This way the proxies wrapping the entity manager are bypassed and a
+ * lazily begun transaction is not begun by the estimation.
+ */
+class HibernateEntityCountEstimator
+    implements PersistenceContextSizeEstimator
+{
+
+    private static final String SESSION_CLASS = "org.hibernate.Session";
+
+    private static final String SESSION_STATISTICS_CLASS = "org.hibernate.stat.SessionStatistics";
+
+    /**
+     * Value returned if the size cannot be determined.
+     */
+    private static final long UNKNOWN = -1L;
+
+    /**
+     * The reflective handles of the Hibernate API. Resolved on first successful lookup.
+     */
+    private volatile HibernateApi hibernateApi;
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public long estimateSize( EntityManager em )
+    {
+        try
+        {
+            final Object session = em.getDelegate();
+            final HibernateApi api = getHibernateApi( session );
+            if ( api == null || !api.sessionClass.isInstance( session ) )
+            {
+                // entity manager of a different provider
+                return UNKNOWN;
+            }
+            final Object statistics = api.getStatistics.invoke( session );
+            return ( (Number) api.getEntityCount.invoke( statistics ) ).longValue();
+        }
+        catch ( Exception e )
+        {
+            return UNKNOWN;
+        }
+    }
+
+    /**
+     * Resolves the Hibernate API with the class loader of the session. If this fails the context class loader
+     * of the current thread is tried. A failed lookup is not cached as a later call may pass a Hibernate session.
+     *
+     * @param session the delegate of the entity manager. May be {@code null}.
+     * @return the Hibernate API or {@code null} if Hibernate is not present.
+     */
+    private HibernateApi getHibernateApi( Object session )
+    {
+        HibernateApi api = hibernateApi;
+        if ( api == null )
+        {
+            if ( session != null )
+            {
+                api = HibernateApi.load( session.getClass().getClassLoader() );
+            }
+            if ( api == null )
+            {
+                api = HibernateApi.load( Thread.currentThread().getContextClassLoader() );
+            }
+            hibernateApi = api;
+        }
+        return api;
+    }
+
+    /**
+     * Holder of the reflective handles of the Hibernate API.
+     */
+    private static class HibernateApi
+    {
+        private final Class<?> sessionClass;
+
+        private final Method getStatistics;
+
+        private final Method getEntityCount;
+
+        private HibernateApi( Class<?> sessionClass, Method getStatistics, Method getEntityCount )
+        {
+            this.sessionClass = sessionClass;
+            this.getStatistics = getStatistics;
+            this.getEntityCount = getEntityCount;
+        }
+
+        /**
+         * @param classLoader the class loader to resolve Hibernate with. May be {@code null}.
+         * @return the Hibernate API or {@code null} if Hibernate is not present.
+         */
+        static HibernateApi load( ClassLoader classLoader )
+        {
+            if ( classLoader == null )
+            {
+                return null;
+            }
+            try
+            {
+                final Class<?> sessionClass = Class.forName( SESSION_CLASS, false, classLoader );
+                final Class<?> statisticsClass = Class.forName( SESSION_STATISTICS_CLASS, false, classLoader );
+                return new HibernateApi( sessionClass, sessionClass.getMethod( "getStatistics" ),
+                                         statisticsClass.getMethod( "getEntityCount" ) );
+            }
+            catch ( ClassNotFoundException e )
+            {
+                return null;
+            }
+            catch ( NoSuchMethodException e )
+            {
+                return null;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,239 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import javax.persistence.EntityManager;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link SqlStatementCounter} returning the number of JDBC statements prepared by a Hibernate session.
+ * <p/>
+ * Hibernate is accessed by reflection. This way onami persist does not depend on Hibernate. For other
+ * persistence providers the number cannot be determined. On the first call for a session a
+ * {@code org.hibernate.SessionEventListener} is added to the session which counts the prepared statements of this
+ * session only. Statements executed before the first call are therefore not counted. The session is obtained
+ * through {@link EntityManager#getDelegate()}. This way the proxies wrapping the entity manager are bypassed and a
+ * lazily begun transaction is not begun by the counting.
+ */
+class HibernateStatementCounter
+    implements SqlStatementCounter
+{
+
+    private static final String SESSION_CLASS = "org.hibernate.Session";
+
+    private static final String SESSION_EVENT_LISTENER_CLASS = "org.hibernate.SessionEventListener";
+
+    /**
+     * The callback of the listener invoked whenever the session prepares a JDBC statement.
+     */
+    private static final String PREPARE_STATEMENT_CALLBACK = "jdbcPrepareStatementStart";
+
+    /**
+     * Value returned if the number cannot be determined.
+     */
+    private static final long UNKNOWN = -1L;
+
+    /**
+     * The statement counts by session. The sessions are weakly referenced so closed sessions are not kept alive.
+     */
+    private final Map<Object, AtomicLong> countsBySession =
+        Collections.synchronizedMap( new WeakHashMap<Object, AtomicLong>() );
+
+    /**
+     * The reflective handles of the Hibernate API. Resolved on first successful lookup.
+     */
+    private volatile HibernateApi hibernateApi;
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public long countStatements( EntityManager em )
+    {
+        try
+        {
+            final Object session = em.getDelegate();
+            final HibernateApi api = getHibernateApi( session );
+            if ( api == null || !api.sessionClass.isInstance( session ) )
+            {
+                // entity manager of a different provider
+                return UNKNOWN;
+            }
+            return getCount( session, api ).get();
+        }
+        catch ( Exception e )
+        {
+            return UNKNOWN;
+        }
+    }
+
+    /**
+     * Returns the statement count of a session. Adds the counting listener to the session if this is the first
+     * call for the session. A session is used by a single thread, so the listener is added at most once.
+     *
+     * @param session the Hibernate session.
+     * @param api     the Hibernate API.
+     * @return the statement count of the session.
+     * @throws Exception if the listener cannot be added.
+     */
+    private AtomicLong getCount( Object session, HibernateApi api )
+        throws Exception
+    {
+        AtomicLong count = countsBySession.get( session );
+        if ( count == null )
+        {
+            count = new AtomicLong();
+            final Object listeners = Array.newInstance( api.listenerClass, 1 );
+            Array.set( listeners, 0, api.newCountingListener( count ) );
+            api.addEventListeners.invoke( session, listeners );
+            countsBySession.put( session, count );
+        }
+        return count;
+    }
+
+    /**
+     * Resolves the Hibernate API with the class loader of the session. If this fails the context class loader
+     * of the current thread is tried. A failed lookup is not cached as a later call may pass a Hibernate session.
+     *
+     * @param session the delegate of the entity manager. May be {@code null}.
+     * @return the Hibernate API or {@code null} if Hibernate is not present.
+     */
+    private HibernateApi getHibernateApi( Object session )
+    {
+        HibernateApi api = hibernateApi;
+        if ( api == null )
+        {
+            if ( session != null )
+            {
+                api = HibernateApi.load( session.getClass().getClassLoader() );
+            }
+            if ( api == null )
+            {
+                api = HibernateApi.load( Thread.currentThread().getContextClassLoader() );
+            }
+            hibernateApi = api;
+        }
+        return api;
+    }
+
+    /**
+     * Holder of the reflective handles of the Hibernate API.
+     */
+    private static class HibernateApi
+    {
+        private final Class<?> sessionClass;
+
+        private final Class<?> listenerClass;
+
+        private final Method addEventListeners;
+
+        private HibernateApi( Class<?> sessionClass, Class<?> listenerClass, Method addEventListeners )
+        {
+            this.sessionClass = sessionClass;
+            this.listenerClass = listenerClass;
+            this.addEventListeners = addEventListeners;
+        }
+
+        /**
+         * @param count the counter to increment whenever a statement is prepared.
+         * @return a {@code org.hibernate.SessionEventListener} counting the prepared statements.
+         */
+        Object newCountingListener( final AtomicLong count )
+        {
+            return Proxy.newProxyInstance( listenerClass.getClassLoader(), new Class<?>[]{ listenerClass },
+                                           new InvocationHandler()
+                                           {
+                                               // @Override
+                                               public Object invoke( Object proxy, Method method, Object[] args )
+                                               {
+                                                   return handle( proxy, method, args, count );
+                                               }
+                                           } );
+        }
+
+        /**
+         * Handles an invocation of the counting listener. All callbacks of the listener return {@code void}.
+         *
+         * @param proxy  the listener.
+         * @param method the invoked method.
+         * @param args   the arguments.
+         * @param count  the counter of the listener.
+         * @return the result of the invocation.
+         */
+        private static Object handle( Object proxy, Method method, Object[] args, AtomicLong count )
+        {
+            final String name = method.getName();
+            if ( PREPARE_STATEMENT_CALLBACK.equals( name ) )
+            {
+                count.incrementAndGet();
+            }
+            else if ( "equals".equals( name ) )
+            {
+                return proxy == args[0];
+            }
+            else if ( "hashCode".equals( name ) )
+            {
+                return System.identityHashCode( proxy );
+            }
+            else if ( "toString".equals( name ) )
+            {
+                return "statement counting listener: " + count.get();
+            }
+            return null;
+        }
+
+        /**
+         * @param classLoader the class loader to resolve Hibernate with. May be {@code null}.
+         * @return the Hibernate API or {@code null} if Hibernate is not present or too old to support
+         *         session event listeners.
+         */
+        static HibernateApi load( ClassLoader classLoader )
+        {
+            if ( classLoader == null )
+            {
+                return null;
+            }
+            try
+            {
+                final Class<?> sessionClass = Class.forName( SESSION_CLASS, false, classLoader );
+                final Class<?> listenerClass = Class.forName( SESSION_EVENT_LISTENER_CLASS, false, classLoader );
+                final Class<?> listenerArrayClass = Array.newInstance( listenerClass, 0 ).getClass();
+                return new HibernateApi( sessionClass, listenerClass,
+                                         sessionClass.getMethod( "addEventListeners", listenerArrayClass ) );
+            }
+            catch ( ClassNotFoundException e )
+            {
+                return null;
+            }
+            catch ( NoSuchMethodException e )
+            {
+                return null;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+
+/**
+ * Adapter for accessing the JDBC connection of an entity manager.
+ * <p/>
+ * The connection is first unwrapped from the entity manager as supported by EclipseLink and OpenJPA. Hibernate is
+ * accessed by reflection as its entity manager cannot be unwrapped to a connection directly. This way onami persist
+ * does not depend on Hibernate.
+ */
+class JdbcConnectionAccessor
+{
+
+    private static final String SESSION_CLASS = "org.hibernate.Session";
+
+    /**
+     * The Hibernate session class. Resolved on first use. {@code null} as long as Hibernate has not been found.
+     */
+    private volatile HibernateApi hibernateApi;
+
+    /**
+     * Returns the JDBC connection of the given entity manager.
+     *
+     * @param em the entity manager.
+     * @return the connection used by the entity manager.
+     * @throws UnsupportedOperationException if the connection cannot be accessed.
+     */
+    Connection getConnection( EntityManager em )
+    {
+        try
+        {
+            final Connection connection = em.unwrap( Connection.class );
+            if ( connection != null )
+            {
+                return connection;
+            }
+        }
+        catch ( PersistenceException e )
+        {
+            // fall through to the provider specific access
+        }
+
+        final HibernateApi api = getHibernateApi( em );
+        if ( api != null )
+        {
+            try
+            {
+                final Object session = em.unwrap( api.sessionClass );
+                final Method connectionMethod = session.getClass().getMethod( "connection" );
+                return (Connection) connectionMethod.invoke( session );
+            }
+            catch ( Exception e )
+            {
+                throw new UnsupportedOperationException( "cannot access the JDBC connection of the hibernate session",
+                                                         e );
+            }
+        }
+        throw new UnsupportedOperationException(
+            "cannot access the JDBC connection of the entity manager " + em.getClass().getName() );
+    }
+
+    /**
+     * Resolves the Hibernate API with the class loader of the delegate of the entity manager. The entity manager
+     * itself may be a proxy defined by the class loader of the JPA API. If this fails the context class loader of
+     * the current thread is tried. A failed lookup is not cached as a later call may pass a Hibernate entity manager.
+     *
+     * @param em the entity manager.
+     * @return the Hibernate API or {@code null} if Hibernate is not present.
+     */
+    private HibernateApi getHibernateApi( EntityManager em )
+    {
+        HibernateApi api = hibernateApi;
+        if ( api == null )
+        {
+            final Object delegate = em.getDelegate();
+            if ( delegate != null )
+            {
+                api = HibernateApi.load( delegate.getClass().getClassLoader() );
+            }
+            if ( api == null )
+            {
+                api = HibernateApi.load( Thread.currentThread().getContextClassLoader() );
+            }
+            hibernateApi = api;
+        }
+        return api;
+    }
+
+    /**
+     * Holder of the reflective handles of the Hibernate API.
+     */
+    private static class HibernateApi
+    {
+        private final Class<?> sessionClass;
+
+        private HibernateApi( Class<?> sessionClass )
+        {
+            this.sessionClass = sessionClass;
+        }
+
+        /**
+         * @param classLoader the class loader to resolve Hibernate with. May be {@code null}.
+         * @return the Hibernate API or {@code null} if Hibernate is not present.
+         */
+        static HibernateApi load( ClassLoader classLoader )
+        {
+            if ( classLoader == null )
+            {
+                return null;
+            }
+            try
+            {
+                return new HibernateApi( Class.forName( SESSION_CLASS, false, classLoader ) );
+            }
+            catch ( ClassNotFoundException e )
+            {
+                return null;
+            }
+        }
+    }
+
+}
@@ -45,32 +45,44 @@ class JtaTransactionFacadeFactory
      */
     private final EntityManagerProvider emProvider;
 
+    /**
+     * Notifier for the lifecycle listeners.
+     */
+    private final PersistenceLifecycleNotifier lifecycleNotifier;
+
     /**
      * Constructor.
      *
-     * @param utFacade   the user transaction facade.
-     * @param emProvider the entity manager provider.
+     * @param utFacade          the user transaction facade.
+     * @param emProvider        the entity manager provider.
+     * @param lifecycleNotifier the notifier for the lifecycle listeners.
      */
     @Inject
-    public JtaTransactionFacadeFactory( UserTransactionFacade utFacade, EntityManagerProvider emProvider )
+    public JtaTransactionFacadeFactory( UserTransactionFacade utFacade, EntityManagerProvider emProvider,
+                                        PersistenceLifecycleNotifier lifecycleNotifier )
     {
         this.utFacade = checkNotNull( utFacade, "utFacade is mandatory!" );
         this.emProvider = checkNotNull( emProvider, "emProvider is mandatory!" );
+        this.lifecycleNotifier = checkNotNull( lifecycleNotifier, "lifecycleNotifier is mandatory!" );
     }
 
     /**
      * {@inheritDoc}
      */
     // @Override
-    public TransactionFacade createTransactionFacade()
+    public TransactionFacade createTransactionFacade( NestedTransactionMode nestedMode )
     {
         if ( utFacade.isActive() )
         {
-            return new Inner( utFacade, emProvider.get() );
+            if ( nestedMode == NestedTransactionMode.SAVEPOINT )
+            {
+                throw new UnsupportedOperationException( "savepoints are not supported for JTA transactions" );
+            }
+            return new Inner( utFacade, emProvider.get(), lifecycleNotifier );
         }
         else
         {
-            return new Outer( utFacade, emProvider.get() );
+            return new Outer( utFacade, emProvider.get(), lifecycleNotifier );
         }
     }
 
@@ -86,10 +98,13 @@ class JtaTransactionFacadeFactory
 
         private final EntityManager em;
 
-        Inner( UserTransactionFacade txn, EntityManager em )
+        private final PersistenceLifecycleNotifier lifecycleNotifier;
+
+        Inner( UserTransactionFacade txn, EntityManager em, PersistenceLifecycleNotifier lifecycleNotifier )
         {
             this.txn = checkNotNull( txn, "txn is mandatory!" );
             this.em = checkNotNull( em, "em is mandatory!" );
+            this.lifecycleNotifier = checkNotNull( lifecycleNotifier, "lifecycleNotifier is mandatory!" );
         }
 
         /**
@@ -101,6 +116,15 @@ class JtaTransactionFacadeFactory
             em.joinTransaction();
         }
 
+        /**
+         * {@inheritDoc}
+         */
+        // @Override
+        public boolean isOuter()
+        {
+            return false;
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -110,6 +134,15 @@ class JtaTransactionFacadeFactory
             // Do nothing
         }
 
+        /**
+         * {@inheritDoc}
+         */
+        // @Override
+        public void flush()
+        {
+            em.flush();
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -117,6 +150,7 @@ class JtaTransactionFacadeFactory
         public void rollback()
         {
             txn.setRollbackOnly();
+            lifecycleNotifier.transactionMarkedRollbackOnly();
         }
     }
 
@@ -132,10 +166,15 @@ class JtaTransactionFacadeFactory
 
         private final EntityManager em;
 
-        Outer( UserTransactionFacade txn, EntityManager em )
+        private final PersistenceLifecycleNotifier lifecycleNotifier;
+
+        private PersistenceLifecycleContext lifecycleContext;
+
+        Outer( UserTransactionFacade txn, EntityManager em, PersistenceLifecycleNotifier lifecycleNotifier )
         {
             this.txn = checkNotNull( txn, "txn is mandatory!" );
             this.em = checkNotNull( em, "em is mandatory!" );
+            this.lifecycleNotifier = checkNotNull( lifecycleNotifier, "lifecycleNotifier is mandatory!" );
         }
 
         /**
@@ -145,9 +184,19 @@ class JtaTransactionFacadeFactory
         public void begin()
         {
             txn.begin();
+            lifecycleContext = lifecycleNotifier.transactionBegun();
             em.joinTransaction();
         }
 
+        /**
+         * {@inheritDoc}
+         */
+        // @Override
+        public boolean isOuter()
+        {
+            return true;
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -156,12 +205,29 @@ class JtaTransactionFacadeFactory
         {
             if ( txn.getRollbackOnly() )
             {
-                txn.rollback();
+                rollback();
+                return;
             }
-            else
+            lifecycleNotifier.transactionCompleting( lifecycleContext );
+            try
             {
                 txn.commit();
             }
+            catch ( RuntimeException e )
+            {
+                lifecycleNotifier.transactionRolledBack( lifecycleContext );
+                throw e;
+            }
+            lifecycleNotifier.transactionCommitted( lifecycleContext );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        // @Override
+        public void flush()
+        {
+            em.flush();
         }
 
         /**
@@ -170,7 +236,15 @@ class JtaTransactionFacadeFactory
         // @Override
         public void rollback()
         {
-            txn.rollback();
+            lifecycleNotifier.transactionCompleting( lifecycleContext );
+            try
+            {
+                txn.rollback();
+            }
+            finally
+            {
+                lifecycleNotifier.transactionRolledBack( lifecycleContext );
+            }
         }
     }
 
@@ -0,0 +1,80 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Scanner for reading all entities of a table in pages ordered by an (indexed) key.
+ * <p/>
+ * Every page is read using a query of the form {@code WHERE key > :lastKeyOfPreviousPage ORDER BY key}. This
+ * makes reading a page independent of the number of pages already read. Every page is read in its own short
+ * transaction. If no unit of work is active when the scan starts, every page also gets its own unit of work.
+ * This prevents a long running scan from holding a database connection and a snapshot for the entire scan.
+ * <p/>
+ * The scanner must not be called within a running transaction. Otherwise every page would join the running
+ * transaction and nothing would be gained. Both scan methods therefore throw an {@link IllegalStateException}
+ * if a transaction is active.
+ * <p/>
+ * The {@link KeysetScanner} is thread save.
+ */
+public interface KeysetScanner
+{
+
+    /**
+     * Scans all entities of the given type. The pages are processed in the calling thread.
+     *
+     * @param entityClass  the class of the entity to scan. Must not be {@code null}.
+     * @param keyAttribute the name of the attribute to order by. The attribute must be unique and should be indexed.
+     *                     Must not be {@code null}.
+     * @param pageSize     the number of entities per page. Must be greater than zero.
+     * @param handler      the handler for processing the pages. Must not be {@code null}.
+     * @param <T>          the type of the entity to scan.
+     * @return the number of scanned entities.
+     * @throws IllegalStateException if a transaction is active.
+     * @throws RuntimeException      if the handler throws an exception.
+     */
+    <T> long scan( Class<T> entityClass, String keyAttribute, int pageSize, PageHandler<T> handler );
+
+    /**
+     * Scans all entities of the given type. The pages are processed by the given executor. While the
+     * executor processes a page the scanner already reads the next one. At most {@code maxPagesInFlight}
+     * pages are read but not yet processed at any time.
+     * <p/>
+     * The method returns after all pages have been processed. If the calling thread is interrupted while waiting
+     * the pages which have not been processed yet are cancelled.
+     *
+     * @param entityClass      the class of the entity to scan. Must not be {@code null}.
+     * @param keyAttribute     the name of the attribute to order by. The attribute must be unique and should be
+     *                         indexed. Must not be {@code null}.
+     * @param pageSize         the number of entities per page. Must be greater than zero.
+     * @param handler          the handler for processing the pages. Must be thread safe. Must not be {@code null}.
+     * @param executor         the executor for processing the pages. Must not be {@code null}.
+     * @param maxPagesInFlight the maximal number of pages which have been read but not yet processed.
+     *                         Must be greater than zero.
+     * @param <T>              the type of the entity to scan.
+     * @return the number of scanned entities.
+     * @throws IllegalStateException if a transaction is active.
+     * @throws RuntimeException      if the handler throws an exception.
+     */
+    <T> long scan( Class<T> entityClass, String keyAttribute, int pageSize, PageHandler<T> handler,
+                   ExecutorService executor, int maxPagesInFlight );
+
+}
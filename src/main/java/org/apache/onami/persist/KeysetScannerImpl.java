@@ -0,0 +1,521 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.EntityManager;
+import javax.persistence.FlushModeType;
+import javax.persistence.TypedQuery;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+/**
+ * Implementation of {@link KeysetScanner}.
+ */
+@Singleton
+class KeysetScannerImpl
+    implements KeysetScanner
+{
+
+    /**
+     * Query hints to tell the persistence provider that the read entities will not be modified.
+     * Providers silently ignore hints they do not know.
+     */
+    private static final String[] READ_ONLY_HINTS = { "org.hibernate.readOnly", "eclipselink.read-only" };
+
+    /**
+     * Unit of work.
+     */
+    private final UnitOfWork unitOfWork;
+
+    /**
+     * Provider for the entity manager.
+     */
+    private final EntityManagerProvider emProvider;
+
+    /**
+     * Factory for {@link TransactionFacade}.
+     */
+    private final TransactionFacadeFactory tfFactory;
+
+    /**
+     * Constructor.
+     *
+     * @param unitOfWork the unit of work. Must not be {@code null}.
+     * @param emProvider the provider for the entity manager. Must not be {@code null}.
+     * @param tfFactory  the factory for transaction facades. Must not be {@code null}.
+     */
+    @Inject
+    KeysetScannerImpl( UnitOfWork unitOfWork, EntityManagerProvider emProvider, TransactionFacadeFactory tfFactory )
+    {
+        this.unitOfWork = checkNotNull( unitOfWork, "unitOfWork is mandatory!" );
+        this.emProvider = checkNotNull( emProvider, "emProvider is mandatory!" );
+        this.tfFactory = checkNotNull( tfFactory, "tfFactory is mandatory!" );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public <T> long scan( Class<T> entityClass, String keyAttribute, int pageSize, PageHandler<T> handler )
+    {
+        checkNotNull( handler, "handler is mandatory!" );
+        checkNoTransactionActive();
+        final Cursor<T> cursor = new Cursor<T>( entityClass, keyAttribute, pageSize );
+
+        long count = 0;
+        List<T> page = cursor.nextPage();
+        while ( !page.isEmpty() )
+        {
+            handle( handler, page );
+            count += page.size();
+            page = cursor.nextPage();
+        }
+        return count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public <T> long scan( Class<T> entityClass, String keyAttribute, int pageSize, PageHandler<T> handler,
+                          ExecutorService executor, int maxPagesInFlight )
+    {
+        checkNotNull( handler, "handler is mandatory!" );
+        checkNotNull( executor, "executor is mandatory!" );
+        if ( maxPagesInFlight <= 0 )
+        {
+            throw new IllegalArgumentException( "maxPagesInFlight must be greater than zero but was "
+                                                    + maxPagesInFlight );
+        }
+        checkNoTransactionActive();
+        final Cursor<T> cursor = new Cursor<T>( entityClass, keyAttribute, pageSize );
+        final Semaphore pagesInFlight = new Semaphore( maxPagesInFlight );
+        final AtomicBoolean failed = new AtomicBoolean( false );
+        final List<Future<?>> results = new ArrayList<Future<?>>();
+
+        final AggregatedException.Builder exceptionBuilder = new AggregatedException.Builder();
+        long count = 0;
+        try
+        {
+            List<T> page = cursor.nextPage();
+            while ( !page.isEmpty() && !failed.get() )
+            {
+                acquire( pagesInFlight );
+                results.add( submit( executor, new PageTask<T>( handler, page, pagesInFlight, failed ),
+                                     pagesInFlight ) );
+                count += page.size();
+                page = cursor.nextPage();
+            }
+        }
+        catch ( RuntimeException e )
+        {
+            exceptionBuilder.add( e );
+        }
+
+        awaitCompletion( results, exceptionBuilder );
+        exceptionBuilder.throwRuntimeExceptionIfHasCauses(
+            "exception occurred while scanning " + entityClass.getName() );
+        return count;
+    }
+
+    /**
+     * Ensures that the scan is not called within a running transaction. Every page would join the running
+     * transaction and the scan would hold the connection and the snapshot of that transaction until it ends.
+     *
+     * @throws IllegalStateException if a transaction is active.
+     */
+    private void checkNoTransactionActive()
+    {
+        if ( unitOfWork.isActive() )
+        {
+            final EntityManager em = emProvider.get();
+            final LazyTransactionBegin.Handler lazyBegin = LazyTransactionBegin.handlerOf( em );
+            if ( TransactionStatus.isActive( em ) || ( lazyBegin != null && lazyBegin.isBeginPending() ) )
+            {
+                throw new IllegalStateException( "a scan must not be started within a running transaction" );
+            }
+        }
+    }
+
+    /**
+     * Passes a page to the handler. Checked exceptions are wrapped into a runtime exception.
+     *
+     * @param handler the handler for processing the page.
+     * @param page    the page to process.
+     * @param <T>     the type of the entities in the page.
+     */
+    private static <T> void handle( PageHandler<T> handler, List<T> page )
+    {
+        try
+        {
+            handler.handle( page );
+        }
+        catch ( RuntimeException e )
+        {
+            throw e;
+        }
+        catch ( Exception e )
+        {
+            throw new RuntimeException( "exception occurred while processing a page", e );
+        }
+    }
+
+    /**
+     * Acquires a permit from the semaphore.
+     *
+     * @param semaphore the semaphore.
+     */
+    private static void acquire( Semaphore semaphore )
+    {
+        try
+        {
+            semaphore.acquire();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException( "interrupted while waiting for a page to be processed", e );
+        }
+    }
+
+    /**
+     * Submits a task to the executor. The permit for the page is released if the executor rejects the task.
+     *
+     * @param executor      the executor.
+     * @param task          the task to submit.
+     * @param pagesInFlight the semaphore holding a permit for the page.
+     * @return the future of the submitted task.
+     */
+    private static Future<?> submit( ExecutorService executor, Runnable task, Semaphore pagesInFlight )
+    {
+        try
+        {
+            return executor.submit( task );
+        }
+        catch ( RejectedExecutionException e )
+        {
+            pagesInFlight.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits until all submitted tasks have completed. Collects all exceptions thrown by the tasks.
+     * If the waiting thread is interrupted the tasks which have not completed yet are cancelled.
+     *
+     * @param results          the futures of the submitted tasks.
+     * @param exceptionBuilder the builder for collecting the exceptions.
+     */
+    private static void awaitCompletion( List<Future<?>> results, AggregatedException.Builder exceptionBuilder )
+    {
+        for ( Future<?> result : results )
+        {
+            try
+            {
+                result.get();
+            }
+            catch ( ExecutionException e )
+            {
+                exceptionBuilder.add( e.getCause() );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                exceptionBuilder.add( e );
+                cancelAll( results );
+                return;
+            }
+        }
+    }
+
+    /**
+     * Cancels all tasks which have not completed yet.
+     *
+     * @param results the futures of the submitted tasks.
+     */
+    private static void cancelAll( List<Future<?>> results )
+    {
+        for ( Future<?> result : results )
+        {
+            result.cancel( true );
+        }
+    }
+
+    /**
+     * Task for processing a page in a worker thread.
+     *
+     * @param <T> the type of the entities in the page.
+     */
+    private static class PageTask<T>
+        implements Runnable
+    {
+        private final PageHandler<T> handler;
+
+        private final List<T> page;
+
+        private final Semaphore pagesInFlight;
+
+        private final AtomicBoolean failed;
+
+        PageTask( PageHandler<T> handler, List<T> page, Semaphore pagesInFlight, AtomicBoolean failed )
+        {
+            this.handler = handler;
+            this.page = page;
+            this.pagesInFlight = pagesInFlight;
+            this.failed = failed;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        // @Override
+        public void run()
+        {
+            try
+            {
+                handle( handler, page );
+            }
+            catch ( RuntimeException e )
+            {
+                failed.set( true );
+                throw e;
+            }
+            finally
+            {
+                pagesInFlight.release();
+            }
+        }
+    }
+
+    /**
+     * Cursor holding the position of a scan.
+     *
+     * @param <T> the type of the entity to scan.
+     */
+    private class Cursor<T>
+    {
+        private final Class<T> entityClass;
+
+        private final String keyAttribute;
+
+        private final int pageSize;
+
+        /**
+         * Member for reading the key of an entity. Resolved when reading the first page.
+         */
+        private Member keyMember;
+
+        /**
+         * The JPQL for reading the first page.
+         */
+        private String firstPageQuery;
+
+        /**
+         * The JPQL for reading all subsequent pages.
+         */
+        private String nextPageQuery;
+
+        /**
+         * The key of the last entity of the previous page. {@code null} before reading the first page.
+         */
+        private Object lastKey;
+
+        /**
+         * {@code true} if all pages have been read.
+         */
+        private boolean exhausted = false;
+
+        Cursor( Class<T> entityClass, String keyAttribute, int pageSize )
+        {
+            this.entityClass = checkNotNull( entityClass, "entityClass is mandatory!" );
+            this.keyAttribute = checkNotNull( keyAttribute, "keyAttribute is mandatory!" );
+            if ( pageSize <= 0 )
+            {
+                throw new IllegalArgumentException( "pageSize must be greater than zero but was " + pageSize );
+            }
+            this.pageSize = pageSize;
+        }
+
+        /**
+         * Reads the next page in its own transaction and, if necessary, in its own unit of work.
+         *
+         * @return the next page. An empty list if there are no more entities.
+         */
+        List<T> nextPage()
+        {
+            if ( exhausted )
+            {
+                return Collections.emptyList();
+            }
+
+            final boolean weStartedTheUnitOfWork = !unitOfWork.isActive();
+            if ( weStartedTheUnitOfWork )
+            {
+                unitOfWork.begin();
+            }
+            try
+            {
+                return readPageInTransaction();
+            }
+            finally
+            {
+                if ( weStartedTheUnitOfWork )
+                {
+                    unitOfWork.end();
+                }
+            }
+        }
+
+        private List<T> readPageInTransaction()
+        {
+            final TransactionFacade transactionFacade = tfFactory.createTransactionFacade( NestedTransactionMode.JOIN );
+            transactionFacade.begin();
+            final List<T> page;
+            try
+            {
+                page = readPage( emProvider.get() );
+            }
+            catch ( RuntimeException e )
+            {
+                rollback( transactionFacade );
+                throw e;
+            }
+            transactionFacade.commit();
+            return page;
+        }
+
+        private void rollback( TransactionFacade transactionFacade )
+        {
+            try
+            {
+                transactionFacade.rollback();
+            }
+            catch ( RuntimeException swallowedException )
+            {
+                // swallow exception from transaction facade in favor of the exception thrown while reading.
+            }
+        }
+
+        private List<T> readPage( EntityManager em )
+        {
+            if ( keyMember == null )
+            {
+                resolveEntityMetadata( em );
+            }
+
+            final TypedQuery<T> query;
+            if ( lastKey == null )
+            {
+                query = em.createQuery( firstPageQuery, entityClass );
+            }
+            else
+            {
+                query = em.createQuery( nextPageQuery, entityClass );
+                query.setParameter( "lastKey", lastKey );
+            }
+            query.setMaxResults( pageSize );
+            query.setFlushMode( FlushModeType.COMMIT );
+            for ( String hint : READ_ONLY_HINTS )
+            {
+                query.setHint( hint, true );
+            }
+
+            final List<T> page = new ArrayList<T>( query.getResultList() );
+            if ( page.size() < pageSize )
+            {
+                exhausted = true;
+            }
+            if ( !page.isEmpty() )
+            {
+                lastKey = readKey( page.get( page.size() - 1 ) );
+            }
+            for ( T entity : page )
+            {
+                em.detach( entity );
+            }
+            return page;
+        }
+
+        /**
+         * Looks up the entity name and the key attribute in the meta model.
+         * Using the meta model ensures that only valid names end up in the JPQL.
+         *
+         * @param em the entity manager.
+         */
+        private void resolveEntityMetadata( EntityManager em )
+        {
+            final String entityName = em.getMetamodel().entity( entityClass ).getName();
+            final Member member =
+                em.getMetamodel().entity( entityClass ).getAttribute( keyAttribute ).getJavaMember();
+            if ( member instanceof AccessibleObject )
+            {
+                ( (AccessibleObject) member ).setAccessible( true );
+            }
+
+            final String select = "SELECT e FROM " + entityName + " e";
+            final String orderBy = " ORDER BY e." + keyAttribute;
+            firstPageQuery = select + orderBy;
+            nextPageQuery = select + " WHERE e." + keyAttribute + " > :lastKey" + orderBy;
+            keyMember = member;
+        }
+
+        private Object readKey( T entity )
+        {
+            try
+            {
+                if ( keyMember instanceof Field )
+                {
+                    return ( (Field) keyMember ).get( entity );
+                }
+                if ( keyMember instanceof Method )
+                {
+                    return ( (Method) keyMember ).invoke( entity );
+                }
+            }
+            catch ( IllegalAccessException e )
+            {
+                throw new RuntimeException( "cannot read " + keyAttribute + " of " + entityClass.getName(), e );
+            }
+            catch ( InvocationTargetException e )
+            {
+                throw new RuntimeException( "cannot read " + keyAttribute + " of " + entityClass.getName(),
+                                            e.getCause() );
+            }
+            throw new IllegalStateException( "unsupported member " + keyMember + " for " + keyAttribute );
+        }
+    }
+
+}
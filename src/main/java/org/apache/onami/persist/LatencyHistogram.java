@@ -0,0 +1,97 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of latencies with fixed buckets.
+ */
+class LatencyHistogram
+{
+
+    /**
+     * Upper bounds (inclusive) of the buckets in milliseconds. The last bucket holds all larger values.
+     */
+    static final long[] BUCKET_UPPER_BOUNDS_MILLIS =
+        { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, Long.MAX_VALUE };
+
+    private final AtomicLongArray buckets = new AtomicLongArray( BUCKET_UPPER_BOUNDS_MILLIS.length );
+
+    private final StripedCounter count = new StripedCounter();
+
+    private final StripedCounter totalNanos = new StripedCounter();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanoseconds.
+     */
+    void record( long nanos )
+    {
+        final long millis = TimeUnit.NANOSECONDS.toMillis( nanos );
+        int bucket = 0;
+        while ( millis > BUCKET_UPPER_BOUNDS_MILLIS[bucket] )
+        {
+            bucket++;
+        }
+        buckets.incrementAndGet( bucket );
+        count.increment();
+        totalNanos.add( nanos );
+        long max = maxNanos.get();
+        while ( nanos > max && !maxNanos.compareAndSet( max, nanos ) )
+        {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * @return a snapshot of the recorded latencies.
+     */
+    LatencyHistogramSnapshot snapshot()
+    {
+        final long[] counts = new long[BUCKET_UPPER_BOUNDS_MILLIS.length];
+        for ( int i = 0; i < counts.length; i++ )
+        {
+            counts[i] = buckets.get( i );
+        }
+        return new LatencyHistogramSnapshot( BUCKET_UPPER_BOUNDS_MILLIS, counts, count.sum(), totalNanos.sum(),
+                                             maxNanos.get() );
+    }
+
+    /**
+     * Discards all recorded latencies.
+     */
+    void reset()
+    {
+        for ( int i = 0; i < BUCKET_UPPER_BOUNDS_MILLIS.length; i++ )
+        {
+            buckets.set( i, 0 );
+        }
+        count.reset();
+        totalNanos.reset();
+        maxNanos.set( 0 );
+    }
+
+}
@@ -0,0 +1,137 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot of a histogram of latencies. The buckets have fixed upper bounds in milliseconds, the last bucket holds
+ * all latencies above the second to last bound.
+ */
+public final class LatencyHistogramSnapshot
+{
+
+    private final long[] bucketUpperBoundsMillis;
+
+    private final long[] bucketCounts;
+
+    private final long count;
+
+    private final long totalNanos;
+
+    private final long maxNanos;
+
+    /**
+     * Constructor.
+     *
+     * @param bucketUpperBoundsMillis the upper bounds of the buckets in milliseconds.
+     * @param bucketCounts            the number of latencies in each bucket.
+     * @param count                   the number of recorded latencies.
+     * @param totalNanos              the sum of all recorded latencies in nanoseconds.
+     * @param maxNanos                the largest recorded latency in nanoseconds.
+     */
+    LatencyHistogramSnapshot( long[] bucketUpperBoundsMillis, long[] bucketCounts, long count, long totalNanos,
+                              long maxNanos )
+    {
+        this.bucketUpperBoundsMillis = bucketUpperBoundsMillis;
+        this.bucketCounts = bucketCounts;
+        this.count = count;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+    }
+
+    /**
+     * @return the upper bounds (inclusive) of the buckets in milliseconds. The last bound is {@link Long#MAX_VALUE}.
+     */
+    public long[] getBucketUpperBoundsMillis()
+    {
+        return bucketUpperBoundsMillis.clone();
+    }
+
+    /**
+     * @return the number of latencies in each bucket.
+     */
+    public long[] getBucketCounts()
+    {
+        return bucketCounts.clone();
+    }
+
+    /**
+     * @return the number of recorded latencies.
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    public long getTotalMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis( totalNanos );
+    }
+
+    public long getMaxMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis( maxNanos );
+    }
+
+    /**
+     * @return the mean latency in milliseconds. {@code 0} if no latency was recorded.
+     */
+    public double getMeanMillis()
+    {
+        return count == 0 ? 0 : totalNanos / 1000000.0 / count;
+    }
+
+    /**
+     * Returns an upper bound for a percentile of the recorded latencies. The bound is the upper bound of the bucket
+     * containing the percentile and for the last bucket the largest recorded latency.
+     *
+     * @param percentile the percentile between 0 and 100.
+     * @return the upper bound of the percentile in milliseconds. {@code 0} if no latency was recorded.
+     */
+    public long getPercentileMillis( double percentile )
+    {
+        if ( percentile < 0 || percentile > 100 )
+        {
+            throw new IllegalArgumentException( "percentile must be between 0 and 100 but was " + percentile );
+        }
+        long total = 0;
+        for ( long bucketCount : bucketCounts )
+        {
+            total += bucketCount;
+        }
+        if ( total == 0 )
+        {
+            return 0;
+        }
+        final double rank = total * percentile / 100;
+        long seen = 0;
+        for ( int i = 0; i < bucketCounts.length - 1; i++ )
+        {
+            seen += bucketCounts[i];
+            if ( seen >= rank && bucketCounts[i] > 0 )
+            {
+                return Math.min( bucketUpperBoundsMillis[i], getMaxMillis() );
+            }
+        }
+        return getMaxMillis();
+    }
+
+}
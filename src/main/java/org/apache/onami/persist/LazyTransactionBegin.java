@@ -0,0 +1,187 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import javax.persistence.EntityManager;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Configuration for beginning resource local transactions lazily.
+ * <p/>
+ * The entity managers handed out by the {@link EntityManagerProvider} are wrapped in a proxy. Beginning an outer
+ * transaction only marks the begin as pending. The physical transaction is begun by the first call to the proxy
+ * which may access the database. A transaction which was never begun is neither committed nor rolled back.
+ */
+class LazyTransactionBegin
+{
+
+    /**
+     * Names of the methods of {@link EntityManager} which do not access the database and therefore do not begin a
+     * pending transaction. Building a query begins the transaction as the query itself is not proxied.
+     */
+    private static final Set<String> NON_DATA_ACCESS_METHODS = new HashSet<String>(
+        Arrays.asList( "getTransaction", "isOpen", "close", "clear", "detach", "contains", "getEntityManagerFactory",
+                       "getProperties", "setProperty", "getFlushMode", "setFlushMode", "getCriteriaBuilder",
+                       "getMetamodel", "getDelegate", "isJoinedToTransaction", "joinTransaction", "equals",
+                       "hashCode", "toString" ) );
+
+    /**
+     * Wraps an entity manager in a proxy which begins a pending transaction on first data access.
+     *
+     * @param em the entity manager to wrap.
+     * @return the proxy.
+     */
+    EntityManager wrap( EntityManager em )
+    {
+        return (EntityManager) Proxy.newProxyInstance( EntityManager.class.getClassLoader(),
+                                                       new Class<?>[]{ EntityManager.class }, new Handler( em ) );
+    }
+
+    /**
+     * Returns the handler of an entity manager created by {@link #wrap(EntityManager)}.
+     *
+     * @param em the entity manager.
+     * @return the handler or {@code null} if the entity manager is not wrapped.
+     */
+    static Handler handlerOf( EntityManager em )
+    {
+        if ( Proxy.isProxyClass( em.getClass() ) )
+        {
+            final InvocationHandler handler = Proxy.getInvocationHandler( em );
+            if ( handler instanceof Handler )
+            {
+                return (Handler) handler;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Invocation handler of the proxy holding the pending begin of the transaction.
+     * The proxy is used by a single thread only.
+     */
+    static class Handler
+        implements InvocationHandler
+    {
+
+        /**
+         * The wrapped entity manager.
+         */
+        private final EntityManager delegate;
+
+        /**
+         * {@code true} if the transaction has to be begun on the next data access.
+         */
+        private boolean beginPending;
+
+        /**
+         * {@code true} if the transaction has to be marked as rollback only when it is begun.
+         */
+        private boolean rollbackOnly;
+
+        /**
+         * Constructor.
+         *
+         * @param delegate the wrapped entity manager.
+         */
+        Handler( EntityManager delegate )
+        {
+            this.delegate = delegate;
+        }
+
+        /**
+         * Defers the begin of the transaction to the next data access.
+         */
+        void deferBegin()
+        {
+            beginPending = true;
+            rollbackOnly = false;
+        }
+
+        /**
+         * @return {@code true} if the transaction has not been begun yet.
+         */
+        boolean isBeginPending()
+        {
+            return beginPending;
+        }
+
+        /**
+         * Marks the pending transaction as rollback only.
+         */
+        void setRollbackOnly()
+        {
+            rollbackOnly = true;
+        }
+
+        /**
+         * Cancels the pending begin of the transaction.
+         *
+         * @return {@code true} if the begin was pending and the transaction has therefore never been begun.
+         */
+        boolean cancelPendingBegin()
+        {
+            final boolean wasPending = beginPending;
+            beginPending = false;
+            return wasPending;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        // @Override
+        public Object invoke( Object proxy, Method method, Object[] args )
+            throws Throwable
+        {
+            if ( "equals".equals( method.getName() ) && args != null && args.length == 1 )
+            {
+                return proxy == args[0];
+            }
+            if ( "hashCode".equals( method.getName() ) && ( args == null || args.length == 0 ) )
+            {
+                return System.identityHashCode( proxy );
+            }
+            if ( beginPending && !NON_DATA_ACCESS_METHODS.contains( method.getName() ) )
+            {
+                beginPending = false;
+                delegate.getTransaction().begin();
+                if ( rollbackOnly )
+                {
+                    delegate.getTransaction().setRollbackOnly();
+                }
+            }
+            try
+            {
+                return method.invoke( delegate, args );
+            }
+            catch ( InvocationTargetException e )
+            {
+                throw e.getCause();
+            }
+        }
+    }
+
+}
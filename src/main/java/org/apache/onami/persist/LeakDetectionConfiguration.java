@@ -0,0 +1,79 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Configuration of the detection of leaked units of work of a persistence unit.
+ */
+class LeakDetectionConfiguration
+{
+
+    /**
+     * The time in milliseconds after which an idle unit of work is considered leaked.
+     */
+    private final long idleThresholdMillis;
+
+    /**
+     * {@code true} if the stack of the thread starting a unit of work is recorded.
+     */
+    private final boolean captureCreationStack;
+
+    /**
+     * {@code true} if the entity manager of a unit of work whose thread has terminated is closed.
+     */
+    private final boolean closeLeaked;
+
+    /**
+     * Constructor.
+     *
+     * @param idleThresholdMillis  the time in milliseconds after which an idle unit of work is considered leaked.
+     *                             Must be greater than zero.
+     * @param captureCreationStack {@code true} if the stack of the thread starting a unit of work is recorded.
+     * @param closeLeaked          {@code true} if the entity manager of a unit of work whose thread has
+     *                             terminated is closed.
+     */
+    LeakDetectionConfiguration( long idleThresholdMillis, boolean captureCreationStack, boolean closeLeaked )
+    {
+        if ( idleThresholdMillis <= 0 )
+        {
+            throw new IllegalArgumentException(
+                "idleThresholdMillis must be greater than zero but was " + idleThresholdMillis );
+        }
+        this.idleThresholdMillis = idleThresholdMillis;
+        this.captureCreationStack = captureCreationStack;
+        this.closeLeaked = closeLeaked;
+    }
+
+    long getIdleThresholdMillis()
+    {
+        return idleThresholdMillis;
+    }
+
+    boolean isCaptureCreationStack()
+    {
+        return captureCreationStack;
+    }
+
+    boolean isCloseLeaked()
+    {
+        return closeLeaked;
+    }
+
+}
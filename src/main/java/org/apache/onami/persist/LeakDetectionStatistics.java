@@ -0,0 +1,51 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Statistics about the leaked units of work of a persistence unit. All values are 0 if the detection of leaked
+ * units of work is not configured.
+ *
+ * @see UnconfiguredPersistenceUnitBuilder#detectLeakedUnitsOfWork(long, boolean, boolean)
+ */
+public interface LeakDetectionStatistics
+{
+
+    /**
+     * @return the number of currently active units of work.
+     */
+    int getActiveUnitsOfWork();
+
+    /**
+     * @return the age in milliseconds of the oldest active unit of work.
+     */
+    long getOldestUnitOfWorkAgeMillis();
+
+    /**
+     * @return the number of units of work which have been detected as leaked.
+     */
+    long getLeakedCount();
+
+    /**
+     * @return the number of leaked units of work whose entity manager has been closed.
+     */
+    long getForceClosedCount();
+
+}
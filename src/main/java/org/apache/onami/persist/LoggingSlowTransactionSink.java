@@ -0,0 +1,54 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link SlowTransactionSink} logging every report as a warning using SLF4J. The captured stack is logged as
+ * the stack of an exception.
+ */
+public class LoggingSlowTransactionSink
+    implements SlowTransactionSink
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger( LoggingSlowTransactionSink.class );
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void report( SlowTransactionReport report )
+    {
+        final StackTraceElement[] stackTrace = report.getStackTrace();
+        if ( stackTrace == null )
+        {
+            LOG.warn( report.toString() );
+        }
+        else
+        {
+            final Throwable stack = new Throwable( "stack at the end of the slow transaction" );
+            stack.setStackTrace( stackTrace );
+            LOG.warn( report.toString(), stack );
+        }
+    }
+
+}
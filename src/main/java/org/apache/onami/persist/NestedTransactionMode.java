@@ -0,0 +1,48 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Behavior of a {@link Transactional @Transactional} method which is called while a transaction is already active.
+ *
+ * @see Transactional#nested()
+ */
+public enum NestedTransactionMode
+{
+
+    /**
+     * Join the active transaction. A rollback marks the whole transaction as rollback only.
+     */
+    JOIN,
+
+    /**
+     * Set a JDBC savepoint before the method is invoked. A rollback only rolls back to the savepoint and clears the
+     * persistence context. The active transaction can continue if the caller handles the exception.
+     * <p/>
+     * Clearing the persistence context detaches all entities, including the ones loaded by the caller. Their changes
+     * made before the method was invoked are kept, but the caller must reload or merge them to make further changes.
+     * <p/>
+     * Only supported for resource local transactions. Persistence providers mark the transaction as rollback only if
+     * a flush or a query fails in the database. The rollback to the savepoint resets this mark for Hibernate and
+     * EclipseLink. With other providers the active transaction can only be rolled back after such a failure.
+     */
+    SAVEPOINT
+
+}
@@ -0,0 +1,41 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.List;
+
+/**
+ * Callback for processing the pages read by a {@link KeysetScanner}.
+ *
+ * @param <T> the type of the entities in a page.
+ */
+public interface PageHandler<T>
+{
+
+    /**
+     * Processes a page of entities. The entities are detached.
+     *
+     * @param page the entities of the page in the order of the key. Never empty.
+     * @throws Exception if the page could not be processed. This aborts the scan.
+     */
+    void handle( List<T> page )
+        throws Exception;
+
+}
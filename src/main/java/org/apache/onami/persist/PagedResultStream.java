@@ -0,0 +1,87 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.util.List;
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+/**
+ * Implementation of {@link ResultStream} which loads the result page by page using
+ * {@link TypedQuery#setFirstResult(int)} and {@link TypedQuery#setMaxResults(int)}. Every page is a separate
+ * query. The query must therefore define a stable order. Rows inserted or deleted concurrently may be skipped
+ * or returned twice. This is the fallback for persistence providers which do not support a forward only cursor
+ * (see {@link ScrollingResultStream}).
+ *
+ * @param <T> the type of the query result.
+ */
+class PagedResultStream<T>
+    extends ChunkedResultStream<T>
+{
+
+    /**
+     * The query to stream the result of.
+     */
+    private final TypedQuery<T> query;
+
+    /**
+     * The index of the first element of the next page in the overall result.
+     */
+    private int nextPageOffset = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param query     the query to stream the result of. Must not be {@code null}.
+     * @param em        the entity manager which created the query. Must not be {@code null}.
+     * @param fetchSize the maximal number of elements in a page. Must be greater than zero.
+     */
+    PagedResultStream( TypedQuery<T> query, EntityManager em, int fetchSize )
+    {
+        super( em, fetchSize );
+        this.query = checkNotNull( query, "query is mandatory!" );
+        applyFetchSizeHints( query, fetchSize );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    List<T> loadChunk( int maxSize )
+    {
+        query.setFirstResult( nextPageOffset );
+        query.setMaxResults( maxSize );
+        final List<T> page = query.getResultList();
+        nextPageOffset += page.size();
+        return page;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    void releaseQuery()
+    {
+        // every page is a separate query - nothing to release
+    }
+
+}
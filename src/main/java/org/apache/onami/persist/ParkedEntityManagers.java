@@ -0,0 +1,160 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import javax.inject.Singleton;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of the entity managers which are kept between two units of work for reuse (see
+ * {@link EntityManagerReuse}). A parked entity manager is not used by any thread. It is closed by the registry
+ * when the persistence service is stopped or when its entity manager factory is closed. A thread takes its
+ * entity manager back by {@link #unpark(EntityManager) unparking} it. This fails if the entity manager has been
+ * closed in the meantime.
+ */
+@Singleton
+class ParkedEntityManagers
+{
+
+    /**
+     * The parked entity managers and the entity manager factory which created them. Guarded by {@code this}.
+     */
+    private final Map<EntityManager, EntityManagerFactory> parked =
+        new IdentityHashMap<EntityManager, EntityManagerFactory>();
+
+    /**
+     * Flag indicating if entity managers may be parked. Guarded by {@code this}.
+     */
+    private boolean accepting = true;
+
+    /**
+     * Accepts entity managers again after {@link #stop()}. Called when the persistence service is started.
+     */
+    synchronized void start()
+    {
+        accepting = true;
+    }
+
+    /**
+     * Stops accepting entity managers and closes all parked ones. Called when the persistence service is stopped.
+     */
+    void stop()
+    {
+        final List<EntityManager> closing;
+        synchronized ( this )
+        {
+            accepting = false;
+            closing = new ArrayList<EntityManager>( parked.keySet() );
+            parked.clear();
+        }
+        closeQuietly( closing );
+    }
+
+    /**
+     * Parks an entity manager until the next unit of work of the same thread.
+     *
+     * @param em  the entity manager to park.
+     * @param emf the entity manager factory which created the entity manager.
+     * @return {@code true} if the entity manager was parked. {@code false} if the persistence service is not
+     *         running. The caller must close the entity manager in this case.
+     */
+    synchronized boolean park( EntityManager em, EntityManagerFactory emf )
+    {
+        if ( accepting )
+        {
+            parked.put( em, emf );
+        }
+        return accepting;
+    }
+
+    /**
+     * Takes a parked entity manager back for a new unit of work.
+     *
+     * @param em the entity manager.
+     * @return {@code true} if the entity manager may be used. {@code false} if it has been closed in the meantime.
+     */
+    synchronized boolean unpark( EntityManager em )
+    {
+        return parked.remove( em ) != null;
+    }
+
+    /**
+     * Closes the parked entity managers created by the given entity manager factory.
+     * Called before the entity manager factory is closed.
+     *
+     * @param emf the entity manager factory.
+     */
+    void closeAll( EntityManagerFactory emf )
+    {
+        final List<EntityManager> closing = new ArrayList<EntityManager>();
+        synchronized ( this )
+        {
+            for ( Map.Entry<EntityManager, EntityManagerFactory> entry : parked.entrySet() )
+            {
+                if ( entry.getValue() == emf )
+                {
+                    closing.add( entry.getKey() );
+                }
+            }
+            for ( EntityManager em : closing )
+            {
+                parked.remove( em );
+            }
+        }
+        closeQuietly( closing );
+    }
+
+    /**
+     * @return the number of parked entity managers.
+     */
+    synchronized int size()
+    {
+        return parked.size();
+    }
+
+    /**
+     * Closes entity managers. Exceptions are ignored.
+     *
+     * @param entityManagers the entity managers to close.
+     */
+    private static void closeQuietly( List<EntityManager> entityManagers )
+    {
+        for ( EntityManager em : entityManagers )
+        {
+            try
+            {
+                if ( em.isOpen() )
+                {
+                    em.close();
+                }
+            }
+            catch ( RuntimeException e )
+            {
+                // the entity manager is discarded anyway
+            }
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Exception thrown when a {@link Transactional#chained() chained} transaction could only be committed partially.
+ * Some persistence units have been committed before the commit of another unit failed. The remaining units have
+ * been rolled back.
+ */
+public class PartialCommitException
+    extends RuntimeException
+{
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Names of the persistence units which have been committed.
+     */
+    private final List<String> committedUnits;
+
+    /**
+     * Name of the persistence unit whose commit failed.
+     */
+    private final String failedUnit;
+
+    /**
+     * Names of the persistence units which have been rolled back.
+     */
+    private final List<String> rolledBackUnits;
+
+    /**
+     * Constructor.
+     *
+     * @param committedUnits  names of the persistence units which have been committed.
+     * @param failedUnit      name of the persistence unit whose commit failed.
+     * @param rolledBackUnits names of the persistence units which have been rolled back.
+     * @param cause           the exception thrown by the failed commit.
+     */
+    PartialCommitException( List<String> committedUnits, String failedUnit, List<String> rolledBackUnits,
+                            Throwable cause )
+    {
+        super( "chained transaction partially committed. committed: " + committedUnits + ", failed: " + failedUnit
+                   + ", rolled back: " + rolledBackUnits, cause );
+        this.committedUnits = Collections.unmodifiableList( new ArrayList<String>( committedUnits ) );
+        this.failedUnit = failedUnit;
+        this.rolledBackUnits = Collections.unmodifiableList( new ArrayList<String>( rolledBackUnits ) );
+    }
+
+    /**
+     * @return names of the persistence units which have been committed, in commit order.
+     */
+    public List<String> getCommittedUnits()
+    {
+        return committedUnits;
+    }
+
+    /**
+     * @return name of the persistence unit whose commit failed.
+     */
+    public String getFailedUnit()
+    {
+        return failedUnit;
+    }
+
+    /**
+     * @return names of the persistence units which have been rolled back.
+     */
+    public List<String> getRolledBackUnits()
+    {
+        return rolledBackUnits;
+    }
+}
@@ -0,0 +1,174 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.EntityManager;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+/**
+ * Guard for the size of the persistence context of a persistence unit.
+ * The guard is called by the {@link TxnInterceptor} at the transaction boundaries.
+ * If no {@link PersistenceContextSizeLimit} is configured all methods return immediately.
+ */
+@Singleton
+class PersistenceContextGuard
+    implements PersistenceContextStatistics
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger( PersistenceContextGuard.class );
+
+    /**
+     * Provider for the entity manager.
+     */
+    private final EntityManagerProvider emProvider;
+
+    /**
+     * The configured limit. {@code null} if the guard is disabled.
+     */
+    private final PersistenceContextSizeLimit limit;
+
+    private final AtomicLong largestObservedSize = new AtomicLong( 0 );
+
+    private final AtomicLong thresholdExceededCount = new AtomicLong( 0 );
+
+    private final AtomicLong clearCount = new AtomicLong( 0 );
+
+    /**
+     * Constructor.
+     *
+     * @param emProvider the provider for the entity manager. Must not be {@code null}.
+     * @param limit      the configured limit. May be {@code null}.
+     */
+    @Inject
+    PersistenceContextGuard( EntityManagerProvider emProvider, @Nullable PersistenceContextSizeLimit limit )
+    {
+        this.emProvider = checkNotNull( emProvider, "emProvider is mandatory!" );
+        this.limit = limit;
+    }
+
+    /**
+     * Called after the transactional method has returned and before the transaction is committed.
+     * If the begin of the transaction is still pending nothing has been loaded and the check is skipped.
+     *
+     * @throws PersistenceContextSizeExceededException if the action is {@link PersistenceContextSizeAction#FAIL}
+     *                                                 and the persistence context exceeds the threshold.
+     */
+    void beforeCommit()
+    {
+        if ( limit == null || limit.getAction() != PersistenceContextSizeAction.FAIL )
+        {
+            return;
+        }
+        final EntityManager em = emProvider.get();
+        final LazyTransactionBegin.Handler lazyBegin = LazyTransactionBegin.handlerOf( em );
+        if ( lazyBegin != null && lazyBegin.isBeginPending() )
+        {
+            return;
+        }
+        final long size = measure( em );
+        if ( size > limit.getThreshold() )
+        {
+            thresholdExceededCount.incrementAndGet();
+            throw new PersistenceContextSizeExceededException( size, limit.getThreshold() );
+        }
+    }
+
+    /**
+     * Called after the transaction has been committed.
+     */
+    void afterCommit()
+    {
+        if ( limit == null || limit.getAction() == PersistenceContextSizeAction.FAIL )
+        {
+            return;
+        }
+        final EntityManager em = emProvider.get();
+        if ( !em.isOpen() )
+        {
+            return;
+        }
+        final long size = measure( em );
+        if ( size > limit.getThreshold() )
+        {
+            thresholdExceededCount.incrementAndGet();
+            if ( limit.getAction() == PersistenceContextSizeAction.WARN )
+            {
+                LOG.warn( "persistence context size of {} exceeds the threshold of {}", size, limit.getThreshold() );
+            }
+            else if ( !TransactionStatus.isActive( em ) )
+            {
+                em.clear();
+                clearCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Estimates the size of the persistence context and updates the largest observed size.
+     *
+     * @param em the entity manager.
+     * @return the estimated size. Negative if unknown.
+     */
+    private long measure( EntityManager em )
+    {
+        final long size = limit.getEstimator().estimateSize( em );
+        long largest = largestObservedSize.get();
+        while ( size > largest && !largestObservedSize.compareAndSet( largest, size ) )
+        {
+            largest = largestObservedSize.get();
+        }
+        return size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public long getLargestObservedSize()
+    {
+        return largestObservedSize.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public long getThresholdExceededCount()
+    {
+        return thresholdExceededCount.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public long getClearCount()
+    {
+        return clearCount.get();
+    }
+
+}
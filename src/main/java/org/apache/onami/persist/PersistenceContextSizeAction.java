@@ -0,0 +1,48 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Action to take when the persistence context of a unit of work exceeds the configured size.
+ *
+ * @see UnconfiguredPersistenceUnitBuilder#limitPersistenceContextSize(long, PersistenceContextSizeAction)
+ */
+public enum PersistenceContextSizeAction
+{
+
+    /**
+     * Log a warning after the transaction has been committed.
+     */
+    WARN,
+
+    /**
+     * Clear the persistence context after the outermost transaction has been committed.
+     * All entities loaded so far become detached.
+     */
+    CLEAR,
+
+    /**
+     * Throw a {@link PersistenceContextSizeExceededException} before the transaction is committed.
+     * This will roll back the transaction unless the exception is ignored by the
+     * {@link Transactional @Transactional} annotation.
+     */
+    FAIL
+
+}
@@ -0,0 +1,44 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import javax.persistence.EntityManager;
+
+/**
+ * Estimates the size of the persistence context of an {@link EntityManager}.
+ * The unit of the size is defined by the implementation (i.e. number of managed entities or bytes).
+ * The threshold passed to
+ * {@link UnconfiguredPersistenceUnitBuilder#limitPersistenceContextSize(long, PersistenceContextSizeAction,
+ * PersistenceContextSizeEstimator)} must use the same unit.
+ * <p/>
+ * Implementations must be thread save.
+ */
+public interface PersistenceContextSizeEstimator
+{
+
+    /**
+     * Estimates the size of the persistence context of the given entity manager.
+     *
+     * @param em the entity manager. Never {@code null}.
+     * @return the estimated size or a negative value if the size cannot be determined.
+     */
+    long estimateSize( EntityManager em );
+
+}
@@ -0,0 +1,72 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Exception thrown when the persistence context of a unit of work has grown beyond the configured limit.
+ *
+ * @see PersistenceContextSizeAction#FAIL
+ */
+public class PersistenceContextSizeExceededException
+    extends RuntimeException
+{
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The estimated size of the persistence context.
+     */
+    private final long size;
+
+    /**
+     * The configured threshold.
+     */
+    private final long threshold;
+
+    /**
+     * Constructor.
+     *
+     * @param size      the estimated size of the persistence context.
+     * @param threshold the configured threshold.
+     */
+    PersistenceContextSizeExceededException( long size, long threshold )
+    {
+        super( "persistence context size of " + size + " exceeds the threshold of " + threshold );
+        this.size = size;
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return the estimated size of the persistence context.
+     */
+    public long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * @return the configured threshold.
+     */
+    public long getThreshold()
+    {
+        return threshold;
+    }
+
+}
@@ -0,0 +1,79 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+/**
+ * Configuration of the limit for the size of the persistence context of a persistence unit.
+ */
+class PersistenceContextSizeLimit
+{
+
+    /**
+     * The size above which the action is taken.
+     */
+    private final long threshold;
+
+    /**
+     * The action to take when the threshold is exceeded.
+     */
+    private final PersistenceContextSizeAction action;
+
+    /**
+     * The estimator for the size of a persistence context.
+     */
+    private final PersistenceContextSizeEstimator estimator;
+
+    /**
+     * Constructor.
+     *
+     * @param threshold the size above which the action is taken. Must not be negative.
+     * @param action    the action to take when the threshold is exceeded. Must not be {@code null}.
+     * @param estimator the estimator for the size of a persistence context. Must not be {@code null}.
+     */
+    PersistenceContextSizeLimit( long threshold, PersistenceContextSizeAction action,
+                                 PersistenceContextSizeEstimator estimator )
+    {
+        if ( threshold < 0 )
+        {
+            throw new IllegalArgumentException( "threshold must not be negative but was " + threshold );
+        }
+        this.threshold = threshold;
+        this.action = checkNotNull( action, "action is mandatory!" );
+        this.estimator = checkNotNull( estimator, "estimator is mandatory!" );
+    }
+
+    long getThreshold()
+    {
+        return threshold;
+    }
+
+    PersistenceContextSizeAction getAction()
+    {
+        return action;
+    }
+
+    PersistenceContextSizeEstimator getEstimator()
+    {
+        return estimator;
+    }
+
+}
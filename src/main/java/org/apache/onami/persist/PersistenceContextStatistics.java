@@ -0,0 +1,46 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Statistics about the size of the persistence contexts of a persistence unit.
+ * Values are only collected if a limit has been configured for the persistence unit.
+ *
+ * @see UnconfiguredPersistenceUnitBuilder#limitPersistenceContextSize(long, PersistenceContextSizeAction)
+ */
+public interface PersistenceContextStatistics
+{
+
+    /**
+     * @return the largest size of a persistence context observed at the end of a transaction.
+     */
+    long getLargestObservedSize();
+
+    /**
+     * @return the number of times a persistence context exceeded the configured threshold.
+     */
+    long getThresholdExceededCount();
+
+    /**
+     * @return the number of times a persistence context has been cleared because it exceeded the threshold.
+     */
+    long getClearCount();
+
+}
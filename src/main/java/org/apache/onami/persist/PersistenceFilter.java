@@ -25,6 +25,8 @@ import javax.servlet.Filter;
  * Filter for use in container.
  * The filter will start all persistence services upon container start and span a unit of work
  * around every request which is filtered.
+ * If a unit of work is rejected because the concurrency limit of its persistence unit is reached or its circuit
+ * breaker is open the filter responds with {@code 503 Service Unavailable}.
  * <p/>
  * Usage example:
  * <pre>
@@ -36,8 +38,18 @@ import javax.servlet.Filter;
  *    }
  *  }
  * </pre>
+ * If {@link PersistenceModule#publishRequestTimings()} is called the filter collects the persistence timings of
+ * every request. They are available as request attribute {@link #REQUEST_TIMINGS_ATTRIBUTE} and are added as
+ * {@code Server-Timing} header. The header is added when the application starts writing the body or commits the
+ * response and then contains the timings recorded so far. Otherwise it is added when the units of work are ended.
  */
 public interface PersistenceFilter
     extends Filter
 {
+
+    /**
+     * Name of the request attribute holding the {@link RequestTimings} of the request.
+     */
+    String REQUEST_TIMINGS_ATTRIBUTE = "org.apache.onami.persist.RequestTimings";
+
 }
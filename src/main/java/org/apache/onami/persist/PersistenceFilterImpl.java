@@ -25,8 +25,12 @@ import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
 import java.io.IOException;
+import java.io.PrintWriter;
 
 import static org.apache.onami.persist.Preconditions.checkNotNull;
 
@@ -47,17 +51,25 @@ class PersistenceFilterImpl
      */
     private final AllUnitsOfWork allUnitsOfWork;
 
+    /**
+     * Collector of the persistence timings of the requests. {@code null} if timings are not published.
+     */
+    private final RequestTimingCollector timingCollector;
+
     /**
      * Constructor.
      *
      * @param allPersistenceServices container of all known persistence services.
      * @param allUnitsOfWork container of all known units of work.
+     * @param timingCollector collector of the persistence timings of the requests. May be {@code null}.
      */
     @Inject
-    PersistenceFilterImpl( AllPersistenceServices allPersistenceServices, AllUnitsOfWork allUnitsOfWork  )
+    PersistenceFilterImpl( AllPersistenceServices allPersistenceServices, AllUnitsOfWork allUnitsOfWork,
+                           @Nullable RequestTimingCollector timingCollector )
     {
         this.allPersistenceServices = checkNotNull( allPersistenceServices, "allPersistenceServices is mandatory!" );
         this.allUnitsOfWork = checkNotNull( allUnitsOfWork, "allUnitsOfWork is mandatory!" );
+        this.timingCollector = timingCollector;
     }
 
     /**
@@ -66,18 +78,95 @@ class PersistenceFilterImpl
     // @Override
     public void doFilter( ServletRequest request, ServletResponse response, FilterChain chain )
         throws IOException, ServletException
+    {
+        final RequestTimings timings = timingCollector == null ? null : timingCollector.bind();
+        if ( timings == null )
+        {
+            doFilterInUnitsOfWork( request, response, chain );
+            return;
+        }
+        request.setAttribute( REQUEST_TIMINGS_ATTRIBUTE, timings );
+        if ( !( response instanceof HttpServletResponse ) )
+        {
+            try
+            {
+                doFilterInUnitsOfWork( request, response, chain );
+            }
+            finally
+            {
+                timingCollector.unbind();
+            }
+            return;
+        }
+        final ServerTimingResponse timedResponse =
+            new ServerTimingResponse( (HttpServletResponse) response, timings );
+        try
+        {
+            doFilterInUnitsOfWork( request, timedResponse, chain );
+        }
+        finally
+        {
+            timingCollector.unbind();
+            timedResponse.addServerTimingHeader();
+        }
+    }
+
+    /**
+     * Passes the request down the chain within the units of work of all persistence units.
+     *
+     * @param request  the request.
+     * @param response the response.
+     * @param chain    the filter chain.
+     */
+    private void doFilterInUnitsOfWork( ServletRequest request, ServletResponse response, FilterChain chain )
+        throws IOException, ServletException
     {
         try
         {
             allUnitsOfWork.beginAllInactiveUnitsOfWork();
             chain.doFilter( request, response );
         }
+        catch ( RuntimeException e )
+        {
+            if ( isRejection( e ) && response instanceof HttpServletResponse && !response.isCommitted() )
+            {
+                ( (HttpServletResponse) response ).sendError( HttpServletResponse.SC_SERVICE_UNAVAILABLE );
+            }
+            else
+            {
+                throw e;
+            }
+        }
         finally
         {
             allUnitsOfWork.endAllUnitsOfWork();
         }
     }
 
+    /**
+     * @param e the exception to check.
+     * @return {@code true} if the exception or one of the aggregated causes is a {@link BulkheadRejectedException}
+     *         or a {@link CircuitBreakerOpenException}.
+     */
+    private static boolean isRejection( Throwable e )
+    {
+        if ( e instanceof BulkheadRejectedException || e instanceof CircuitBreakerOpenException )
+        {
+            return true;
+        }
+        if ( e instanceof AggregatedException )
+        {
+            for ( Throwable cause : ( (AggregatedException) e ).getCauses() )
+            {
+                if ( cause instanceof BulkheadRejectedException || cause instanceof CircuitBreakerOpenException )
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -97,4 +186,130 @@ class PersistenceFilterImpl
         allPersistenceServices.stopAllPersistenceServices();
     }
 
+    /**
+     * Response adding the timings as {@code Server-Timing} header before the response is committed. A header can
+     * no longer be added once the body has been started. So the header is added as soon as the application starts
+     * writing the body or commits the response. It then contains the timings recorded up to this point. If the
+     * application never does so the header is added at the end of the request with the complete timings.
+     */
+    private static class ServerTimingResponse
+        extends HttpServletResponseWrapper
+    {
+
+        /**
+         * The timings of the request.
+         */
+        private final RequestTimings timings;
+
+        /**
+         * {@code true} if the header has been added.
+         */
+        private boolean headerAdded;
+
+        /**
+         * Constructor.
+         *
+         * @param response the response to wrap.
+         * @param timings  the timings of the request.
+         */
+        ServerTimingResponse( HttpServletResponse response, RequestTimings timings )
+        {
+            super( response );
+            this.timings = timings;
+        }
+
+        /**
+         * Adds the timings as {@code Server-Timing} header unless this has already been done, no persistence unit
+         * was used so far or the response has already been committed.
+         */
+        void addServerTimingHeader()
+        {
+            if ( !headerAdded && !isCommitted() )
+            {
+                final String header = timings.toServerTimingHeader();
+                if ( header.length() > 0 )
+                {
+                    addHeader( "Server-Timing", header );
+                    headerAdded = true;
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public ServletOutputStream getOutputStream()
+            throws IOException
+        {
+            addServerTimingHeader();
+            return super.getOutputStream();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public PrintWriter getWriter()
+            throws IOException
+        {
+            addServerTimingHeader();
+            return super.getWriter();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void flushBuffer()
+            throws IOException
+        {
+            addServerTimingHeader();
+            super.flushBuffer();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void sendError( int sc )
+            throws IOException
+        {
+            addServerTimingHeader();
+            super.sendError( sc );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void sendError( int sc, String msg )
+            throws IOException
+        {
+            addServerTimingHeader();
+            super.sendError( sc, msg );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void sendRedirect( String location )
+            throws IOException
+        {
+            addServerTimingHeader();
+            super.sendRedirect( location );
+        }
+
+        /**
+         * Resets the response including its headers. The header is added again later.
+         */
+        @Override
+        public void reset()
+        {
+            super.reset();
+            headerAdded = false;
+        }
+    }
+
 }
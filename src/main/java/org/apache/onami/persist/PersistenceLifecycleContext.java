@@ -0,0 +1,124 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+/**
+ * Context shared by the events of a unit of work or a transaction from begin to end. Listeners may attach
+ * arbitrary values, for example span or trace ids, when the unit of work or transaction is begun and read them
+ * again when it ends. A context is confined to the thread of the unit of work and is therefore not thread safe.
+ */
+public final class PersistenceLifecycleContext
+{
+
+    /**
+     * The value of {@link System#nanoTime()} when the unit of work or transaction was begun.
+     */
+    private final long beginNanos;
+
+    /**
+     * The nanoseconds taken to begin the unit of work. {@code 0} for transactions.
+     */
+    private long setupNanos;
+
+    /**
+     * The value of {@link System#nanoTime()} when the commit or rollback of the transaction was started.
+     * {@code 0} as long as the transaction is not completing.
+     */
+    private long completionStartNanos;
+
+    /**
+     * The attachments. Created lazily.
+     */
+    private Map<Object, Object> attachments;
+
+    /**
+     * Constructor.
+     *
+     * @param beginNanos the value of {@link System#nanoTime()} when the unit of work or transaction was begun.
+     */
+    PersistenceLifecycleContext( long beginNanos )
+    {
+        this.beginNanos = beginNanos;
+    }
+
+    /**
+     * @return the value of {@link System#nanoTime()} when the unit of work or transaction was begun.
+     */
+    public long getBeginNanos()
+    {
+        return beginNanos;
+    }
+
+    long getSetupNanos()
+    {
+        return setupNanos;
+    }
+
+    void setSetupNanos( long setupNanos )
+    {
+        this.setupNanos = setupNanos;
+    }
+
+    long getCompletionStartNanos()
+    {
+        return completionStartNanos;
+    }
+
+    void setCompletionStartNanos( long completionStartNanos )
+    {
+        this.completionStartNanos = completionStartNanos;
+    }
+
+    /**
+     * Attaches a value to this context.
+     *
+     * @param key   the key of the value. Must not be {@code null}.
+     * @param value the value. {@code null} to remove the attachment.
+     * @return the value previously attached under the key. May be {@code null}.
+     */
+    public Object setAttachment( Object key, Object value )
+    {
+        checkNotNull( key, "key is mandatory!" );
+        if ( value == null )
+        {
+            return attachments == null ? null : attachments.remove( key );
+        }
+        if ( attachments == null )
+        {
+            attachments = new HashMap<Object, Object>();
+        }
+        return attachments.put( key, value );
+    }
+
+    /**
+     * @param key the key of the value.
+     * @return the value attached under the key. {@code null} if there is none.
+     */
+    public Object getAttachment( Object key )
+    {
+        return attachments == null ? null : attachments.get( key );
+    }
+
+}
@@ -0,0 +1,135 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+
+/**
+ * Event passed to a {@link PersistenceLifecycleListener}.
+ */
+public final class PersistenceLifecycleEvent
+{
+
+    /**
+     * The annotation of the persistence unit. {@code null} for a persistence unit without annotation.
+     */
+    private final Class<? extends Annotation> unitAnnotation;
+
+    /**
+     * The transactional method being executed. {@code null} if the event was not caused by a transactional method.
+     */
+    private final Method method;
+
+    /**
+     * The value of {@link System#nanoTime()} when the event occurred.
+     */
+    private final long timestampNanos;
+
+    /**
+     * The context of the unit of work or transaction. {@code null} for events of the persistence service.
+     */
+    private final PersistenceLifecycleContext context;
+
+    /**
+     * Constructor.
+     *
+     * @param unitAnnotation the annotation of the persistence unit. May be {@code null}.
+     * @param method         the transactional method being executed. May be {@code null}.
+     * @param timestampNanos the value of {@link System#nanoTime()} when the event occurred.
+     * @param context        the context of the unit of work or transaction. May be {@code null}.
+     */
+    PersistenceLifecycleEvent( Class<? extends Annotation> unitAnnotation, Method method, long timestampNanos,
+                               PersistenceLifecycleContext context )
+    {
+        this.unitAnnotation = unitAnnotation;
+        this.method = method;
+        this.timestampNanos = timestampNanos;
+        this.context = context;
+    }
+
+    /**
+     * @return the annotation of the persistence unit. {@code null} for a persistence unit without annotation.
+     */
+    public Class<? extends Annotation> getUnitAnnotation()
+    {
+        return unitAnnotation;
+    }
+
+    /**
+     * @return the {@link Transactional @Transactional} method being executed on the current thread.
+     *         {@code null} if the event was not caused by a transactional method.
+     */
+    public Method getMethod()
+    {
+        return method;
+    }
+
+    /**
+     * @return the value of {@link System#nanoTime()} when the event occurred.
+     */
+    public long getTimestampNanos()
+    {
+        return timestampNanos;
+    }
+
+    /**
+     * @return the context shared by the events of the unit of work or transaction. {@code null} for events of the
+     *         persistence service.
+     */
+    public PersistenceLifecycleContext getContext()
+    {
+        return context;
+    }
+
+    /**
+     * @return the nanoseconds elapsed since the unit of work or transaction was begun. {@code 0} for begin events
+     *         and events of the persistence service.
+     */
+    public long getElapsedNanos()
+    {
+        return context == null ? 0 : timestampNanos - context.getBeginNanos();
+    }
+
+    /**
+     * @return the nanoseconds it took to begin the unit of work, i.e. to acquire a permit of the bulkhead and to
+     *         create the entity manager. {@code 0} for transaction events and events of the persistence service.
+     */
+    public long getSetupNanos()
+    {
+        return context == null ? 0 : context.getSetupNanos();
+    }
+
+    /**
+     * @return the nanoseconds spent committing or rolling back the transaction. {@code 0} for all events but
+     *         {@link PersistenceLifecycleListener#transactionCommitted(PersistenceLifecycleEvent) committed} and
+     *         {@link PersistenceLifecycleListener#transactionRolledBack(PersistenceLifecycleEvent) rolled back}
+     *         events of transactions which were actually begun.
+     */
+    public long getCompletionNanos()
+    {
+        if ( context == null || context.getCompletionStartNanos() == 0 )
+        {
+            return 0;
+        }
+        return timestampNanos - context.getCompletionStartNanos();
+    }
+
+}
@@ -0,0 +1,107 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Listener for the lifecycle of the persistence units. Listeners are registered with
+ * {@link PersistenceModule#addLifecycleListener(PersistenceLifecycleListener)} or at runtime through the
+ * {@link PersistenceLifecycleListenerRegistry} and are notified of the events of all persistence units.
+ * <p/>
+ * Events are delivered synchronously on the thread which caused them. Implementations must therefore be fast and
+ * thread safe. Exceptions thrown by a listener are logged and do not affect the persistence unit.
+ * <p/>
+ * The events of a unit of work or a transaction share a {@link PersistenceLifecycleContext} from begin to end.
+ * It can be used to carry span or trace ids. Transaction events are only reported for the outermost transaction.
+ * A nested transaction which is rolled back only reports {@link #transactionMarkedRollbackOnly}.
+ *
+ * @see PersistenceLifecycleListenerAdapter
+ * @see ThresholdLifecycleListener
+ */
+public interface PersistenceLifecycleListener
+{
+
+    /**
+     * Called after a unit of work has been begun. The time it took to begin the unit of work is reported by
+     * {@link PersistenceLifecycleEvent#getSetupNanos()}.
+     *
+     * @param event the event. Never {@code null}.
+     */
+    void unitOfWorkBegun( PersistenceLifecycleEvent event );
+
+    /**
+     * Called after a unit of work has been ended. If queries are counted for the persistence unit the
+     * {@link QueryCounts} of the unit of work are attached to the context under the key {@code QueryCounts.class}.
+     *
+     * @param event the event. Never {@code null}.
+     */
+    void unitOfWorkEnded( PersistenceLifecycleEvent event );
+
+    /**
+     * Called after a transaction has been begun.
+     *
+     * @param event the event. Never {@code null}.
+     */
+    void transactionBegun( PersistenceLifecycleEvent event );
+
+    /**
+     * Called after a transaction has been committed.
+     *
+     * @param event the event. Never {@code null}.
+     */
+    void transactionCommitted( PersistenceLifecycleEvent event );
+
+    /**
+     * Called after a transaction has been rolled back. This includes failed commits and commits of transactions
+     * marked as rollback only.
+     *
+     * @param event the event. Never {@code null}.
+     */
+    void transactionRolledBack( PersistenceLifecycleEvent event );
+
+    /**
+     * Called after a nested transaction has marked the enclosing transaction as rollback only.
+     *
+     * @param event the event. Never {@code null}.
+     */
+    void transactionMarkedRollbackOnly( PersistenceLifecycleEvent event );
+
+    /**
+     * Called after the status of a JTA transaction was unknown and had to be polled repeatedly.
+     * The elapsed time of the event is the time spent waiting for the status.
+     *
+     * @param event the event. Never {@code null}.
+     */
+    void transactionStatusRetried( PersistenceLifecycleEvent event );
+
+    /**
+     * Called after a persistence service has been started.
+     *
+     * @param event the event. Never {@code null}.
+     */
+    void persistenceServiceStarted( PersistenceLifecycleEvent event );
+
+    /**
+     * Called after a persistence service has been stopped.
+     *
+     * @param event the event. Never {@code null}.
+     */
+    void persistenceServiceStopped( PersistenceLifecycleEvent event );
+
+}
@@ -0,0 +1,111 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Implementation of {@link PersistenceLifecycleListener} which ignores all events. Subclasses only override the
+ * methods for the events they are interested in.
+ */
+public abstract class PersistenceLifecycleListenerAdapter
+    implements PersistenceLifecycleListener
+{
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void unitOfWorkBegun( PersistenceLifecycleEvent event )
+    {
+        // Do nothing
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void unitOfWorkEnded( PersistenceLifecycleEvent event )
+    {
+        // Do nothing
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void transactionBegun( PersistenceLifecycleEvent event )
+    {
+        // Do nothing
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void transactionCommitted( PersistenceLifecycleEvent event )
+    {
+        // Do nothing
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void transactionRolledBack( PersistenceLifecycleEvent event )
+    {
+        // Do nothing
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void transactionMarkedRollbackOnly( PersistenceLifecycleEvent event )
+    {
+        // Do nothing
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void transactionStatusRetried( PersistenceLifecycleEvent event )
+    {
+        // Do nothing
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void persistenceServiceStarted( PersistenceLifecycleEvent event )
+    {
+        // Do nothing
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void persistenceServiceStopped( PersistenceLifecycleEvent event )
+    {
+        // Do nothing
+    }
+
+}
@@ -0,0 +1,43 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Registry for adding and removing {@link PersistenceLifecycleListener}s at runtime.
+ * Listeners can also be added when configuring the {@link PersistenceModule}.
+ */
+public interface PersistenceLifecycleListenerRegistry
+{
+
+    /**
+     * Adds a listener. The listener is notified of all subsequent events.
+     *
+     * @param listener the listener to add. Must not be {@code null}.
+     */
+    void addListener( PersistenceLifecycleListener listener );
+
+    /**
+     * Removes a listener.
+     *
+     * @param listener the listener to remove.
+     */
+    void removeListener( PersistenceLifecycleListener listener );
+
+}
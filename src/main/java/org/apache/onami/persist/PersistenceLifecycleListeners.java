@@ -0,0 +1,85 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+/**
+ * The {@link PersistenceLifecycleListener}s of all persistence units. The list is copy on write as events are
+ * far more frequent than changes of the listeners.
+ */
+class PersistenceLifecycleListeners
+    implements PersistenceLifecycleListenerRegistry
+{
+
+    /**
+     * The registered listeners.
+     */
+    private final List<PersistenceLifecycleListener> listeners =
+        new CopyOnWriteArrayList<PersistenceLifecycleListener>();
+
+    /**
+     * Constructor.
+     *
+     * @param listeners the initial listeners.
+     */
+    PersistenceLifecycleListeners( List<PersistenceLifecycleListener> listeners )
+    {
+        this.listeners.addAll( listeners );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void addListener( PersistenceLifecycleListener listener )
+    {
+        listeners.add( checkNotNull( listener, "listener is mandatory!" ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void removeListener( PersistenceLifecycleListener listener )
+    {
+        listeners.remove( listener );
+    }
+
+    /**
+     * @return {@code true} if no listener is registered.
+     */
+    boolean isEmpty()
+    {
+        return listeners.isEmpty();
+    }
+
+    /**
+     * @return the registered listeners. Iterating the list is safe while listeners are added or removed.
+     */
+    List<PersistenceLifecycleListener> getListeners()
+    {
+        return listeners;
+    }
+
+}
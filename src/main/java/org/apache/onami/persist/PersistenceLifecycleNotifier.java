@@ -0,0 +1,331 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.lang.reflect.Method;
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+/**
+ * Notifies the {@link PersistenceLifecycleListener}s about the lifecycle events of a persistence unit.
+ * If no listener is registered every method returns immediately without creating any objects.
+ */
+@Singleton
+class PersistenceLifecycleNotifier
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger( PersistenceLifecycleNotifier.class );
+
+    /**
+     * The listeners of all persistence units.
+     */
+    private final PersistenceLifecycleListeners listeners;
+
+    /**
+     * Holder of the annotation of the persistence unit.
+     */
+    private final AnnotationHolder annotationHolder;
+
+    /**
+     * Thread local store of the transactional method being executed.
+     */
+    private final ThreadLocal<Method> methods = new ThreadLocal<Method>();
+
+    /**
+     * Constructor.
+     *
+     * @param listeners        the listeners of all persistence units.
+     * @param annotationHolder holder of the annotation of the persistence unit.
+     */
+    @Inject
+    PersistenceLifecycleNotifier( PersistenceLifecycleListeners listeners, AnnotationHolder annotationHolder )
+    {
+        this.listeners = checkNotNull( listeners, "listeners is mandatory!" );
+        this.annotationHolder = checkNotNull( annotationHolder, "annotationHolder is mandatory!" );
+    }
+
+    /**
+     * @return {@code true} if at least one listener is registered.
+     */
+    boolean isEnabled()
+    {
+        return !listeners.isEmpty();
+    }
+
+    /**
+     * Binds the transactional method being executed to the current thread. It is reported with all events until
+     * the previous method is restored.
+     *
+     * @param method the transactional method.
+     * @return the previously bound method. Must be passed to {@link #restoreMethod(Method)}.
+     */
+    Method bindMethod( Method method )
+    {
+        final Method previous = methods.get();
+        methods.set( method );
+        return previous;
+    }
+
+    /**
+     * Restores the method which was bound before calling {@link #bindMethod(Method)}.
+     *
+     * @param previous the value returned by {@link #bindMethod(Method)}.
+     */
+    void restoreMethod( Method previous )
+    {
+        if ( previous == null )
+        {
+            methods.remove();
+        }
+        else
+        {
+            methods.set( previous );
+        }
+    }
+
+    /**
+     * @param setupStartNanos the value of {@link System#nanoTime()} when beginning the unit of work was requested.
+     * @return the context for the begun unit of work. {@code null} if no listener is registered.
+     */
+    PersistenceLifecycleContext unitOfWorkBegun( long setupStartNanos )
+    {
+        if ( !isEnabled() )
+        {
+            return null;
+        }
+        final long now = System.nanoTime();
+        final PersistenceLifecycleContext context = new PersistenceLifecycleContext( now );
+        context.setSetupNanos( now - setupStartNanos );
+        notifyListeners( EventType.UNIT_OF_WORK_BEGUN, context );
+        return context;
+    }
+
+    /**
+     * @param context the context returned by {@link #unitOfWorkBegun(long)}. May be {@code null}.
+     */
+    void unitOfWorkEnded( PersistenceLifecycleContext context )
+    {
+        end( EventType.UNIT_OF_WORK_ENDED, context );
+    }
+
+    /**
+     * @return the context for the begun transaction. {@code null} if no listener is registered.
+     */
+    PersistenceLifecycleContext transactionBegun()
+    {
+        return begin( EventType.TRANSACTION_BEGUN );
+    }
+
+    /**
+     * Marks the begin of the commit or rollback of a transaction. No event is delivered.
+     *
+     * @param context the context returned by {@link #transactionBegun()}. May be {@code null}.
+     */
+    void transactionCompleting( PersistenceLifecycleContext context )
+    {
+        if ( context != null )
+        {
+            context.setCompletionStartNanos( System.nanoTime() );
+        }
+    }
+
+    /**
+     * @param context the context returned by {@link #transactionBegun()}. May be {@code null}.
+     */
+    void transactionCommitted( PersistenceLifecycleContext context )
+    {
+        end( EventType.TRANSACTION_COMMITTED, context );
+    }
+
+    /**
+     * @param context the context returned by {@link #transactionBegun()}. May be {@code null}.
+     */
+    void transactionRolledBack( PersistenceLifecycleContext context )
+    {
+        end( EventType.TRANSACTION_ROLLED_BACK, context );
+    }
+
+    /**
+     * @return a context for measuring the time until the status of a JTA transaction is known.
+     *         {@code null} if no listener is registered.
+     */
+    PersistenceLifecycleContext transactionStatusUnknown()
+    {
+        return isEnabled() ? new PersistenceLifecycleContext( System.nanoTime() ) : null;
+    }
+
+    /**
+     * @param context the context returned by {@link #transactionStatusUnknown()}. May be {@code null}.
+     */
+    void transactionStatusRetried( PersistenceLifecycleContext context )
+    {
+        end( EventType.TRANSACTION_STATUS_RETRIED, context );
+    }
+
+    void transactionMarkedRollbackOnly()
+    {
+        if ( isEnabled() )
+        {
+            notifyListeners( EventType.TRANSACTION_MARKED_ROLLBACK_ONLY,
+                             new PersistenceLifecycleContext( System.nanoTime() ) );
+        }
+    }
+
+    void persistenceServiceStarted()
+    {
+        if ( isEnabled() )
+        {
+            notifyListeners( EventType.PERSISTENCE_SERVICE_STARTED, null );
+        }
+    }
+
+    void persistenceServiceStopped()
+    {
+        if ( isEnabled() )
+        {
+            notifyListeners( EventType.PERSISTENCE_SERVICE_STOPPED, null );
+        }
+    }
+
+    private PersistenceLifecycleContext begin( EventType type )
+    {
+        if ( !isEnabled() )
+        {
+            return null;
+        }
+        final PersistenceLifecycleContext context = new PersistenceLifecycleContext( System.nanoTime() );
+        notifyListeners( type, context );
+        return context;
+    }
+
+    private void end( EventType type, PersistenceLifecycleContext context )
+    {
+        // a context of null means there was no listener when the unit of work or transaction was begun.
+        if ( context != null )
+        {
+            notifyListeners( type, context );
+        }
+    }
+
+    private void notifyListeners( EventType type, PersistenceLifecycleContext context )
+    {
+        final PersistenceLifecycleEvent event =
+            new PersistenceLifecycleEvent( annotationHolder.getAnnotation(), methods.get(), System.nanoTime(),
+                                           context );
+        for ( PersistenceLifecycleListener listener : listeners.getListeners() )
+        {
+            try
+            {
+                type.deliver( listener, event );
+            }
+            catch ( RuntimeException e )
+            {
+                LOG.warn( "persistence lifecycle listener failed", e );
+            }
+        }
+    }
+
+    /**
+     * The types of events and how to deliver them to a listener.
+     */
+    private enum EventType
+    {
+        UNIT_OF_WORK_BEGUN
+            {
+                @Override
+                void deliver( PersistenceLifecycleListener listener, PersistenceLifecycleEvent event )
+                {
+                    listener.unitOfWorkBegun( event );
+                }
+            },
+        UNIT_OF_WORK_ENDED
+            {
+                @Override
+                void deliver( PersistenceLifecycleListener listener, PersistenceLifecycleEvent event )
+                {
+                    listener.unitOfWorkEnded( event );
+                }
+            },
+        TRANSACTION_BEGUN
+            {
+                @Override
+                void deliver( PersistenceLifecycleListener listener, PersistenceLifecycleEvent event )
+                {
+                    listener.transactionBegun( event );
+                }
+            },
+        TRANSACTION_COMMITTED
+            {
+                @Override
+                void deliver( PersistenceLifecycleListener listener, PersistenceLifecycleEvent event )
+                {
+                    listener.transactionCommitted( event );
+                }
+            },
+        TRANSACTION_ROLLED_BACK
+            {
+                @Override
+                void deliver( PersistenceLifecycleListener listener, PersistenceLifecycleEvent event )
+                {
+                    listener.transactionRolledBack( event );
+                }
+            },
+        TRANSACTION_MARKED_ROLLBACK_ONLY
+            {
+                @Override
+                void deliver( PersistenceLifecycleListener listener, PersistenceLifecycleEvent event )
+                {
+                    listener.transactionMarkedRollbackOnly( event );
+                }
+            },
+        TRANSACTION_STATUS_RETRIED
+            {
+                @Override
+                void deliver( PersistenceLifecycleListener listener, PersistenceLifecycleEvent event )
+                {
+                    listener.transactionStatusRetried( event );
+                }
+            },
+        PERSISTENCE_SERVICE_STARTED
+            {
+                @Override
+                void deliver( PersistenceLifecycleListener listener, PersistenceLifecycleEvent event )
+                {
+                    listener.persistenceServiceStarted( event );
+                }
+            },
+        PERSISTENCE_SERVICE_STOPPED
+            {
+                @Override
+                void deliver( PersistenceLifecycleListener listener, PersistenceLifecycleEvent event )
+                {
+                    listener.persistenceServiceStopped( event );
+                }
+            };
+
+        abstract void deliver( PersistenceLifecycleListener listener, PersistenceLifecycleEvent event );
+    }
+
+}
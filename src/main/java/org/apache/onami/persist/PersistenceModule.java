@@ -23,11 +23,13 @@ import com.google.inject.AbstractModule;
 import com.google.inject.Key;
 import com.google.inject.Scopes;
 import com.google.inject.TypeLiteral;
+import com.google.inject.util.Providers;
 
 import javax.inject.Provider;
 import javax.persistence.EntityManagerFactory;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.inject.matcher.Matchers.annotatedWith;
 import static com.google.inject.matcher.Matchers.any;
@@ -45,6 +47,22 @@ public abstract class PersistenceModule
      */
     private List<PersistenceUnitModuleConfiguration> configurations;
 
+    /**
+     * List of the lifecycle listeners added while configuring the persistence units.
+     */
+    private List<PersistenceLifecycleListener> lifecycleListeners;
+
+    /**
+     * Collector of the persistence timings of the requests. {@code null} if timings are not published.
+     */
+    private RequestTimingCollector requestTimingCollector;
+
+    /**
+     * The time in nanoseconds to wait for the persistence services to stop. Negative to stop them sequentially
+     * without timeout.
+     */
+    private long stopTimeoutNanos = -1;
+
     /**
      * {@inheritDoc}
      */
@@ -58,11 +76,15 @@ public abstract class PersistenceModule
         try
         {
             configurations = new ArrayList<PersistenceUnitModuleConfiguration>();
+            lifecycleListeners = new ArrayList<PersistenceLifecycleListener>();
             configurePersistenceUnits();
         }
         finally
         {
             configurations = null;
+            lifecycleListeners = null;
+            requestTimingCollector = null;
+            stopTimeoutNanos = -1;
         }
     }
 
@@ -74,11 +96,18 @@ public abstract class PersistenceModule
         configurePersistence();
 
         bind( PersistenceFilter.class ).to( PersistenceFilterImpl.class ).in( Scopes.SINGLETON );
+        bind( RequestTimingCollector.class ).toProvider( Providers.of( requestTimingCollector ) );
 
-        final AllPersistenceUnits allPersistenceUnits = new AllPersistenceUnits();
+        final AllPersistenceUnits allPersistenceUnits = new AllPersistenceUnits( stopTimeoutNanos );
         requestInjection( allPersistenceUnits );
         bind( AllPersistenceServices.class ).toInstance( allPersistenceUnits );
         bind( AllUnitsOfWork.class ).toInstance( allPersistenceUnits );
+        bind( ChainedTransactionCoordinator.class ).in( Scopes.SINGLETON );
+        bind( TransactionPriorityHolder.class ).in( Scopes.SINGLETON );
+        bind( PriorityContext.class ).to( TransactionPriorityHolder.class );
+        final PersistenceLifecycleListeners listeners = new PersistenceLifecycleListeners( lifecycleListeners );
+        bind( PersistenceLifecycleListeners.class ).toInstance( listeners );
+        bind( PersistenceLifecycleListenerRegistry.class ).toInstance( listeners );
 
         for ( PersistenceUnitModuleConfiguration config : configurations )
         {
@@ -205,6 +234,60 @@ public abstract class PersistenceModule
         return configuration;
     }
 
+    /**
+     * Adds a listener for the lifecycle events of all persistence units. Further listeners can be added at runtime
+     * through the {@link PersistenceLifecycleListenerRegistry}.
+     *
+     * @param listener the listener to add. Must not be {@code null}.
+     */
+    protected void addLifecycleListener( PersistenceLifecycleListener listener )
+    {
+        checkNotNull( lifecycleListeners,
+                      "calling addLifecycleListener outside of configurePersistence is not supported" );
+        lifecycleListeners.add( checkNotNull( listener, "listener is mandatory!" ) );
+    }
+
+    /**
+     * Collects the persistence timings of every request passing the {@link PersistenceFilter}. For each persistence
+     * unit the time spent beginning units of work, in transactions and in commits as well as the number of
+     * statements are published as {@link RequestTimings} in a request attribute and as {@code Server-Timing}
+     * response header. The statements are only counted for persistence units configured with
+     * {@link UnconfiguredPersistenceUnitBuilder#countQueries(int, boolean)}.
+     * <p/>
+     * The timings are collected by a {@link PersistenceLifecycleListener}.
+     */
+    protected void publishRequestTimings()
+    {
+        checkNotNull( lifecycleListeners,
+                      "calling publishRequestTimings outside of configurePersistence is not supported" );
+        if ( requestTimingCollector == null )
+        {
+            requestTimingCollector = new RequestTimingCollector();
+            lifecycleListeners.add( requestTimingCollector );
+        }
+    }
+
+    /**
+     * Stops the persistence services in parallel when {@link AllPersistenceServices#stopAllPersistenceServices()} is
+     * called, e.g. when the {@link PersistenceFilter} is destroyed. Persistence services which do not stop within
+     * the given time are abandoned and reported in the thrown exception. This bounds the time needed to shut down the
+     * application even if closing an entity manager factory hangs.
+     *
+     * @param timeout the maximum time to wait for the persistence services to stop. Must not be negative.
+     * @param unit    the unit of the timeout. Must not be {@code null}.
+     */
+    protected void stopPersistenceServicesWithin( long timeout, TimeUnit unit )
+    {
+        checkNotNull( configurations,
+                      "calling stopPersistenceServicesWithin outside of configurePersistence is not supported" );
+        checkNotNull( unit, "unit is mandatory!" );
+        if ( timeout < 0 )
+        {
+            throw new IllegalArgumentException( "timeout must not be negative" );
+        }
+        stopTimeoutNanos = unit.toNanos( timeout );
+    }
+
     private PersistenceUnitModuleConfiguration createAndAddConfiguration()
     {
         final PersistenceUnitModuleConfiguration configurator = new PersistenceUnitModuleConfiguration();
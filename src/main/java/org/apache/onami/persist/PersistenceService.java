@@ -19,6 +19,8 @@ package org.apache.onami.persist;
  * under the License.
  */
 
+import java.util.Properties;
+
 /**
  * This is the main control to the entire persistence engine. Before calling any other method
  * of either {@link UnitOfWork}, {@link EntityManagerProvider}, or any method annotated with
@@ -52,4 +54,19 @@ public interface PersistenceService
      */
     void stop();
 
+    /**
+     * Replaces the entity manager factory of the running persistence service by a new one created with the given
+     * properties without restarting the injector. This allows to change connection properties or the sizing of the
+     * connection pool at runtime.
+     * <p/>
+     * The new entity manager factory is created and warmed up while the current one keeps serving. Afterwards units
+     * of work begun later use the new entity manager factory. Units of work which are already running finish on the
+     * old entity manager factory, which is closed as soon as the last of them has ended.
+     *
+     * @param properties the properties overriding the properties of the persistence unit. Must not be {@code null}.
+     * @throws IllegalStateException         if the service is not running.
+     * @throws UnsupportedOperationException if the persistence unit is container managed, sharded or multi tenant.
+     */
+    void reconfigure( Properties properties );
+
 }
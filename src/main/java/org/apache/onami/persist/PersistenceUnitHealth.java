@@ -0,0 +1,54 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Health of a persistence unit as seen by its circuit breaker. If no circuit breaker has been configured the
+ * persistence unit is always reported as healthy and the circuit as closed.
+ *
+ * @see UnconfiguredPersistenceUnitBuilder#useCircuitBreaker(String, long, int, long)
+ */
+public interface PersistenceUnitHealth
+{
+
+    /**
+     * Executes the validation query unless the result of the previous check is younger than the configured time to
+     * live. While one caller executes the validation query concurrent callers get the result of the previous check.
+     *
+     * @return {@code true} if the database of the persistence unit is reachable.
+     */
+    boolean isHealthy();
+
+    /**
+     * @return the current state of the circuit breaker.
+     */
+    CircuitState getCircuitState();
+
+    /**
+     * @return the number of failures to begin a unit of work or a transaction since the last success.
+     */
+    int getConsecutiveFailures();
+
+    /**
+     * @return the number of units of work and transactions which have been rejected by the open circuit.
+     */
+    long getRejectedCount();
+
+}
@@ -79,10 +79,45 @@ class PersistenceUnitModule
         bindPersistenceServiceAndEntityManagerFactoryProviderAndProperties();
         bindTransactionFacadeFactory();
 
+        bind( EntityManagerReuse.class ).toProvider( Providers.of( config.getEntityManagerReuse() ) );
+        bind( LazyTransactionBegin.class ).toProvider( Providers.of( config.getLazyTransactionBegin() ) );
+        bind( SlowTransactionConfiguration.class ).toProvider(
+            Providers.of( config.getSlowTransactionConfiguration() ) );
+        bind( MethodProfilingConfiguration.class ).toProvider(
+            Providers.of( config.getMethodProfilingConfiguration() ) );
+        bind( TransactionalMethodStatistics.class ).to( TransactionalMethodProfiler.class );
+        bind( QueryCountConfiguration.class ).toProvider( Providers.of( config.getQueryCountConfiguration() ) );
+        bind( QueryCountStatistics.class ).to( QueryCounter.class );
+        bind( ProviderStatisticsConfiguration.class ).toProvider(
+            Providers.of( config.getProviderStatisticsConfiguration() ) );
+        bind( ProviderStatistics.class ).to( ProviderStatisticsBridge.class );
+        bindWarmUp();
+        bind( LeakDetectionConfiguration.class ).toProvider(
+            Providers.of( config.getLeakDetectionConfiguration() ) );
+        bind( LeakDetectionStatistics.class ).to( UnitOfWorkLeakDetector.class );
+        bind( AsyncExecutorConfiguration.class ).toProvider(
+            Providers.of( config.getAsyncExecutorConfiguration() ) );
+        bind( AsyncExecutorStatistics.class ).to( AsyncTransactionExecutor.class );
+        bindBulkhead();
+        bindCircuitBreaker();
+        bind( ReadReplicaConfiguration.class ).toProvider( Providers.of( config.getReadReplicaConfiguration() ) );
+        bind( ReadYourWritesContext.class ).to( ReadReplicaRouter.class );
+        bind( ShardConfiguration.class ).toProvider( Providers.of( config.getShardConfiguration() ) );
+        bind( ShardContext.class ).to( ShardRouter.class );
+        bind( TenantConfiguration.class ).toProvider( Providers.of( config.getTenantConfiguration() ) );
+        bind( TenantContext.class ).to( TenantRouter.class );
         bind( EntityManagerProvider.class ).to( EntityManagerProviderImpl.class );
         bind( UnitOfWork.class ).to( EntityManagerProviderImpl.class );
+        bind( ResultStreamFactory.class ).to( EntityManagerProviderImpl.class );
+        bind( KeysetScanner.class ).to( KeysetScannerImpl.class );
 
-        exposePersistenceServiceAndEntityManagerProviderAndUnitOfWork();
+        bind( PersistenceContextSizeLimit.class ).toProvider(
+            Providers.of( config.getPersistenceContextSizeLimit() ) );
+        bind( PersistenceContextStatistics.class ).to( PersistenceContextGuard.class );
+        // bound explicitly to get one registry per persistence unit
+        bind( ParkedEntityManagers.class );
+
+        exposePublicInterfaces();
 
         // request injection into transaction interceptor - this adds the required dependencies to the interceptor.
         if ( transactionInterceptor != null )
@@ -99,21 +134,56 @@ class PersistenceUnitModule
      * <li>{@link PersistenceService}</li>
      * <li>{@link EntityManagerProvider}</li>
      * <li>{@link UnitOfWork}</li>
+     * <li>{@link ResultStreamFactory}</li>
+     * <li>{@link KeysetScanner}</li>
+     * <li>{@link PersistenceContextStatistics}</li>
+     * <li>{@link ReadYourWritesContext}</li>
+     * <li>{@link ShardContext}</li>
+     * <li>{@link TenantContext}</li>
+     * <li>{@link AsyncExecutorStatistics}</li>
+     * <li>{@link BulkheadStatistics}</li>
+     * <li>{@link LeakDetectionStatistics}</li>
+     * <li>{@link TransactionalMethodStatistics}</li>
+     * <li>{@link QueryCountStatistics}</li>
+     * <li>{@link ProviderStatistics}</li>
+     * <li>{@link PersistenceUnitHealth}</li>
      * </ul>
      */
-    private void exposePersistenceServiceAndEntityManagerProviderAndUnitOfWork()
+    private void exposePublicInterfaces()
+    {
+        exposePublicInterface( PersistenceService.class );
+        exposePublicInterface( EntityManagerProvider.class );
+        exposePublicInterface( UnitOfWork.class );
+        exposePublicInterface( ResultStreamFactory.class );
+        exposePublicInterface( KeysetScanner.class );
+        exposePublicInterface( PersistenceContextStatistics.class );
+        exposePublicInterface( ReadYourWritesContext.class );
+        exposePublicInterface( ShardContext.class );
+        exposePublicInterface( TenantContext.class );
+        exposePublicInterface( AsyncExecutorStatistics.class );
+        exposePublicInterface( BulkheadStatistics.class );
+        exposePublicInterface( LeakDetectionStatistics.class );
+        exposePublicInterface( TransactionalMethodStatistics.class );
+        exposePublicInterface( QueryCountStatistics.class );
+        exposePublicInterface( ProviderStatistics.class );
+        exposePublicInterface( PersistenceUnitHealth.class );
+    }
+
+    /**
+     * helper to expose a binding (optionally annotated if an annotation is defined in the configuration).
+     *
+     * @param type the type to expose.
+     * @param <T>  the type to expose.
+     */
+    private <T> void exposePublicInterface( Class<T> type )
     {
         if ( config.isAnnotated() )
         {
-            bindAndExposedAnnotated( PersistenceService.class );
-            bindAndExposedAnnotated( EntityManagerProvider.class );
-            bindAndExposedAnnotated( UnitOfWork.class );
+            bindAndExposedAnnotated( type );
         }
         else
         {
-            expose( PersistenceService.class );
-            expose( EntityManagerProvider.class );
-            expose( UnitOfWork.class );
+            expose( type );
         }
     }
 
@@ -168,6 +238,11 @@ class PersistenceUnitModule
 
     private void bindApplicationManagedPersistenceServiceAndEntityManagerFactoryProviderAndProperties()
     {
+        if ( countDefined( config.getReadReplicaConfiguration(), config.getShardConfiguration(),
+                           config.getTenantConfiguration() ) > 1 )
+        {
+            throw new RuntimeException( "Read replicas, shards and tenants cannot be combined" );
+        }
         bind( PersistenceService.class ).to( ApplicationManagedEntityManagerFactoryProvider.class );
         bind( EntityManagerFactoryProvider.class ).to( ApplicationManagedEntityManagerFactoryProvider.class );
         bind( Properties.class ).annotatedWith( ForContainerManaged.class ).toProvider(
@@ -183,6 +258,12 @@ class PersistenceUnitModule
 
     private void bindContainerManagedPersistenceServiceAndEntityManagerFactoryProviderAndProperties()
     {
+        if ( countDefined( config.getReadReplicaConfiguration(), config.getShardConfiguration(),
+                           config.getTenantConfiguration() ) > 0 )
+        {
+            throw new RuntimeException(
+                "Read replicas, shards and tenants are only supported for application managed persistence units" );
+        }
         bind( PersistenceService.class ).to( ContainerManagedEntityManagerFactoryProvider.class );
         bind( EntityManagerFactoryProvider.class ).to( ContainerManagedEntityManagerFactoryProvider.class );
         bind( Properties.class ).annotatedWith( ForContainerManaged.class ).toProvider(
@@ -194,6 +275,19 @@ class PersistenceUnitModule
         bindEntityManagerFactorySource();
     }
 
+    private static int countDefined( Object... configurations )
+    {
+        int count = 0;
+        for ( Object configuration : configurations )
+        {
+            if ( configuration != null )
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
     private void bindEntityManagerFactorySource()
     {
         if ( config.isEmfProvidedByJndiLookup() )
@@ -234,6 +328,56 @@ class PersistenceUnitModule
         }
     }
 
+    private void bindBulkhead()
+    {
+        final BulkheadConfiguration bulkhead = config.getBulkheadConfiguration();
+        final PriorityLaneConfiguration lanes = config.getPriorityLaneConfiguration();
+        if ( lanes != null )
+        {
+            if ( bulkhead == null )
+            {
+                throw new RuntimeException( "Priority lanes require a limit of the concurrent units of work" );
+            }
+            if ( lanes.getTotalReservedPermits() > bulkhead.getMaxConcurrent() )
+            {
+                throw new RuntimeException( "Priority lanes reserve more than " + bulkhead.getMaxConcurrent()
+                                                + " concurrent units of work" );
+            }
+        }
+        bind( BulkheadConfiguration.class ).toProvider( Providers.of( bulkhead ) );
+        bind( PriorityLaneConfiguration.class ).toProvider( Providers.of( lanes ) );
+        bind( BulkheadStatistics.class ).to( UnitOfWorkBulkhead.class );
+    }
+
+    private void bindCircuitBreaker()
+    {
+        final CircuitBreakerConfiguration circuitBreaker = config.getCircuitBreakerConfiguration();
+        if ( circuitBreaker != null && ( config.getShardConfiguration() != null
+            || config.getTenantConfiguration() != null ) )
+        {
+            throw new RuntimeException( "A circuit breaker is not supported for sharded or multi tenant units" );
+        }
+        // failures are recorded when beginning a resource local transaction. with JTA or a lazily begun transaction
+        // the database is first accessed later and an unreachable database would never open the circuit.
+        if ( circuitBreaker != null && ( config.isJta() || config.getLazyTransactionBegin() != null ) )
+        {
+            throw new RuntimeException(
+                "A circuit breaker is only supported for resource local transactions which are not begun lazily" );
+        }
+        bind( CircuitBreakerConfiguration.class ).toProvider( Providers.of( circuitBreaker ) );
+        bind( PersistenceUnitHealth.class ).to( UnitOfWorkCircuitBreaker.class );
+    }
+
+    private void bindWarmUp()
+    {
+        final WarmUpConfiguration warmUp = config.getWarmUpConfiguration();
+        if ( warmUp != null && config.getTenantConfiguration() != null )
+        {
+            throw new RuntimeException( "A warm-up is not supported for multi tenant units" );
+        }
+        bind( WarmUpConfiguration.class ).toProvider( Providers.of( warmUp ) );
+    }
+
     private void bindTransactionFacadeFactory()
     {
         if ( config.isJta() )
@@ -248,6 +392,10 @@ class PersistenceUnitModule
 
     private void bindJtaTransactionFacadeFactory()
     {
+        if ( config.getLazyTransactionBegin() != null )
+        {
+            throw new RuntimeException( "Lazy transaction begin is only supported for resource local transactions" );
+        }
         bind( TransactionFacadeFactory.class ).to( JtaTransactionFacadeFactory.class );
 
         // required in JtaTransactionFacadeFactory
@@ -26,6 +26,7 @@ import javax.inject.Provider;
 import javax.persistence.EntityManagerFactory;
 import javax.transaction.UserTransaction;
 import java.lang.annotation.Annotation;
+import java.util.List;
 import java.util.Properties;
 
 /**
@@ -59,6 +60,38 @@ class PersistenceUnitModuleConfiguration
 
     private Key<? extends Provider<EntityManagerFactory>> emfProviderKey;
 
+    private PersistenceContextSizeLimit persistenceContextSizeLimit;
+
+    private EntityManagerReuse entityManagerReuse;
+
+    private LazyTransactionBegin lazyTransactionBegin;
+
+    private SlowTransactionConfiguration slowTransactionConfiguration;
+
+    private MethodProfilingConfiguration methodProfilingConfiguration;
+
+    private QueryCountConfiguration queryCountConfiguration;
+
+    private ProviderStatisticsConfiguration providerStatisticsConfiguration;
+
+    private WarmUpConfiguration warmUpConfiguration;
+
+    private LeakDetectionConfiguration leakDetectionConfiguration;
+
+    private AsyncExecutorConfiguration asyncExecutorConfiguration;
+
+    private BulkheadConfiguration bulkheadConfiguration;
+
+    private CircuitBreakerConfiguration circuitBreakerConfiguration;
+
+    private PriorityLaneConfiguration priorityLaneConfiguration;
+
+    private ReadReplicaConfiguration readReplicaConfiguration;
+
+    private ShardConfiguration shardConfiguration;
+
+    private TenantConfiguration tenantConfiguration;
+
     /**
      * {@inheritDoc}
      */
@@ -144,6 +177,197 @@ class PersistenceUnitModuleConfiguration
         this.properties = properties;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public UnconfiguredPersistenceUnitBuilder limitPersistenceContextSize( long maxManagedEntities,
+                                                                           PersistenceContextSizeAction action )
+    {
+        return limitPersistenceContextSize( maxManagedEntities, action, new HibernateEntityCountEstimator() );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public UnconfiguredPersistenceUnitBuilder limitPersistenceContextSize( long threshold,
+                                                                           PersistenceContextSizeAction action,
+                                                                           PersistenceContextSizeEstimator estimator )
+    {
+        this.persistenceContextSizeLimit = new PersistenceContextSizeLimit( threshold, action, estimator );
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public UnconfiguredPersistenceUnitBuilder reuseEntityManagers( int maxUses, long maxAgeMillis )
+    {
+        this.entityManagerReuse = new EntityManagerReuse( maxUses, maxAgeMillis );
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public UnconfiguredPersistenceUnitBuilder beginTransactionsLazily()
+    {
+        this.lazyTransactionBegin = new LazyTransactionBegin();
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public UnconfiguredPersistenceUnitBuilder detectSlowTransactions( long thresholdMillis, SlowTransactionSink sink,
+                                                                      boolean captureStackTrace )
+    {
+        this.slowTransactionConfiguration =
+            new SlowTransactionConfiguration( thresholdMillis, sink, captureStackTrace );
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public UnconfiguredPersistenceUnitBuilder profileTransactionalMethods( boolean registerMBean )
+    {
+        this.methodProfilingConfiguration = new MethodProfilingConfiguration( registerMBean );
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public UnconfiguredPersistenceUnitBuilder bridgeProviderStatistics( boolean registerMBean )
+    {
+        this.providerStatisticsConfiguration = new ProviderStatisticsConfiguration( registerMBean );
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public UnconfiguredPersistenceUnitBuilder warmUp( int entityManagerCount, int parallelism,
+                                                      List<String> namedQueries, List<String> statements )
+    {
+        this.warmUpConfiguration = new WarmUpConfiguration( entityManagerCount, parallelism, namedQueries, statements );
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public UnconfiguredPersistenceUnitBuilder countQueries( int repeatedQueryThreshold, boolean failOnBudgetExceeded )
+    {
+        return countQueries( repeatedQueryThreshold, failOnBudgetExceeded, new HibernateStatementCounter() );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public UnconfiguredPersistenceUnitBuilder countQueries( int repeatedQueryThreshold, boolean failOnBudgetExceeded,
+                                                            SqlStatementCounter statementCounter )
+    {
+        this.queryCountConfiguration =
+            new QueryCountConfiguration( repeatedQueryThreshold, failOnBudgetExceeded, statementCounter );
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public UnconfiguredPersistenceUnitBuilder detectLeakedUnitsOfWork( long idleThresholdMillis,
+                                                                       boolean captureCreationStack,
+                                                                       boolean closeLeaked )
+    {
+        this.leakDetectionConfiguration =
+            new LeakDetectionConfiguration( idleThresholdMillis, captureCreationStack, closeLeaked );
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public UnconfiguredPersistenceUnitBuilder useAsyncExecutor( int threads, int queueCapacity )
+    {
+        this.asyncExecutorConfiguration = new AsyncExecutorConfiguration( threads, queueCapacity );
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public UnconfiguredPersistenceUnitBuilder limitConcurrentUnitsOfWork( int maxConcurrent, long acquireTimeoutMillis,
+                                                                          boolean fair )
+    {
+        this.bulkheadConfiguration = new BulkheadConfiguration( maxConcurrent, acquireTimeoutMillis, fair );
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public UnconfiguredPersistenceUnitBuilder useCircuitBreaker( String validationQuery, long healthTtlMillis,
+                                                                 int failureThreshold, long probeIntervalMillis )
+    {
+        this.circuitBreakerConfiguration =
+            new CircuitBreakerConfiguration( validationQuery, healthTtlMillis, failureThreshold, probeIntervalMillis );
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public UnconfiguredPersistenceUnitBuilder configurePriorityLane( TransactionPriority priority, int reservedPermits,
+                                                                     int maxSharePercent )
+    {
+        if ( priorityLaneConfiguration == null )
+        {
+            priorityLaneConfiguration = new PriorityLaneConfiguration();
+        }
+        priorityLaneConfiguration.addLane( priority, reservedPermits, maxSharePercent );
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public UnconfiguredPersistenceUnitBuilder useReadReplicas( ReplicaSelection selection,
+                                                               long readYourWritesWindowMillis,
+                                                               Properties... replicaProperties )
+    {
+        this.readReplicaConfiguration =
+            new ReadReplicaConfiguration( selection, readYourWritesWindowMillis, replicaProperties );
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public UnconfiguredPersistenceUnitBuilder useShards( Properties... shardProperties )
+    {
+        return useShards( new ConsistentHashShardResolver(), shardProperties );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public UnconfiguredPersistenceUnitBuilder useShards( ShardResolver resolver, Properties... shardProperties )
+    {
+        this.shardConfiguration = new ShardConfiguration( resolver, shardProperties );
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public UnconfiguredPersistenceUnitBuilder useTenants( TenantPropertiesResolver resolver, int maxTenants,
+                                                          long maxIdleMillis )
+    {
+        this.tenantConfiguration = new TenantConfiguration( resolver, maxTenants, maxIdleMillis );
+        return this;
+    }
+
     void setPuName( String puName )
     {
         this.puName = puName;
@@ -210,6 +434,86 @@ class PersistenceUnitModuleConfiguration
         return properties;
     }
 
+    PersistenceContextSizeLimit getPersistenceContextSizeLimit()
+    {
+        return persistenceContextSizeLimit;
+    }
+
+    EntityManagerReuse getEntityManagerReuse()
+    {
+        return entityManagerReuse;
+    }
+
+    LazyTransactionBegin getLazyTransactionBegin()
+    {
+        return lazyTransactionBegin;
+    }
+
+    SlowTransactionConfiguration getSlowTransactionConfiguration()
+    {
+        return slowTransactionConfiguration;
+    }
+
+    MethodProfilingConfiguration getMethodProfilingConfiguration()
+    {
+        return methodProfilingConfiguration;
+    }
+
+    QueryCountConfiguration getQueryCountConfiguration()
+    {
+        return queryCountConfiguration;
+    }
+
+    ProviderStatisticsConfiguration getProviderStatisticsConfiguration()
+    {
+        return providerStatisticsConfiguration;
+    }
+
+    WarmUpConfiguration getWarmUpConfiguration()
+    {
+        return warmUpConfiguration;
+    }
+
+    LeakDetectionConfiguration getLeakDetectionConfiguration()
+    {
+        return leakDetectionConfiguration;
+    }
+
+    AsyncExecutorConfiguration getAsyncExecutorConfiguration()
+    {
+        return asyncExecutorConfiguration;
+    }
+
+    BulkheadConfiguration getBulkheadConfiguration()
+    {
+        return bulkheadConfiguration;
+    }
+
+    CircuitBreakerConfiguration getCircuitBreakerConfiguration()
+    {
+        return circuitBreakerConfiguration;
+    }
+
+    PriorityLaneConfiguration getPriorityLaneConfiguration()
+    {
+        return priorityLaneConfiguration;
+    }
+
+    ReadReplicaConfiguration getReadReplicaConfiguration()
+    {
+        return readReplicaConfiguration;
+    }
+
+    ShardConfiguration getShardConfiguration()
+    {
+        return shardConfiguration;
+    }
+
+    TenantConfiguration getTenantConfiguration()
+    {
+        return tenantConfiguration;
+    }
+
     String getPuName()
     {
         return puName;
@@ -0,0 +1,212 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.metamodel.EntityType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Warm-up of a persistence unit. Runs as part of {@link PersistenceService#start()} before the persistence service
+ * reports to be running. This way the first requests do not pay for the lazy initialization of the persistence
+ * provider.
+ * <p/>
+ * The warm-up loads the classes of the metamodel, opens the configured number of entity managers at the same time,
+ * compiles the named queries and executes the warm-up statements in each of the entity managers. The latter fills
+ * the connection pool. A failing warm-up makes the start of the persistence service fail. This way a persistence
+ * unit which cannot reach its database does not report to be running. If no {@link WarmUpConfiguration} is
+ * configured nothing is warmed up.
+ */
+@Singleton
+class PersistenceUnitWarmUp
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger( PersistenceUnitWarmUp.class );
+
+    /**
+     * The configuration. {@code null} if the warm-up is disabled.
+     */
+    private final WarmUpConfiguration config;
+
+    /**
+     * Constructor.
+     *
+     * @param config the configuration. {@code null} if the warm-up is disabled.
+     */
+    @Inject
+    PersistenceUnitWarmUp( @Nullable WarmUpConfiguration config )
+    {
+        this.config = config;
+    }
+
+    /**
+     * Warms the given entity manager factory up. Returns when the warm-up has finished.
+     *
+     * @param emf the entity manager factory of the persistence unit or of one of its shards.
+     * @throws RuntimeException if the warm-up failed.
+     */
+    void warmUp( EntityManagerFactory emf )
+    {
+        if ( config == null )
+        {
+            return;
+        }
+        final long start = System.nanoTime();
+        final List<EntityManager> entityManagers = new ArrayList<EntityManager>();
+        try
+        {
+            for ( EntityType<?> entityType : emf.getMetamodel().getEntities() )
+            {
+                entityType.getJavaType();
+            }
+            for ( int i = 0; i < config.getEntityManagerCount(); i++ )
+            {
+                entityManagers.add( emf.createEntityManager() );
+            }
+            compileNamedQueries( entityManagers.get( 0 ) );
+            if ( config.getParallelism() == 1 || entityManagers.size() == 1 )
+            {
+                for ( EntityManager em : entityManagers )
+                {
+                    executeStatements( em );
+                }
+            }
+            else
+            {
+                executeStatementsInParallel( entityManagers );
+            }
+            LOG.info( "warmed up {} in {} ms", emf, ( System.nanoTime() - start ) / 1000000L );
+        }
+        finally
+        {
+            closeAll( entityManagers );
+        }
+    }
+
+    /**
+     * @param em the entity manager in which the named queries are compiled.
+     */
+    private void compileNamedQueries( EntityManager em )
+    {
+        for ( String name : config.getNamedQueries() )
+        {
+            em.createNamedQuery( name );
+        }
+    }
+
+    /**
+     * @param em the entity manager in which the warm-up statements are executed.
+     */
+    private void executeStatements( EntityManager em )
+    {
+        for ( String statement : config.getStatements() )
+        {
+            em.createNativeQuery( statement ).getResultList();
+        }
+    }
+
+    /**
+     * Executes the warm-up statements in each of the entity managers using the configured number of threads.
+     * Every entity manager is used by one thread only.
+     *
+     * @param entityManagers the entity managers.
+     * @throws RuntimeException if the statements failed in any of the entity managers or the current thread was
+     *                          interrupted.
+     */
+    private void executeStatementsInParallel( List<EntityManager> entityManagers )
+    {
+        final ExecutorService executor =
+            Executors.newFixedThreadPool( config.getParallelism(),
+                                          new DaemonThreadFactory( "onami-persist-warm-up" ) );
+        try
+        {
+            final AggregatedException.Builder exceptionBuilder = new AggregatedException.Builder();
+            final List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for ( final EntityManager em : entityManagers )
+            {
+                futures.add( executor.submit( new Callable<Object>()
+                {
+                    // @Override
+                    public Object call()
+                    {
+                        executeStatements( em );
+                        return null;
+                    }
+                } ) );
+            }
+            for ( Future<Object> future : futures )
+            {
+                try
+                {
+                    future.get();
+                }
+                catch ( ExecutionException e )
+                {
+                    exceptionBuilder.add( e.getCause() );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                    exceptionBuilder.add( e );
+                    break;
+                }
+            }
+            exceptionBuilder.throwRuntimeExceptionIfHasCauses(
+                "multiple exception occurred while executing the warm-up statements" );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Closes the entity managers. Exceptions are swallowed.
+     *
+     * @param entityManagers the entity managers to close.
+     */
+    private static void closeAll( List<EntityManager> entityManagers )
+    {
+        for ( EntityManager em : entityManagers )
+        {
+            try
+            {
+                em.close();
+            }
+            catch ( RuntimeException e )
+            {
+                LOG.debug( "failed to close the warm-up entity manager", e );
+            }
+        }
+    }
+
+}
@@ -0,0 +1,59 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Holds the {@link TransactionPriority priority} of the current thread. The priority applies to all persistence
+ * units and is used when a unit of work is started. Changing the priority does not affect a running unit of work.
+ * A {@link Transactional#priority() priority} on a transactional method takes precedence for the duration of the
+ * method.
+ * <p/>
+ * Recommended pattern:
+ * <pre>
+ * priorityContext.setPriority(TransactionPriority.BATCH);
+ * try {
+ *   // call transactional methods
+ * }
+ * finally {
+ *   priorityContext.clearPriority();
+ * }
+ * </pre>
+ */
+public interface PriorityContext
+{
+
+    /**
+     * Sets the priority of the current thread.
+     *
+     * @param priority the priority. Must not be {@code null}.
+     */
+    void setPriority( TransactionPriority priority );
+
+    /**
+     * @return the priority of the current thread or {@code null} if none is set.
+     */
+    TransactionPriority getPriority();
+
+    /**
+     * Removes the priority of the current thread.
+     */
+    void clearPriority();
+
+}
@@ -0,0 +1,108 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+/**
+ * Configuration of the priority lanes through which the units of work of a persistence unit with a limited number
+ * of concurrent units of work are admitted.
+ */
+class PriorityLaneConfiguration
+{
+
+    /**
+     * The number of permits reserved for a priority.
+     */
+    private final Map<TransactionPriority, Integer> reservedPermits =
+        new EnumMap<TransactionPriority, Integer>( TransactionPriority.class );
+
+    /**
+     * The maximal share of all permits in percent a priority may use.
+     */
+    private final Map<TransactionPriority, Integer> maxSharePercents =
+        new EnumMap<TransactionPriority, Integer>( TransactionPriority.class );
+
+    /**
+     * Configures the lane of a priority.
+     *
+     * @param priority        the priority. Must not be {@code null} or {@link TransactionPriority#DEFAULT}.
+     * @param reservedPermits the number of permits reserved for the priority. Must not be negative.
+     * @param maxSharePercent the maximal share of all permits in percent the priority may use. Must be between 1
+     *                        and 100.
+     */
+    void addLane( TransactionPriority priority, int reservedPermits, int maxSharePercent )
+    {
+        checkNotNull( priority, "priority is mandatory!" );
+        if ( priority == TransactionPriority.DEFAULT )
+        {
+            throw new IllegalArgumentException( "No lane can be configured for the default priority" );
+        }
+        if ( reservedPermits < 0 )
+        {
+            throw new IllegalArgumentException( "reservedPermits must not be negative but was " + reservedPermits );
+        }
+        if ( maxSharePercent < 1 || maxSharePercent > 100 )
+        {
+            throw new IllegalArgumentException(
+                "maxSharePercent must be between 1 and 100 but was " + maxSharePercent );
+        }
+        this.reservedPermits.put( priority, reservedPermits );
+        this.maxSharePercents.put( priority, maxSharePercent );
+    }
+
+    /**
+     * @param priority the priority.
+     * @return the number of permits reserved for the priority. {@code 0} if no lane is configured.
+     */
+    int getReservedPermits( TransactionPriority priority )
+    {
+        final Integer reserved = reservedPermits.get( priority );
+        return reserved == null ? 0 : reserved;
+    }
+
+    /**
+     * @param priority the priority.
+     * @return the maximal share of all permits in percent the priority may use. {@code 100} if no lane is
+     *         configured.
+     */
+    int getMaxSharePercent( TransactionPriority priority )
+    {
+        final Integer share = maxSharePercents.get( priority );
+        return share == null ? 100 : share;
+    }
+
+    /**
+     * @return the number of permits reserved by all lanes.
+     */
+    int getTotalReservedPermits()
+    {
+        int total = 0;
+        for ( Integer reserved : reservedPermits.values() )
+        {
+            total += reserved;
+        }
+        return total;
+    }
+
+}
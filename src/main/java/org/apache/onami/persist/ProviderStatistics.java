@@ -0,0 +1,98 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Statistics of the persistence provider of a persistence unit, i.e. the Hibernate {@code Statistics} of the
+ * session factory. Registered with the platform MBean server under
+ * {@code org.apache.onami.persist:type=ProviderStatistics,unit=<annotation of the unit>} while the persistence
+ * service is running if configured.
+ * <p/>
+ * The statistics are only available if the bridge is configured, the persistence unit uses Hibernate and the
+ * persistence service is running. Sharded and multi tenant persistence units have no statistics. All counts are
+ * {@code -1} if the statistics are not available.
+ *
+ * @see UnconfiguredPersistenceUnitBuilder#bridgeProviderStatistics(boolean)
+ */
+public interface ProviderStatistics
+{
+
+    /**
+     * @return {@code true} if the statistics of the persistence provider are available.
+     */
+    boolean isAvailable();
+
+    /**
+     * @return the number of entities and collections found in the second level cache.
+     */
+    long getSecondLevelCacheHitCount();
+
+    /**
+     * @return the number of entities and collections looked up in the second level cache but not found.
+     */
+    long getSecondLevelCacheMissCount();
+
+    /**
+     * @return the share of the lookups in the second level cache which were hits. {@code -1} if the statistics are
+     *         not available or no lookup happened yet.
+     */
+    double getSecondLevelCacheHitRatio();
+
+    /**
+     * @return the number of executed queries.
+     */
+    long getQueryExecutionCount();
+
+    /**
+     * @return the time in milliseconds of the slowest query execution.
+     */
+    long getQueryExecutionMaxTime();
+
+    /**
+     * @return the query string of the slowest query execution. {@code null} if the statistics are not available.
+     */
+    String getQueryExecutionMaxTimeQueryString();
+
+    /**
+     * @return the number of entities loaded from the database.
+     */
+    long getEntityLoadCount();
+
+    /**
+     * @return the number of entities fetched lazily from the database.
+     */
+    long getEntityFetchCount();
+
+    /**
+     * @return the number of connections acquired by the persistence provider.
+     */
+    long getConnectCount();
+
+    /**
+     * @return the number of prepared SQL statements.
+     */
+    long getPrepareStatementCount();
+
+    /**
+     * Resets the statistics of the persistence provider.
+     */
+    void clear();
+
+}
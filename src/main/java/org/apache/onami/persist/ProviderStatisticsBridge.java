@@ -0,0 +1,364 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import javax.persistence.EntityManagerFactory;
+import java.lang.annotation.Annotation;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+
+/**
+ * Bridge to the statistics of the persistence provider of a persistence unit. When the persistence service is
+ * started the Hibernate {@code Statistics} of the entity manager factory are enabled and exposed as
+ * {@link ProviderStatistics}.
+ * <p/>
+ * Hibernate is accessed by reflection. This way onami persist does not depend on Hibernate. For other
+ * persistence providers the statistics are not available. If no {@link ProviderStatisticsConfiguration} is
+ * configured nothing is bridged.
+ */
+@Singleton
+class ProviderStatisticsBridge
+    implements ProviderStatistics
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger( ProviderStatisticsBridge.class );
+
+    private static final String SESSION_FACTORY_CLASS = "org.hibernate.SessionFactory";
+
+    private static final String STATISTICS_CLASS = "org.hibernate.stat.Statistics";
+
+    /**
+     * Value returned if the statistics are not available.
+     */
+    private static final long UNKNOWN = -1L;
+
+    /**
+     * The configuration. {@code null} if the bridge is disabled.
+     */
+    private final ProviderStatisticsConfiguration config;
+
+    /**
+     * Holder of the annotation of the persistence unit.
+     */
+    private final AnnotationHolder annotationHolder;
+
+    /**
+     * The statistics of the running entity manager factory. {@code null} if not available.
+     */
+    private volatile HibernateStatistics statistics;
+
+    /**
+     * The name under which the MBean is registered. {@code null} if it is not registered.
+     */
+    private ObjectName registeredName;
+
+    /**
+     * Constructor.
+     *
+     * @param config           the configuration. {@code null} if the bridge is disabled.
+     * @param annotationHolder holder of the annotation of the persistence unit.
+     */
+    @Inject
+    ProviderStatisticsBridge( @Nullable ProviderStatisticsConfiguration config, AnnotationHolder annotationHolder )
+    {
+        this.config = config;
+        this.annotationHolder = annotationHolder;
+    }
+
+    /**
+     * Enables the statistics of the given entity manager factory and registers the MBean if configured.
+     *
+     * @param emf the entity manager factory of the persistence unit. {@code null} if the persistence unit is sharded
+     *            or multi tenant.
+     */
+    synchronized void start( EntityManagerFactory emf )
+    {
+        if ( config == null || emf == null )
+        {
+            return;
+        }
+        statistics = HibernateStatistics.of( emf );
+        if ( statistics == null )
+        {
+            LOG.info( "statistics of the persistence provider are not available for {}", emf );
+            return;
+        }
+        if ( !config.isRegisterMBean() || registeredName != null )
+        {
+            return;
+        }
+        try
+        {
+            final ObjectName name = objectName( annotationHolder.getAnnotation() );
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                new StandardMBean( this, ProviderStatistics.class ), name );
+            registeredName = name;
+        }
+        catch ( JMException e )
+        {
+            LOG.warn( "failed to register the provider statistics with JMX", e );
+        }
+    }
+
+    /**
+     * Releases the statistics and unregisters the MBean if it was registered.
+     */
+    synchronized void stop()
+    {
+        statistics = null;
+        if ( registeredName == null )
+        {
+            return;
+        }
+        try
+        {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.unregisterMBean( registeredName );
+        }
+        catch ( JMException e )
+        {
+            LOG.warn( "failed to unregister the provider statistics from JMX", e );
+        }
+        finally
+        {
+            registeredName = null;
+        }
+    }
+
+    /**
+     * @param annotation the annotation of the persistence unit. May be {@code null}.
+     * @return the name of the MBean of the persistence unit.
+     */
+    static ObjectName objectName( Class<? extends Annotation> annotation )
+        throws JMException
+    {
+        final String unit = annotation == null ? "default" : annotation.getName();
+        return new ObjectName( "org.apache.onami.persist:type=ProviderStatistics,unit=" + unit );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public boolean isAvailable()
+    {
+        return statistics != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public long getSecondLevelCacheHitCount()
+    {
+        return readLong( "getSecondLevelCacheHitCount" );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public long getSecondLevelCacheMissCount()
+    {
+        return readLong( "getSecondLevelCacheMissCount" );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public double getSecondLevelCacheHitRatio()
+    {
+        final long hits = getSecondLevelCacheHitCount();
+        final long misses = getSecondLevelCacheMissCount();
+        if ( hits < 0 || misses < 0 || hits + misses == 0 )
+        {
+            return UNKNOWN;
+        }
+        return (double) hits / ( hits + misses );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public long getQueryExecutionCount()
+    {
+        return readLong( "getQueryExecutionCount" );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public long getQueryExecutionMaxTime()
+    {
+        return readLong( "getQueryExecutionMaxTime" );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public String getQueryExecutionMaxTimeQueryString()
+    {
+        final Object value = read( "getQueryExecutionMaxTimeQueryString" );
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public long getEntityLoadCount()
+    {
+        return readLong( "getEntityLoadCount" );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public long getEntityFetchCount()
+    {
+        return readLong( "getEntityFetchCount" );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public long getConnectCount()
+    {
+        return readLong( "getConnectCount" );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public long getPrepareStatementCount()
+    {
+        return readLong( "getPrepareStatementCount" );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void clear()
+    {
+        read( "clear" );
+    }
+
+    /**
+     * @param getter the name of the getter of the Hibernate statistics.
+     * @return the value or {@link #UNKNOWN} if the statistics are not available.
+     */
+    private long readLong( String getter )
+    {
+        final Object value = read( getter );
+        return value instanceof Number ? ( (Number) value ).longValue() : UNKNOWN;
+    }
+
+    /**
+     * @param methodName the name of a method without parameters of the Hibernate statistics.
+     * @return the result of the method or {@code null} if the statistics are not available.
+     */
+    private Object read( String methodName )
+    {
+        final HibernateStatistics current = statistics;
+        return current == null ? null : current.invoke( methodName );
+    }
+
+    /**
+     * The statistics of a Hibernate session factory accessed by reflection.
+     */
+    private static class HibernateStatistics
+    {
+
+        /**
+         * The {@code org.hibernate.stat.Statistics} instance.
+         */
+        private final Object statistics;
+
+        /**
+         * The {@code org.hibernate.stat.Statistics} interface.
+         */
+        private final Class<?> statisticsClass;
+
+        private HibernateStatistics( Object statistics, Class<?> statisticsClass )
+        {
+            this.statistics = statistics;
+            this.statisticsClass = statisticsClass;
+        }
+
+        /**
+         * Enables and returns the statistics of the given entity manager factory.
+         *
+         * @param emf the entity manager factory.
+         * @return the statistics or {@code null} if the entity manager factory does not belong to Hibernate.
+         */
+        static HibernateStatistics of( EntityManagerFactory emf )
+        {
+            try
+            {
+                final ClassLoader classLoader = emf.getClass().getClassLoader();
+                final Class<?> sessionFactoryClass = Class.forName( SESSION_FACTORY_CLASS, false, classLoader );
+                final Class<?> statisticsClass = Class.forName( STATISTICS_CLASS, false, classLoader );
+                final Object sessionFactory = emf.unwrap( sessionFactoryClass );
+                final Object statistics = sessionFactoryClass.getMethod( "getStatistics" ).invoke( sessionFactory );
+                statisticsClass.getMethod( "setStatisticsEnabled", boolean.class ).invoke( statistics, true );
+                return new HibernateStatistics( statistics, statisticsClass );
+            }
+            catch ( Exception e )
+            {
+                // Hibernate not present or entity manager factory of a different provider
+                return null;
+            }
+        }
+
+        /**
+         * @param methodName the name of a method without parameters of the statistics.
+         * @return the result of the method or {@code null} if it cannot be invoked.
+         */
+        Object invoke( String methodName )
+        {
+            try
+            {
+                return statisticsClass.getMethod( methodName ).invoke( statistics );
+            }
+            catch ( Exception e )
+            {
+                return null;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Configuration for counting the data accesses of the units of work of a persistence unit.
+ */
+class QueryCountConfiguration
+{
+
+    /**
+     * The number of executions of the same query in a unit of work at which the query is reported.
+     */
+    private final int repeatedQueryThreshold;
+
+    /**
+     * {@code true} if a method exceeding its statement budget fails.
+     */
+    private final boolean failOnBudgetExceeded;
+
+    /**
+     * The adapter counting the SQL statements. {@code null} if only the calls to the entity manager are counted.
+     */
+    private final SqlStatementCounter statementCounter;
+
+    /**
+     * Constructor.
+     *
+     * @param repeatedQueryThreshold the number of executions of the same query in a unit of work at which the query
+     *                               is reported. Must be at least 2.
+     * @param failOnBudgetExceeded   {@code true} if a method exceeding its statement budget fails.
+     * @param statementCounter       the adapter counting the SQL statements. May be {@code null}.
+     */
+    QueryCountConfiguration( int repeatedQueryThreshold, boolean failOnBudgetExceeded,
+                             SqlStatementCounter statementCounter )
+    {
+        if ( repeatedQueryThreshold < 2 )
+        {
+            throw new IllegalArgumentException(
+                "repeatedQueryThreshold must be at least 2 but was " + repeatedQueryThreshold );
+        }
+        this.repeatedQueryThreshold = repeatedQueryThreshold;
+        this.failOnBudgetExceeded = failOnBudgetExceeded;
+        this.statementCounter = statementCounter;
+    }
+
+    int getRepeatedQueryThreshold()
+    {
+        return repeatedQueryThreshold;
+    }
+
+    boolean isFailOnBudgetExceeded()
+    {
+        return failOnBudgetExceeded;
+    }
+
+    SqlStatementCounter getStatementCounter()
+    {
+        return statementCounter;
+    }
+
+}
@@ -0,0 +1,61 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.lang.reflect.Method;
+import java.util.Map;
+
+/**
+ * Counts of the data accesses of the units of work and the {@link Transactional @Transactional} methods of a
+ * persistence unit. Values are only collected if query counting has been configured for the persistence unit.
+ *
+ * @see UnconfiguredPersistenceUnitBuilder#countQueries(int, boolean)
+ */
+public interface QueryCountStatistics
+{
+
+    /**
+     * @return the counts of the unit of work running on the current thread or {@code null} if no unit of work is
+     *         active or queries are not counted.
+     */
+    QueryCounts getUnitOfWorkCounts();
+
+    /**
+     * @return the counts of the most expensive call of each transactional method called since the last reset.
+     */
+    Map<Method, QueryCounts> getLargestCountsByMethod();
+
+    /**
+     * @return the number of times a query was executed more often in a single unit of work than the configured
+     *         threshold.
+     */
+    long getRepeatedQueryCount();
+
+    /**
+     * @return the number of calls of transactional methods which exceeded their statement budget.
+     */
+    long getBudgetExceededCount();
+
+    /**
+     * Discards the counts of the methods and resets the counters.
+     */
+    void reset();
+
+}
@@ -0,0 +1,579 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counter for the data accesses of the units of work of a persistence unit. The entity managers handed out by the
+ * {@link EntityManagerProvider} are wrapped in a proxy counting the executed queries, the finds and the flushes.
+ * A query executed as often as the configured threshold within one unit of work is reported as a likely N+1
+ * select. The {@link TxnInterceptor} compares the statements issued by each transactional method with its
+ * {@link Transactional#statementBudget() statement budget}.
+ * If no {@link QueryCountConfiguration} is configured entity managers are not wrapped and nothing is counted.
+ */
+@Singleton
+class QueryCounter
+    implements QueryCountStatistics
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger( QueryCounter.class );
+
+    /**
+     * Mark returned if nothing is counted.
+     */
+    static final Mark DISABLED = new Mark( null, null, -1 );
+
+    /**
+     * Names of the methods of {@link Query} which execute the query.
+     */
+    private static final Set<String> EXECUTING_METHODS =
+        new HashSet<String>( Arrays.asList( "getResultList", "getSingleResult", "executeUpdate", "execute" ) );
+
+    /**
+     * The configuration. {@code null} if queries are not counted.
+     */
+    private final QueryCountConfiguration config;
+
+    /**
+     * Thread local store of the counts of the current unit of work.
+     */
+    private final ThreadLocal<UnitOfWorkCounts> unitsOfWork = new ThreadLocal<UnitOfWorkCounts>();
+
+    /**
+     * The counts of the most expensive call by transactional method.
+     */
+    private final ConcurrentMap<Method, QueryCounts> largestCountsByMethod =
+        new ConcurrentHashMap<Method, QueryCounts>();
+
+    private final AtomicLong repeatedQueryCount = new AtomicLong( 0 );
+
+    private final AtomicLong budgetExceededCount = new AtomicLong( 0 );
+
+    /**
+     * Constructor.
+     *
+     * @param config the configuration. {@code null} if queries are not counted.
+     */
+    @Inject
+    QueryCounter( @Nullable QueryCountConfiguration config )
+    {
+        this.config = config;
+    }
+
+    /**
+     * @return {@code true} if queries are counted.
+     */
+    boolean isEnabled()
+    {
+        return config != null;
+    }
+
+    /**
+     * Starts counting for a new unit of work and wraps its entity manager in a counting proxy.
+     *
+     * @param em the entity manager of the unit of work.
+     * @return the proxy or the given entity manager if queries are not counted.
+     */
+    EntityManager wrap( EntityManager em )
+    {
+        if ( config == null )
+        {
+            return em;
+        }
+        final UnitOfWorkCounts counts = new UnitOfWorkCounts( em );
+        unitsOfWork.set( counts );
+        return (EntityManager) Proxy.newProxyInstance( EntityManager.class.getClassLoader(),
+                                                       new Class<?>[]{ EntityManager.class },
+                                                       new EntityManagerHandler( em, counts ) );
+    }
+
+    /**
+     * Stops counting for the unit of work of the current thread.
+     */
+    void unitOfWorkEnded()
+    {
+        if ( config != null )
+        {
+            unitsOfWork.remove();
+        }
+    }
+
+    /**
+     * Marks the begin of a transactional method. Every call must be followed by a call to
+     * {@link #exitMethod(Mark, boolean)}.
+     *
+     * @param method the transactional method.
+     * @param budget the statement budget of the method. Negative if the method has no budget.
+     * @return the mark of the method.
+     */
+    Mark enterMethod( Method method, int budget )
+    {
+        final UnitOfWorkCounts counts = config == null ? null : unitsOfWork.get();
+        if ( counts == null || method == null )
+        {
+            return DISABLED;
+        }
+        return new Mark( counts, method, budget );
+    }
+
+    /**
+     * Marks the end of a transactional method and records its counts. If the method completed normally its counts
+     * are checked against its budget.
+     *
+     * @param mark      the mark returned by {@link #enterMethod(Method, int)}.
+     * @param completed {@code true} if the method returned without an exception.
+     * @throws StatementBudgetExceededException if the method exceeded its budget and the configuration demands
+     *                                          to fail.
+     */
+    void exitMethod( Mark mark, boolean completed )
+    {
+        if ( mark == DISABLED || mark.exited )
+        {
+            return;
+        }
+        mark.exited = true;
+        mark.counts.method = mark.previousMethod;
+        final QueryCounts counts = mark.counts.since( mark.start );
+        recordLargest( mark.method, counts );
+        if ( !completed || mark.budget < 0 || counts.getBudgetedCount() <= mark.budget )
+        {
+            return;
+        }
+        budgetExceededCount.incrementAndGet();
+        if ( config.isFailOnBudgetExceeded() )
+        {
+            throw new StatementBudgetExceededException( mark.method, counts.getBudgetedCount(), mark.budget );
+        }
+        LOG.warn( "{} issued {} statements which exceeds its budget of {}",
+                  new Object[]{ mark.method, counts.getBudgetedCount(), mark.budget } );
+    }
+
+    /**
+     * Keeps the given counts if they are the largest of the method so far.
+     *
+     * @param method the transactional method.
+     * @param counts the counts of the call.
+     */
+    private void recordLargest( Method method, QueryCounts counts )
+    {
+        QueryCounts largest = largestCountsByMethod.get( method );
+        while ( largest == null || counts.getBudgetedCount() > largest.getBudgetedCount() )
+        {
+            if ( largest == null
+                ? largestCountsByMethod.putIfAbsent( method, counts ) == null
+                : largestCountsByMethod.replace( method, largest, counts ) )
+            {
+                return;
+            }
+            largest = largestCountsByMethod.get( method );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public QueryCounts getUnitOfWorkCounts()
+    {
+        final UnitOfWorkCounts counts = unitsOfWork.get();
+        return counts == null ? null : counts.snapshot();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public Map<Method, QueryCounts> getLargestCountsByMethod()
+    {
+        return new HashMap<Method, QueryCounts>( largestCountsByMethod );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public long getRepeatedQueryCount()
+    {
+        return repeatedQueryCount.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public long getBudgetExceededCount()
+    {
+        return budgetExceededCount.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void reset()
+    {
+        largestCountsByMethod.clear();
+        repeatedQueryCount.set( 0 );
+        budgetExceededCount.set( 0 );
+    }
+
+    /**
+     * Counts of a single unit of work. Used by a single thread only.
+     */
+    private class UnitOfWorkCounts
+    {
+
+        /**
+         * The unwrapped entity manager of the unit of work.
+         */
+        private final EntityManager em;
+
+        /**
+         * The number of statements reported by the {@link SqlStatementCounter} when the unit of work was begun.
+         */
+        private final long statementBase;
+
+        /**
+         * The number of executions by query string or entity class.
+         */
+        private final Map<String, int[]> executionsByShape = new HashMap<String, int[]>();
+
+        private long queryCount;
+
+        private long findCount;
+
+        private long flushCount;
+
+        /**
+         * The innermost transactional method running in the unit of work. {@code null} outside of a method.
+         */
+        private Method method;
+
+        /**
+         * Constructor.
+         *
+         * @param em the unwrapped entity manager of the unit of work.
+         */
+        UnitOfWorkCounts( EntityManager em )
+        {
+            this.em = em;
+            this.statementBase = countStatements();
+        }
+
+        /**
+         * Counts the execution of a query.
+         *
+         * @param shape the query string or name. {@code null} if the query was built with the criteria API.
+         */
+        void queryExecuted( String shape )
+        {
+            queryCount++;
+            countShape( shape );
+        }
+
+        /**
+         * Counts a find of an entity.
+         *
+         * @param entityClass the class of the entity.
+         */
+        void entityFound( Class<?> entityClass )
+        {
+            findCount++;
+            countShape( "find " + entityClass.getName() );
+        }
+
+        void flushed()
+        {
+            flushCount++;
+        }
+
+        /**
+         * Counts the execution of a shape and reports it when it reaches the threshold.
+         *
+         * @param shape the shape. May be {@code null}.
+         */
+        private void countShape( String shape )
+        {
+            if ( shape == null )
+            {
+                return;
+            }
+            int[] executions = executionsByShape.get( shape );
+            if ( executions == null )
+            {
+                executions = new int[1];
+                executionsByShape.put( shape, executions );
+            }
+            if ( ++executions[0] == config.getRepeatedQueryThreshold() )
+            {
+                repeatedQueryCount.incrementAndGet();
+                LOG.warn( "executed {} times in one unit of work by {}, possible N+1 selects: {}",
+                          new Object[]{ executions[0], method, shape } );
+            }
+        }
+
+        /**
+         * @return the number of statements reported by the {@link SqlStatementCounter} or
+         *         {@link QueryCounts#UNKNOWN}.
+         */
+        private long countStatements()
+        {
+            final SqlStatementCounter counter = config.getStatementCounter();
+            if ( counter == null )
+            {
+                return QueryCounts.UNKNOWN;
+            }
+            final long count = counter.countStatements( em );
+            return count < 0 ? QueryCounts.UNKNOWN : count;
+        }
+
+        /**
+         * @return the counts since the begin of the unit of work.
+         */
+        QueryCounts snapshot()
+        {
+            final long statements = countStatements();
+            return new QueryCounts( queryCount, findCount, flushCount,
+                                    statements < 0 || statementBase < 0
+                                        ? QueryCounts.UNKNOWN
+                                        : statements - statementBase );
+        }
+
+        /**
+         * @param start an earlier snapshot.
+         * @return the counts since the given snapshot.
+         */
+        QueryCounts since( QueryCounts start )
+        {
+            final QueryCounts now = snapshot();
+            return new QueryCounts( now.getQueryCount() - start.getQueryCount(),
+                                    now.getFindCount() - start.getFindCount(),
+                                    now.getFlushCount() - start.getFlushCount(),
+                                    now.getStatementCount() < 0 || start.getStatementCount() < 0
+                                        ? QueryCounts.UNKNOWN
+                                        : now.getStatementCount() - start.getStatementCount() );
+        }
+    }
+
+    /**
+     * Mark of a running transactional method.
+     */
+    static final class Mark
+    {
+
+        private final UnitOfWorkCounts counts;
+
+        private final Method method;
+
+        private final int budget;
+
+        /**
+         * The enclosing transactional method.
+         */
+        private final Method previousMethod;
+
+        /**
+         * The counts of the unit of work when the method was entered.
+         */
+        private final QueryCounts start;
+
+        private boolean exited;
+
+        /**
+         * Constructor.
+         *
+         * @param counts the counts of the unit of work. {@code null} if nothing is counted.
+         * @param method the transactional method.
+         * @param budget the statement budget of the method. Negative if the method has no budget.
+         */
+        private Mark( UnitOfWorkCounts counts, Method method, int budget )
+        {
+            this.counts = counts;
+            this.method = method;
+            this.budget = budget;
+            if ( counts == null )
+            {
+                this.previousMethod = null;
+                this.start = null;
+            }
+            else
+            {
+                this.previousMethod = counts.method;
+                this.start = counts.snapshot();
+                counts.method = method;
+            }
+        }
+
+        /**
+         * @return {@code true} if the method has a budget and the SQL statements are counted. In this case the
+         *         pending changes must be flushed before the budget is checked.
+         */
+        boolean isStatementBudgeted()
+        {
+            return budget >= 0 && start != null && start.getStatementCount() >= 0;
+        }
+    }
+
+    /**
+     * Invocation handler of the proxy counting the calls to an entity manager.
+     */
+    private static class EntityManagerHandler
+        implements InvocationHandler
+    {
+
+        private final EntityManager delegate;
+
+        private final UnitOfWorkCounts counts;
+
+        EntityManagerHandler( EntityManager delegate, UnitOfWorkCounts counts )
+        {
+            this.delegate = delegate;
+            this.counts = counts;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        // @Override
+        public Object invoke( Object proxy, Method method, Object[] args )
+            throws Throwable
+        {
+            if ( "equals".equals( method.getName() ) && args != null && args.length == 1 )
+            {
+                return proxy == args[0];
+            }
+            if ( "hashCode".equals( method.getName() ) && ( args == null || args.length == 0 ) )
+            {
+                return System.identityHashCode( proxy );
+            }
+            final Object result = invokeDelegate( delegate, method, args );
+            if ( "find".equals( method.getName() ) )
+            {
+                counts.entityFound( (Class<?>) args[0] );
+            }
+            else if ( "flush".equals( method.getName() ) )
+            {
+                counts.flushed();
+            }
+            else if ( result instanceof Query && method.getReturnType().isInterface() )
+            {
+                final String shape = args != null && args[0] instanceof String ? (String) args[0] : null;
+                return Proxy.newProxyInstance( EntityManager.class.getClassLoader(),
+                                               new Class<?>[]{ method.getReturnType() },
+                                               new QueryHandler( result, counts, shape ) );
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Invocation handler of the proxy counting the executions of a query.
+     */
+    private static class QueryHandler
+        implements InvocationHandler
+    {
+
+        private final Object delegate;
+
+        private final UnitOfWorkCounts counts;
+
+        /**
+         * The query string or name. {@code null} if the query was built with the criteria API.
+         */
+        private final String shape;
+
+        QueryHandler( Object delegate, UnitOfWorkCounts counts, String shape )
+        {
+            this.delegate = delegate;
+            this.counts = counts;
+            this.shape = shape;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        // @Override
+        public Object invoke( Object proxy, Method method, Object[] args )
+            throws Throwable
+        {
+            if ( "equals".equals( method.getName() ) && args != null && args.length == 1 )
+            {
+                return proxy == args[0];
+            }
+            if ( "hashCode".equals( method.getName() ) && ( args == null || args.length == 0 ) )
+            {
+                return System.identityHashCode( proxy );
+            }
+            final Object result = invokeDelegate( delegate, method, args );
+            if ( result == delegate )
+            {
+                // keep counting the executions of a query configured by chained calls
+                return proxy;
+            }
+            if ( EXECUTING_METHODS.contains( method.getName() ) )
+            {
+                counts.queryExecuted( shape );
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Invokes a method on the delegate of a proxy.
+     *
+     * @param delegate the delegate.
+     * @param method   the method to invoke.
+     * @param args     the arguments.
+     * @return the result of the invocation.
+     * @throws Throwable the exception thrown by the delegate.
+     */
+    private static Object invokeDelegate( Object delegate, Method method, Object[] args )
+        throws Throwable
+    {
+        try
+        {
+            return method.invoke( delegate, args );
+        }
+        catch ( InvocationTargetException e )
+        {
+            throw e.getCause();
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Snapshot of the number of data accesses of a unit of work or of a single call of a
+ * {@link Transactional @Transactional} method.
+ *
+ * @see QueryCountStatistics
+ */
+public final class QueryCounts
+{
+
+    /**
+     * Value returned by {@link #getStatementCount()} if no {@link SqlStatementCounter} is configured or the number
+     * of statements cannot be determined.
+     */
+    public static final long UNKNOWN = -1L;
+
+    private final long queryCount;
+
+    private final long findCount;
+
+    private final long flushCount;
+
+    private final long statementCount;
+
+    /**
+     * Constructor.
+     *
+     * @param queryCount     the number of executed queries.
+     * @param findCount      the number of calls to {@code find}.
+     * @param flushCount     the number of calls to {@code flush}.
+     * @param statementCount the number of SQL statements or {@link #UNKNOWN}.
+     */
+    QueryCounts( long queryCount, long findCount, long flushCount, long statementCount )
+    {
+        this.queryCount = queryCount;
+        this.findCount = findCount;
+        this.flushCount = flushCount;
+        this.statementCount = statementCount;
+    }
+
+    /**
+     * @return the number of executed queries.
+     */
+    public long getQueryCount()
+    {
+        return queryCount;
+    }
+
+    /**
+     * @return the number of calls to {@link javax.persistence.EntityManager#find(Class, Object) find}.
+     */
+    public long getFindCount()
+    {
+        return findCount;
+    }
+
+    /**
+     * @return the number of calls to {@link javax.persistence.EntityManager#flush() flush}.
+     */
+    public long getFlushCount()
+    {
+        return flushCount;
+    }
+
+    /**
+     * @return the number of SQL statements reported by the {@link SqlStatementCounter} or {@link #UNKNOWN}.
+     */
+    public long getStatementCount()
+    {
+        return statementCount;
+    }
+
+    /**
+     * @return the number of statements checked against a statement budget. This is the number of SQL statements if
+     *         it is known and the sum of queries, finds and flushes otherwise.
+     */
+    public long getBudgetedCount()
+    {
+        return statementCount >= 0 ? statementCount : queryCount + findCount + flushCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "QueryCounts[queries=" + queryCount + ", finds=" + findCount + ", flushes=" + flushCount
+            + ", statements=" + statementCount + "]";
+    }
+
+}
@@ -0,0 +1,107 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+/**
+ * Configuration of the read replicas of a persistence unit.
+ */
+class ReadReplicaConfiguration
+{
+
+    /**
+     * The properties of the replicas. Theses override the properties of the persistence unit.
+     */
+    private final List<Properties> replicaProperties;
+
+    /**
+     * The strategy for selecting a replica.
+     */
+    private final ReplicaSelection selection;
+
+    /**
+     * The time after a write during which a session reads from the primary. The session is given by the
+     * {@link ReadYourWritesContext}. Without a session key the window is tracked per thread and does not
+     * follow a client whose requests are served by different pooled threads.
+     */
+    private final long readYourWritesWindowNanos;
+
+    /**
+     * Constructor.
+     *
+     * @param selection                  the strategy for selecting a replica. Must not be {@code null}.
+     * @param readYourWritesWindowMillis the time in milliseconds after a write during which a session reads
+     *                                   from the primary. Must not be negative.
+     * @param replicaProperties          the properties of the replicas. Must not be empty.
+     */
+    ReadReplicaConfiguration( ReplicaSelection selection, long readYourWritesWindowMillis,
+                              Properties... replicaProperties )
+    {
+        this.selection = checkNotNull( selection, "selection is mandatory!" );
+        if ( readYourWritesWindowMillis < 0 )
+        {
+            throw new IllegalArgumentException(
+                "readYourWritesWindowMillis must not be negative but was " + readYourWritesWindowMillis );
+        }
+        if ( replicaProperties == null || replicaProperties.length == 0 )
+        {
+            throw new IllegalArgumentException( "at least one replica is required" );
+        }
+        for ( Properties properties : replicaProperties )
+        {
+            checkNotNull( properties, "replicaProperties must not contain null" );
+        }
+        this.readYourWritesWindowNanos = readYourWritesWindowMillis * 1000L * 1000L;
+        this.replicaProperties =
+            Collections.unmodifiableList( new ArrayList<Properties>( Arrays.asList( replicaProperties ) ) );
+    }
+
+    /**
+     * @return the properties of the replicas.
+     */
+    List<Properties> getReplicaProperties()
+    {
+        return replicaProperties;
+    }
+
+    /**
+     * @return the strategy for selecting a replica.
+     */
+    ReplicaSelection getSelection()
+    {
+        return selection;
+    }
+
+    /**
+     * @return the time in nanoseconds after a write during which a session reads from the primary.
+     */
+    long getReadYourWritesWindowNanos()
+    {
+        return readYourWritesWindowNanos;
+    }
+
+}
@@ -0,0 +1,344 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+/**
+ * Routes read only units of work to the read replicas of a persistence unit.
+ * <p/>
+ * A session which committed a read-write transaction reads from the primary for the configured
+ * read-your-writes window, so it does not miss its own writes on a lagging replica. The session is given by
+ * the session key of the {@link ReadYourWritesContext}. Threads without a session key are tracked by thread.
+ */
+@Singleton
+class ReadReplicaRouter
+    implements ReadYourWritesContext
+{
+
+    /**
+     * The configuration of the replicas. {@code null} if the persistence unit has no replicas.
+     */
+    private final ReadReplicaConfiguration config;
+
+    /**
+     * The entity manager factories of the replicas. Empty when the persistence service is not running.
+     */
+    private volatile List<TrackedEntityManagerFactory> replicas = Collections.emptyList();
+
+    /**
+     * Counter for the round robin selection.
+     */
+    private final AtomicInteger nextIndex = new AtomicInteger( 0 );
+
+    /**
+     * Thread local store of the replica used by the current unit of work.
+     */
+    private final ThreadLocal<TrackedEntityManagerFactory> acquiredReplicas =
+        new ThreadLocal<TrackedEntityManagerFactory>();
+
+    /**
+     * Thread local store of the {@link System#nanoTime()} of the last write. Used for threads without a session key.
+     */
+    private final ThreadLocal<Long> lastWriteNanos = new ThreadLocal<Long>();
+
+    /**
+     * Thread local store of the read-your-writes session key.
+     */
+    private final ThreadLocal<Object> sessionKeys = new ThreadLocal<Object>();
+
+    /**
+     * The {@link System#nanoTime()} of the last write per session key. Expired entries are purged by
+     * {@link #recordWrite()}.
+     */
+    private final ConcurrentMap<Object, Long> lastWriteNanosBySession = new ConcurrentHashMap<Object, Long>();
+
+    /**
+     * The {@link System#nanoTime()} of the last purge of {@link #lastWriteNanosBySession}.
+     */
+    private final AtomicLong lastPurgeNanos = new AtomicLong( System.nanoTime() );
+
+    /**
+     * Constructor.
+     *
+     * @param config the configuration of the replicas. {@code null} if the persistence unit has no replicas.
+     */
+    @Inject
+    ReadReplicaRouter( @Nullable ReadReplicaConfiguration config )
+    {
+        this.config = config;
+    }
+
+    /**
+     * Creates the entity manager factories of the replicas.
+     *
+     * @param emfFactory the factory for creating the entity manager factories.
+     */
+    void start( EntityManagerFactoryFactory emfFactory )
+    {
+        if ( config == null )
+        {
+            return;
+        }
+        final List<TrackedEntityManagerFactory> created = new ArrayList<TrackedEntityManagerFactory>();
+        try
+        {
+            for ( Properties properties : config.getReplicaProperties() )
+            {
+                created.add( new TrackedEntityManagerFactory(
+                    emfFactory.createApplicationManagedEntityManagerFactory( properties ) ) );
+            }
+        }
+        catch ( RuntimeException e )
+        {
+            close( created );
+            throw e;
+        }
+        replicas = Collections.unmodifiableList( created );
+    }
+
+    /**
+     * Closes the entity manager factories of the replicas.
+     */
+    void stop()
+    {
+        final List<TrackedEntityManagerFactory> stopping = replicas;
+        replicas = Collections.emptyList();
+        close( stopping );
+    }
+
+    /**
+     * Closes the given entity manager factories. All factories are closed even if closing one fails.
+     *
+     * @param factories the entity manager factories to close.
+     */
+    private void close( List<TrackedEntityManagerFactory> factories )
+    {
+        final AggregatedException.Builder exceptionBuilder = new AggregatedException.Builder();
+        for ( TrackedEntityManagerFactory factory : factories )
+        {
+            try
+            {
+                factory.getEntityManagerFactory().close();
+            }
+            catch ( Exception e )
+            {
+                exceptionBuilder.add( e );
+            }
+        }
+        exceptionBuilder.throwRuntimeExceptionIfHasCauses( "multiple exception occurred while closing replicas" );
+    }
+
+    /**
+     * Selects a replica for a read only unit of work of the current thread.
+     * Must be followed by a call to {@link #release()} at the end of the unit of work.
+     *
+     * @return the entity manager factory of the selected replica or {@code null} if the unit of work
+     *         must use the primary.
+     */
+    EntityManagerFactory acquireReplica()
+    {
+        final List<TrackedEntityManagerFactory> candidates = replicas;
+        if ( candidates.isEmpty() || isWithinReadYourWritesWindow() )
+        {
+            return null;
+        }
+        final TrackedEntityManagerFactory replica = select( candidates );
+        final EntityManagerFactory emf = replica.acquire();
+        acquiredReplicas.set( replica );
+        return emf;
+    }
+
+    /**
+     * Selects one of the replicas according to the configured strategy.
+     *
+     * @param candidates the replicas. Must not be empty.
+     * @return the selected replica.
+     */
+    private TrackedEntityManagerFactory select( List<TrackedEntityManagerFactory> candidates )
+    {
+        final int size = candidates.size();
+        final int start = ( nextIndex.getAndIncrement() & Integer.MAX_VALUE ) % size;
+        TrackedEntityManagerFactory selected = candidates.get( start );
+        if ( config.getSelection() == ReplicaSelection.LEAST_BUSY )
+        {
+            for ( int i = 1; i < size; i++ )
+            {
+                final TrackedEntityManagerFactory candidate = candidates.get( ( start + i ) % size );
+                if ( candidate.getActiveUnitsOfWork() < selected.getActiveUnitsOfWork() )
+                {
+                    selected = candidate;
+                }
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * @return {@code true} if the session of the current thread has written within the read-your-writes window.
+     */
+    private boolean isWithinReadYourWritesWindow()
+    {
+        final Object sessionKey = sessionKeys.get();
+        final Long lastWrite = sessionKey != null ? lastWriteNanosBySession.get( sessionKey ) : lastWriteNanos.get();
+        if ( lastWrite == null )
+        {
+            return false;
+        }
+        if ( System.nanoTime() - lastWrite < config.getReadYourWritesWindowNanos() )
+        {
+            return true;
+        }
+        if ( sessionKey != null )
+        {
+            lastWriteNanosBySession.remove( sessionKey, lastWrite );
+        }
+        else
+        {
+            lastWriteNanos.remove();
+        }
+        return false;
+    }
+
+    /**
+     * Releases the replica used by the unit of work of the current thread. Does nothing if no replica is used.
+     */
+    void release()
+    {
+        final TrackedEntityManagerFactory replica = acquiredReplicas.get();
+        if ( replica != null )
+        {
+            acquiredReplicas.remove();
+            replica.release();
+        }
+    }
+
+    /**
+     * @return the replica used by the unit of work of the current thread. {@code null} if no replica is used.
+     */
+    TrackedEntityManagerFactory getAcquiredReplica()
+    {
+        return acquiredReplicas.get();
+    }
+
+    /**
+     * @return {@code true} if the unit of work of the current thread uses a replica.
+     */
+    boolean isUsingReplica()
+    {
+        return acquiredReplicas.get() != null;
+    }
+
+    /**
+     * Records that the session of the current thread has committed a read-write transaction.
+     */
+    void recordWrite()
+    {
+        if ( config != null && config.getReadYourWritesWindowNanos() > 0 )
+        {
+            final long now = System.nanoTime();
+            final Object sessionKey = sessionKeys.get();
+            if ( sessionKey != null )
+            {
+                lastWriteNanosBySession.put( sessionKey, now );
+                purgeExpiredSessions( now );
+            }
+            else
+            {
+                lastWriteNanos.set( now );
+            }
+        }
+    }
+
+    /**
+     * Removes the sessions whose read-your-writes window has expired. Runs at most once per window so that
+     * sessions which never read again do not accumulate.
+     *
+     * @param now the current {@link System#nanoTime()}.
+     */
+    private void purgeExpiredSessions( long now )
+    {
+        final long window = config.getReadYourWritesWindowNanos();
+        final long lastPurge = lastPurgeNanos.get();
+        if ( now - lastPurge < window || !lastPurgeNanos.compareAndSet( lastPurge, now ) )
+        {
+            return;
+        }
+        final Iterator<Map.Entry<Object, Long>> it = lastWriteNanosBySession.entrySet().iterator();
+        while ( it.hasNext() )
+        {
+            if ( now - it.next().getValue() >= window )
+            {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the number of sessions with a tracked read-your-writes window.
+     */
+    int getTrackedSessionCount()
+    {
+        return lastWriteNanosBySession.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void setSessionKey( Object sessionKey )
+    {
+        sessionKeys.set( checkNotNull( sessionKey, "sessionKey is mandatory!" ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public Object getSessionKey()
+    {
+        return sessionKeys.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void clearSessionKey()
+    {
+        sessionKeys.remove();
+    }
+
+}
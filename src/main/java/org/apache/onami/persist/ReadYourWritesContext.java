@@ -0,0 +1,66 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Holds the read-your-writes session of the current thread for a persistence unit with read replicas.
+ * <p/>
+ * After a read-write transaction has been committed, read only units of work of the same session use the
+ * primary for the configured read-your-writes window. Without a session the window is tracked per thread.
+ * This only works as long as the consecutive requests of a client are served by the same thread, which is
+ * not the case for pooled (i.e. servlet container) threads. Set a session key identifying the client
+ * (i.e. the id of the http session or of the authenticated user) to track the window per client instead.
+ * <p/>
+ * The session key must be set before a unit of work is started. The windows of the sessions are kept in
+ * memory of the current process only.
+ * <p/>
+ * Recommended pattern:
+ * <pre>
+ * readYourWritesContext.setSessionKey(httpSession.getId());
+ * try {
+ *   // call transactional methods
+ * }
+ * finally {
+ *   readYourWritesContext.clearSessionKey();
+ * }
+ * </pre>
+ */
+public interface ReadYourWritesContext
+{
+
+    /**
+     * Sets the read-your-writes session of the current thread.
+     *
+     * @param sessionKey the key identifying the session. Must not be {@code null}. Must implement
+     *                   {@link Object#equals(Object)} and {@link Object#hashCode()}.
+     */
+    void setSessionKey( Object sessionKey );
+
+    /**
+     * @return the key of the read-your-writes session of the current thread or {@code null} if none is set.
+     */
+    Object getSessionKey();
+
+    /**
+     * Removes the read-your-writes session of the current thread.
+     */
+    void clearSessionKey();
+
+}
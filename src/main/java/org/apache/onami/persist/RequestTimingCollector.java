@@ -0,0 +1,114 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Lifecycle listener collecting the {@link RequestTimings} of the requests passing the {@link PersistenceFilter}.
+ * Only events of threads to which the filter has bound the timings of a request are collected.
+ */
+class RequestTimingCollector
+    extends PersistenceLifecycleListenerAdapter
+{
+
+    /**
+     * Thread local store of the timings of the current request.
+     */
+    private final ThreadLocal<RequestTimings> timings = new ThreadLocal<RequestTimings>();
+
+    /**
+     * Binds new timings to the current thread.
+     *
+     * @return the bound timings or {@code null} if timings are already bound, i.e. for an included request.
+     */
+    RequestTimings bind()
+    {
+        if ( timings.get() != null )
+        {
+            return null;
+        }
+        final RequestTimings requestTimings = new RequestTimings();
+        timings.set( requestTimings );
+        return requestTimings;
+    }
+
+    /**
+     * Removes the timings from the current thread.
+     */
+    void unbind()
+    {
+        timings.remove();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void unitOfWorkBegun( PersistenceLifecycleEvent event )
+    {
+        final RequestTimings requestTimings = timings.get();
+        if ( requestTimings != null )
+        {
+            requestTimings.unit( event.getUnitAnnotation() ).addSetup( event.getSetupNanos() );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void unitOfWorkEnded( PersistenceLifecycleEvent event )
+    {
+        final RequestTimings requestTimings = timings.get();
+        if ( requestTimings != null )
+        {
+            final QueryCounts counts = (QueryCounts) event.getContext().getAttachment( QueryCounts.class );
+            requestTimings.unit( event.getUnitAnnotation() ).addUnitOfWork( event.getElapsedNanos(), counts );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void transactionCommitted( PersistenceLifecycleEvent event )
+    {
+        addTransaction( event, false );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void transactionRolledBack( PersistenceLifecycleEvent event )
+    {
+        addTransaction( event, true );
+    }
+
+    private void addTransaction( PersistenceLifecycleEvent event, boolean rolledBack )
+    {
+        final RequestTimings requestTimings = timings.get();
+        if ( requestTimings != null )
+        {
+            requestTimings.unit( event.getUnitAnnotation() )
+                .addTransaction( event.getElapsedNanos(), event.getCompletionNanos(), rolledBack );
+        }
+    }
+
+}
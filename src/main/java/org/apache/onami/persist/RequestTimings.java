@@ -0,0 +1,118 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Persistence timings of a single request collected by the {@link PersistenceFilter}. Available as request
+ * attribute {@link PersistenceFilter#REQUEST_TIMINGS_ATTRIBUTE} and as {@code Server-Timing} response header.
+ * The timings are updated while the request is processed and are complete once the filter has ended the units
+ * of work. Not thread safe.
+ *
+ * @see PersistenceModule#publishRequestTimings()
+ */
+public final class RequestTimings
+{
+
+    /**
+     * The timings by name of the persistence unit in the order in which the units were used.
+     */
+    private final Map<String, UnitTimings> units = new LinkedHashMap<String, UnitTimings>();
+
+    /**
+     * @param unitAnnotation the annotation of the persistence unit. May be {@code null}.
+     * @return the timings of the persistence unit. Created if necessary.
+     */
+    UnitTimings unit( Class<? extends Annotation> unitAnnotation )
+    {
+        final String name = unitAnnotation == null ? "default" : unitAnnotation.getSimpleName();
+        UnitTimings timings = units.get( name );
+        if ( timings == null )
+        {
+            timings = new UnitTimings( name );
+            units.put( name, timings );
+        }
+        return timings;
+    }
+
+    /**
+     * @return the timings of the persistence units used by the request.
+     */
+    public List<UnitTimings> getUnits()
+    {
+        return new ArrayList<UnitTimings>( units.values() );
+    }
+
+    /**
+     * Formats the timings as value of a {@code Server-Timing} header. Every persistence unit contributes the metrics
+     * {@code <unit>-setup}, {@code <unit>-uow}, {@code <unit>-txn} and {@code <unit>-commit} with their duration in
+     * milliseconds and {@code <unit>-statements} if queries are counted.
+     *
+     * @return the header value. Empty if no persistence unit was used.
+     */
+    public String toServerTimingHeader()
+    {
+        final StringBuilder sb = new StringBuilder();
+        for ( UnitTimings unit : units.values() )
+        {
+            final String name = unit.getUnitName();
+            appendMetric( sb, name + "-setup", unit.getSetupNanos(), null );
+            appendMetric( sb, name + "-uow", unit.getUnitOfWorkNanos(), null );
+            appendMetric( sb, name + "-txn", unit.getTransactionNanos(),
+                          unit.getTransactionCount() + " transactions, " + unit.getRollbackCount() + " rollbacks" );
+            appendMetric( sb, name + "-commit", unit.getCompletionNanos(), null );
+            if ( unit.getStatementCount() >= 0 )
+            {
+                appendMetric( sb, name + "-statements", -1, String.valueOf( unit.getStatementCount() ) );
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param sb    the builder of the header value.
+     * @param name  the name of the metric.
+     * @param nanos the duration in nanoseconds. Negative to omit the duration.
+     * @param desc  the description. {@code null} to omit the description.
+     */
+    private static void appendMetric( StringBuilder sb, String name, long nanos, String desc )
+    {
+        if ( sb.length() > 0 )
+        {
+            sb.append( ", " );
+        }
+        sb.append( name );
+        if ( nanos >= 0 )
+        {
+            sb.append( ";dur=" ).append( String.format( Locale.ENGLISH, "%.3f", nanos / 1000000.0 ) );
+        }
+        if ( desc != null )
+        {
+            sb.append( ";desc=\"" ).append( desc ).append( '"' );
+        }
+    }
+
+}
@@ -22,7 +22,13 @@ package org.apache.onami.persist;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import javax.persistence.EntityManager;
 import javax.persistence.EntityTransaction;
+import javax.persistence.PersistenceException;
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
 
 import static org.apache.onami.persist.Preconditions.checkNotNull;
 
@@ -39,31 +45,68 @@ class ResourceLocalTransactionFacadeFactory
      */
     private final EntityManagerProvider emProvider;
 
+    /**
+     * Adapter for accessing the JDBC connection of an entity manager. Used for savepoints.
+     */
+    private final JdbcConnectionAccessor connectionAccessor;
+
+    /**
+     * Notifier for the lifecycle listeners.
+     */
+    private final PersistenceLifecycleNotifier lifecycleNotifier;
+
     /**
      * Constructor.
      *
-     * @param emProvider the provider for the entity manager
+     * @param emProvider        the provider for the entity manager
+     * @param lifecycleNotifier the notifier for the lifecycle listeners
      */
     @Inject
-    ResourceLocalTransactionFacadeFactory( EntityManagerProvider emProvider )
+    ResourceLocalTransactionFacadeFactory( EntityManagerProvider emProvider,
+                                           PersistenceLifecycleNotifier lifecycleNotifier )
+    {
+        this( emProvider, new JdbcConnectionAccessor(), lifecycleNotifier );
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param emProvider         the provider for the entity manager
+     * @param connectionAccessor adapter for accessing the JDBC connection of an entity manager
+     * @param lifecycleNotifier  the notifier for the lifecycle listeners
+     */
+    ResourceLocalTransactionFacadeFactory( EntityManagerProvider emProvider, JdbcConnectionAccessor connectionAccessor,
+                                           PersistenceLifecycleNotifier lifecycleNotifier )
     {
         this.emProvider = checkNotNull( emProvider, "emProvider is mandatory!" );
+        this.connectionAccessor = checkNotNull( connectionAccessor, "connectionAccessor is mandatory!" );
+        this.lifecycleNotifier = checkNotNull( lifecycleNotifier, "lifecycleNotifier is mandatory!" );
     }
 
     /**
      * {@inheritDoc}
      */
     // @Override
-    public TransactionFacade createTransactionFacade()
+    public TransactionFacade createTransactionFacade( NestedTransactionMode nestedMode )
     {
-        final EntityTransaction txn = emProvider.get().getTransaction();
-        if ( txn.isActive() )
+        final EntityManager em = emProvider.get();
+        final EntityTransaction txn = em.getTransaction();
+        final LazyTransactionBegin.Handler lazyBegin = LazyTransactionBegin.handlerOf( em );
+        if ( txn.isActive() || ( lazyBegin != null && lazyBegin.isBeginPending() ) )
         {
-            return new Inner( txn );
+            if ( nestedMode == NestedTransactionMode.SAVEPOINT )
+            {
+                return new NestedWithSavepoint( em, connectionAccessor.getConnection( em ) );
+            }
+            return new Inner( txn, em, lazyBegin, lifecycleNotifier );
+        }
+        else if ( lazyBegin != null )
+        {
+            return new LazyOuter( txn, em, lazyBegin, lifecycleNotifier );
         }
         else
         {
-            return new Outer( txn );
+            return new Outer( txn, em, lifecycleNotifier );
         }
     }
 
@@ -71,15 +114,26 @@ class ResourceLocalTransactionFacadeFactory
      * TransactionFacade representing an inner (nested) transaction.
      * Starting and committing a transaction has no effect.
      * This facade will set the rollbackOnly flag in case of a roll back.
+     * If the begin of the outer transaction is still pending the flag is set once the transaction is begun.
      */
     private static class Inner
         implements TransactionFacade
     {
         private final EntityTransaction txn;
 
-        Inner( EntityTransaction txn )
+        private final EntityManager em;
+
+        private final LazyTransactionBegin.Handler lazyBegin;
+
+        private final PersistenceLifecycleNotifier lifecycleNotifier;
+
+        Inner( EntityTransaction txn, EntityManager em, LazyTransactionBegin.Handler lazyBegin,
+               PersistenceLifecycleNotifier lifecycleNotifier )
         {
             this.txn = checkNotNull( txn, "txn is mandatory!" );
+            this.em = checkNotNull( em, "em is mandatory!" );
+            this.lazyBegin = lazyBegin;
+            this.lifecycleNotifier = checkNotNull( lifecycleNotifier, "lifecycleNotifier is mandatory!" );
         }
 
         /**
@@ -91,6 +145,15 @@ class ResourceLocalTransactionFacadeFactory
             // Do nothing
         }
 
+        /**
+         * {@inheritDoc}
+         */
+        // @Override
+        public boolean isOuter()
+        {
+            return false;
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -100,13 +163,30 @@ class ResourceLocalTransactionFacadeFactory
             // Do nothing
         }
 
+        /**
+         * {@inheritDoc}
+         */
+        // @Override
+        public void flush()
+        {
+            em.flush();
+        }
+
         /**
          * {@inheritDoc}
          */
         // @Override
         public void rollback()
         {
-            txn.setRollbackOnly();
+            if ( lazyBegin != null && lazyBegin.isBeginPending() )
+            {
+                lazyBegin.setRollbackOnly();
+            }
+            else
+            {
+                txn.setRollbackOnly();
+            }
+            lifecycleNotifier.transactionMarkedRollbackOnly();
         }
     }
 
@@ -120,12 +200,20 @@ class ResourceLocalTransactionFacadeFactory
     {
         private final EntityTransaction txn;
 
+        private final EntityManager em;
+
+        private final PersistenceLifecycleNotifier lifecycleNotifier;
+
+        private PersistenceLifecycleContext lifecycleContext;
+
         /**
          * {@inheritDoc}
          */
-        Outer( EntityTransaction txn )
+        Outer( EntityTransaction txn, EntityManager em, PersistenceLifecycleNotifier lifecycleNotifier )
         {
             this.txn = checkNotNull( txn, "txn is mandatory!" );
+            this.em = checkNotNull( em, "em is mandatory!" );
+            this.lifecycleNotifier = checkNotNull( lifecycleNotifier, "lifecycleNotifier is mandatory!" );
         }
 
         /**
@@ -135,6 +223,16 @@ class ResourceLocalTransactionFacadeFactory
         public void begin()
         {
             txn.begin();
+            notifyBegun();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        // @Override
+        public boolean isOuter()
+        {
+            return true;
         }
 
         /**
@@ -143,15 +241,246 @@ class ResourceLocalTransactionFacadeFactory
         // @Override
         public void commit()
         {
+            lifecycleNotifier.transactionCompleting( lifecycleContext );
             if ( txn.getRollbackOnly() )
+            {
+                try
+                {
+                    txn.rollback();
+                }
+                finally
+                {
+                    notifyRolledBack();
+                }
+                return;
+            }
+            try
+            {
+                txn.commit();
+            }
+            catch ( RuntimeException e )
+            {
+                notifyRolledBack();
+                throw e;
+            }
+            notifyCommitted();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        // @Override
+        public void flush()
+        {
+            em.flush();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        // @Override
+        public void rollback()
+        {
+            lifecycleNotifier.transactionCompleting( lifecycleContext );
+            try
             {
                 txn.rollback();
             }
+            finally
+            {
+                notifyRolledBack();
+            }
+        }
+
+        void notifyBegun()
+        {
+            lifecycleContext = lifecycleNotifier.transactionBegun();
+        }
+
+        void notifyCommitted()
+        {
+            lifecycleNotifier.transactionCommitted( lifecycleContext );
+        }
+
+        void notifyRolledBack()
+        {
+            lifecycleNotifier.transactionRolledBack( lifecycleContext );
+        }
+    }
+
+    /**
+     * TransactionFacade representing an outer transaction which is begun lazily.
+     * Beginning the transaction only marks the begin as pending. The transaction is begun on the first data access
+     * through the entity manager. If this never happens committing and rolling back have no effect.
+     */
+    private static class LazyOuter
+        extends Outer
+    {
+        private final LazyTransactionBegin.Handler lazyBegin;
+
+        LazyOuter( EntityTransaction txn, EntityManager em, LazyTransactionBegin.Handler lazyBegin,
+                   PersistenceLifecycleNotifier lifecycleNotifier )
+        {
+            super( txn, em, lifecycleNotifier );
+            this.lazyBegin = checkNotNull( lazyBegin, "lazyBegin is mandatory!" );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void begin()
+        {
+            lazyBegin.deferBegin();
+            notifyBegun();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void commit()
+        {
+            if ( !lazyBegin.cancelPendingBegin() )
+            {
+                super.commit();
+            }
             else
             {
-                txn.commit();
+                notifyCommitted();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void flush()
+        {
+            if ( !lazyBegin.isBeginPending() )
+            {
+                super.flush();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void rollback()
+        {
+            if ( !lazyBegin.cancelPendingBegin() )
+            {
+                super.rollback();
+            }
+            else
+            {
+                notifyRolledBack();
             }
         }
+    }
+
+    /**
+     * TransactionFacade representing an inner (nested) transaction protected by a JDBC savepoint.
+     * Starting the transaction flushes the pending changes and sets the savepoint. Committing flushes the changes
+     * of the inner transaction and releases the savepoint. A roll back only reverts the changes back to the savepoint.
+     * <p/>
+     * The persistence context is cleared on roll back as its entities may reflect changes which have been rolled
+     * back. This detaches the entities of the outer transaction as well. Their changes made before the savepoint
+     * are already flushed and are kept.
+     * <p/>
+     * Persistence providers mark the transaction rollback only if a flush or a query fails in the database. A roll
+     * back to the savepoint resets this mark so the outer transaction can still be committed. If the provider does
+     * not allow to reset the mark, the outer transaction can only be rolled back.
+     */
+    private static class NestedWithSavepoint
+        implements TransactionFacade
+    {
+        private final EntityManager em;
+
+        private final Connection connection;
+
+        private Savepoint savepoint;
+
+        /**
+         * {@code true} if the outer transaction was already rollback only when the savepoint was set.
+         */
+        private boolean outerRollbackOnly;
+
+        NestedWithSavepoint( EntityManager em, Connection connection )
+        {
+            this.em = checkNotNull( em, "em is mandatory!" );
+            this.connection = checkNotNull( connection, "connection is mandatory!" );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        // @Override
+        public void begin()
+        {
+            em.flush();
+            outerRollbackOnly = em.getTransaction().getRollbackOnly();
+            try
+            {
+                savepoint = connection.setSavepoint();
+            }
+            catch ( SQLException e )
+            {
+                throw new PersistenceException( "failed to set savepoint", e );
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        // @Override
+        public boolean isOuter()
+        {
+            return false;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        // @Override
+        public void commit()
+        {
+            try
+            {
+                em.flush();
+            }
+            catch ( RuntimeException e )
+            {
+                // the changes of the inner transaction must not leak into the outer transaction.
+                try
+                {
+                    rollback();
+                }
+                catch ( RuntimeException swallowedException )
+                {
+                    // swallow exception in favor of the exception thrown by the flush.
+                }
+                throw e;
+            }
+            try
+            {
+                connection.releaseSavepoint( savepoint );
+            }
+            catch ( SQLException e )
+            {
+                // releasing is optional. the savepoint is released with the outer transaction in any case.
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        // @Override
+        public void flush()
+        {
+            em.flush();
+        }
 
         /**
          * {@inheritDoc}
@@ -159,7 +488,62 @@ class ResourceLocalTransactionFacadeFactory
         // @Override
         public void rollback()
         {
-            txn.rollback();
+            try
+            {
+                connection.rollback( savepoint );
+            }
+            catch ( SQLException e )
+            {
+                throw new PersistenceException( "failed to roll back to savepoint", e );
+            }
+            finally
+            {
+                em.clear();
+            }
+            final EntityTransaction txn = em.getTransaction();
+            if ( !outerRollbackOnly && txn.getRollbackOnly() )
+            {
+                // the failure has been undone by the roll back to the savepoint
+                resetRollbackOnly( txn );
+            }
+        }
+
+        /**
+         * Resets the rollback only mark of a transaction. JPA offers no API for this. Hibernate and EclipseLink keep
+         * the mark in a field named {@code rollbackOnly} which is reset by reflection.
+         *
+         * @param txn the transaction.
+         * @return {@code true} if the mark has been reset.
+         */
+        static boolean resetRollbackOnly( EntityTransaction txn )
+        {
+            for ( Class<?> type = txn.getClass(); type != null; type = type.getSuperclass() )
+            {
+                try
+                {
+                    final Field field = type.getDeclaredField( "rollbackOnly" );
+                    if ( field.getType() != boolean.class )
+                    {
+                        return false;
+                    }
+                    field.setAccessible( true );
+                    field.setBoolean( txn, false );
+                    return !txn.getRollbackOnly();
+                }
+                catch ( NoSuchFieldException e )
+                {
+                    // continue with the super class
+                }
+                catch ( IllegalAccessException e )
+                {
+                    return false;
+                }
+                catch ( SecurityException e )
+                {
+                    return false;
+                }
+            }
+            return false;
         }
     }
 
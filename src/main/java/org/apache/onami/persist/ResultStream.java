@@ -0,0 +1,64 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.Iterator;
+
+/**
+ * Forward only iterator over the result of a query. The result is loaded in chunks of a fixed size.
+ * Only the current chunk is held in memory. Entities of a chunk are detached from the {@link
+ * javax.persistence.EntityManager} once the iteration moves on to the next chunk. If a transaction is active
+ * the entity manager is flushed before detaching so changes made to the streamed entities are not lost.
+ * Outside of a transaction changes to the entities of a consumed chunk are discarded.
+ * <p/>
+ * A result stream is bound to the {@link UnitOfWork} in which it was created. It is closed automatically
+ * when the unit of work ends. Closing a result stream early releases the current chunk.
+ * <p/>
+ * Usage example:
+ * <pre>
+ * final ResultStream&lt;Order&gt; orders = resultStreamFactory.stream( query, 500 );
+ * try {
+ *   while ( orders.hasNext() ) {
+ *     export( orders.next() );
+ *   }
+ * }
+ * finally {
+ *   orders.close();
+ * }
+ * </pre>
+ *
+ * @param <T> the type of the query result.
+ */
+public interface ResultStream<T>
+    extends Iterator<T>
+{
+
+    /**
+     * Closes the stream. Subsequent calls to {@link #hasNext()} will return {@code false}.
+     * Calling this method on a closed stream has no effect.
+     */
+    void close();
+
+    /**
+     * @return {@code true} if the stream has been closed either explicitly or by ending the unit of work.
+     */
+    boolean isClosed();
+
+}
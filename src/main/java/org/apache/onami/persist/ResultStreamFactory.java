@@ -0,0 +1,52 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import javax.persistence.TypedQuery;
+
+/**
+ * Factory for {@link ResultStream result streams}.
+ * <p/>
+ * Use a result stream instead of {@link TypedQuery#getResultList()} when reading large results. If the
+ * persistence provider is Hibernate the query is executed once and read through a forward only cursor in
+ * chunks of {@code fetchSize} elements. For other providers the result is loaded page by page using
+ * {@link TypedQuery#setFirstResult(int)} and {@link TypedQuery#setMaxResults(int)}. In this case the query
+ * must define a stable order (i.e. an ORDER BY clause over a unique key). The fetch size is also passed on to
+ * the persistence provider as JDBC fetch size hint.
+ * <p/>
+ * The {@link ResultStreamFactory} is thread save.
+ */
+public interface ResultStreamFactory
+{
+
+    /**
+     * Creates a result stream for the given query.
+     *
+     * @param query     the query to stream the result of. Must have been created by the {@link
+     *                  javax.persistence.EntityManager} of the current unit of work. Must not be {@code null}.
+     * @param fetchSize the number of elements to load at once. Must be greater than zero.
+     * @param <T>       the type of the query result.
+     * @return the result stream. It is closed at the latest when the current unit of work ends.
+     * @throws IllegalStateException if {@link UnitOfWork#isActive()} returns false.
+     */
+    <T> ResultStream<T> stream( TypedQuery<T> query, int fetchSize )
+        throws IllegalStateException;
+
+}
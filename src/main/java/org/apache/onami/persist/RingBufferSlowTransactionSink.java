@@ -0,0 +1,101 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link SlowTransactionSink} keeping the most recent reports in memory. Older reports are overwritten once the
+ * capacity is reached. Useful for exposing recent findings on a diagnostics page or in tests.
+ */
+public class RingBufferSlowTransactionSink
+    implements SlowTransactionSink
+{
+
+    /**
+     * The buffer of reports. Guarded by {@code this}.
+     */
+    private final SlowTransactionReport[] buffer;
+
+    /**
+     * The total number of received reports. Guarded by {@code this}.
+     */
+    private long reportCount;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the maximal number of reports to keep. Must be greater than zero.
+     */
+    public RingBufferSlowTransactionSink( int capacity )
+    {
+        if ( capacity <= 0 )
+        {
+            throw new IllegalArgumentException( "capacity must be greater than zero but was " + capacity );
+        }
+        this.buffer = new SlowTransactionReport[capacity];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public synchronized void report( SlowTransactionReport report )
+    {
+        buffer[(int) ( reportCount % buffer.length )] = report;
+        reportCount++;
+    }
+
+    /**
+     * @return the kept reports. The oldest report comes first.
+     */
+    public synchronized List<SlowTransactionReport> getReports()
+    {
+        final int size = (int) Math.min( reportCount, buffer.length );
+        final List<SlowTransactionReport> reports = new ArrayList<SlowTransactionReport>( size );
+        for ( long i = reportCount - size; i < reportCount; i++ )
+        {
+            reports.add( buffer[(int) ( i % buffer.length )] );
+        }
+        return reports;
+    }
+
+    /**
+     * @return the total number of received reports including the overwritten ones.
+     */
+    public synchronized long getReportCount()
+    {
+        return reportCount;
+    }
+
+    /**
+     * Removes all kept reports.
+     */
+    public synchronized void clear()
+    {
+        for ( int i = 0; i < buffer.length; i++ )
+        {
+            buffer[i] = null;
+        }
+        reportCount = 0;
+    }
+
+}
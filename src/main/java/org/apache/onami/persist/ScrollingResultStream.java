@@ -0,0 +1,231 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import javax.persistence.TypedQuery;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Implementation of {@link ResultStream} which reads the result through a single forward only cursor of the
+ * persistence provider. The query is executed once and the rows are fetched from the open JDBC result set
+ * chunk by chunk.
+ * <p/>
+ * Hibernate is accessed by reflection. This way onami persist does not depend on Hibernate. For other
+ * persistence providers {@link #open(TypedQuery, EntityManager, int)} returns {@code null} and the
+ * {@link PagedResultStream} is used instead.
+ *
+ * @param <T> the type of the query result.
+ */
+class ScrollingResultStream<T>
+    extends ChunkedResultStream<T>
+{
+
+    private static final String QUERY_CLASS = "org.hibernate.Query";
+
+    private static final String SCROLL_MODE_CLASS = "org.hibernate.ScrollMode";
+
+    private static final String SCROLLABLE_RESULTS_CLASS = "org.hibernate.ScrollableResults";
+
+    /**
+     * The reflective handles of the Hibernate API.
+     */
+    private final HibernateScrollApi api;
+
+    /**
+     * The open {@code org.hibernate.ScrollableResults}.
+     */
+    private final Object scrollableResults;
+
+    /**
+     * Constructor.
+     *
+     * @param api               the reflective handles of the Hibernate API.
+     * @param scrollableResults the open cursor.
+     * @param em                the entity manager which created the query.
+     * @param fetchSize         the maximal number of elements in a chunk.
+     */
+    private ScrollingResultStream( HibernateScrollApi api, Object scrollableResults, EntityManager em,
+                                   int fetchSize )
+    {
+        super( em, fetchSize );
+        this.api = api;
+        this.scrollableResults = scrollableResults;
+    }
+
+    /**
+     * Opens a forward only cursor for the given query.
+     *
+     * @param query     the query to stream the result of. Must not be {@code null}.
+     * @param em        the entity manager which created the query. Must not be {@code null}.
+     * @param fetchSize the maximal number of elements in a chunk. Must be greater than zero.
+     * @param <T>       the type of the query result.
+     * @return the result stream or {@code null} if the persistence provider does not support scrolling.
+     */
+    static <T> ScrollingResultStream<T> open( TypedQuery<T> query, EntityManager em, int fetchSize )
+    {
+        checkFetchSize( fetchSize );
+        HibernateScrollApi api = HibernateScrollApi.load( query.getClass().getClassLoader() );
+        if ( api == null )
+        {
+            // the query may be a proxy defined by the class loader of the JPA API
+            api = HibernateScrollApi.load( Thread.currentThread().getContextClassLoader() );
+        }
+        if ( api == null )
+        {
+            return null;
+        }
+        final Object hibernateQuery;
+        try
+        {
+            hibernateQuery = query.unwrap( api.queryClass );
+        }
+        catch ( PersistenceException e )
+        {
+            // query of a different provider
+            return null;
+        }
+        if ( hibernateQuery == null )
+        {
+            return null;
+        }
+        applyFetchSizeHints( query, fetchSize );
+        return new ScrollingResultStream<T>( api, invoke( api.scroll, hibernateQuery, api.forwardOnly ), em,
+                                             fetchSize );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @SuppressWarnings( "unchecked" )
+    List<T> loadChunk( int maxSize )
+    {
+        final List<T> chunk = new ArrayList<T>( maxSize );
+        while ( chunk.size() < maxSize && (Boolean) invoke( api.next, scrollableResults ) )
+        {
+            final Object[] row = (Object[]) invoke( api.get, scrollableResults );
+            chunk.add( (T) ( row.length == 1 ? row[0] : row ) );
+        }
+        return chunk;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    void releaseQuery()
+    {
+        invoke( api.close, scrollableResults );
+    }
+
+    /**
+     * Invokes a method of the Hibernate API.
+     *
+     * @param method the method.
+     * @param target the target of the invocation.
+     * @param args   the arguments.
+     * @return the result of the invocation.
+     */
+    private static Object invoke( Method method, Object target, Object... args )
+    {
+        try
+        {
+            return method.invoke( target, args );
+        }
+        catch ( InvocationTargetException e )
+        {
+            if ( e.getCause() instanceof RuntimeException )
+            {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new PersistenceException( e.getCause() );
+        }
+        catch ( IllegalAccessException e )
+        {
+            throw new PersistenceException( e );
+        }
+    }
+
+    /**
+     * Holder of the reflective handles of the Hibernate API.
+     */
+    private static class HibernateScrollApi
+    {
+        private final Class<?> queryClass;
+
+        private final Object forwardOnly;
+
+        private final Method scroll;
+
+        private final Method next;
+
+        private final Method get;
+
+        private final Method close;
+
+        private HibernateScrollApi( Class<?> queryClass, Object forwardOnly, Method scroll, Method next, Method get,
+                                    Method close )
+        {
+            this.queryClass = queryClass;
+            this.forwardOnly = forwardOnly;
+            this.scroll = scroll;
+            this.next = next;
+            this.get = get;
+            this.close = close;
+        }
+
+        /**
+         * @param classLoader the class loader to resolve Hibernate with. May be {@code null}.
+         * @return the Hibernate API or {@code null} if Hibernate is not present.
+         */
+        @SuppressWarnings( { "unchecked", "rawtypes" } )
+        static HibernateScrollApi load( ClassLoader classLoader )
+        {
+            if ( classLoader == null )
+            {
+                return null;
+            }
+            try
+            {
+                final Class<?> queryClass = Class.forName( QUERY_CLASS, false, classLoader );
+                final Class scrollModeClass = Class.forName( SCROLL_MODE_CLASS, false, classLoader );
+                final Class<?> resultsClass = Class.forName( SCROLLABLE_RESULTS_CLASS, false, classLoader );
+                return new HibernateScrollApi( queryClass, Enum.valueOf( scrollModeClass, "FORWARD_ONLY" ),
+                                               queryClass.getMethod( "scroll", scrollModeClass ),
+                                               resultsClass.getMethod( "next" ), resultsClass.getMethod( "get" ),
+                                               resultsClass.getMethod( "close" ) );
+            }
+            catch ( ClassNotFoundException e )
+            {
+                return null;
+            }
+            catch ( NoSuchMethodException e )
+            {
+                return null;
+            }
+        }
+    }
+
+}
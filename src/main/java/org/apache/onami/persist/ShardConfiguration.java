@@ -0,0 +1,83 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+/**
+ * Configuration of the shards of a persistence unit.
+ */
+class ShardConfiguration
+{
+
+    /**
+     * The resolver for the shard of a shard key.
+     */
+    private final ShardResolver resolver;
+
+    /**
+     * The properties of the shards. Theses override the properties of the persistence unit.
+     */
+    private final List<Properties> shardProperties;
+
+    /**
+     * Constructor.
+     *
+     * @param resolver        the resolver for the shard of a shard key. Must not be {@code null}.
+     * @param shardProperties the properties of the shards. Must not be empty.
+     */
+    ShardConfiguration( ShardResolver resolver, Properties... shardProperties )
+    {
+        this.resolver = checkNotNull( resolver, "resolver is mandatory!" );
+        if ( shardProperties == null || shardProperties.length == 0 )
+        {
+            throw new IllegalArgumentException( "at least one shard is required" );
+        }
+        for ( Properties properties : shardProperties )
+        {
+            checkNotNull( properties, "shardProperties must not contain null" );
+        }
+        this.shardProperties =
+            Collections.unmodifiableList( new ArrayList<Properties>( Arrays.asList( shardProperties ) ) );
+    }
+
+    /**
+     * @return the resolver for the shard of a shard key.
+     */
+    ShardResolver getResolver()
+    {
+        return resolver;
+    }
+
+    /**
+     * @return the properties of the shards.
+     */
+    List<Properties> getShardProperties()
+    {
+        return shardProperties;
+    }
+
+}
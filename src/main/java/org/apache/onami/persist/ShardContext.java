@@ -0,0 +1,61 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Holds the shard key of the current thread for a sharded persistence unit.
+ * <p/>
+ * The shard key must be set before a unit of work is started. It determines the shard used by
+ * the unit of work. Changing the shard key does not affect a running unit of work.
+ * <p/>
+ * Recommended pattern:
+ * <pre>
+ * shardContext.setShardKey(customerId);
+ * try {
+ *   // call transactional methods
+ * }
+ * finally {
+ *   shardContext.clearShardKey();
+ * }
+ * </pre>
+ *
+ * @see ShardKey
+ */
+public interface ShardContext
+{
+
+    /**
+     * Sets the shard key of the current thread.
+     *
+     * @param shardKey the shard key. Must not be {@code null}.
+     */
+    void setShardKey( Object shardKey );
+
+    /**
+     * @return the shard key of the current thread or {@code null} if none is set.
+     */
+    Object getShardKey();
+
+    /**
+     * Removes the shard key of the current thread.
+     */
+    void clearShardKey();
+
+}
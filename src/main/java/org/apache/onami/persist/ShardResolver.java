@@ -0,0 +1,42 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Resolves the shard of a sharded persistence unit for a shard key.
+ * <p/>
+ * Implementations must be thread safe and must always return the same shard for equal keys
+ * and the same number of shards.
+ *
+ * @see UnconfiguredPersistenceUnitBuilder#useShards(ShardResolver, java.util.Properties...)
+ */
+public interface ShardResolver
+{
+
+    /**
+     * Resolves the shard for a shard key.
+     *
+     * @param shardKey       the shard key. Never {@code null}.
+     * @param numberOfShards the number of shards of the persistence unit.
+     * @return the index of the shard. Must be between 0 (inclusive) and numberOfShards (exclusive).
+     */
+    int resolveShard( Object shardKey, int numberOfShards );
+
+}
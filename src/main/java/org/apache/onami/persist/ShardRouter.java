@@ -0,0 +1,270 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+/**
+ * Routes the units of work of a sharded persistence unit to the shard of the current shard key.
+ * Also implements the {@link ShardContext} holding the shard key of the current thread.
+ */
+@Singleton
+class ShardRouter
+    implements ShardContext
+{
+
+    /**
+     * The configuration of the shards. {@code null} if the persistence unit is not sharded.
+     */
+    private final ShardConfiguration config;
+
+    /**
+     * The entity manager factories of the shards. Empty when the persistence service is not running.
+     */
+    private volatile List<EntityManagerFactory> shards = Collections.emptyList();
+
+    /**
+     * Thread local store of the shard key.
+     */
+    private final ThreadLocal<Object> shardKeys = new ThreadLocal<Object>();
+
+    /**
+     * Thread local store of the index of the shard used by the current unit of work.
+     */
+    private final ThreadLocal<Integer> activeShards = new ThreadLocal<Integer>();
+
+    /**
+     * Constructor.
+     *
+     * @param config the configuration of the shards. {@code null} if the persistence unit is not sharded.
+     */
+    @Inject
+    ShardRouter( @Nullable ShardConfiguration config )
+    {
+        this.config = config;
+    }
+
+    /**
+     * @return {@code true} if the persistence unit is sharded.
+     */
+    boolean isSharded()
+    {
+        return config != null;
+    }
+
+    /**
+     * Creates the entity manager factories of the shards.
+     *
+     * @param emfFactory the factory for creating the entity manager factories.
+     */
+    void start( EntityManagerFactoryFactory emfFactory )
+    {
+        if ( config == null )
+        {
+            return;
+        }
+        final List<EntityManagerFactory> created = new ArrayList<EntityManagerFactory>();
+        try
+        {
+            for ( Properties properties : config.getShardProperties() )
+            {
+                created.add( emfFactory.createApplicationManagedEntityManagerFactory( properties ) );
+            }
+        }
+        catch ( RuntimeException e )
+        {
+            close( created );
+            throw e;
+        }
+        shards = Collections.unmodifiableList( created );
+    }
+
+    /**
+     * @return the entity manager factories of the shards. Empty if the persistence unit is not sharded or the
+     *         persistence service is not running.
+     */
+    List<EntityManagerFactory> getShards()
+    {
+        return shards;
+    }
+
+    /**
+     * Closes the entity manager factories of the shards.
+     */
+    void stop()
+    {
+        final List<EntityManagerFactory> stopping = shards;
+        shards = Collections.emptyList();
+        close( stopping );
+    }
+
+    /**
+     * Closes the given entity manager factories. All factories are closed even if closing one fails.
+     *
+     * @param factories the entity manager factories to close.
+     */
+    private void close( List<EntityManagerFactory> factories )
+    {
+        final AggregatedException.Builder exceptionBuilder = new AggregatedException.Builder();
+        for ( EntityManagerFactory factory : factories )
+        {
+            try
+            {
+                factory.close();
+            }
+            catch ( Exception e )
+            {
+                exceptionBuilder.add( e );
+            }
+        }
+        exceptionBuilder.throwRuntimeExceptionIfHasCauses( "multiple exception occurred while closing shards" );
+    }
+
+    /**
+     * Selects the shard for a unit of work of the current thread.
+     * Must be followed by a call to {@link #release()} at the end of the unit of work.
+     *
+     * @return the entity manager factory of the selected shard or {@code null} if the persistence unit
+     *         is not sharded.
+     * @throws IllegalStateException if the persistence service is not running or no shard key is set.
+     */
+    EntityManagerFactory acquireShard()
+    {
+        if ( config == null )
+        {
+            return null;
+        }
+        final List<EntityManagerFactory> candidates = shards;
+        if ( candidates.isEmpty() )
+        {
+            throw new IllegalStateException( "PersistenceService is not running." );
+        }
+        final Object shardKey = shardKeys.get();
+        if ( shardKey == null )
+        {
+            throw new IllegalStateException( "No shard key set for the sharded persistence unit." );
+        }
+        final int shard = resolveShard( shardKey, candidates.size() );
+        activeShards.set( shard );
+        return candidates.get( shard );
+    }
+
+    /**
+     * Resolves the shard of a key and validates the result of the resolver.
+     *
+     * @param shardKey       the shard key.
+     * @param numberOfShards the number of shards.
+     * @return the index of the shard.
+     */
+    private int resolveShard( Object shardKey, int numberOfShards )
+    {
+        final int shard = config.getResolver().resolveShard( shardKey, numberOfShards );
+        if ( shard < 0 || shard >= numberOfShards )
+        {
+            throw new IllegalStateException(
+                "ShardResolver returned shard " + shard + " for " + numberOfShards + " shards" );
+        }
+        return shard;
+    }
+
+    /**
+     * Releases the shard used by the unit of work of the current thread.
+     */
+    void release()
+    {
+        activeShards.remove();
+    }
+
+    /**
+     * Sets the shard key for the current thread. If a unit of work is active the key must belong to
+     * the shard of the unit of work.
+     *
+     * @param shardKey the shard key to set. Must not be {@code null}.
+     * @return the previous shard key of the current thread. May be {@code null}.
+     * @throws IllegalStateException if the key belongs to a shard other than the one of the active unit of work.
+     */
+    Object bindShardKey( Object shardKey )
+    {
+        checkNotNull( shardKey, "shardKey is mandatory!" );
+        final Integer activeShard = activeShards.get();
+        if ( activeShard != null && resolveShard( shardKey, shards.size() ) != activeShard.intValue() )
+        {
+            throw new IllegalStateException( "Shard key " + shardKey + " does not belong to shard " + activeShard
+                                                 + " of the active unit of work." );
+        }
+        final Object previous = shardKeys.get();
+        shardKeys.set( shardKey );
+        return previous;
+    }
+
+    /**
+     * Restores the shard key of the current thread.
+     *
+     * @param shardKey the shard key to restore. {@code null} to remove the shard key.
+     */
+    void restoreShardKey( Object shardKey )
+    {
+        if ( shardKey == null )
+        {
+            shardKeys.remove();
+        }
+        else
+        {
+            shardKeys.set( shardKey );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void setShardKey( Object shardKey )
+    {
+        shardKeys.set( checkNotNull( shardKey, "shardKey is mandatory!" ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public Object getShardKey()
+    {
+        return shardKeys.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void clearShardKey()
+    {
+        shardKeys.remove();
+    }
+
+}
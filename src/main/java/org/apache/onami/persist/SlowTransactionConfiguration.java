@@ -0,0 +1,80 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+/**
+ * Configuration of the detection of slow transactions of a persistence unit.
+ */
+class SlowTransactionConfiguration
+{
+
+    /**
+     * The duration in milliseconds above which a transaction is reported.
+     */
+    private final long thresholdMillis;
+
+    /**
+     * The receiver of the reports.
+     */
+    private final SlowTransactionSink sink;
+
+    /**
+     * {@code true} if the stack of the thread is sampled once the threshold is exceeded and added to the reports.
+     */
+    private final boolean captureStackTrace;
+
+    /**
+     * Constructor.
+     *
+     * @param thresholdMillis   the duration in milliseconds above which a transaction is reported. Must not be
+     *                          negative.
+     * @param sink              the receiver of the reports. Must not be {@code null}.
+     * @param captureStackTrace {@code true} if the stack of the thread is sampled once the threshold is exceeded
+     *                          and added to the reports.
+     */
+    SlowTransactionConfiguration( long thresholdMillis, SlowTransactionSink sink, boolean captureStackTrace )
+    {
+        if ( thresholdMillis < 0 )
+        {
+            throw new IllegalArgumentException( "thresholdMillis must not be negative but was " + thresholdMillis );
+        }
+        this.thresholdMillis = thresholdMillis;
+        this.sink = checkNotNull( sink, "sink is mandatory!" );
+        this.captureStackTrace = captureStackTrace;
+    }
+
+    long getThresholdMillis()
+    {
+        return thresholdMillis;
+    }
+
+    SlowTransactionSink getSink()
+    {
+        return sink;
+    }
+
+    boolean isCaptureStackTrace()
+    {
+        return captureStackTrace;
+    }
+
+}
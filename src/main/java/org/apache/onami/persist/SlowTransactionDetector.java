@@ -0,0 +1,339 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+/**
+ * Detector for slow transactions of a persistence unit. The {@link TxnInterceptor} measures the phases of every
+ * transactional method and reports the methods exceeding the configured threshold to the
+ * {@link SlowTransactionSink}. Every measured method is also passed to the {@link TransactionalMethodProfiler}.
+ * If neither a {@link SlowTransactionConfiguration} nor profiling is configured nothing is measured.
+ * <p/>
+ * If capturing the stack is configured a daemon thread samples the stack of every transactional method which is
+ * still running after the threshold. This shows where the method spends its time rather than where it ended.
+ */
+@Singleton
+class SlowTransactionDetector
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger( SlowTransactionDetector.class );
+
+    /**
+     * Timing returned if the detection is disabled.
+     */
+    private static final Timing DISABLED = new Timing( null, 0 );
+
+    /**
+     * The minimal period in milliseconds of the stack sampler.
+     */
+    private static final long MIN_SAMPLE_PERIOD_MILLIS = 5;
+
+    /**
+     * The configuration. {@code null} if the detection is disabled.
+     */
+    private final SlowTransactionConfiguration config;
+
+    /**
+     * Holder of the annotation of the persistence unit.
+     */
+    private final AnnotationHolder annotationHolder;
+
+    /**
+     * Profiler receiving the timing of every method.
+     */
+    private final TransactionalMethodProfiler profiler;
+
+    /**
+     * Thread local store of the number of running transactional methods.
+     */
+    private final ThreadLocal<int[]> depths = new ThreadLocal<int[]>()
+    {
+        @Override
+        protected int[] initialValue()
+        {
+            return new int[1];
+        }
+    };
+
+    /**
+     * The running transactional methods whose stack is sampled and the threads running them. Only used if
+     * capturing the stack is configured.
+     */
+    private final ConcurrentMap<Timing, Thread> sampledTimings = new ConcurrentHashMap<Timing, Thread>();
+
+    /**
+     * The executor sampling the stacks. Created on first use.
+     */
+    private ScheduledExecutorService sampler;
+
+    /**
+     * Constructor.
+     *
+     * @param config           the configuration. {@code null} if the detection is disabled.
+     * @param annotationHolder holder of the annotation of the persistence unit.
+     * @param profiler         profiler receiving the timing of every method.
+     */
+    @Inject
+    SlowTransactionDetector( @Nullable SlowTransactionConfiguration config, AnnotationHolder annotationHolder,
+                             TransactionalMethodProfiler profiler )
+    {
+        this.config = config;
+        this.annotationHolder = annotationHolder;
+        this.profiler = checkNotNull( profiler, "profiler is mandatory!" );
+    }
+
+    /**
+     * Starts measuring a transactional method. Every call must be followed by a call to
+     * {@link #finish(Timing, boolean)}.
+     *
+     * @param method the transactional method.
+     * @return the timing of the method.
+     */
+    Timing start( Method method )
+    {
+        if ( method == null || ( config == null && !profiler.isEnabled() ) )
+        {
+            return DISABLED;
+        }
+        final Timing timing = new Timing( method, depths.get()[0]++ );
+        if ( config != null && config.isCaptureStackTrace() )
+        {
+            sampledTimings.put( timing, Thread.currentThread() );
+            ensureSamplerRunning();
+        }
+        return timing;
+    }
+
+    /**
+     * Starts the sampler unless it is already running.
+     */
+    private synchronized void ensureSamplerRunning()
+    {
+        if ( sampler == null )
+        {
+            final long periodMillis = Math.max( MIN_SAMPLE_PERIOD_MILLIS, config.getThresholdMillis() / 2 );
+            sampler = Executors.newSingleThreadScheduledExecutor(
+                new DaemonThreadFactory( "onami-persist-slow-transaction-sampler" ) );
+            sampler.scheduleWithFixedDelay( new Runnable()
+            {
+                // @Override
+                public void run()
+                {
+                    sampleSlowTimings();
+                }
+            }, periodMillis, periodMillis, TimeUnit.MILLISECONDS );
+        }
+    }
+
+    /**
+     * Stops the sampler and forgets the sampled methods. Called when the persistence service is stopped.
+     * The sampler is started again by the next method.
+     */
+    synchronized void stop()
+    {
+        if ( sampler != null )
+        {
+            sampler.shutdownNow();
+            sampler = null;
+        }
+        sampledTimings.clear();
+    }
+
+    /**
+     * Samples the stack of the running methods which exceeded the threshold. Every method is sampled once.
+     */
+    private void sampleSlowTimings()
+    {
+        final long thresholdNanos = TimeUnit.MILLISECONDS.toNanos( config.getThresholdMillis() );
+        final long now = System.nanoTime();
+        for ( Map.Entry<Timing, Thread> entry : sampledTimings.entrySet() )
+        {
+            final Timing timing = entry.getKey();
+            if ( timing.sampledStackTrace == null && now - timing.startNanos > thresholdNanos )
+            {
+                final StackTraceElement[] stackTrace = entry.getValue().getStackTrace();
+                // the method may have finished in the meantime
+                if ( sampledTimings.containsKey( timing ) )
+                {
+                    timing.sampledStackTrace = stackTrace;
+                }
+            }
+        }
+    }
+
+    /**
+     * Finishes measuring a transactional method and reports it if it exceeded the threshold.
+     *
+     * @param timing the timing returned by {@link #start(Method)}.
+     * @param failed {@code true} if the method threw an exception.
+     */
+    void finish( Timing timing, boolean failed )
+    {
+        if ( timing == DISABLED )
+        {
+            return;
+        }
+        depths.get()[0]--;
+        sampledTimings.remove( timing );
+        final long endNanos = System.nanoTime();
+        final long workStartNanos = timing.workStartNanos == 0 ? endNanos : timing.workStartNanos;
+        final long workEndNanos = timing.workEndNanos == 0 ? workStartNanos : timing.workEndNanos;
+        if ( profiler.isEnabled() )
+        {
+            profiler.record( timing.method, timing.depth == 0, failed, timing.rollbackCause,
+                             endNanos - timing.startNanos, endNanos - workEndNanos );
+        }
+        if ( config == null )
+        {
+            return;
+        }
+        final long thresholdMillis = config.getThresholdMillis();
+        if ( toMillis( endNanos - timing.startNanos ) <= thresholdMillis )
+        {
+            return;
+        }
+        final SlowTransactionReport report =
+            new SlowTransactionReport( timing.method, annotationHolder.getAnnotation(), timing.depth,
+                                       timing.unitOfWorkStarted, failed,
+                                       toMillis( workStartNanos - timing.startNanos ),
+                                       toMillis( workEndNanos - workStartNanos ), toMillis( endNanos - workEndNanos ),
+                                       thresholdMillis, Thread.currentThread().getName(),
+                                       timing.sampledStackTrace );
+        try
+        {
+            config.getSink().report( report );
+        }
+        catch ( RuntimeException e )
+        {
+            LOG.warn( "slow transaction sink failed", e );
+        }
+    }
+
+    private static long toMillis( long nanos )
+    {
+        return TimeUnit.NANOSECONDS.toMillis( nanos );
+    }
+
+    /**
+     * Timing of a single transactional method.
+     */
+    static final class Timing
+    {
+
+        /**
+         * The transactional method. {@code null} if the detection is disabled.
+         */
+        private final Method method;
+
+        /**
+         * The number of enclosing transactional methods.
+         */
+        private final int depth;
+
+        private final long startNanos;
+
+        private long workStartNanos;
+
+        private long workEndNanos;
+
+        private boolean unitOfWorkStarted;
+
+        /**
+         * The class of the exception which caused a rollback. {@code null} if the transaction was not rolled back.
+         */
+        private Class<? extends Throwable> rollbackCause;
+
+        /**
+         * The stack sampled while the method exceeded the threshold. {@code null} if not sampled.
+         */
+        private volatile StackTraceElement[] sampledStackTrace;
+
+        /**
+         * Constructor.
+         *
+         * @param method the transactional method. {@code null} if the detection is disabled.
+         * @param depth  the number of enclosing transactional methods.
+         */
+        private Timing( Method method, int depth )
+        {
+            this.method = method;
+            this.depth = depth;
+            this.startNanos = method == null ? 0 : System.nanoTime();
+        }
+
+        /**
+         * Marks that the method started the unit of work.
+         */
+        void unitOfWorkStarted()
+        {
+            unitOfWorkStarted = true;
+        }
+
+        /**
+         * Marks the end of the begin phase.
+         */
+        void workStarted()
+        {
+            if ( method != null )
+            {
+                workStartNanos = System.nanoTime();
+            }
+        }
+
+        /**
+         * Marks the start of the commit phase.
+         */
+        void workEnded()
+        {
+            if ( method != null )
+            {
+                workEndNanos = System.nanoTime();
+            }
+        }
+
+        /**
+         * Marks that the transaction is rolled back because of an exception.
+         *
+         * @param cause the exception thrown by the method.
+         */
+        void rolledBack( Throwable cause )
+        {
+            if ( method != null )
+            {
+                rollbackCause = cause.getClass();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,237 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+
+/**
+ * Report about a {@link Transactional @Transactional} method whose transaction exceeded the configured threshold.
+ * The duration is split into the phases:
+ * <ul>
+ * <li>begin: starting the unit of work (if the method started it) and beginning the transaction</li>
+ * <li>work: executing the method</li>
+ * <li>commit: committing or rolling back the transaction and ending the unit of work (if the method started it)</li>
+ * </ul>
+ */
+public final class SlowTransactionReport
+{
+
+    /**
+     * The transactional method.
+     */
+    private final Method method;
+
+    /**
+     * The annotation of the persistence unit. {@code null} for a persistence unit without annotation.
+     */
+    private final Class<? extends Annotation> unitAnnotation;
+
+    /**
+     * The number of enclosing transactional methods of the same persistence unit.
+     */
+    private final int nestingDepth;
+
+    /**
+     * {@code true} if the method started the unit of work.
+     */
+    private final boolean unitOfWorkStarted;
+
+    /**
+     * {@code true} if the method threw an exception.
+     */
+    private final boolean failed;
+
+    private final long beginMillis;
+
+    private final long workMillis;
+
+    private final long commitMillis;
+
+    private final long thresholdMillis;
+
+    /**
+     * The name of the thread which ran the transaction.
+     */
+    private final String threadName;
+
+    /**
+     * The stack of the thread sampled while the transaction exceeded the threshold. {@code null} if not captured.
+     */
+    private final StackTraceElement[] stackTrace;
+
+    /**
+     * Constructor.
+     *
+     * @param method            the transactional method.
+     * @param unitAnnotation    the annotation of the persistence unit. May be {@code null}.
+     * @param nestingDepth      the number of enclosing transactional methods of the same persistence unit.
+     * @param unitOfWorkStarted {@code true} if the method started the unit of work.
+     * @param failed            {@code true} if the method threw an exception.
+     * @param beginMillis       the duration of the begin phase in milliseconds.
+     * @param workMillis        the duration of the work phase in milliseconds.
+     * @param commitMillis      the duration of the commit phase in milliseconds.
+     * @param thresholdMillis   the configured threshold in milliseconds.
+     * @param threadName        the name of the thread which ran the transaction.
+     * @param stackTrace        the stack of the thread sampled while the transaction exceeded the threshold.
+     *                          May be {@code null}.
+     */
+    SlowTransactionReport( Method method, Class<? extends Annotation> unitAnnotation, int nestingDepth,
+                           boolean unitOfWorkStarted, boolean failed, long beginMillis, long workMillis,
+                           long commitMillis, long thresholdMillis, String threadName,
+                           StackTraceElement[] stackTrace )
+    {
+        this.method = method;
+        this.unitAnnotation = unitAnnotation;
+        this.nestingDepth = nestingDepth;
+        this.unitOfWorkStarted = unitOfWorkStarted;
+        this.failed = failed;
+        this.beginMillis = beginMillis;
+        this.workMillis = workMillis;
+        this.commitMillis = commitMillis;
+        this.thresholdMillis = thresholdMillis;
+        this.threadName = threadName;
+        this.stackTrace = stackTrace;
+    }
+
+    /**
+     * @return the transactional method.
+     */
+    public Method getMethod()
+    {
+        return method;
+    }
+
+    /**
+     * @return the annotation of the persistence unit. {@code null} for a persistence unit without annotation.
+     */
+    public Class<? extends Annotation> getUnitAnnotation()
+    {
+        return unitAnnotation;
+    }
+
+    /**
+     * @return the number of enclosing transactional methods of the same persistence unit. {@code 0} for the
+     *         outermost method.
+     */
+    public int getNestingDepth()
+    {
+        return nestingDepth;
+    }
+
+    /**
+     * @return {@code true} if the method started the unit of work. The begin and commit phases then include
+     *         starting and ending the unit of work.
+     */
+    public boolean isUnitOfWorkStarted()
+    {
+        return unitOfWorkStarted;
+    }
+
+    /**
+     * @return {@code true} if the method threw an exception.
+     */
+    public boolean isFailed()
+    {
+        return failed;
+    }
+
+    /**
+     * @return the duration of the begin phase in milliseconds.
+     */
+    public long getBeginMillis()
+    {
+        return beginMillis;
+    }
+
+    /**
+     * @return the duration of the work phase in milliseconds.
+     */
+    public long getWorkMillis()
+    {
+        return workMillis;
+    }
+
+    /**
+     * @return the duration of the commit phase in milliseconds.
+     */
+    public long getCommitMillis()
+    {
+        return commitMillis;
+    }
+
+    /**
+     * @return the total duration in milliseconds.
+     */
+    public long getTotalMillis()
+    {
+        return beginMillis + workMillis + commitMillis;
+    }
+
+    /**
+     * @return the configured threshold in milliseconds.
+     */
+    public long getThresholdMillis()
+    {
+        return thresholdMillis;
+    }
+
+    /**
+     * @return the name of the thread which ran the transaction.
+     */
+    public String getThreadName()
+    {
+        return threadName;
+    }
+
+    /**
+     * @return the stack of the thread sampled while the transaction exceeded the threshold. {@code null} if capturing
+     *         the stack is disabled or the transaction completed before the stack was sampled.
+     */
+    public StackTraceElement[] getStackTrace()
+    {
+        return stackTrace == null ? null : stackTrace.clone();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        final StringBuilder sb = new StringBuilder( "slow transaction " );
+        sb.append( method.getDeclaringClass().getName() ).append( '.' ).append( method.getName() );
+        sb.append( " on unit " ).append( unitAnnotation == null ? "default" : unitAnnotation.getSimpleName() );
+        sb.append( " took " ).append( getTotalMillis() ).append( "ms (threshold " ).append( thresholdMillis );
+        sb.append( "ms, begin " ).append( beginMillis ).append( "ms, work " ).append( workMillis );
+        sb.append( "ms, commit " ).append( commitMillis ).append( "ms, depth " ).append( nestingDepth );
+        if ( unitOfWorkStarted )
+        {
+            sb.append( ", started unit of work" );
+        }
+        if ( failed )
+        {
+            sb.append( ", failed" );
+        }
+        sb.append( ", thread " ).append( threadName ).append( ')' );
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,41 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Receiver of the reports about slow transactions of a persistence unit. Reports are delivered synchronously on
+ * the thread which ran the transaction. Implementations must therefore be fast and thread safe. Exceptions thrown by
+ * a sink are logged and do not affect the transaction.
+ *
+ * @see LoggingSlowTransactionSink
+ * @see RingBufferSlowTransactionSink
+ * @see UnconfiguredPersistenceUnitBuilder#detectSlowTransactions(long, SlowTransactionSink, boolean)
+ */
+public interface SlowTransactionSink
+{
+
+    /**
+     * Receives the report about a slow transaction.
+     *
+     * @param report the report. Never {@code null}.
+     */
+    void report( SlowTransactionReport report );
+
+}
@@ -0,0 +1,42 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import javax.persistence.EntityManager;
+
+/**
+ * Counts the SQL statements executed by an {@link EntityManager}. The adapter to the statistics of the persistence
+ * provider used by {@link UnconfiguredPersistenceUnitBuilder#countQueries(int, boolean, SqlStatementCounter)}.
+ * <p/>
+ * Implementations must be thread save.
+ */
+public interface SqlStatementCounter
+{
+
+    /**
+     * Returns the number of SQL statements the given entity manager has executed so far. Only differences between
+     * two calls for the same entity manager are evaluated.
+     *
+     * @param em the entity manager. Never {@code null}.
+     * @return the number of statements or a negative value if the number cannot be determined.
+     */
+    long countStatements( EntityManager em );
+
+}
@@ -0,0 +1,76 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.lang.reflect.Method;
+
+/**
+ * Exception thrown when a {@link Transactional @Transactional} method issued more statements than its
+ * {@link Transactional#statementBudget() statement budget} allows.
+ *
+ * @see UnconfiguredPersistenceUnitBuilder#countQueries(int, boolean)
+ */
+public class StatementBudgetExceededException
+    extends RuntimeException
+{
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The number of statements issued by the method.
+     */
+    private final long statementCount;
+
+    /**
+     * The declared budget.
+     */
+    private final int budget;
+
+    /**
+     * Constructor.
+     *
+     * @param method         the transactional method.
+     * @param statementCount the number of statements issued by the method.
+     * @param budget         the declared budget.
+     */
+    StatementBudgetExceededException( Method method, long statementCount, int budget )
+    {
+        super( method + " issued " + statementCount + " statements which exceeds its budget of " + budget );
+        this.statementCount = statementCount;
+        this.budget = budget;
+    }
+
+    /**
+     * @return the number of statements issued by the method.
+     */
+    public long getStatementCount()
+    {
+        return statementCount;
+    }
+
+    /**
+     * @return the declared budget.
+     */
+    public int getBudget()
+    {
+        return budget;
+    }
+
+}
@@ -0,0 +1,94 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter which spreads concurrent updates over several cells to reduce contention. The cells are padded to
+ * different cache lines. Reading the sum while the counter is updated returns a value which was current at some
+ * point during the read.
+ */
+class StripedCounter
+{
+
+    /**
+     * Number of array slots between two cells. 8 longs fill a cache line of 64 bytes.
+     */
+    private static final int PADDING = 8;
+
+    /**
+     * Number of cells. A power of two.
+     */
+    private static final int STRIPES = stripes();
+
+    private final AtomicLongArray cells = new AtomicLongArray( STRIPES * PADDING );
+
+    private static int stripes()
+    {
+        int stripes = 1;
+        while ( stripes < Runtime.getRuntime().availableProcessors() && stripes < 64 )
+        {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    /**
+     * Adds a value to the cell of the current thread.
+     *
+     * @param value the value to add.
+     */
+    void add( long value )
+    {
+        final int stripe = (int) ( Thread.currentThread().getId() & ( STRIPES - 1 ) );
+        cells.addAndGet( stripe * PADDING, value );
+    }
+
+    void increment()
+    {
+        add( 1 );
+    }
+
+    /**
+     * @return the sum of all cells.
+     */
+    long sum()
+    {
+        long sum = 0;
+        for ( int i = 0; i < STRIPES; i++ )
+        {
+            sum += cells.get( i * PADDING );
+        }
+        return sum;
+    }
+
+    /**
+     * Resets all cells to zero. Updates running concurrently may be lost.
+     */
+    void reset()
+    {
+        for ( int i = 0; i < STRIPES; i++ )
+        {
+            cells.set( i * PADDING, 0 );
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+/**
+ * Configuration of a multi tenant persistence unit.
+ */
+class TenantConfiguration
+{
+
+    /**
+     * The resolver for the properties of a tenant.
+     */
+    private final TenantPropertiesResolver resolver;
+
+    /**
+     * The maximal number of tenants with an open entity manager factory.
+     */
+    private final int maxTenants;
+
+    /**
+     * The time in nanoseconds after which the entity manager factory of an unused tenant is closed.
+     */
+    private final long maxIdleNanos;
+
+    /**
+     * Constructor.
+     *
+     * @param resolver      the resolver for the properties of a tenant. Must not be {@code null}.
+     * @param maxTenants    the maximal number of tenants with an open entity manager factory.
+     *                      Must be greater than zero.
+     * @param maxIdleMillis the time in milliseconds after which the entity manager factory of an unused tenant
+     *                      is closed. 0 to keep it until it is evicted.
+     */
+    TenantConfiguration( TenantPropertiesResolver resolver, int maxTenants, long maxIdleMillis )
+    {
+        this.resolver = checkNotNull( resolver, "resolver is mandatory!" );
+        if ( maxTenants <= 0 )
+        {
+            throw new IllegalArgumentException( "maxTenants must be greater than zero but was " + maxTenants );
+        }
+        if ( maxIdleMillis < 0 )
+        {
+            throw new IllegalArgumentException( "maxIdleMillis must not be negative but was " + maxIdleMillis );
+        }
+        this.maxTenants = maxTenants;
+        this.maxIdleNanos = maxIdleMillis * 1000L * 1000L;
+    }
+
+    /**
+     * @return the resolver for the properties of a tenant.
+     */
+    TenantPropertiesResolver getResolver()
+    {
+        return resolver;
+    }
+
+    /**
+     * @return the maximal number of tenants with an open entity manager factory.
+     */
+    int getMaxTenants()
+    {
+        return maxTenants;
+    }
+
+    /**
+     * @return the time in nanoseconds after which the entity manager factory of an unused tenant is closed.
+     *         0 if unused tenants are kept until they are evicted.
+     */
+    long getMaxIdleNanos()
+    {
+        return maxIdleNanos;
+    }
+
+}
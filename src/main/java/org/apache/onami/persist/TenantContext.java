@@ -0,0 +1,65 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Holds the tenant of the current thread for a multi tenant persistence unit.
+ * <p/>
+ * The tenant must be set before a unit of work is started. It determines the
+ * {@link javax.persistence.EntityManagerFactory} used by the unit of work. Changing the tenant does not
+ * affect a running unit of work.
+ * <p/>
+ * Recommended pattern:
+ * <pre>
+ * tenantContext.setTenantId(tenantId);
+ * try {
+ *   // call transactional methods
+ * }
+ * finally {
+ *   tenantContext.clearTenantId();
+ * }
+ * </pre>
+ */
+public interface TenantContext
+{
+
+    /**
+     * Sets the tenant of the current thread.
+     *
+     * @param tenantId the id of the tenant. Must not be {@code null}.
+     */
+    void setTenantId( String tenantId );
+
+    /**
+     * @return the id of the tenant of the current thread or {@code null} if none is set.
+     */
+    String getTenantId();
+
+    /**
+     * Removes the tenant of the current thread.
+     */
+    void clearTenantId();
+
+    /**
+     * @return the number of tenants with an open entity manager factory.
+     */
+    int getCachedTenantCount();
+
+}
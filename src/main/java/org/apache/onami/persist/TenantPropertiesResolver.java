@@ -0,0 +1,43 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.Properties;
+
+/**
+ * Resolves the properties of the {@link javax.persistence.EntityManagerFactory} of a tenant.
+ * <p/>
+ * Implementations must be thread safe.
+ *
+ * @see UnconfiguredPersistenceUnitBuilder#useTenants(TenantPropertiesResolver, int, long)
+ */
+public interface TenantPropertiesResolver
+{
+
+    /**
+     * Resolves the properties of a tenant. These override the properties of the persistence unit
+     * (i.e. the connection url or the default schema).
+     *
+     * @param tenantId the id of the tenant. Never {@code null}.
+     * @return the properties of the tenant. Must not be {@code null}.
+     */
+    Properties resolveProperties( String tenantId );
+
+}
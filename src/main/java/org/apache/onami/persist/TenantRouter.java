@@ -0,0 +1,494 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+/**
+ * Routes the units of work of a multi tenant persistence unit to the entity manager factory of the current tenant.
+ * Also implements the {@link TenantContext} holding the tenant of the current thread.
+ * <p/>
+ * The entity manager factories are created lazily on first use of a tenant. Concurrent first uses of the same
+ * tenant wait for a single creation. The factories are kept in a cache bounded by size and idle time. An evicted
+ * factory is closed once the last unit of work using it has ended.
+ */
+@Singleton
+class TenantRouter
+    implements TenantContext
+{
+
+    /**
+     * The configuration of the tenants. {@code null} if the persistence unit is not multi tenant.
+     */
+    private final TenantConfiguration config;
+
+    /**
+     * Registry of the entity managers kept for reuse. Closes them when the factory of their tenant is closed.
+     */
+    private final ParkedEntityManagers parkedEntityManagers;
+
+    /**
+     * Lock guarding {@link #tenants} and {@link #emfFactory}.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * The cached tenants in least recently used order.
+     */
+    private final LinkedHashMap<String, Tenant> tenants = new LinkedHashMap<String, Tenant>( 16, 0.75f, true );
+
+    /**
+     * Factory for creating the entity manager factories. {@code null} when the persistence service is not running.
+     */
+    private EntityManagerFactoryFactory emfFactory;
+
+    /**
+     * Thread local store of the tenant id.
+     */
+    private final ThreadLocal<String> tenantIds = new ThreadLocal<String>();
+
+    /**
+     * Thread local store of the entity manager factory used by the current unit of work.
+     */
+    private final ThreadLocal<TrackedEntityManagerFactory> acquiredFactories =
+        new ThreadLocal<TrackedEntityManagerFactory>();
+
+    /**
+     * Constructor.
+     *
+     * @param config               the configuration of the tenants. {@code null} if the persistence unit is not
+     *                             multi tenant.
+     * @param parkedEntityManagers the registry of the entity managers kept for reuse. Must not be {@code null}.
+     */
+    @Inject
+    TenantRouter( @Nullable TenantConfiguration config, ParkedEntityManagers parkedEntityManagers )
+    {
+        this.config = config;
+        this.parkedEntityManagers = checkNotNull( parkedEntityManagers, "parkedEntityManagers is mandatory!" );
+    }
+
+    /**
+     * @return {@code true} if the persistence unit is multi tenant.
+     */
+    boolean isMultiTenant()
+    {
+        return config != null;
+    }
+
+    /**
+     * Starts creating entity manager factories for tenants.
+     *
+     * @param emfFactory the factory for creating the entity manager factories.
+     */
+    void start( EntityManagerFactoryFactory emfFactory )
+    {
+        synchronized ( lock )
+        {
+            this.emfFactory = emfFactory;
+        }
+    }
+
+    /**
+     * Retires the entity manager factories of all tenants. Factories still in use are closed when the last unit
+     * of work using them ends. Factories still being created are retired by the creating thread.
+     */
+    void stop()
+    {
+        final List<Tenant> stopping = new ArrayList<Tenant>();
+        synchronized ( lock )
+        {
+            emfFactory = null;
+            for ( Tenant tenant : tenants.values() )
+            {
+                if ( tenant.factory != null )
+                {
+                    stopping.add( tenant );
+                }
+            }
+            tenants.clear();
+        }
+        retire( stopping );
+    }
+
+    /**
+     * Selects the entity manager factory of the current tenant for a unit of work of the current thread.
+     * Must be followed by a call to {@link #release()} at the end of the unit of work.
+     *
+     * @return the entity manager factory of the tenant or {@code null} if the persistence unit is not multi tenant.
+     * @throws IllegalStateException if the persistence service is not running or no tenant is set.
+     */
+    EntityManagerFactory acquireTenant()
+    {
+        if ( config == null )
+        {
+            return null;
+        }
+        final String tenantId = tenantIds.get();
+        if ( tenantId == null )
+        {
+            throw new IllegalStateException( "No tenant set for the multi tenant persistence unit." );
+        }
+
+        final TrackedEntityManagerFactory factory = obtainFactory( tenantId );
+        acquiredFactories.set( factory );
+        return factory.getEntityManagerFactory();
+    }
+
+    /**
+     * Returns the acquired entity manager factory of a tenant. Creates it if it is not cached.
+     *
+     * @param tenantId the id of the tenant.
+     * @return the acquired entity manager factory.
+     */
+    private TrackedEntityManagerFactory obtainFactory( String tenantId )
+    {
+        while ( true )
+        {
+            TrackedEntityManagerFactory acquired = null;
+            Tenant tenant = null;
+            EntityManagerFactoryFactory factoryFactory = null;
+            final List<Tenant> evicted;
+            synchronized ( lock )
+            {
+                if ( emfFactory == null )
+                {
+                    throw new IllegalStateException( "PersistenceService is not running." );
+                }
+                final Tenant cached = tenants.get( tenantId );
+                if ( cached == null )
+                {
+                    tenant = new Tenant();
+                    tenants.put( tenantId, tenant );
+                    factoryFactory = emfFactory;
+                }
+                else if ( cached.factory == null )
+                {
+                    tenant = cached;
+                }
+                else
+                {
+                    cached.lastUsedNanos = System.nanoTime();
+                    acquired = cached.acquire();
+                }
+                evicted = evictIdleTenants();
+            }
+            retire( evicted );
+
+            if ( acquired != null )
+            {
+                return acquired;
+            }
+            if ( factoryFactory != null )
+            {
+                return create( tenantId, tenant, factoryFactory );
+            }
+            // another thread is creating the entity manager factory
+            tenant.awaitCreation();
+        }
+    }
+
+    /**
+     * Creates the entity manager factory of a tenant and adds it to the cache.
+     *
+     * @param tenantId       the id of the tenant.
+     * @param tenant         the cache entry of the tenant.
+     * @param factoryFactory the factory for creating the entity manager factory.
+     * @return the acquired entity manager factory.
+     */
+    private TrackedEntityManagerFactory create( String tenantId, Tenant tenant,
+                                                EntityManagerFactoryFactory factoryFactory )
+    {
+        final TrackedEntityManagerFactory factory;
+        try
+        {
+            final Properties properties = checkNotNull( config.getResolver().resolveProperties( tenantId ),
+                                                        "tenant properties are mandatory!" );
+            factory = new TrackedEntityManagerFactory(
+                factoryFactory.createApplicationManagedEntityManagerFactory( properties ), parkedEntityManagers );
+        }
+        catch ( RuntimeException e )
+        {
+            synchronized ( lock )
+            {
+                if ( tenants.get( tenantId ) == tenant )
+                {
+                    tenants.remove( tenantId );
+                }
+            }
+            tenant.failed( e );
+            throw e;
+        }
+
+        final List<Tenant> evicted;
+        final TrackedEntityManagerFactory acquired;
+        synchronized ( lock )
+        {
+            tenant.lastUsedNanos = System.nanoTime();
+            tenant.factory = factory;
+            acquired = tenant.acquire();
+            if ( tenants.get( tenantId ) == tenant )
+            {
+                evicted = evictLeastRecentlyUsedTenants();
+            }
+            else
+            {
+                // the persistence service has been stopped in the meantime
+                evicted = new ArrayList<Tenant>();
+                evicted.add( tenant );
+            }
+        }
+        tenant.created();
+        retire( evicted );
+        return acquired;
+    }
+
+    /**
+     * Removes the tenants which have not been used for the maximal idle time. Must be called holding the lock.
+     *
+     * @return the removed tenants.
+     */
+    private List<Tenant> evictIdleTenants()
+    {
+        final List<Tenant> evicted = new ArrayList<Tenant>();
+        if ( config.getMaxIdleNanos() == 0 )
+        {
+            return evicted;
+        }
+        final long now = System.nanoTime();
+        final Iterator<Tenant> it = tenants.values().iterator();
+        while ( it.hasNext() )
+        {
+            final Tenant tenant = it.next();
+            if ( tenant.factory == null )
+            {
+                continue;
+            }
+            if ( now - tenant.lastUsedNanos < config.getMaxIdleNanos() )
+            {
+                // all following tenants have been used more recently
+                break;
+            }
+            if ( tenant.factory.getActiveUnitsOfWork() == 0 )
+            {
+                it.remove();
+                evicted.add( tenant );
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Removes the least recently used tenants exceeding the maximal number of tenants.
+     * Must be called holding the lock.
+     *
+     * @return the removed tenants.
+     */
+    private List<Tenant> evictLeastRecentlyUsedTenants()
+    {
+        final List<Tenant> evicted = new ArrayList<Tenant>();
+        final Iterator<Tenant> it = tenants.values().iterator();
+        int excess = tenants.size() - config.getMaxTenants();
+        while ( excess > 0 && it.hasNext() )
+        {
+            final Tenant tenant = it.next();
+            if ( tenant.factory != null )
+            {
+                it.remove();
+                evicted.add( tenant );
+                excess--;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Retires the entity manager factories of evicted tenants. All factories are retired even if closing one
+     * fails.
+     *
+     * @param evicted the evicted tenants.
+     */
+    private void retire( List<Tenant> evicted )
+    {
+        final AggregatedException.Builder exceptionBuilder = new AggregatedException.Builder();
+        for ( Tenant tenant : evicted )
+        {
+            try
+            {
+                tenant.factory.retire();
+            }
+            catch ( Exception e )
+            {
+                exceptionBuilder.add( e );
+            }
+        }
+        exceptionBuilder.throwRuntimeExceptionIfHasCauses( "multiple exception occurred while closing tenants" );
+    }
+
+    /**
+     * Releases the entity manager factory used by the unit of work of the current thread.
+     * Does nothing if no entity manager factory is used.
+     */
+    void release()
+    {
+        final TrackedEntityManagerFactory factory = acquiredFactories.get();
+        if ( factory != null )
+        {
+            acquiredFactories.remove();
+            factory.release();
+        }
+    }
+
+    /**
+     * @return the entity manager factory used by the unit of work of the current thread. {@code null} if no
+     *         entity manager factory is used.
+     */
+    TrackedEntityManagerFactory getAcquiredFactory()
+    {
+        return acquiredFactories.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void setTenantId( String tenantId )
+    {
+        tenantIds.set( checkNotNull( tenantId, "tenantId is mandatory!" ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public String getTenantId()
+    {
+        return tenantIds.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void clearTenantId()
+    {
+        tenantIds.remove();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public int getCachedTenantCount()
+    {
+        synchronized ( lock )
+        {
+            int count = 0;
+            for ( Tenant tenant : tenants.values() )
+            {
+                if ( tenant.factory != null )
+                {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Cache entry of a tenant.
+     */
+    private static class Tenant
+    {
+        private final CountDownLatch creation = new CountDownLatch( 1 );
+
+        private volatile RuntimeException creationFailure;
+
+        // guarded by the lock of the router
+        private TrackedEntityManagerFactory factory;
+
+        // guarded by the lock of the router
+        private long lastUsedNanos;
+
+        TrackedEntityManagerFactory acquire()
+        {
+            factory.acquire();
+            return factory;
+        }
+
+        void created()
+        {
+            creation.countDown();
+        }
+
+        void failed( RuntimeException e )
+        {
+            creationFailure = e;
+            creation.countDown();
+        }
+
+        /**
+         * Waits until the entity manager factory has been created by another thread.
+         *
+         * @throws RuntimeException if the creation failed.
+         */
+        void awaitCreation()
+        {
+            boolean interrupted = false;
+            try
+            {
+                while ( true )
+                {
+                    try
+                    {
+                        creation.await();
+                        break;
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        interrupted = true;
+                    }
+                }
+            }
+            finally
+            {
+                if ( interrupted )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if ( creationFailure != null )
+            {
+                throw creationFailure;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,162 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+/**
+ * Listener which forwards only the completed units of work, transactions and JTA status retries which took at least
+ * a configured threshold to its delegate. This mirrors the duration events of a flight recorder: begin events are
+ * not forwarded and each unit of work or transaction is reported once when it ends. Rollback only markings and
+ * persistence service events have no duration and are always forwarded.
+ * <p/>
+ * A threshold of {@code 0} forwards every completed unit of work and transaction.
+ */
+public class ThresholdLifecycleListener
+    implements PersistenceLifecycleListener
+{
+
+    /**
+     * The listener receiving the events exceeding the threshold.
+     */
+    private final PersistenceLifecycleListener delegate;
+
+    /**
+     * The threshold in nanoseconds.
+     */
+    private final long thresholdNanos;
+
+    /**
+     * Constructor.
+     *
+     * @param delegate        the listener receiving the events exceeding the threshold. Must not be {@code null}.
+     * @param thresholdMillis the minimal duration of a forwarded event in milliseconds. Must not be negative.
+     */
+    public ThresholdLifecycleListener( PersistenceLifecycleListener delegate, long thresholdMillis )
+    {
+        if ( thresholdMillis < 0 )
+        {
+            throw new IllegalArgumentException( "thresholdMillis must not be negative" );
+        }
+        this.delegate = checkNotNull( delegate, "delegate is mandatory!" );
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos( thresholdMillis );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void unitOfWorkBegun( PersistenceLifecycleEvent event )
+    {
+        // Do nothing
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void unitOfWorkEnded( PersistenceLifecycleEvent event )
+    {
+        if ( exceedsThreshold( event ) )
+        {
+            delegate.unitOfWorkEnded( event );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void transactionBegun( PersistenceLifecycleEvent event )
+    {
+        // Do nothing
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void transactionCommitted( PersistenceLifecycleEvent event )
+    {
+        if ( exceedsThreshold( event ) )
+        {
+            delegate.transactionCommitted( event );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void transactionRolledBack( PersistenceLifecycleEvent event )
+    {
+        if ( exceedsThreshold( event ) )
+        {
+            delegate.transactionRolledBack( event );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void transactionMarkedRollbackOnly( PersistenceLifecycleEvent event )
+    {
+        delegate.transactionMarkedRollbackOnly( event );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void transactionStatusRetried( PersistenceLifecycleEvent event )
+    {
+        if ( exceedsThreshold( event ) )
+        {
+            delegate.transactionStatusRetried( event );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void persistenceServiceStarted( PersistenceLifecycleEvent event )
+    {
+        delegate.persistenceServiceStarted( event );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void persistenceServiceStopped( PersistenceLifecycleEvent event )
+    {
+        delegate.persistenceServiceStopped( event );
+    }
+
+    private boolean exceedsThreshold( PersistenceLifecycleEvent event )
+    {
+        return event.getElapsedNanos() >= thresholdNanos;
+    }
+
+}
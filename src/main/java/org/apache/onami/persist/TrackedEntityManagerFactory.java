@@ -0,0 +1,158 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import javax.persistence.EntityManagerFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+/**
+ * Wrapper of an {@link EntityManagerFactory} which counts the units of work using it.
+ * A retired entity manager factory is closed as soon as no unit of work uses it any more. The entity managers
+ * parked for reuse are closed together with the entity manager factory.
+ */
+class TrackedEntityManagerFactory
+{
+
+    /**
+     * The wrapped entity manager factory.
+     */
+    private final EntityManagerFactory emf;
+
+    /**
+     * The entity managers parked for reuse. {@code null} if entity managers of this factory are never parked.
+     */
+    private final ParkedEntityManagers parkedEntityManagers;
+
+    /**
+     * The number of active units of work using the entity manager factory.
+     */
+    private final AtomicInteger activeUnitsOfWork = new AtomicInteger( 0 );
+
+    /**
+     * Flag indicating that the entity manager factory must be closed once it is no longer used.
+     */
+    private volatile boolean retired;
+
+    /**
+     * Flag indicating that the entity manager factory has been closed.
+     */
+    private final AtomicBoolean closed = new AtomicBoolean( false );
+
+    /**
+     * Constructor.
+     *
+     * @param emf the entity manager factory to wrap. Must not be {@code null}.
+     */
+    TrackedEntityManagerFactory( EntityManagerFactory emf )
+    {
+        this( emf, null );
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param emf                  the entity manager factory to wrap. Must not be {@code null}.
+     * @param parkedEntityManagers the entity managers parked for reuse. May be {@code null}.
+     */
+    TrackedEntityManagerFactory( EntityManagerFactory emf, ParkedEntityManagers parkedEntityManagers )
+    {
+        this.emf = checkNotNull( emf, "emf is mandatory!" );
+        this.parkedEntityManagers = parkedEntityManagers;
+    }
+
+    /**
+     * Registers a unit of work using the entity manager factory.
+     *
+     * @return the entity manager factory.
+     */
+    EntityManagerFactory acquire()
+    {
+        activeUnitsOfWork.incrementAndGet();
+        return emf;
+    }
+
+    /**
+     * Unregisters a unit of work using the entity manager factory.
+     * Closes the entity manager factory if it is retired and this was the last unit of work using it.
+     */
+    void release()
+    {
+        if ( activeUnitsOfWork.decrementAndGet() == 0 && retired )
+        {
+            closeOnce();
+        }
+    }
+
+    /**
+     * Retires the entity manager factory. It is closed immediately if no unit of work uses it or else when
+     * the last unit of work using it is released. The caller must make sure that it is not acquired any more.
+     */
+    void retire()
+    {
+        retired = true;
+        if ( activeUnitsOfWork.get() == 0 )
+        {
+            closeOnce();
+        }
+    }
+
+    /**
+     * Closes the entity manager factory unless this has already been done.
+     */
+    private void closeOnce()
+    {
+        if ( closed.compareAndSet( false, true ) )
+        {
+            if ( parkedEntityManagers != null )
+            {
+                parkedEntityManagers.closeAll( emf );
+            }
+            emf.close();
+        }
+    }
+
+    /**
+     * @return {@code true} if the entity manager factory has been closed.
+     */
+    boolean isClosed()
+    {
+        return closed.get();
+    }
+
+    /**
+     * @return the number of active units of work using the entity manager factory.
+     */
+    int getActiveUnitsOfWork()
+    {
+        return activeUnitsOfWork.get();
+    }
+
+    /**
+     * @return the wrapped entity manager factory.
+     */
+    EntityManagerFactory getEntityManagerFactory()
+    {
+        return emf;
+    }
+
+}
@@ -33,6 +33,12 @@ interface TransactionFacade
      */
     void begin();
 
+    /**
+     * @return {@code true} if {@link #begin()} starts the outer transaction. {@code false} if it joins an active
+     *         transaction.
+     */
+    boolean isOuter();
+
     /**
      * Commits a transaction.
      * <p/>
@@ -40,6 +46,11 @@ interface TransactionFacade
      */
     void commit();
 
+    /**
+     * Flushes the persistence context to the database without ending the transaction.
+     */
+    void flush();
+
     /**
      * Rolls a transaction back.
      * <p/>
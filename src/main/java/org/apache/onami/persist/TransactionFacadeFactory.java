@@ -28,8 +28,9 @@ interface TransactionFacadeFactory
     /**
      * Creates a new transaction facade.
      *
+     * @param nestedMode the behavior in case a transaction is already active.
      * @return the transaction facade
      */
-    TransactionFacade createTransactionFacade();
+    TransactionFacade createTransactionFacade( NestedTransactionMode nestedMode );
 
 }
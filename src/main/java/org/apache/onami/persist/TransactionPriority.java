@@ -0,0 +1,50 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Priority of a unit of work. If the number of concurrent units of work of a persistence unit is limited the
+ * priority selects the lane through which the unit of work is admitted.
+ *
+ * @see Transactional#priority()
+ * @see PriorityContext
+ * @see UnconfiguredPersistenceUnitBuilder#configurePriorityLane(TransactionPriority, int, int)
+ */
+public enum TransactionPriority
+{
+
+    /**
+     * Use the priority of the {@link PriorityContext} of the current thread or {@link #INTERACTIVE} if none is set.
+     */
+    DEFAULT,
+
+    /**
+     * Latency sensitive work like user requests. Waiting interactive units of work are admitted before batch units
+     * of work when capacity is shared.
+     */
+    INTERACTIVE,
+
+    /**
+     * Throughput oriented work like scheduled jobs. Batch units of work only use capacity which is not requested by
+     * interactive units of work.
+     */
+    BATCH
+
+}
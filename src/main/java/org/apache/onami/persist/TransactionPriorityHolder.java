@@ -0,0 +1,106 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import javax.inject.Singleton;
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+/**
+ * Implementation of {@link PriorityContext}. Shared by all persistence units.
+ */
+@Singleton
+class TransactionPriorityHolder
+    implements PriorityContext
+{
+
+    /**
+     * Thread local store of the priority.
+     */
+    private final ThreadLocal<TransactionPriority> priorities = new ThreadLocal<TransactionPriority>();
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void setPriority( TransactionPriority priority )
+    {
+        priorities.set( checkNotNull( priority, "priority is mandatory!" ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public TransactionPriority getPriority()
+    {
+        return priorities.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void clearPriority()
+    {
+        priorities.remove();
+    }
+
+    /**
+     * @return the priority used for a unit of work started by the current thread. Never {@link
+     *         TransactionPriority#DEFAULT}.
+     */
+    TransactionPriority getEffectivePriority()
+    {
+        final TransactionPriority priority = priorities.get();
+        return priority == null || priority == TransactionPriority.DEFAULT ? TransactionPriority.INTERACTIVE : priority;
+    }
+
+    /**
+     * Sets the priority of the current thread for the duration of a transactional method.
+     *
+     * @param priority the priority to set. Must not be {@code null}.
+     * @return the previous priority of the current thread. May be {@code null}.
+     */
+    TransactionPriority bindPriority( TransactionPriority priority )
+    {
+        final TransactionPriority previous = priorities.get();
+        setPriority( priority );
+        return previous;
+    }
+
+    /**
+     * Restores the priority of the current thread.
+     *
+     * @param priority the priority to restore. {@code null} to remove the priority.
+     */
+    void restorePriority( TransactionPriority priority )
+    {
+        if ( priority == null )
+        {
+            priorities.remove();
+        }
+        else
+        {
+            priorities.set( priority );
+        }
+    }
+
+}
@@ -0,0 +1,50 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import javax.persistence.EntityManager;
+
+/**
+ * Helper for querying the transaction status of an {@link EntityManager}.
+ */
+class TransactionStatus
+{
+
+    /**
+     * Decides if the entity manager takes part in an active transaction.
+     * Works for resource local and JTA entity managers.
+     *
+     * @param em the entity manager.
+     * @return {@code true} if a transaction is active.
+     */
+    static boolean isActive( EntityManager em )
+    {
+        try
+        {
+            return em.getTransaction().isActive();
+        }
+        catch ( IllegalStateException e )
+        {
+            // JTA entity manager
+            return em.isJoinedToTransaction();
+        }
+    }
+
+}
@@ -74,4 +74,74 @@ public @interface Transactional
      */
     Class<? extends Exception>[] ignore() default { };
 
+    /**
+     * Marks the transaction as read only. If the transaction starts the unit of work it is started with
+     * {@link UnitOfWork#beginReadOnly()} and may therefore read from a read replica.
+     * A read-write transaction cannot be started in a unit of work using a read replica. Default is {@code false}.
+     */
+    boolean readOnly() default false;
+
+    /**
+     * Behavior in case a transaction is already active when the method is called. By default the method joins the
+     * active transaction and a rollback marks the whole transaction as rollback only. With
+     * {@link NestedTransactionMode#SAVEPOINT} a rollback only reverts the work done by the method and the caller may
+     * continue the transaction after handling the exception. Default is {@link NestedTransactionMode#JOIN}.
+     */
+    NestedTransactionMode nested() default NestedTransactionMode.JOIN;
+
+    /**
+     * Runs the transaction asynchronously on the executor of the first participating persistence unit. The method
+     * must return a {@link java.util.concurrent.Future} and wraps its value in an {@link AsyncResult}. The caller
+     * immediately receives a future which is completed with the value after the commit or with the exception after
+     * the rollback.
+     * <p/>
+     * The transaction runs in its own unit of work on a worker thread. It does not join a transaction of the caller.
+     * The {@link PriorityContext}, {@link TenantContext}, {@link ShardContext} and {@link ReadYourWritesContext} of
+     * the caller are propagated to the worker thread.
+     * Calls from within an asynchronous transaction run synchronously. Default is {@code false}.
+     *
+     * @see UnconfiguredPersistenceUnitBuilder#useAsyncExecutor(int, int)
+     */
+    boolean async() default false;
+
+    /**
+     * The priority of the units of work started for the method. If the number of concurrent units of work of a
+     * persistence unit is limited the priority selects the lane through which the unit of work is admitted. The
+     * priority also applies to units of work started by transactional methods called from within the method.
+     * Default is {@link TransactionPriority#DEFAULT} which uses the priority of the {@link PriorityContext}.
+     *
+     * @see UnconfiguredPersistenceUnitBuilder#configurePriorityLane(TransactionPriority, int, int)
+     */
+    TransactionPriority priority() default TransactionPriority.DEFAULT;
+
+    /**
+     * Chains the transactions of all participating persistence units. The transactions of all participating units are
+     * begun before the method is invoked. On success they are committed one after the other when the outermost chained
+     * method returns, starting with the outermost unit. For a single method intercepted by all units this is the order
+     * in which the persistence units were configured. If a commit fails the remaining transactions are rolled back and
+     * a {@link PartialCommitException} reports which units have already been committed. If the method of a unit throws
+     * an exception which requires a rollback all transactions of the chain are rolled back. Default is {@code false}.
+     * <p/>
+     * Chaining is meant for resource local transactions. A JTA transaction already spans all enlisted units.
+     */
+    boolean chained() default false;
+
+    /**
+     * Flushes all participating persistence units of a {@link #chained() chained} transaction in parallel before the
+     * first commit. Flushing first keeps the window for a partial commit small. Default is {@code false}.
+     */
+    boolean parallelFlush() default false;
+
+    /**
+     * The maximal number of statements the method may issue on each participating persistence unit, including the
+     * statements of nested transactional methods. The budget is only checked if queries are counted for the
+     * persistence unit. The statements are the SQL statements reported by the {@link SqlStatementCounter} or the
+     * executed queries, finds and flushes if the counter cannot determine them. If the SQL statements are counted the
+     * pending changes are flushed at the end of the method so that the statements of the commit count as well.
+     * Default is {@code -1} which means no budget.
+     *
+     * @see UnconfiguredPersistenceUnitBuilder#countQueries(int, boolean)
+     */
+    int statementBudget() default -1;
+
 }
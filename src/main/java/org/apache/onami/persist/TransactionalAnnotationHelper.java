@@ -24,6 +24,9 @@ import org.aopalliance.intercept.MethodInvocation;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static java.util.Arrays.asList;
 import static org.apache.onami.persist.Preconditions.checkNotNull;
@@ -45,6 +48,11 @@ class TransactionalAnnotationHelper
      */
     private final TransactionalAnnotationReader txnAnnoReader;
 
+    /**
+     * Cache of the index of the {@link ShardKey @ShardKey} parameter of methods. -1 if a method has none.
+     */
+    private final ConcurrentMap<Method, Integer> shardKeyParameters = new ConcurrentHashMap<Method, Integer>();
+
     /**
      * Constructor.
      *
@@ -108,6 +116,136 @@ class TransactionalAnnotationHelper
         return asList( array ).contains( key );
     }
 
+    /**
+     * Decides if the transaction for the given method invocation only reads.
+     *
+     * @param methodInvocation the method invocation which may be wrapped in a transaction.
+     * @return {@code true} if the transaction is read only.
+     */
+    boolean isReadOnly( MethodInvocation methodInvocation )
+    {
+        return txnAnnoReader.readAnnotationFrom( methodInvocation ).readOnly();
+    }
+
+    /**
+     * Returns the behavior of the transaction for the given method invocation in case a transaction is already
+     * active.
+     *
+     * @param methodInvocation the method invocation which may be wrapped in a transaction.
+     * @return the nested transaction mode.
+     */
+    NestedTransactionMode getNestedTransactionMode( MethodInvocation methodInvocation )
+    {
+        return txnAnnoReader.readAnnotationFrom( methodInvocation ).nested();
+    }
+
+    /**
+     * Decides if the transaction for the given method invocation runs asynchronously.
+     *
+     * @param methodInvocation the method invocation which may be wrapped in a transaction.
+     * @return {@code true} if the transaction runs asynchronously.
+     */
+    boolean isAsync( MethodInvocation methodInvocation )
+    {
+        return txnAnnoReader.readAnnotationFrom( methodInvocation ).async();
+    }
+
+    /**
+     * Reads the priority of the units of work started for the given method invocation.
+     *
+     * @param methodInvocation the method invocation which may be wrapped in a transaction.
+     * @return the priority.
+     */
+    TransactionPriority getPriority( MethodInvocation methodInvocation )
+    {
+        return txnAnnoReader.readAnnotationFrom( methodInvocation ).priority();
+    }
+
+    /**
+     * Decides if the transaction for the given method invocation is chained with the transactions of the other
+     * participating persistence units.
+     *
+     * @param methodInvocation the method invocation which may be wrapped in a transaction.
+     * @return {@code true} if the transaction is chained.
+     */
+    boolean isChained( MethodInvocation methodInvocation )
+    {
+        return txnAnnoReader.readAnnotationFrom( methodInvocation ).chained();
+    }
+
+    /**
+     * Decides if the participating persistence units of a chained transaction are flushed in parallel.
+     *
+     * @param methodInvocation the method invocation which may be wrapped in a transaction.
+     * @return {@code true} if the persistence units are flushed in parallel.
+     */
+    boolean isParallelFlush( MethodInvocation methodInvocation )
+    {
+        return txnAnnoReader.readAnnotationFrom( methodInvocation ).parallelFlush();
+    }
+
+    /**
+     * Returns the statement budget of the transactional method.
+     *
+     * @param methodInvocation the method invocation which may be wrapped in a transaction.
+     * @return the maximal number of statements the method may issue. Negative if the method has no budget.
+     */
+    int getStatementBudget( MethodInvocation methodInvocation )
+    {
+        return txnAnnoReader.readAnnotationFrom( methodInvocation ).statementBudget();
+    }
+
+    /**
+     * Returns the name of the current persistence unit for use in reports and messages.
+     *
+     * @return the simple name of the annotation of the persistence unit or {@code "default"} if it has none.
+     */
+    String getPersistenceUnitName()
+    {
+        return puAnnotation == null ? "default" : puAnnotation.getSimpleName();
+    }
+
+    /**
+     * Reads the value of the parameter annotated with {@link ShardKey @ShardKey}.
+     *
+     * @param methodInvocation the method invocation which may be wrapped in a transaction.
+     * @return the shard key or {@code null} if the method has no shard key parameter or the argument is
+     *         {@code null}.
+     */
+    Object readShardKey( MethodInvocation methodInvocation )
+    {
+        final Method method = methodInvocation.getMethod();
+        Integer index = shardKeyParameters.get( method );
+        if ( index == null )
+        {
+            index = findShardKeyParameter( method );
+            shardKeyParameters.put( method, index );
+        }
+        return index < 0 ? null : methodInvocation.getArguments()[index];
+    }
+
+    /**
+     * Finds the parameter annotated with {@link ShardKey @ShardKey}.
+     *
+     * @param method the method to search.
+     * @return the index of the parameter or -1 if the method has no such parameter.
+     */
+    private static int findShardKeyParameter( Method method )
+    {
+        final Annotation[][] parameterAnnotations = method.getParameterAnnotations();
+        for ( int i = 0; i < parameterAnnotations.length; i++ )
+        {
+            for ( Annotation annotation : parameterAnnotations[i] )
+            {
+                if ( annotation instanceof ShardKey )
+                {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
     /**
      * Decides if a rollback is necessary for the given method invocation and a thrown exception.
      *
@@ -0,0 +1,192 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.lang.reflect.Method;
+import java.util.Map;
+
+/**
+ * Snapshot of the profile of a single {@link Transactional @Transactional} method of a persistence unit.
+ *
+ * @see TransactionalMethodStatistics
+ */
+public final class TransactionalMethodProfile
+{
+
+    private final Method method;
+
+    private final long callCount;
+
+    private final long outerCount;
+
+    private final long failedCount;
+
+    /**
+     * Number of rollbacks by the name of the exception class causing them.
+     */
+    private final Map<String, Long> rollbacksByException;
+
+    private final LatencyHistogramSnapshot transactionLatency;
+
+    private final LatencyHistogramSnapshot commitLatency;
+
+    private final LatencyHistogramSnapshot rollbackLatency;
+
+    /**
+     * Constructor.
+     *
+     * @param method               the transactional method.
+     * @param callCount            the number of calls.
+     * @param outerCount           the number of calls which were not nested in another transactional method.
+     * @param failedCount          the number of calls which threw an exception.
+     * @param rollbacksByException the number of rollbacks by the name of the exception class causing them.
+     * @param transactionLatency   the latency of the whole calls.
+     * @param commitLatency        the latency of the commits.
+     * @param rollbackLatency      the latency of the rollbacks.
+     */
+    TransactionalMethodProfile( Method method, long callCount, long outerCount, long failedCount,
+                                Map<String, Long> rollbacksByException, LatencyHistogramSnapshot transactionLatency,
+                                LatencyHistogramSnapshot commitLatency, LatencyHistogramSnapshot rollbackLatency )
+    {
+        this.method = method;
+        this.callCount = callCount;
+        this.outerCount = outerCount;
+        this.failedCount = failedCount;
+        this.rollbacksByException = rollbacksByException;
+        this.transactionLatency = transactionLatency;
+        this.commitLatency = commitLatency;
+        this.rollbackLatency = rollbackLatency;
+    }
+
+    public Method getMethod()
+    {
+        return method;
+    }
+
+    public long getCallCount()
+    {
+        return callCount;
+    }
+
+    /**
+     * @return the number of calls which were not nested in another transactional method of the persistence unit.
+     */
+    public long getOuterCount()
+    {
+        return outerCount;
+    }
+
+    /**
+     * @return the number of calls which were nested in another transactional method of the persistence unit.
+     */
+    public long getNestedCount()
+    {
+        return callCount - outerCount;
+    }
+
+    /**
+     * @return the share of nested calls between 0 and 1.
+     */
+    public double getNestedRatio()
+    {
+        return callCount == 0 ? 0 : (double) getNestedCount() / callCount;
+    }
+
+    /**
+     * @return the number of calls which threw an exception.
+     */
+    public long getFailedCount()
+    {
+        return failedCount;
+    }
+
+    /**
+     * @return the number of calls which rolled back their transaction because of an exception.
+     */
+    public long getRollbackCount()
+    {
+        long rollbacks = 0;
+        for ( Long count : rollbacksByException.values() )
+        {
+            rollbacks += count;
+        }
+        return rollbacks;
+    }
+
+    /**
+     * @return the share of calls which rolled back their transaction between 0 and 1.
+     */
+    public double getRollbackRate()
+    {
+        return callCount == 0 ? 0 : (double) getRollbackCount() / callCount;
+    }
+
+    /**
+     * @return the number of rollbacks by the name of the exception class causing them. Unmodifiable.
+     */
+    public Map<String, Long> getRollbacksByException()
+    {
+        return rollbacksByException;
+    }
+
+    /**
+     * @return the latency of the whole calls including beginning and completing the transaction.
+     */
+    public LatencyHistogramSnapshot getTransactionLatency()
+    {
+        return transactionLatency;
+    }
+
+    /**
+     * @return the latency of committing the transaction and ending the unit of work.
+     */
+    public LatencyHistogramSnapshot getCommitLatency()
+    {
+        return commitLatency;
+    }
+
+    /**
+     * @return the latency of rolling back the transaction and ending the unit of work.
+     */
+    public LatencyHistogramSnapshot getRollbackLatency()
+    {
+        return rollbackLatency;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return new StringBuilder().append( method.getDeclaringClass().getName() )
+            .append( '.' ).append( method.getName() )
+            .append( ": calls=" ).append( callCount )
+            .append( ", nested=" ).append( getNestedCount() )
+            .append( ", failed=" ).append( failedCount )
+            .append( ", rollbacks=" ).append( rollbacksByException )
+            .append( ", totalMillis=" ).append( transactionLatency.getTotalMillis() )
+            .append( ", meanMillis=" ).append( String.format( "%.2f", transactionLatency.getMeanMillis() ) )
+            .append( ", p99Millis=" ).append( transactionLatency.getPercentileMillis( 99 ) )
+            .append( ", maxMillis=" ).append( transactionLatency.getMaxMillis() )
+            .toString();
+    }
+
+}
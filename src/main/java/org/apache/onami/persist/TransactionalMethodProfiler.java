@@ -0,0 +1,342 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.annotation.Annotation;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Profiler for the {@link Transactional @Transactional} methods of a persistence unit. The
+ * {@link SlowTransactionDetector} passes the timing of every method to the profiler which accumulates it per method
+ * in lock free counters and histograms. If no {@link MethodProfilingConfiguration} is configured nothing is
+ * recorded.
+ */
+@Singleton
+class TransactionalMethodProfiler
+    implements TransactionalMethodStatistics, TransactionalMethodProfilerMBean
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger( TransactionalMethodProfiler.class );
+
+    /**
+     * Number of methods returned by {@link #getMostExpensiveMethods()}.
+     */
+    private static final int DEFAULT_TOP_COUNT = 20;
+
+    /**
+     * Orders profiles by their total time in transaction, most expensive first.
+     */
+    private static final Comparator<TransactionalMethodProfile> MOST_EXPENSIVE_FIRST =
+        new Comparator<TransactionalMethodProfile>()
+        {
+            // @Override
+            public int compare( TransactionalMethodProfile p1, TransactionalMethodProfile p2 )
+            {
+                final long t1 = p1.getTransactionLatency().getTotalMillis();
+                final long t2 = p2.getTransactionLatency().getTotalMillis();
+                return t1 < t2 ? 1 : ( t1 == t2 ? 0 : -1 );
+            }
+        };
+
+    /**
+     * The configuration. {@code null} if profiling is disabled.
+     */
+    private final MethodProfilingConfiguration config;
+
+    /**
+     * Holder of the annotation of the persistence unit.
+     */
+    private final AnnotationHolder annotationHolder;
+
+    /**
+     * The accumulated profiles by method.
+     */
+    private final ConcurrentMap<Method, Accumulator> accumulators = new ConcurrentHashMap<Method, Accumulator>();
+
+    /**
+     * The name under which the MBean is registered. {@code null} if it is not registered.
+     */
+    private ObjectName registeredName;
+
+    /**
+     * Constructor.
+     *
+     * @param config           the configuration. {@code null} if profiling is disabled.
+     * @param annotationHolder holder of the annotation of the persistence unit.
+     */
+    @Inject
+    TransactionalMethodProfiler( @Nullable MethodProfilingConfiguration config, AnnotationHolder annotationHolder )
+    {
+        this.config = config;
+        this.annotationHolder = annotationHolder;
+    }
+
+    /**
+     * @return {@code true} if profiling is configured.
+     */
+    boolean isEnabled()
+    {
+        return config != null;
+    }
+
+    /**
+     * Registers the MBean if configured.
+     */
+    synchronized void start()
+    {
+        if ( config == null || !config.isRegisterMBean() || registeredName != null )
+        {
+            return;
+        }
+        try
+        {
+            final ObjectName name = objectName( annotationHolder.getAnnotation() );
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                new StandardMBean( this, TransactionalMethodProfilerMBean.class ), name );
+            registeredName = name;
+        }
+        catch ( JMException e )
+        {
+            LOG.warn( "failed to register the transactional method profiler with JMX", e );
+        }
+    }
+
+    /**
+     * Unregisters the MBean if it was registered.
+     */
+    synchronized void stop()
+    {
+        if ( registeredName == null )
+        {
+            return;
+        }
+        try
+        {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.unregisterMBean( registeredName );
+        }
+        catch ( JMException e )
+        {
+            LOG.warn( "failed to unregister the transactional method profiler from JMX", e );
+        }
+        finally
+        {
+            registeredName = null;
+        }
+    }
+
+    /**
+     * @param annotation the annotation of the persistence unit. May be {@code null}.
+     * @return the name of the MBean of the persistence unit.
+     */
+    static ObjectName objectName( Class<? extends Annotation> annotation )
+        throws JMException
+    {
+        final String unit = annotation == null ? "default" : annotation.getName();
+        return new ObjectName( "org.apache.onami.persist:type=TransactionalMethodProfiler,unit=" + unit );
+    }
+
+    /**
+     * Records a call of a transactional method.
+     *
+     * @param method           the transactional method.
+     * @param outer            {@code true} if the call was not nested in another transactional method.
+     * @param failed           {@code true} if the method threw an exception.
+     * @param rollbackCause    the class of the exception which caused a rollback. {@code null} if the transaction
+     *                         was not rolled back.
+     * @param transactionNanos the duration of the whole call in nanoseconds.
+     * @param completionNanos  the duration of the commit or rollback in nanoseconds.
+     */
+    void record( Method method, boolean outer, boolean failed, Class<? extends Throwable> rollbackCause,
+                 long transactionNanos, long completionNanos )
+    {
+        Accumulator accumulator = accumulators.get( method );
+        if ( accumulator == null )
+        {
+            final Accumulator created = new Accumulator();
+            accumulator = accumulators.putIfAbsent( method, created );
+            if ( accumulator == null )
+            {
+                accumulator = created;
+            }
+        }
+        accumulator.record( outer, failed, rollbackCause, transactionNanos, completionNanos );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public List<TransactionalMethodProfile> getProfiles()
+    {
+        final List<TransactionalMethodProfile> profiles = new ArrayList<TransactionalMethodProfile>();
+        for ( Map.Entry<Method, Accumulator> entry : accumulators.entrySet() )
+        {
+            profiles.add( entry.getValue().snapshot( entry.getKey() ) );
+        }
+        return profiles;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public List<TransactionalMethodProfile> getMostExpensiveMethods( int count )
+    {
+        final List<TransactionalMethodProfile> profiles = getProfiles();
+        Collections.sort( profiles, MOST_EXPENSIVE_FIRST );
+        return profiles.size() > count ? profiles.subList( 0, count ) : profiles;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public void reset()
+    {
+        accumulators.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public int getProfiledMethodCount()
+    {
+        return accumulators.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public String[] getMostExpensiveMethods()
+    {
+        return mostExpensiveMethods( DEFAULT_TOP_COUNT );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public String[] mostExpensiveMethods( int count )
+    {
+        final List<TransactionalMethodProfile> profiles = getMostExpensiveMethods( count );
+        final String[] result = new String[profiles.size()];
+        for ( int i = 0; i < result.length; i++ )
+        {
+            result[i] = profiles.get( i ).toString();
+        }
+        return result;
+    }
+
+    /**
+     * Accumulated profile of a single method.
+     */
+    private static final class Accumulator
+    {
+
+        private final StripedCounter calls = new StripedCounter();
+
+        private final StripedCounter outerCalls = new StripedCounter();
+
+        private final StripedCounter failedCalls = new StripedCounter();
+
+        private final ConcurrentMap<Class<? extends Throwable>, StripedCounter> rollbacks =
+            new ConcurrentHashMap<Class<? extends Throwable>, StripedCounter>();
+
+        private final LatencyHistogram transactionLatency = new LatencyHistogram();
+
+        private final LatencyHistogram commitLatency = new LatencyHistogram();
+
+        private final LatencyHistogram rollbackLatency = new LatencyHistogram();
+
+        void record( boolean outer, boolean failed, Class<? extends Throwable> rollbackCause, long transactionNanos,
+                     long completionNanos )
+        {
+            calls.increment();
+            if ( outer )
+            {
+                outerCalls.increment();
+            }
+            if ( failed )
+            {
+                failedCalls.increment();
+            }
+            transactionLatency.record( transactionNanos );
+            if ( rollbackCause == null )
+            {
+                commitLatency.record( completionNanos );
+            }
+            else
+            {
+                rollbackCounter( rollbackCause ).increment();
+                rollbackLatency.record( completionNanos );
+            }
+        }
+
+        private StripedCounter rollbackCounter( Class<? extends Throwable> cause )
+        {
+            StripedCounter counter = rollbacks.get( cause );
+            if ( counter == null )
+            {
+                final StripedCounter created = new StripedCounter();
+                counter = rollbacks.putIfAbsent( cause, created );
+                if ( counter == null )
+                {
+                    counter = created;
+                }
+            }
+            return counter;
+        }
+
+        TransactionalMethodProfile snapshot( Method method )
+        {
+            final Map<String, Long> rollbacksByException = new HashMap<String, Long>();
+            for ( Map.Entry<Class<? extends Throwable>, StripedCounter> entry : rollbacks.entrySet() )
+            {
+                rollbacksByException.put( entry.getKey().getName(), entry.getValue().sum() );
+            }
+            return new TransactionalMethodProfile( method, calls.sum(), outerCalls.sum(), failedCalls.sum(),
+                                                   Collections.unmodifiableMap( rollbacksByException ),
+                                                   transactionLatency.snapshot(), commitLatency.snapshot(),
+                                                   rollbackLatency.snapshot() );
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * JMX view of the profiles of the {@link Transactional @Transactional} methods of a persistence unit.
+ * Registered with the platform MBean server under
+ * {@code org.apache.onami.persist:type=TransactionalMethodProfiler,unit=<annotation of the unit>} while the
+ * persistence service is running.
+ *
+ * @see UnconfiguredPersistenceUnitBuilder#profileTransactionalMethods(boolean)
+ */
+public interface TransactionalMethodProfilerMBean
+{
+
+    /**
+     * @return the number of profiled methods.
+     */
+    int getProfiledMethodCount();
+
+    /**
+     * @return the 20 methods with the largest total time in transaction, most expensive first.
+     */
+    String[] getMostExpensiveMethods();
+
+    /**
+     * @param count the maximal number of methods to return.
+     * @return the methods with the largest total time in transaction, most expensive first.
+     */
+    String[] mostExpensiveMethods( int count );
+
+    /**
+     * Discards all profiles.
+     */
+    void reset();
+
+}
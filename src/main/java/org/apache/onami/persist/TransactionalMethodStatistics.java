@@ -0,0 +1,50 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.List;
+
+/**
+ * Profiles of the {@link Transactional @Transactional} methods of a persistence unit. Empty if profiling is not
+ * configured.
+ *
+ * @see UnconfiguredPersistenceUnitBuilder#profileTransactionalMethods(boolean)
+ */
+public interface TransactionalMethodStatistics
+{
+
+    /**
+     * @return snapshots of the profiles of all methods called since the last reset.
+     */
+    List<TransactionalMethodProfile> getProfiles();
+
+    /**
+     * @param count the maximal number of methods to return.
+     * @return snapshots of the profiles of the methods with the largest total time in transaction, most expensive
+     *         first.
+     */
+    List<TransactionalMethodProfile> getMostExpensiveMethods( int count );
+
+    /**
+     * Discards all profiles.
+     */
+    void reset();
+
+}
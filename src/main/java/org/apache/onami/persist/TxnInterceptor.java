@@ -23,6 +23,9 @@ import org.aopalliance.intercept.MethodInterceptor;
 import org.aopalliance.intercept.MethodInvocation;
 
 import javax.inject.Inject;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 /**
  * Interceptor for methods and classes annotated with {@link Transactional @Transactional} annotation.
@@ -46,14 +49,85 @@ class TxnInterceptor
      */
     private TransactionalAnnotationHelper txnAnnotationHelper;
 
+    /**
+     * Guard for the size of the persistence context.
+     */
+    private PersistenceContextGuard contextGuard;
+
+    /**
+     * Router for read only units of work.
+     */
+    private ReadReplicaRouter replicaRouter;
+
+    /**
+     * Router for sharded persistence units.
+     */
+    private ShardRouter shardRouter;
+
+    /**
+     * Router for multi tenant persistence units.
+     */
+    private TenantRouter tenantRouter;
+
+    /**
+     * Coordinator for chained transactions.
+     */
+    private ChainedTransactionCoordinator chainCoordinator;
+
+    /**
+     * Executor for asynchronous transactions.
+     */
+    private AsyncTransactionExecutor asyncExecutor;
+
+    /**
+     * Holder of the priority of the current thread.
+     */
+    private TransactionPriorityHolder priorityHolder;
+
+    /**
+     * Detector for slow transactions.
+     */
+    private SlowTransactionDetector slowTransactionDetector;
+
+    /**
+     * Notifier for the lifecycle listeners.
+     */
+    private PersistenceLifecycleNotifier lifecycleNotifier;
+
+    /**
+     * Counter for the statements of the transactional methods.
+     */
+    private QueryCounter queryCounter;
+
+    /**
+     * Circuit breaker rejecting transactions while the database is unreachable.
+     */
+    private UnitOfWorkCircuitBreaker circuitBreaker;
+
     @Inject
     @VisibleForTesting
     void init( UnitOfWork unitOfWork, TransactionFacadeFactory tfProvider,
-               TransactionalAnnotationHelper txnAnnotationHelper )
+               TransactionalAnnotationHelper txnAnnotationHelper, PersistenceContextGuard contextGuard,
+               ReadReplicaRouter replicaRouter, ShardRouter shardRouter, TenantRouter tenantRouter,
+               ChainedTransactionCoordinator chainCoordinator, AsyncTransactionExecutor asyncExecutor,
+               TransactionPriorityHolder priorityHolder, SlowTransactionDetector slowTransactionDetector,
+               PersistenceLifecycleNotifier lifecycleNotifier, QueryCounter queryCounter,
+               UnitOfWorkCircuitBreaker circuitBreaker )
     {
         this.unitOfWork = unitOfWork;
         this.tfProvider = tfProvider;
         this.txnAnnotationHelper = txnAnnotationHelper;
+        this.contextGuard = contextGuard;
+        this.replicaRouter = replicaRouter;
+        this.shardRouter = shardRouter;
+        this.tenantRouter = tenantRouter;
+        this.chainCoordinator = chainCoordinator;
+        this.asyncExecutor = asyncExecutor;
+        this.priorityHolder = priorityHolder;
+        this.slowTransactionDetector = slowTransactionDetector;
+        this.lifecycleNotifier = lifecycleNotifier;
+        this.queryCounter = queryCounter;
+        this.circuitBreaker = circuitBreaker;
     }
 
     /**
@@ -65,7 +139,11 @@ class TxnInterceptor
     {
         if ( persistenceUnitParticipatesInTransactionFor( methodInvocation ) )
         {
-            return invokeInTransactionAndUnitOfWork( methodInvocation );
+            if ( txnAnnotationHelper.isAsync( methodInvocation ) && !AsyncTransactionExecutor.isRunningAsync() )
+            {
+                return invokeAsync( methodInvocation );
+            }
+            return invokeWithPriority( methodInvocation, txnAnnotationHelper.getPriority( methodInvocation ) );
         }
         else
         {
@@ -88,7 +166,119 @@ class TxnInterceptor
     }
 
     /**
-     * Invokes the original method within a unit of work and a transaction.
+     * Submits the invocation to the executor for asynchronous transactions. On the worker thread this interceptor
+     * is invoked again and runs the transaction synchronously. The value of the {@link Future} returned by the
+     * original method is taken after the transaction has ended. Unless the method declares a priority the priority
+     * of the calling thread is used on the worker thread. The tenant, the shard key and the read-your-writes session
+     * of the calling thread are bound to the worker thread for the duration of the transaction.
+     *
+     * @param methodInvocation the method to be executed asynchronously within the transaction
+     * @return the future for the value of the original method.
+     */
+    private Future<Object> invokeAsync( final MethodInvocation methodInvocation )
+    {
+        if ( !Future.class.equals( methodInvocation.getMethod().getReturnType() ) )
+        {
+            throw new IllegalStateException(
+                "Asynchronous transactional method must return a Future: " + methodInvocation.getMethod() );
+        }
+        final TransactionPriority annotatedPriority = txnAnnotationHelper.getPriority( methodInvocation );
+        final TransactionPriority priority =
+            annotatedPriority == TransactionPriority.DEFAULT ? priorityHolder.getPriority() : annotatedPriority;
+        final CallerContext callerContext = new CallerContext();
+        return asyncExecutor.submit( new Callable<Object>()
+        {
+            // @Override
+            public Object call()
+                throws Exception
+            {
+                final Object result;
+                final CallerContext workerContext = callerContext.bind();
+                try
+                {
+                    result = invokeWithPriority( methodInvocation, priority );
+                }
+                catch ( Exception e )
+                {
+                    throw e;
+                }
+                catch ( Error e )
+                {
+                    throw e;
+                }
+                catch ( Throwable t )
+                {
+                    throw new RuntimeException( t );
+                }
+                finally
+                {
+                    workerContext.bind();
+                }
+                return result == null ? null : ( (Future<?>) result ).get();
+            }
+        } );
+    }
+
+    /**
+     * Invokes the original method with the given priority bound to the current thread. The priority is used for the
+     * units of work started by the invocation.
+     *
+     * @param methodInvocation the method to be executed within the transaction
+     * @param priority         the priority to bind. {@code null} or {@link TransactionPriority#DEFAULT} to keep the
+     *                         priority of the current thread.
+     * @return the result of the invocation of the original method.
+     * @throws Throwable if an exception occurs during the call to the original method.
+     */
+    private Object invokeWithPriority( MethodInvocation methodInvocation, TransactionPriority priority )
+        throws Throwable
+    {
+        if ( priority == null || priority == TransactionPriority.DEFAULT )
+        {
+            return invokeWithShardKey( methodInvocation );
+        }
+
+        final TransactionPriority previousPriority = priorityHolder.bindPriority( priority );
+        try
+        {
+            return invokeWithShardKey( methodInvocation );
+        }
+        finally
+        {
+            priorityHolder.restorePriority( previousPriority );
+        }
+    }
+
+    /**
+     * Invokes the original method with the shard key of its {@link ShardKey @ShardKey} parameter bound to
+     * the current thread.
+     *
+     * @param methodInvocation the method to be executed within the transaction
+     * @return the result of the invocation of the original method.
+     * @throws Throwable if an exception occurs during the call to the original method.
+     */
+    private Object invokeWithShardKey( MethodInvocation methodInvocation )
+        throws Throwable
+    {
+        final Object shardKey = txnAnnotationHelper.readShardKey( methodInvocation );
+        if ( shardKey == null )
+        {
+            return invokeInTransactionAndUnitOfWork( methodInvocation );
+        }
+
+        final Object previousShardKey = shardRouter.bindShardKey( shardKey );
+        try
+        {
+            return invokeInTransactionAndUnitOfWork( methodInvocation );
+        }
+        finally
+        {
+            shardRouter.restoreShardKey( previousShardKey );
+        }
+    }
+
+    /**
+     * Invokes the original method with the method bound to the {@link PersistenceLifecycleNotifier} if a lifecycle
+     * listener is registered.
      *
      * @param methodInvocation the method to be executed within the transaction
      * @return the result of the invocation of the original method.
@@ -97,16 +287,74 @@ class TxnInterceptor
     private Object invokeInTransactionAndUnitOfWork( MethodInvocation methodInvocation )
         throws Throwable
     {
-        final boolean weStartedTheUnitOfWork = !unitOfWork.isActive();
-        if ( weStartedTheUnitOfWork )
+        if ( !lifecycleNotifier.isEnabled() )
+        {
+            return invokeTimedInTransactionAndUnitOfWork( methodInvocation );
+        }
+
+        final Method previousMethod = lifecycleNotifier.bindMethod( methodInvocation.getMethod() );
+        try
         {
-            unitOfWork.begin();
+            return invokeTimedInTransactionAndUnitOfWork( methodInvocation );
         }
+        finally
+        {
+            lifecycleNotifier.restoreMethod( previousMethod );
+        }
+    }
+
+    /**
+     * Invokes the original method within a unit of work and a transaction and reports it to the
+     * {@link SlowTransactionDetector}.
+     *
+     * @param methodInvocation the method to be executed within the transaction
+     * @return the result of the invocation of the original method.
+     * @throws Throwable if an exception occurs during the call to the original method.
+     */
+    private Object invokeTimedInTransactionAndUnitOfWork( MethodInvocation methodInvocation )
+        throws Throwable
+    {
+        final SlowTransactionDetector.Timing timing = slowTransactionDetector.start( methodInvocation.getMethod() );
+        boolean failed = true;
+        try
+        {
+            final Object result;
+            if ( txnAnnotationHelper.isChained( methodInvocation ) )
+            {
+                result = invokeInChainedTransaction( methodInvocation, timing );
+            }
+            else
+            {
+                result = invokeInTransactionAndUnitOfWork( methodInvocation, timing );
+            }
+            failed = false;
+            return result;
+        }
+        finally
+        {
+            slowTransactionDetector.finish( timing, failed );
+        }
+    }
+
+    /**
+     * Invokes the original method within a unit of work and a transaction.
+     *
+     * @param methodInvocation the method to be executed within the transaction
+     * @param timing           the timing of the method.
+     * @return the result of the invocation of the original method.
+     * @throws Throwable if an exception occurs during the call to the original method.
+     */
+    private Object invokeInTransactionAndUnitOfWork( MethodInvocation methodInvocation,
+                                                     SlowTransactionDetector.Timing timing )
+        throws Throwable
+    {
+        final boolean readOnly = txnAnnotationHelper.isReadOnly( methodInvocation );
+        final boolean weStartedTheUnitOfWork = beginUnitOfWorkIfInactive( readOnly, timing );
 
         Throwable originalException = null;
         try
         {
-            return invokeInTransaction( methodInvocation );
+            return invokeInTransaction( methodInvocation, readOnly, timing );
         }
         catch ( Throwable exc )
         {
@@ -122,6 +370,159 @@ class TxnInterceptor
         }
     }
 
+    /**
+     * Begins the unit of work unless it is already active.
+     *
+     * @param readOnly {@code true} if the transaction only reads.
+     * @param timing   the timing of the method.
+     * @return {@code true} if the unit of work was started by this call.
+     */
+    private boolean beginUnitOfWorkIfInactive( boolean readOnly, SlowTransactionDetector.Timing timing )
+    {
+        final boolean weStartedTheUnitOfWork = !unitOfWork.isActive();
+        if ( weStartedTheUnitOfWork )
+        {
+            if ( readOnly )
+            {
+                unitOfWork.beginReadOnly();
+            }
+            else
+            {
+                unitOfWork.begin();
+            }
+            timing.unitOfWorkStarted();
+        }
+        return weStartedTheUnitOfWork;
+    }
+
+    /**
+     * Invokes the original method within a unit of work and a transaction which is chained with the transactions of
+     * the other participating persistence units. If this interceptor is the first to see the chained method it
+     * becomes the root of the chain and completes it once the method returned. Otherwise the commit or rollback and
+     * the end of the unit of work are deferred to the root. If the method throws an exception which requires a
+     * rollback the chain is marked rollback only.
+     *
+     * @param methodInvocation the method to be executed within the transaction
+     * @param timing           the timing of the method.
+     * @return the result of the invocation of the original method.
+     * @throws Throwable if an exception occurs during the call to the original method or while completing the chain.
+     */
+    private Object invokeInChainedTransaction( MethodInvocation methodInvocation,
+                                               SlowTransactionDetector.Timing timing )
+        throws Throwable
+    {
+        final boolean root = chainCoordinator.openChain( txnAnnotationHelper.isParallelFlush( methodInvocation ) );
+        final boolean readOnly = txnAnnotationHelper.isReadOnly( methodInvocation );
+        final Participant participant;
+        try
+        {
+            final boolean weStartedTheUnitOfWork = beginUnitOfWorkIfInactive( readOnly, timing );
+            final TransactionFacade transactionFacade;
+            try
+            {
+                if ( !readOnly && replicaRouter.isUsingReplica() )
+                {
+                    throw new IllegalStateException(
+                        "Cannot start a read-write transaction in a unit of work using a read replica." );
+                }
+                final NestedTransactionMode nestedMode =
+                    txnAnnotationHelper.getNestedTransactionMode( methodInvocation );
+                transactionFacade = tfProvider.createTransactionFacade( nestedMode );
+                beginTransaction( transactionFacade );
+                timing.workStarted();
+            }
+            catch ( Throwable exc )
+            {
+                if ( weStartedTheUnitOfWork )
+                {
+                    endUnitOfWork( exc );
+                }
+                throw exc;
+            }
+            participant = new Participant( transactionFacade, weStartedTheUnitOfWork, readOnly );
+        }
+        catch ( Throwable exc )
+        {
+            if ( root )
+            {
+                chainCoordinator.abortChain();
+            }
+            throw exc;
+        }
+
+        final Object result;
+        try
+        {
+            result = invokeOriginalMethod( methodInvocation, participant.transactionFacade, timing );
+        }
+        catch ( Throwable exc )
+        {
+            if ( isRollbackNecessaryFor( methodInvocation, exc ) )
+            {
+                timing.rolledBack( exc );
+                chainCoordinator.registerRollbackOnly( participant );
+            }
+            else
+            {
+                chainCoordinator.register( participant );
+            }
+            if ( root )
+            {
+                completeChainAfterException();
+            }
+            throw exc;
+        }
+
+        chainCoordinator.register( participant );
+        if ( root )
+        {
+            chainCoordinator.completeChain();
+        }
+        return result;
+    }
+
+    /**
+     * Completes the chain after the method of the root threw an exception. Exceptions are swallowed in favor of the
+     * exception thrown by the original method.
+     */
+    private void completeChainAfterException()
+    {
+        try
+        {
+            chainCoordinator.completeChain();
+        }
+        catch ( Throwable swallowedException )
+        {
+            // swallow exception from the chain in favor of the exception thrown by the original method.
+        }
+    }
+
+    /**
+     * Begins the transaction. The circuit breaker is only consulted for the outer transaction as only its begin
+     * acquires a connection. Nested transactions run on the connection of the outer transaction.
+     *
+     * @param transactionFacade the facade of the transaction to begin.
+     */
+    private void beginTransaction( TransactionFacade transactionFacade )
+    {
+        if ( !transactionFacade.isOuter() )
+        {
+            transactionFacade.begin();
+            return;
+        }
+        circuitBreaker.beforeBegin();
+        try
+        {
+            transactionFacade.begin();
+        }
+        catch ( RuntimeException e )
+        {
+            circuitBreaker.recordFailure( e );
+            throw e;
+        }
+        circuitBreaker.recordSuccess();
+    }
+
     /**
      * Ends the unit of work. If an exception occurs while ending the unit of work it is neglected in preference of an
      * original exception.
@@ -154,16 +555,31 @@ class TxnInterceptor
      * Invoke the original method within a transaction.
      *
      * @param methodInvocation the original method invocation.
+     * @param readOnly         {@code true} if the transaction only reads.
+     * @param timing           the timing of the method.
      * @return the result of the invocation of the original method.
      * @throws Throwable if an exception occurs during the call to the original method.
      */
-    private Object invokeInTransaction( MethodInvocation methodInvocation )
+    private Object invokeInTransaction( MethodInvocation methodInvocation, boolean readOnly,
+                                        SlowTransactionDetector.Timing timing )
         throws Throwable
     {
-        final TransactionFacade transactionFacade = tfProvider.createTransactionFacade();
-        transactionFacade.begin();
-        final Object result = invokeAndHandleException( methodInvocation, transactionFacade );
+        if ( !readOnly && replicaRouter.isUsingReplica() )
+        {
+            throw new IllegalStateException(
+                "Cannot start a read-write transaction in a unit of work using a read replica." );
+        }
+        final NestedTransactionMode nestedMode = txnAnnotationHelper.getNestedTransactionMode( methodInvocation );
+        final TransactionFacade transactionFacade = tfProvider.createTransactionFacade( nestedMode );
+        beginTransaction( transactionFacade );
+        timing.workStarted();
+        final Object result = invokeAndHandleException( methodInvocation, transactionFacade, timing );
         transactionFacade.commit();
+        contextGuard.afterCommit();
+        if ( !readOnly )
+        {
+            replicaRouter.recordWrite();
+        }
 
         return result;
     }
@@ -174,38 +590,95 @@ class TxnInterceptor
      *
      * @param methodInvocation  the original method invocation.
      * @param transactionFacade the facade to the underlying resource local or jta transaction.
+     * @param timing            the timing of the method.
      * @return the result of the invocation of the original method.
      * @throws Throwable if an exception occurs during the call to the original method.
      */
-    private Object invokeAndHandleException( MethodInvocation methodInvocation, TransactionFacade transactionFacade )
+    private Object invokeAndHandleException( MethodInvocation methodInvocation, TransactionFacade transactionFacade,
+                                             SlowTransactionDetector.Timing timing )
         throws Throwable
     {
         try
         {
-            return methodInvocation.proceed();
+            return invokeOriginalMethod( methodInvocation, transactionFacade, timing );
+        }
+        catch ( Throwable exc )
+        {
+            handleException( methodInvocation, transactionFacade, exc, timing );
+            throw exc;
+        }
+    }
+
+    /**
+     * Invoke the original method and record its end at the timing and the query counter.
+     * The caller is responsible for completing the transaction. If the method has a statement budget the pending
+     * changes are flushed before the budget is checked. This way the statements otherwise issued by the commit
+     * count against the budget of the method.
+     *
+     * @param methodInvocation  the original method invocation.
+     * @param transactionFacade the facade to the underlying resource local or jta transaction.
+     * @param timing            the timing of the method.
+     * @return the result of the invocation of the original method.
+     * @throws Throwable if an exception occurs during the call to the original method.
+     */
+    private Object invokeOriginalMethod( MethodInvocation methodInvocation, TransactionFacade transactionFacade,
+                                         SlowTransactionDetector.Timing timing )
+        throws Throwable
+    {
+        final QueryCounter.Mark mark = enterQueryCountedMethod( methodInvocation );
+        try
+        {
+            final Object result = methodInvocation.proceed();
+            timing.workEnded();
+            contextGuard.beforeCommit();
+            if ( mark.isStatementBudgeted() )
+            {
+                transactionFacade.flush();
+            }
+            queryCounter.exitMethod( mark, true );
+            return result;
         }
         catch ( Throwable exc )
         {
-            handleException( methodInvocation, transactionFacade, exc );
+            timing.workEnded();
+            queryCounter.exitMethod( mark, false );
             throw exc;
         }
     }
 
+    /**
+     * Marks the begin of the method at the {@link QueryCounter}.
+     *
+     * @param methodInvocation the original method invocation.
+     * @return the mark of the method.
+     */
+    private QueryCounter.Mark enterQueryCountedMethod( MethodInvocation methodInvocation )
+    {
+        if ( !queryCounter.isEnabled() )
+        {
+            return QueryCounter.DISABLED;
+        }
+        return queryCounter.enterMethod( methodInvocation.getMethod(),
+                                         txnAnnotationHelper.getStatementBudget( methodInvocation ) );
+    }
+
     /**
      * Handles the case that an exception was thrown by the original method.
      *
      * @param methodInvocation  the original method invocation.
      * @param transactionFacade the facade to the underlying resource local or jta transaction.
      * @param exc               the exception thrown by the original method.
+     * @param timing            the timing of the method.
      */
     private void handleException( MethodInvocation methodInvocation, TransactionFacade transactionFacade,
-                                  Throwable exc )
+                                  Throwable exc, SlowTransactionDetector.Timing timing )
         throws Throwable
     {
         try
         {
             if ( isRollbackNecessaryFor( methodInvocation, exc ) )
             {
+                timing.rolledBack( exc );
                 transactionFacade.rollback();
             }
             else
@@ -232,4 +705,147 @@ class TxnInterceptor
         return txnAnnotationHelper.isRollbackNecessaryFor( methodInvocation, exc );
     }
 
+    /**
+     * Participant of a chained transaction representing the persistence unit of this interceptor.
+     */
+    private class Participant
+        implements ChainedTransactionParticipant
+    {
+
+        /**
+         * The facade to the transaction of the persistence unit.
+         */
+        private final TransactionFacade transactionFacade;
+
+        /**
+         * {@code true} if the unit of work has been started for the chained transaction.
+         */
+        private final boolean weStartedTheUnitOfWork;
+
+        /**
+         * {@code true} if the transaction only reads.
+         */
+        private final boolean readOnly;
+
+        /**
+         * Constructor.
+         *
+         * @param transactionFacade      the facade to the transaction of the persistence unit.
+         * @param weStartedTheUnitOfWork {@code true} if the unit of work has been started for the chained transaction.
+         * @param readOnly               {@code true} if the transaction only reads.
+         */
+        Participant( TransactionFacade transactionFacade, boolean weStartedTheUnitOfWork, boolean readOnly )
+        {
+            this.transactionFacade = transactionFacade;
+            this.weStartedTheUnitOfWork = weStartedTheUnitOfWork;
+            this.readOnly = readOnly;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        // @Override
+        public String getUnitName()
+        {
+            return txnAnnotationHelper.getPersistenceUnitName();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        // @Override
+        public void flush()
+        {
+            transactionFacade.flush();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        // @Override
+        public void commit()
+        {
+            transactionFacade.commit();
+            contextGuard.afterCommit();
+            if ( !readOnly )
+            {
+                replicaRouter.recordWrite();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        // @Override
+        public void rollback()
+        {
+            transactionFacade.rollback();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        // @Override
+        public void end()
+        {
+            if ( weStartedTheUnitOfWork )
+            {
+                unitOfWork.end();
+            }
+        }
+    }
+
+    /**
+     * The tenant, the shard key and the read-your-writes session of a thread. Used for passing the context of the
+     * caller of an asynchronous transaction on to the worker thread.
+     */
+    private class CallerContext
+    {
+
+        private final String tenantId;
+
+        private final Object shardKey;
+
+        private final Object sessionKey;
+
+        /**
+         * Constructor. Captures the context of the current thread.
+         */
+        CallerContext()
+        {
+            tenantId = tenantRouter.getTenantId();
+            shardKey = shardRouter.getShardKey();
+            sessionKey = replicaRouter.getSessionKey();
+        }
+
+        /**
+         * Binds this context to the current thread.
+         *
+         * @return the previous context of the current thread. Bind it again to restore it.
+         */
+        CallerContext bind()
+        {
+            final CallerContext previous = new CallerContext();
+            if ( tenantId == null )
+            {
+                tenantRouter.clearTenantId();
+            }
+            else
+            {
+                tenantRouter.setTenantId( tenantId );
+            }
+            shardRouter.restoreShardKey( shardKey );
+            if ( sessionKey == null )
+            {
+                replicaRouter.clearSessionKey();
+            }
+            else
+            {
+                replicaRouter.setSessionKey( sessionKey );
+            }
+            return previous;
+        }
+
+    }
+
 }
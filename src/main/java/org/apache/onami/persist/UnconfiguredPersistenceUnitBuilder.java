@@ -19,6 +19,7 @@ package org.apache.onami.persist;
  * under the License.
  */
 
+import java.util.List;
 import java.util.Properties;
 
 /**
@@ -35,4 +36,319 @@ public interface UnconfiguredPersistenceUnitBuilder
      */
     void setProperties( Properties properties );
 
+    /**
+     * Limits the number of entities managed by the persistence context of a unit of work.
+     * The number of entities is determined using the API of Hibernate. For other persistence providers
+     * use {@link #limitPersistenceContextSize(long, PersistenceContextSizeAction, PersistenceContextSizeEstimator)}.
+     * <p/>
+     * The size is checked at the transaction boundaries of methods annotated with
+     * {@link Transactional @Transactional}.
+     *
+     * @param maxManagedEntities the number of managed entities above which the action is taken.
+     * @param action             the action to take when the limit is exceeded.
+     * @return the next builder step.
+     */
+    UnconfiguredPersistenceUnitBuilder limitPersistenceContextSize( long maxManagedEntities,
+                                                                    PersistenceContextSizeAction action );
+
+    /**
+     * Limits the size of the persistence context of a unit of work.
+     * <p/>
+     * The size is checked at the transaction boundaries of methods annotated with
+     * {@link Transactional @Transactional}.
+     *
+     * @param threshold the size above which the action is taken. Uses the same unit as the estimator.
+     * @param action    the action to take when the limit is exceeded.
+     * @param estimator the estimator for the size of a persistence context.
+     * @return the next builder step.
+     */
+    UnconfiguredPersistenceUnitBuilder limitPersistenceContextSize( long threshold,
+                                                                    PersistenceContextSizeAction action,
+                                                                    PersistenceContextSizeEstimator estimator );
+
+    /**
+     * Reuses the {@link javax.persistence.EntityManager} of a thread for consecutive units of work.
+     * Instead of closing the entity manager at the end of a unit of work it is cleared and kept for the next
+     * unit of work of the same thread. An entity manager is closed instead of being kept if a transaction is
+     * still active or clearing it fails.
+     * <p/>
+     * This reduces the cost of short units of work on pooled threads. Do not use it if threads are not pooled
+     * as the kept entity manager of a terminated thread is never closed.
+     *
+     * @param maxUses      the maximal number of units of work an entity manager is used for.
+     * @param maxAgeMillis the maximal age of an entity manager in milliseconds.
+     * @return the next builder step.
+     */
+    UnconfiguredPersistenceUnitBuilder reuseEntityManagers( int maxUses, long maxAgeMillis );
+
+    /**
+     * Begins resource local transactions lazily. The physical transaction of a {@link Transactional @Transactional}
+     * method is begun on the first call to the {@link javax.persistence.EntityManager} which may access the
+     * database. A method which returns without accessing the database neither begins nor commits a transaction.
+     * This shortens the time a connection is held for methods which often return early (i.e. on a cache hit).
+     * <p/>
+     * The entity manager handed out by the {@link EntityManagerProvider} is a proxy. Queries created by it begin
+     * the transaction when they are created. Not supported for JTA transactions.
+     *
+     * @return the next builder step.
+     */
+    UnconfiguredPersistenceUnitBuilder beginTransactionsLazily();
+
+    /**
+     * Reports {@link Transactional @Transactional} methods whose transaction takes longer than the threshold.
+     * A report names the method, the persistence unit and the nesting depth and splits the duration into the begin,
+     * work and commit phases. Nested transactional methods are reported separately.
+     *
+     * @param thresholdMillis   the duration in milliseconds above which a transaction is reported.
+     * @param sink              the receiver of the reports, i.e. a {@link LoggingSlowTransactionSink} or a
+     *                          {@link RingBufferSlowTransactionSink}.
+     * @param captureStackTrace {@code true} to sample the stack of the thread once the threshold is exceeded and
+     *                          add it to the reports. The stack is sampled by a background thread while the
+     *                          method is still running.
+     * @return the next builder step.
+     */
+    UnconfiguredPersistenceUnitBuilder detectSlowTransactions( long thresholdMillis, SlowTransactionSink sink,
+                                                               boolean captureStackTrace );
+
+    /**
+     * Profiles every {@link Transactional @Transactional} method of the persistence unit. For each method the call
+     * count, the share of nested calls, the rollbacks by exception type and histograms of the time in transaction,
+     * in commit and in rollback are accumulated. The profiles are available through the
+     * {@link TransactionalMethodStatistics} and optionally through JMX as a {@link TransactionalMethodProfilerMBean}.
+     *
+     * @param registerMBean {@code true} to register the profiles with the platform MBean server while the
+     *                      persistence service is running.
+     * @return the next builder step.
+     */
+    UnconfiguredPersistenceUnitBuilder profileTransactionalMethods( boolean registerMBean );
+
+    /**
+     * Exposes the statistics of the persistence provider as {@link ProviderStatistics}. When the persistence service
+     * is started the Hibernate statistics of the entity manager factory are enabled. Hibernate is accessed by
+     * reflection and only if it is the provider of the persistence unit. For other providers the statistics are not
+     * available.
+     *
+     * @param registerMBean {@code true} to register the statistics with the platform MBean server while the
+     *                      persistence service is running.
+     * @return the next builder step.
+     */
+    UnconfiguredPersistenceUnitBuilder bridgeProviderStatistics( boolean registerMBean );
+
+    /**
+     * Warms the persistence unit up when the persistence service is started. The classes of the metamodel are
+     * loaded, the given number of entity managers are opened at the same time, the named queries are compiled and
+     * the statements are executed in each of the entity managers. The persistence service reports to be running only
+     * after the warm-up has finished. If the warm-up fails the start of the persistence service fails. Every shard of
+     * a sharded persistence unit is warmed up. The warm-up is not supported for multi tenant persistence units
+     * because their entity manager factories are created on demand.
+     *
+     * @param entityManagerCount the number of entity managers to open. Should not exceed the size of the connection
+     *                           pool. Must be positive.
+     * @param parallelism        the number of threads executing the statements. Must be positive.
+     * @param namedQueries       the names of the named queries to compile. Must not be {@code null}.
+     * @param statements         the native SQL statements to execute, e.g. {@code SELECT 1}. Must not be
+     *                           {@code null}.
+     * @return the next builder step.
+     */
+    UnconfiguredPersistenceUnitBuilder warmUp( int entityManagerCount, int parallelism, List<String> namedQueries,
+                                               List<String> statements );
+
+    /**
+     * Counts the queries, finds and flushes of every unit of work to detect N+1 selects. The entity manager handed
+     * out by the {@link EntityManagerProvider} is a proxy. A query string or an entity class which is executed as
+     * often as the threshold within one unit of work is logged as a likely N+1 select. The statements issued by a
+     * {@link Transactional @Transactional} method are checked against its
+     * {@link Transactional#statementBudget() statement budget}. The counts are available through the
+     * {@link QueryCountStatistics}.
+     * <p/>
+     * The SQL statements are counted using the API of Hibernate. For other persistence providers the budgets are
+     * checked against the calls to the entity manager. To count the SQL statements of other persistence providers
+     * use {@link #countQueries(int, boolean, SqlStatementCounter)}.
+     *
+     * @param repeatedQueryThreshold the number of executions of the same query in a unit of work at which the query
+     *                               is reported. Must be at least 2.
+     * @param failOnBudgetExceeded   {@code true} to fail a method exceeding its statement budget with a
+     *                               {@link StatementBudgetExceededException}, i.e. in tests. {@code false} to only
+     *                               log it.
+     * @return the next builder step.
+     */
+    UnconfiguredPersistenceUnitBuilder countQueries( int repeatedQueryThreshold, boolean failOnBudgetExceeded );
+
+    /**
+     * Counts the queries, finds and flushes of every unit of work to detect N+1 selects and the SQL statements
+     * reported by the given counter.
+     *
+     * @param repeatedQueryThreshold the number of executions of the same query in a unit of work at which the query
+     *                               is reported. Must be at least 2.
+     * @param failOnBudgetExceeded   {@code true} to fail a method exceeding its statement budget with a
+     *                               {@link StatementBudgetExceededException}, i.e. in tests. {@code false} to only
+     *                               log it.
+     * @param statementCounter       the adapter to the statement statistics of the persistence provider. The budgets
+     *                               are checked against the SQL statements if the counter can determine them.
+     * @return the next builder step.
+     * @see #countQueries(int, boolean)
+     */
+    UnconfiguredPersistenceUnitBuilder countQueries( int repeatedQueryThreshold, boolean failOnBudgetExceeded,
+                                                     SqlStatementCounter statementCounter );
+
+    /**
+     * Detects units of work which are begun but never ended. Such a unit of work keeps its entity manager and
+     * connection in a thread local and makes the next unit of work on the same pooled thread fail. A unit of work
+     * is considered leaked if its thread has terminated or if the {@link EntityManagerProvider} has not been asked
+     * for its entity manager for longer than the threshold. Leaks are logged by a background checker and counted
+     * in the {@link LeakDetectionStatistics}.
+     * <p/>
+     * The entity manager of a unit of work whose thread is still alive is never closed by the checker because
+     * entity managers are not thread safe. If closing is enabled the entity manager of a unit of work whose thread
+     * has terminated is closed and its bulkhead permit and entity manager factory are released. Choose a
+     * threshold well above the longest expected pause between two requests for the entity manager.
+     *
+     * @param idleThresholdMillis  the time in milliseconds after which an idle unit of work is considered leaked.
+     * @param captureCreationStack {@code true} to log the stack of the thread which started a leaked unit of work.
+     * @param closeLeaked          {@code true} to close the entity manager of a unit of work whose thread has
+     *                             terminated.
+     * @return the next builder step.
+     */
+    UnconfiguredPersistenceUnitBuilder detectLeakedUnitsOfWork( long idleThresholdMillis,
+                                                                boolean captureCreationStack, boolean closeLeaked );
+
+    /**
+     * Configures the bounded executor running the {@link Transactional#async() asynchronous} transactions of the
+     * persistence unit. The executor is started and stopped together with the {@link PersistenceService}.
+     * Transactions submitted while all threads are busy and the queue is full are rejected with a
+     * {@link java.util.concurrent.RejectedExecutionException}. The executor is observable through the
+     * {@link AsyncExecutorStatistics}.
+     *
+     * @param threads       the number of worker threads.
+     * @param queueCapacity the maximal number of transactions waiting for a worker thread.
+     * @return the next builder step.
+     */
+    UnconfiguredPersistenceUnitBuilder useAsyncExecutor( int threads, int queueCapacity );
+
+    /**
+     * Limits the number of concurrent units of work of the persistence unit. Beginning a unit of work waits for a
+     * free permit at most the given timeout and fails with a {@link BulkheadRejectedException} afterwards. This
+     * protects the connection pool from being exhausted by a single persistence unit under overload.
+     * The {@link PersistenceFilter} responds with {@code 503 Service Unavailable} to rejected requests.
+     * The bulkhead is observable through the {@link BulkheadStatistics}.
+     *
+     * @param maxConcurrent        the maximal number of concurrent units of work.
+     * @param acquireTimeoutMillis the maximal time in milliseconds to wait for a free permit.
+     *                             {@code 0} rejects immediately.
+     * @param fair                 {@code true} to grant free permits to waiting threads in arrival order.
+     * @return the next builder step.
+     */
+    UnconfiguredPersistenceUnitBuilder limitConcurrentUnitsOfWork( int maxConcurrent, long acquireTimeoutMillis,
+                                                                   boolean fair );
+
+    /**
+     * Protects the persistence unit with a circuit breaker. After the given number of consecutive failures to begin
+     * a unit of work or a transaction the circuit opens and further attempts fail fast with a
+     * {@link CircuitBreakerOpenException} instead of waiting for the connection timeout. After the probe interval
+     * the database is probed with the validation query and the circuit closes once the probe succeeds.
+     * The {@link PersistenceFilter} responds with {@code 503 Service Unavailable} to rejected requests.
+     * The health of the persistence unit is observable through the {@link PersistenceUnitHealth}. Not supported for
+     * sharded and multi tenant persistence units, for JTA transactions and together with
+     * {@link #beginTransactionsLazily()}. There the database is first accessed after the point at which failures
+     * are recorded, so an unreachable database would never open the circuit.
+     *
+     * @param validationQuery     the cheap native SQL query validating that the database is reachable,
+     *                            e.g. {@code SELECT 1}.
+     * @param healthTtlMillis     the time in milliseconds for which the result of
+     *                            {@link PersistenceUnitHealth#isHealthy()} is cached.
+     * @param failureThreshold    the number of consecutive failures which open the circuit.
+     * @param probeIntervalMillis the time in milliseconds after which an open circuit probes the database.
+     * @return the next builder step.
+     */
+    UnconfiguredPersistenceUnitBuilder useCircuitBreaker( String validationQuery, long healthTtlMillis,
+                                                          int failureThreshold, long probeIntervalMillis );
+
+    /**
+     * Configures the lane through which units of work of the given {@link TransactionPriority priority} are admitted
+     * when the number of concurrent units of work is {@link #limitConcurrentUnitsOfWork(int, long, boolean) limited}.
+     * The reserved permits can only be used by the lane. The remaining permits are shared by all lanes and waiting
+     * interactive units of work are admitted to them before batch units of work. A lane never uses more than its
+     * maximal share of all permits. Priorities without a configured lane reserve nothing and may use all permits.
+     * <p/>
+     * Example: with 20 permits, 5 reserved for interactive work and batch work limited to 50% a nightly job never
+     * holds more than 10 connections and user requests always find 5 free connections.
+     *
+     * @param priority        the priority. Must not be {@link TransactionPriority#DEFAULT}.
+     * @param reservedPermits the number of permits reserved for the priority.
+     * @param maxSharePercent the maximal share of all permits in percent the priority may use.
+     * @return the next builder step.
+     */
+    UnconfiguredPersistenceUnitBuilder configurePriorityLane( TransactionPriority priority, int reservedPermits,
+                                                              int maxSharePercent );
+
+    /**
+     * Adds read replicas to an application managed persistence unit. Every replica has its own
+     * {@link javax.persistence.EntityManagerFactory} created from the same persistence unit with some properties
+     * overridden (i.e. the connection url).
+     * <p/>
+     * Units of work started by {@link UnitOfWork#beginReadOnly()} or by a {@link Transactional#readOnly()}
+     * transaction use one of the replicas. After a session committed a read-write transaction it reads from
+     * the primary for the given window, so it sees its own writes even if the replicas lag behind. The session
+     * is set by the {@link ReadYourWritesContext}. Without a session the window only applies to the thread which
+     * committed the transaction. With pooled threads the next request of the same client may miss its own
+     * writes in this case.
+     *
+     * @param selection                  the strategy for selecting a replica.
+     * @param readYourWritesWindowMillis the time in milliseconds after a write during which a session reads
+     *                                   from the primary. 0 to disable.
+     * @param replicaProperties          the properties of the replicas. One entry per replica. These override
+     *                                   the properties of the persistence unit.
+     * @return the next builder step.
+     */
+    UnconfiguredPersistenceUnitBuilder useReadReplicas( ReplicaSelection selection, long readYourWritesWindowMillis,
+                                                        Properties... replicaProperties );
+
+    /**
+     * Splits an application managed persistence unit into shards. Every shard has its own
+     * {@link javax.persistence.EntityManagerFactory} created from the same persistence unit with some properties
+     * overridden (i.e. the connection url). The shard of a key is determined by consistent hashing.
+     * <p/>
+     * Every unit of work uses the shard of the shard key of the current thread. The shard key is set using the
+     * {@link ShardContext} or by a {@link ShardKey @ShardKey} parameter of a {@link Transactional @Transactional}
+     * method. A unit of work cannot be started without a shard key. When using the {@link PersistenceFilter}
+     * the shard key must be set before the filter is invoked.
+     *
+     * @param shardProperties the properties of the shards. One entry per shard. These override the properties of
+     *                        the persistence unit.
+     * @return the next builder step.
+     */
+    UnconfiguredPersistenceUnitBuilder useShards( Properties... shardProperties );
+
+    /**
+     * Splits an application managed persistence unit into shards using a custom resolver for the shard of a key.
+     * See {@link #useShards(Properties...)} for details.
+     *
+     * @param resolver        the resolver for the shard of a shard key.
+     * @param shardProperties the properties of the shards. One entry per shard. These override the properties of
+     *                        the persistence unit.
+     * @return the next builder step.
+     */
+    UnconfiguredPersistenceUnitBuilder useShards( ShardResolver resolver, Properties... shardProperties );
+
+    /**
+     * Makes an application managed persistence unit multi tenant. Every tenant has its own
+     * {@link javax.persistence.EntityManagerFactory} created from the same persistence unit with some properties
+     * overridden (i.e. the connection url or the default schema).
+     * <p/>
+     * Every unit of work uses the tenant set in the {@link TenantContext} of the current thread. A unit of work
+     * cannot be started without a tenant. When using the {@link PersistenceFilter} the tenant must be set before
+     * the filter is invoked.
+     * <p/>
+     * The entity manager factory of a tenant is created on first use and kept in a cache. When the cache is full
+     * the least recently used tenant is evicted. Tenants not used for the idle time are evicted as well.
+     * The entity manager factory of an evicted tenant is closed when the last unit of work using it has ended.
+     *
+     * @param resolver      the resolver for the properties of a tenant.
+     * @param maxTenants    the maximal number of tenants with an open entity manager factory.
+     * @param maxIdleMillis the time in milliseconds after which an unused tenant is evicted. 0 to disable.
+     * @return the next builder step.
+     */
+    UnconfiguredPersistenceUnitBuilder useTenants( TenantPropertiesResolver resolver, int maxTenants,
+                                                   long maxIdleMillis );
+
 }
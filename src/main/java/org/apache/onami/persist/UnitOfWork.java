@@ -67,6 +67,16 @@ public interface UnitOfWork
      */
     void begin();
 
+    /**
+     * Begins a unit of work which only reads.
+     * If read replicas are configured for the persistence unit the entity manager is created by one of
+     * the replicas. Otherwise this is the same as {@link #begin()}.
+     * When a unit of work has already been started for the current thread an {@link IllegalStateException} is thrown.
+     *
+     * @throws IllegalStateException if a unit of work is already active for this thread.
+     */
+    void beginReadOnly();
+
     /**
      * @return {@code true} if the unit of work is active for the current thread
      *         {@code false} otherwise.
@@ -0,0 +1,396 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+/**
+ * Bulkhead limiting the number of concurrent units of work of a persistence unit.
+ * A permit is acquired when a unit of work begins and released when it ends.
+ * <p/>
+ * If priority lanes are configured a unit of work is admitted through the lane of the
+ * {@link TransactionPriorityHolder#getEffectivePriority() priority} of the current thread. A lane may use its
+ * reserved permits and the permits not reserved by any lane up to its maximal share. Waiting interactive units of
+ * work are admitted to the shared permits before batch units of work.
+ */
+@Singleton
+class UnitOfWorkBulkhead
+    implements BulkheadStatistics
+{
+
+    /**
+     * The configuration of the bulkhead. {@code null} if the number of units of work is not limited.
+     */
+    private final BulkheadConfiguration config;
+
+    /**
+     * The permits if no priority lanes are configured. {@code null} otherwise.
+     */
+    private final Semaphore permits;
+
+    /**
+     * The configuration of the priority lanes. {@code null} if no priority lanes are configured.
+     */
+    private final PriorityLaneConfiguration lanes;
+
+    /**
+     * Holder of the priority of the current thread.
+     */
+    private final TransactionPriorityHolder priorityHolder;
+
+    /**
+     * Lock guarding the admission through the priority lanes.
+     */
+    private final ReentrantLock laneLock;
+
+    /**
+     * Signalled when a permit of a priority lane is released.
+     */
+    private final Condition laneReleased;
+
+    /**
+     * The number of active units of work per priority. Indexed by {@link TransactionPriority#ordinal()}.
+     */
+    private final AtomicInteger[] activeCounts = new AtomicInteger[TransactionPriority.values().length];
+
+    /**
+     * The number of threads waiting in a priority lane. Indexed by {@link TransactionPriority#ordinal()}.
+     * Guarded by {@link #laneLock}.
+     */
+    private final int[] waitingCounts = new int[TransactionPriority.values().length];
+
+    /**
+     * Thread local store of the priority through which the permit of the current unit of work was acquired.
+     */
+    private final ThreadLocal<TransactionPriority> acquiredPriorities = new ThreadLocal<TransactionPriority>();
+
+    /**
+     * Number of rejected units of work.
+     */
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param config         the configuration of the bulkhead. {@code null} if the number of units of work is not
+     *                       limited.
+     * @param lanes          the configuration of the priority lanes. {@code null} if no priority lanes are
+     *                       configured.
+     * @param priorityHolder holder of the priority of the current thread. Must not be {@code null}.
+     */
+    @Inject
+    UnitOfWorkBulkhead( @Nullable BulkheadConfiguration config, @Nullable PriorityLaneConfiguration lanes,
+                        TransactionPriorityHolder priorityHolder )
+    {
+        this.config = config;
+        this.lanes = config == null ? null : lanes;
+        this.priorityHolder = checkNotNull( priorityHolder, "priorityHolder is mandatory!" );
+        this.permits =
+            config == null || this.lanes != null ? null : new Semaphore( config.getMaxConcurrent(), config.isFair() );
+        this.laneLock = this.lanes == null ? null : new ReentrantLock( config.isFair() );
+        this.laneReleased = this.lanes == null ? null : laneLock.newCondition();
+        for ( int i = 0; i < activeCounts.length; i++ )
+        {
+            activeCounts[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Acquires a permit for a unit of work. Waits at most the configured timeout.
+     *
+     * @throws BulkheadRejectedException if no permit was granted within the timeout or the thread was interrupted.
+     */
+    void acquire()
+    {
+        if ( config == null )
+        {
+            return;
+        }
+        final TransactionPriority priority = priorityHolder.getEffectivePriority();
+        boolean acquired;
+        try
+        {
+            if ( lanes == null )
+            {
+                acquired = permits.tryAcquire( config.getAcquireTimeoutMillis(), TimeUnit.MILLISECONDS );
+                if ( acquired )
+                {
+                    activeCounts[priority.ordinal()].incrementAndGet();
+                }
+            }
+            else
+            {
+                acquired = acquireLane( priority );
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if ( !acquired )
+        {
+            rejectedCount.incrementAndGet();
+            throw new BulkheadRejectedException( config.getMaxConcurrent(), config.getAcquireTimeoutMillis() );
+        }
+        acquiredPriorities.set( priority );
+    }
+
+    /**
+     * Waits until the lane of the given priority admits a unit of work or the timeout elapsed. The unit of work is
+     * counted as active while still holding the {@link #laneLock}, so no other thread is admitted on the same permit.
+     *
+     * @param priority the priority of the unit of work.
+     * @return {@code true} if the unit of work was admitted.
+     * @throws InterruptedException if the thread was interrupted while waiting.
+     */
+    private boolean acquireLane( TransactionPriority priority )
+        throws InterruptedException
+    {
+        long remainingNanos = TimeUnit.MILLISECONDS.toNanos( config.getAcquireTimeoutMillis() );
+        laneLock.lockInterruptibly();
+        try
+        {
+            waitingCounts[priority.ordinal()]++;
+            try
+            {
+                while ( !mayAdmit( priority ) )
+                {
+                    if ( remainingNanos <= 0 )
+                    {
+                        // a waiting batch unit of work may have yielded to this one
+                        laneReleased.signalAll();
+                        return false;
+                    }
+                    remainingNanos = laneReleased.awaitNanos( remainingNanos );
+                }
+            }
+            finally
+            {
+                waitingCounts[priority.ordinal()]--;
+            }
+            activeCounts[priority.ordinal()].incrementAndGet();
+            return true;
+        }
+        finally
+        {
+            laneLock.unlock();
+        }
+    }
+
+    /**
+     * Decides if a unit of work of the given priority may be admitted. Must be called while holding the
+     * {@link #laneLock}.
+     *
+     * @param priority the priority of the unit of work.
+     * @return {@code true} if the unit of work may be admitted.
+     */
+    private boolean mayAdmit( TransactionPriority priority )
+    {
+        final int active = activeCounts[priority.ordinal()].get();
+        if ( active >= getLaneLimit( priority ) )
+        {
+            return false;
+        }
+        if ( active < lanes.getReservedPermits( priority ) )
+        {
+            return true;
+        }
+        if ( getSharedPermitsInUse() >= config.getMaxConcurrent() - lanes.getTotalReservedPermits() )
+        {
+            return false;
+        }
+        return priority != TransactionPriority.BATCH || !isInteractiveWaitingForSharedPermit();
+    }
+
+    /**
+     * @param priority the priority.
+     * @return the maximal number of concurrent units of work of the priority.
+     */
+    private int getLaneLimit( TransactionPriority priority )
+    {
+        return Math.max( 1, config.getMaxConcurrent() * lanes.getMaxSharePercent( priority ) / 100 );
+    }
+
+    /**
+     * @return the number of permits not reserved by any lane which are in use.
+     */
+    private int getSharedPermitsInUse()
+    {
+        int inUse = 0;
+        for ( TransactionPriority priority : TransactionPriority.values() )
+        {
+            inUse += Math.max( 0, activeCounts[priority.ordinal()].get() - lanes.getReservedPermits( priority ) );
+        }
+        return inUse;
+    }
+
+    /**
+     * @return {@code true} if an interactive unit of work waits for a permit not reserved by any lane.
+     */
+    private boolean isInteractiveWaitingForSharedPermit()
+    {
+        final TransactionPriority interactive = TransactionPriority.INTERACTIVE;
+        return waitingCounts[interactive.ordinal()] > 0
+            && activeCounts[interactive.ordinal()].get() >= lanes.getReservedPermits( interactive )
+            && activeCounts[interactive.ordinal()].get() < getLaneLimit( interactive );
+    }
+
+    /**
+     * Releases the permit acquired by {@link #acquire()}.
+     */
+    void release()
+    {
+        final TransactionPriority priority = acquiredPriorities.get();
+        if ( priority == null )
+        {
+            return;
+        }
+        acquiredPriorities.remove();
+        release( priority );
+    }
+
+    /**
+     * @return the priority through which the current thread acquired its permit. {@code null} if the current
+     *         thread holds no permit.
+     */
+    TransactionPriority getAcquiredPriority()
+    {
+        return acquiredPriorities.get();
+    }
+
+    /**
+     * Releases a permit on behalf of a thread which is no longer able to do so itself. Used for the units of work
+     * of terminated threads. The thread local state of the thread which acquired the permit is not touched.
+     *
+     * @param priority the priority through which the permit was acquired. Must not be {@code null}.
+     */
+    void release( TransactionPriority priority )
+    {
+        checkNotNull( priority, "priority is mandatory!" );
+        if ( lanes == null )
+        {
+            activeCounts[priority.ordinal()].decrementAndGet();
+            permits.release();
+        }
+        else
+        {
+            laneLock.lock();
+            try
+            {
+                activeCounts[priority.ordinal()].decrementAndGet();
+                laneReleased.signalAll();
+            }
+            finally
+            {
+                laneLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public int getMaxConcurrent()
+    {
+        return config == null ? 0 : config.getMaxConcurrent();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public int getAvailablePermits()
+    {
+        if ( config == null )
+        {
+            return 0;
+        }
+        if ( lanes == null )
+        {
+            return permits.availablePermits();
+        }
+        int active = 0;
+        for ( AtomicInteger count : activeCounts )
+        {
+            active += count.get();
+        }
+        return config.getMaxConcurrent() - active;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public int getWaitingThreads()
+    {
+        if ( config == null )
+        {
+            return 0;
+        }
+        if ( lanes == null )
+        {
+            return permits.getQueueLength();
+        }
+        laneLock.lock();
+        try
+        {
+            int waiting = 0;
+            for ( int count : waitingCounts )
+            {
+                waiting += count;
+            }
+            return waiting;
+        }
+        finally
+        {
+            laneLock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public int getActiveUnitsOfWork( TransactionPriority priority )
+    {
+        return activeCounts[checkNotNull( priority, "priority is mandatory!" ).ordinal()].get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public long getRejectedCount()
+    {
+        return rejectedCount.get();
+    }
+
+}
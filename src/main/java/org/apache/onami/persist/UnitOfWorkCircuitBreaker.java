@@ -0,0 +1,346 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+/**
+ * Circuit breaker of a persistence unit. It is consulted before a unit of work or an outer transaction is begun and
+ * is informed about the outcome of beginning it. Nested transactions run on the connection of the outer transaction
+ * and bypass the circuit breaker.
+ * <p/>
+ * A {@link PersistenceException} while beginning counts as failure. When the configured number of consecutive
+ * failures is reached the circuit opens and units of work and transactions are rejected with a
+ * {@link CircuitBreakerOpenException} without accessing the database. Once the probe interval has elapsed the next
+ * caller half opens the circuit and probes the database with the validation query. If the probe succeeds the circuit
+ * closes, otherwise it stays open for another probe interval. All other callers are rejected while probing.
+ * <p/>
+ * If no {@link CircuitBreakerConfiguration} is configured nothing is checked.
+ */
+@Singleton
+class UnitOfWorkCircuitBreaker
+    implements PersistenceUnitHealth
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger( UnitOfWorkCircuitBreaker.class );
+
+    /**
+     * The configuration. {@code null} if the circuit breaker is disabled.
+     */
+    private final CircuitBreakerConfiguration config;
+
+    /**
+     * Provider of the entity manager factory used for the health checks.
+     */
+    private final EntityManagerFactoryProvider emfProvider;
+
+    /**
+     * Holder of the annotation of the persistence unit.
+     */
+    private final AnnotationHolder annotationHolder;
+
+    /**
+     * The number of rejected units of work and transactions.
+     */
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * The current state. Guarded by {@code this} for writes.
+     */
+    private volatile CircuitState state = CircuitState.CLOSED;
+
+    /**
+     * The number of failures since the last success. Guarded by {@code this} for writes.
+     */
+    private volatile int consecutiveFailures;
+
+    /**
+     * The value of {@link System#nanoTime()} when the circuit was opened. Guarded by {@code this}.
+     */
+    private long openedNanos;
+
+    /**
+     * The result of the last health check. Guarded by {@code this}.
+     */
+    private boolean healthy;
+
+    /**
+     * The value of {@link System#nanoTime()} when the last health check was executed. Guarded by {@code this}.
+     */
+    private long checkedNanos;
+
+    /**
+     * {@code true} if a health check has been executed. Guarded by {@code this}.
+     */
+    private boolean checked;
+
+    /**
+     * {@code true} while a caller of {@link #isHealthy()} refreshes the cached result. Guarded by {@code this}.
+     */
+    private boolean refreshing;
+
+    /**
+     * Constructor.
+     *
+     * @param config           the configuration. {@code null} if the circuit breaker is disabled.
+     * @param emfProvider      the provider of the entity manager factory used for the health checks.
+     *                         Must not be {@code null}.
+     * @param annotationHolder holder of the annotation of the persistence unit. Must not be {@code null}.
+     */
+    @Inject
+    UnitOfWorkCircuitBreaker( @Nullable CircuitBreakerConfiguration config, EntityManagerFactoryProvider emfProvider,
+                              AnnotationHolder annotationHolder )
+    {
+        this.config = config;
+        this.emfProvider = checkNotNull( emfProvider, "emfProvider is mandatory!" );
+        this.annotationHolder = checkNotNull( annotationHolder, "annotationHolder is mandatory!" );
+    }
+
+    /**
+     * Checks that a unit of work or a transaction may be begun. Probes the database if the circuit is open and the
+     * probe interval has elapsed.
+     *
+     * @throws CircuitBreakerOpenException if the circuit is open or half open.
+     */
+    void beforeBegin()
+    {
+        if ( config == null || state == CircuitState.CLOSED )
+        {
+            return;
+        }
+        synchronized ( this )
+        {
+            if ( state == CircuitState.CLOSED )
+            {
+                return;
+            }
+            if ( state == CircuitState.HALF_OPEN || System.nanoTime() - openedNanos < config.getProbeIntervalNanos() )
+            {
+                throw reject();
+            }
+            state = CircuitState.HALF_OPEN;
+        }
+
+        final boolean probeSucceeded = executeHealthCheck();
+        synchronized ( this )
+        {
+            if ( probeSucceeded )
+            {
+                consecutiveFailures = 0;
+                state = CircuitState.CLOSED;
+                LOG.info( "closed the circuit breaker of {}. the database is reachable again", unitName() );
+                return;
+            }
+            openedNanos = System.nanoTime();
+            state = CircuitState.OPEN;
+            throw reject();
+        }
+    }
+
+    /**
+     * Records that a unit of work or a transaction was begun successfully.
+     */
+    void recordSuccess()
+    {
+        if ( config != null && consecutiveFailures > 0 )
+        {
+            synchronized ( this )
+            {
+                consecutiveFailures = 0;
+            }
+        }
+    }
+
+    /**
+     * Records that beginning a unit of work or a transaction failed. Only a {@link PersistenceException} counts as
+     * failure.
+     *
+     * @param e the exception thrown while beginning.
+     */
+    void recordFailure( Throwable e )
+    {
+        if ( config == null || !( e instanceof PersistenceException ) )
+        {
+            return;
+        }
+        synchronized ( this )
+        {
+            consecutiveFailures++;
+            if ( state == CircuitState.CLOSED && consecutiveFailures >= config.getFailureThreshold() )
+            {
+                openedNanos = System.nanoTime();
+                state = CircuitState.OPEN;
+                LOG.warn( "opened the circuit breaker of {} after {} consecutive failures", unitName(),
+                          consecutiveFailures );
+            }
+        }
+    }
+
+    /**
+     * @return the name of the persistence unit for logging.
+     */
+    private String unitName()
+    {
+        final Class<?> annotation = annotationHolder.getAnnotation();
+        return annotation == null ? "the persistence unit" : annotation.getSimpleName();
+    }
+
+    /**
+     * @return the exception rejecting the current caller.
+     */
+    private CircuitBreakerOpenException reject()
+    {
+        rejectedCount.incrementAndGet();
+        return new CircuitBreakerOpenException( state );
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Only one caller at a time executes the validation query once the cached result has expired. The other callers
+     * get the cached result meanwhile. Only if there is no cached result yet they wait for the running check.
+     */
+    // @Override
+    public boolean isHealthy()
+    {
+        if ( config == null )
+        {
+            return true;
+        }
+        synchronized ( this )
+        {
+            if ( checked && ( refreshing || System.nanoTime() - checkedNanos < config.getHealthTtlNanos() ) )
+            {
+                return healthy;
+            }
+            if ( refreshing )
+            {
+                return awaitFirstHealthCheck();
+            }
+            refreshing = true;
+        }
+        try
+        {
+            return executeHealthCheck();
+        }
+        finally
+        {
+            synchronized ( this )
+            {
+                refreshing = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits until the first health check has finished. Must be called while holding the lock of {@code this}.
+     *
+     * @return the result of the first health check or {@code false} if the thread was interrupted while waiting.
+     */
+    private boolean awaitFirstHealthCheck()
+    {
+        while ( !checked && refreshing )
+        {
+            try
+            {
+                wait();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return healthy;
+    }
+
+    /**
+     * Executes the validation query and caches the result.
+     *
+     * @return {@code true} if the validation query succeeded.
+     */
+    private boolean executeHealthCheck()
+    {
+        boolean result;
+        try
+        {
+            final EntityManager em = emfProvider.get().createEntityManager();
+            try
+            {
+                em.createNativeQuery( config.getValidationQuery() ).getResultList();
+                result = true;
+            }
+            finally
+            {
+                em.close();
+            }
+        }
+        catch ( RuntimeException e )
+        {
+            LOG.debug( "health check failed", e );
+            result = false;
+        }
+        synchronized ( this )
+        {
+            healthy = result;
+            checkedNanos = System.nanoTime();
+            checked = true;
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public CircuitState getCircuitState()
+    {
+        return state;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public int getConsecutiveFailures()
+    {
+        return consecutiveFailures;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public long getRejectedCount()
+    {
+        return rejectedCount.get();
+    }
+
+}
@@ -0,0 +1,358 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.EntityManager;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of the active units of work of a persistence unit detecting units of work which are never ended.
+ * A unit of work is considered leaked if its thread has terminated or if the {@link EntityManager} has not been
+ * requested from the {@link EntityManagerProvider} for longer than the configured threshold. Leaks are logged.
+ * <p/>
+ * The entity manager of a unit of work whose thread is still alive is never touched: it is not thread safe and
+ * the thread may still be using it. Only if the thread which started the unit of work has terminated and closing
+ * is configured the entity manager is closed. In this case the bulkhead permit and the entity manager factory
+ * acquired by the unit of work are released as well. They are recorded when the unit of work is registered
+ * because the thread local state of the terminated thread is gone.
+ * <p/>
+ * The checker runs on a background thread which is started and stopped together with the
+ * {@link PersistenceService} of the persistence unit. If no {@link LeakDetectionConfiguration} is configured
+ * nothing is recorded.
+ */
+@Singleton
+class UnitOfWorkLeakDetector
+    implements LeakDetectionStatistics
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger( UnitOfWorkLeakDetector.class );
+
+    /**
+     * The configuration. {@code null} if the detection is disabled.
+     */
+    private final LeakDetectionConfiguration config;
+
+    /**
+     * The active units of work.
+     */
+    private final Map<ActiveUnitOfWork, Boolean> activeUnitsOfWork =
+        new ConcurrentHashMap<ActiveUnitOfWork, Boolean>();
+
+    private final AtomicLong leakedCount = new AtomicLong();
+
+    private final AtomicLong forceClosedCount = new AtomicLong();
+
+    /**
+     * The checker. {@code null} if not running.
+     */
+    private volatile ScheduledExecutorService checker;
+
+    /**
+     * Constructor.
+     *
+     * @param config the configuration. {@code null} if the detection is disabled.
+     */
+    @Inject
+    UnitOfWorkLeakDetector( @Nullable LeakDetectionConfiguration config )
+    {
+        this.config = config;
+    }
+
+    /**
+     * Starts the background checker.
+     */
+    void start()
+    {
+        if ( config != null )
+        {
+            final long interval = Math.max( 1, config.getIdleThresholdMillis() / 2 );
+            checker =
+                Executors.newSingleThreadScheduledExecutor( new DaemonThreadFactory( "onami-persist-leak-detector" ) );
+            checker.scheduleWithFixedDelay( new Runnable()
+            {
+                // @Override
+                public void run()
+                {
+                    checkForLeaks();
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS );
+        }
+    }
+
+    /**
+     * Stops the background checker.
+     */
+    void stop()
+    {
+        final ScheduledExecutorService current = checker;
+        checker = null;
+        if ( current != null )
+        {
+            current.shutdownNow();
+        }
+    }
+
+    /**
+     * Registers the unit of work started by the current thread. Must be called after the bulkhead permit and the
+     * entity manager factory have been acquired.
+     *
+     * @param em       the entity manager of the unit of work.
+     * @param emf      the entity manager factory acquired by the unit of work. {@code null} if its usage is not
+     *                 tracked.
+     * @param bulkhead the bulkhead from which the current thread acquired its permit.
+     * @return the registered unit of work. {@code null} if the detection is disabled.
+     */
+    ActiveUnitOfWork register( EntityManager em, TrackedEntityManagerFactory emf, UnitOfWorkBulkhead bulkhead )
+    {
+        if ( config == null )
+        {
+            return null;
+        }
+        final Throwable creationStack =
+            config.isCaptureCreationStack() ? new Throwable( "unit of work started here" ) : null;
+        final ActiveUnitOfWork unitOfWork =
+            new ActiveUnitOfWork( Thread.currentThread(), em, emf, bulkhead, bulkhead.getAcquiredPriority(),
+                                  creationStack );
+        activeUnitsOfWork.put( unitOfWork, Boolean.TRUE );
+        return unitOfWork;
+    }
+
+    /**
+     * Records an access to the entity manager of a unit of work.
+     *
+     * @param unitOfWork the unit of work. May be {@code null}.
+     */
+    void touch( ActiveUnitOfWork unitOfWork )
+    {
+        if ( unitOfWork != null )
+        {
+            unitOfWork.lastAccessNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Removes a unit of work which has been ended.
+     *
+     * @param unitOfWork the unit of work. May be {@code null}.
+     */
+    void unregister( ActiveUnitOfWork unitOfWork )
+    {
+        if ( unitOfWork != null )
+        {
+            activeUnitsOfWork.remove( unitOfWork );
+        }
+    }
+
+    /**
+     * Checks all active units of work for leaks. Called periodically by the background checker.
+     */
+    @VisibleForTesting
+    void checkForLeaks()
+    {
+        final long now = System.nanoTime();
+        final long thresholdNanos = TimeUnit.MILLISECONDS.toNanos( config.getIdleThresholdMillis() );
+        for ( ActiveUnitOfWork unitOfWork : activeUnitsOfWork.keySet() )
+        {
+            final boolean ownerTerminated = !unitOfWork.owner.isAlive();
+            if ( ownerTerminated || now - unitOfWork.lastAccessNanos > thresholdNanos )
+            {
+                handleLeak( unitOfWork, now, ownerTerminated );
+            }
+        }
+    }
+
+    /**
+     * Logs a leaked unit of work. If its thread has terminated and closing is configured the entity manager is
+     * closed and the resources acquired by the unit of work are released.
+     *
+     * @param unitOfWork      the leaked unit of work.
+     * @param now             the current time in nanoseconds.
+     * @param ownerTerminated {@code true} if the thread which started the unit of work has terminated.
+     */
+    private void handleLeak( ActiveUnitOfWork unitOfWork, long now, boolean ownerTerminated )
+    {
+        if ( !unitOfWork.reported )
+        {
+            unitOfWork.reported = true;
+            leakedCount.incrementAndGet();
+            LOG.warn( "leaked unit of work of thread {} started {}ms ago and idle for {}ms{}",
+                      new Object[]{ unitOfWork.owner.getName(), toMillis( now - unitOfWork.startNanos ),
+                          toMillis( now - unitOfWork.lastAccessNanos ),
+                          ownerTerminated ? " (thread terminated)" : "", unitOfWork.creationStack } );
+        }
+        if ( ownerTerminated && config.isCloseLeaked() && activeUnitsOfWork.remove( unitOfWork ) != null )
+        {
+            forceClosedCount.incrementAndGet();
+            try
+            {
+                if ( unitOfWork.em.isOpen() )
+                {
+                    unitOfWork.em.close();
+                }
+            }
+            catch ( RuntimeException e )
+            {
+                LOG.warn( "failed to close the entity manager of a leaked unit of work", e );
+            }
+            finally
+            {
+                releaseResources( unitOfWork );
+            }
+        }
+    }
+
+    /**
+     * Releases the entity manager factory and the bulkhead permit of a unit of work whose thread has terminated.
+     *
+     * @param unitOfWork the unit of work.
+     */
+    private static void releaseResources( ActiveUnitOfWork unitOfWork )
+    {
+        try
+        {
+            if ( unitOfWork.emf != null )
+            {
+                unitOfWork.emf.release();
+            }
+        }
+        finally
+        {
+            if ( unitOfWork.priority != null )
+            {
+                unitOfWork.bulkhead.release( unitOfWork.priority );
+            }
+        }
+    }
+
+    private static long toMillis( long nanos )
+    {
+        return TimeUnit.NANOSECONDS.toMillis( nanos );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public int getActiveUnitsOfWork()
+    {
+        return activeUnitsOfWork.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public long getOldestUnitOfWorkAgeMillis()
+    {
+        final long now = System.nanoTime();
+        long oldest = 0;
+        for ( ActiveUnitOfWork unitOfWork : activeUnitsOfWork.keySet() )
+        {
+            oldest = Math.max( oldest, now - unitOfWork.startNanos );
+        }
+        return toMillis( oldest );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public long getLeakedCount()
+    {
+        return leakedCount.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    // @Override
+    public long getForceClosedCount()
+    {
+        return forceClosedCount.get();
+    }
+
+    /**
+     * An active unit of work.
+     */
+    static final class ActiveUnitOfWork
+    {
+
+        /**
+         * The thread which started the unit of work.
+         */
+        private final Thread owner;
+
+        /**
+         * The entity manager of the unit of work.
+         */
+        private final EntityManager em;
+
+        /**
+         * The entity manager factory acquired by the unit of work. {@code null} if its usage is not tracked.
+         */
+        private final TrackedEntityManagerFactory emf;
+
+        /**
+         * The bulkhead from which the permit of the unit of work was acquired.
+         */
+        private final UnitOfWorkBulkhead bulkhead;
+
+        /**
+         * The priority through which the permit was acquired. {@code null} if the unit of work holds no permit.
+         */
+        private final TransactionPriority priority;
+
+        /**
+         * The stack of the thread when the unit of work was started. {@code null} if not recorded.
+         */
+        private final Throwable creationStack;
+
+        private final long startNanos = System.nanoTime();
+
+        private volatile long lastAccessNanos = startNanos;
+
+        /**
+         * {@code true} if the leak has been logged. Only accessed by the checker.
+         */
+        private boolean reported;
+
+        private ActiveUnitOfWork( Thread owner, EntityManager em, TrackedEntityManagerFactory emf,
+                                  UnitOfWorkBulkhead bulkhead, TransactionPriority priority, Throwable creationStack )
+        {
+            this.owner = owner;
+            this.em = em;
+            this.emf = emf;
+            this.bulkhead = bulkhead;
+            this.priority = priority;
+            this.creationStack = creationStack;
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Persistence timings of a single persistence unit during one request.
+ *
+ * @see RequestTimings
+ */
+public final class UnitTimings
+{
+
+    private final String unitName;
+
+    private long setupNanos;
+
+    private long unitOfWorkNanos;
+
+    private int unitOfWorkCount;
+
+    private long transactionNanos;
+
+    private int transactionCount;
+
+    private long completionNanos;
+
+    private int rollbackCount;
+
+    /**
+     * The number of statements. {@link QueryCounts#UNKNOWN} as long as no unit of work reported its counts.
+     */
+    private long statementCount = QueryCounts.UNKNOWN;
+
+    /**
+     * Constructor.
+     *
+     * @param unitName the name of the persistence unit.
+     */
+    UnitTimings( String unitName )
+    {
+        this.unitName = unitName;
+    }
+
+    void addSetup( long nanos )
+    {
+        setupNanos += nanos;
+    }
+
+    void addUnitOfWork( long nanos, QueryCounts counts )
+    {
+        unitOfWorkNanos += nanos;
+        unitOfWorkCount++;
+        if ( counts != null )
+        {
+            statementCount = Math.max( statementCount, 0 ) + counts.getBudgetedCount();
+        }
+    }
+
+    void addTransaction( long nanos, long completionNanos, boolean rolledBack )
+    {
+        transactionNanos += nanos;
+        transactionCount++;
+        this.completionNanos += completionNanos;
+        if ( rolledBack )
+        {
+            rollbackCount++;
+        }
+    }
+
+    /**
+     * @return the simple name of the annotation of the persistence unit or {@code "default"} if it has none.
+     */
+    public String getUnitName()
+    {
+        return unitName;
+    }
+
+    /**
+     * @return the nanoseconds spent beginning units of work.
+     */
+    public long getSetupNanos()
+    {
+        return setupNanos;
+    }
+
+    /**
+     * @return the nanoseconds the units of work were running.
+     */
+    public long getUnitOfWorkNanos()
+    {
+        return unitOfWorkNanos;
+    }
+
+    /**
+     * @return the number of ended units of work.
+     */
+    public int getUnitOfWorkCount()
+    {
+        return unitOfWorkCount;
+    }
+
+    /**
+     * @return the nanoseconds spent in transactions, including commit and rollback.
+     */
+    public long getTransactionNanos()
+    {
+        return transactionNanos;
+    }
+
+    /**
+     * @return the number of completed transactions.
+     */
+    public int getTransactionCount()
+    {
+        return transactionCount;
+    }
+
+    /**
+     * @return the nanoseconds spent committing and rolling back transactions.
+     */
+    public long getCompletionNanos()
+    {
+        return completionNanos;
+    }
+
+    /**
+     * @return the number of rolled back transactions.
+     */
+    public int getRollbackCount()
+    {
+        return rollbackCount;
+    }
+
+    /**
+     * @return the number of statements as defined by {@link QueryCounts#getBudgetedCount()} or
+     *         {@link QueryCounts#UNKNOWN} if queries are not counted for the persistence unit.
+     */
+    public long getStatementCount()
+    {
+        return statementCount;
+    }
+
+}
@@ -53,15 +53,22 @@ class UserTransactionFacade
      */
     private final UserTransaction txn;
 
+    /**
+     * Notifier for the lifecycle listeners.
+     */
+    private final PersistenceLifecycleNotifier lifecycleNotifier;
+
     /**
      * Constructor.
      *
-     * @param txn the actual user transaction to wrap. Must not be {@code null}.
+     * @param txn               the actual user transaction to wrap. Must not be {@code null}.
+     * @param lifecycleNotifier the notifier for the lifecycle listeners. Must not be {@code null}.
      */
     @Inject
-    UserTransactionFacade( UserTransaction txn )
+    UserTransactionFacade( UserTransaction txn, PersistenceLifecycleNotifier lifecycleNotifier )
     {
         this.txn = checkNotNull( txn, "txn is mandatory!" );
+        this.lifecycleNotifier = checkNotNull( lifecycleNotifier, "lifecycleNotifier is mandatory!" );
     }
 
     /**
@@ -178,7 +185,7 @@ class UserTransactionFacade
 
     /**
      * Retries several times when the status is {@link Status#STATUS_UNKNOWN}.
-     * Will abort retrying after approximately one second.
+     * Will abort retrying after approximately one second. The retries are reported to the lifecycle listeners.
      *
      * @see {@link javax.transaction.UserTransaction#getStatus()}.
      */
@@ -186,20 +193,20 @@ class UserTransactionFacade
     {
         try
         {
-            int status = txn.getStatus();
-            for ( int i = 0; status == Status.STATUS_UNKNOWN && i < 8; i++ )
+            final int status = txn.getStatus();
+            if ( status != Status.STATUS_UNKNOWN )
+            {
+                return status;
+            }
+            final PersistenceLifecycleContext lifecycleContext = lifecycleNotifier.transactionStatusUnknown();
+            try
+            {
+                return retryGetStatus();
+            }
+            finally
             {
-                try
-                {
-                    Thread.sleep( ( 30L * i ) + 30L );
-                }
-                catch ( InterruptedException e )
-                {
-                    // do nothing
-                }
-                status = txn.getStatus();
+                lifecycleNotifier.transactionStatusRetried( lifecycleContext );
             }
-            return status;
         }
         catch ( SystemException e )
         {
@@ -207,4 +214,23 @@ class UserTransactionFacade
         }
     }
 
+    private int retryGetStatus()
+        throws SystemException
+    {
+        int status = Status.STATUS_UNKNOWN;
+        for ( int i = 0; status == Status.STATUS_UNKNOWN && i < 8; i++ )
+        {
+            try
+            {
+                Thread.sleep( ( 30L * i ) + 30L );
+            }
+            catch ( InterruptedException e )
+            {
+                // do nothing
+            }
+            status = txn.getStatus();
+        }
+        return status;
+    }
+
 }
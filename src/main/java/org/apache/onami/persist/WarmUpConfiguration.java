@@ -0,0 +1,102 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.apache.onami.persist.Preconditions.checkNotNull;
+
+/**
+ * Configuration of the warm-up of a persistence unit.
+ */
+class WarmUpConfiguration
+{
+
+    /**
+     * The number of entity managers which are open at the same time during the warm-up.
+     */
+    private final int entityManagerCount;
+
+    /**
+     * The number of threads running the warm-up statements.
+     */
+    private final int parallelism;
+
+    /**
+     * The names of the named queries to compile.
+     */
+    private final List<String> namedQueries;
+
+    /**
+     * The native SQL statements to execute in each entity manager.
+     */
+    private final List<String> statements;
+
+    /**
+     * Constructor.
+     *
+     * @param entityManagerCount the number of entity managers which are open at the same time during the warm-up.
+     *                           Must be positive.
+     * @param parallelism        the number of threads running the warm-up statements. Must be positive.
+     * @param namedQueries       the names of the named queries to compile. Must not be {@code null}.
+     * @param statements         the native SQL statements to execute in each entity manager. Must not be
+     *                           {@code null}.
+     */
+    WarmUpConfiguration( int entityManagerCount, int parallelism, List<String> namedQueries, List<String> statements )
+    {
+        if ( entityManagerCount < 1 )
+        {
+            throw new IllegalArgumentException( "entityManagerCount must be positive but was " + entityManagerCount );
+        }
+        if ( parallelism < 1 )
+        {
+            throw new IllegalArgumentException( "parallelism must be positive but was " + parallelism );
+        }
+        checkNotNull( namedQueries, "namedQueries is mandatory!" );
+        checkNotNull( statements, "statements is mandatory!" );
+        this.entityManagerCount = entityManagerCount;
+        this.parallelism = parallelism;
+        this.namedQueries = Collections.unmodifiableList( new ArrayList<String>( namedQueries ) );
+        this.statements = Collections.unmodifiableList( new ArrayList<String>( statements ) );
+    }
+
+    int getEntityManagerCount()
+    {
+        return entityManagerCount;
+    }
+
+    int getParallelism()
+    {
+        return parallelism;
+    }
+
+    List<String> getNamedQueries()
+    {
+        return namedQueries;
+    }
+
+    List<String> getStatements()
+    {
+        return statements;
+    }
+
+}
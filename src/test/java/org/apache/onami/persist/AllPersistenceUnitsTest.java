@@ -24,11 +24,19 @@ import com.google.inject.Guice;
 import com.google.inject.Key;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static com.google.inject.name.Names.named;
+import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
@@ -183,6 +191,157 @@ public class AllPersistenceUnitsTest
         fail( "must throw AggregatedException" );
     }
 
+    @Test
+    public void shouldStopOnAllPersistenceServicesWithinTimeout()
+        throws Exception
+    {
+        // when
+        sut.stopAllPersistenceServices( 1, TimeUnit.SECONDS );
+
+        // then
+        verify( ps1 ).stop();
+        verify( ps2 ).stop();
+    }
+
+    @Test
+    public void shouldReportExceptionsWhenStoppingWithinTimeout()
+        throws Exception
+    {
+        // given
+        doThrow( new RuntimeException() ).when( ps1 ).stop();
+        doThrow( new RuntimeException() ).when( ps2 ).stop();
+
+        // when
+        try
+        {
+            sut.stopAllPersistenceServices( 1, TimeUnit.SECONDS );
+        }
+
+        // then
+        catch ( AggregatedException e )
+        {
+            assertThat( e.getNumCauses(), is( 2 ) );
+            return;
+        }
+
+        fail( "must throw AggregatedException" );
+    }
+
+    @Test
+    public void shouldAbandonHungPersistenceServiceWhenStoppingWithinTimeout()
+        throws Exception
+    {
+        // given
+        final CountDownLatch release = new CountDownLatch( 1 );
+        doAnswer( new Answer<Object>()
+        {
+            public Object answer( InvocationOnMock invocation )
+                throws Throwable
+            {
+                release.await();
+                return null;
+            }
+        } ).when( ps1 ).stop();
+
+        // when
+        try
+        {
+            sut.stopAllPersistenceServices( 100, TimeUnit.MILLISECONDS );
+        }
+
+        // then
+        catch ( AggregatedException e )
+        {
+            verify( ps2 ).stop();
+            assertThat( e.getNumCauses(), is( 1 ) );
+            assertThat( e.getCauses()[0], is( instanceOf( TimeoutException.class ) ) );
+            return;
+        }
+        finally
+        {
+            release.countDown();
+        }
+
+        fail( "must throw AggregatedException" );
+    }
+
+    @Test
+    public void shouldStopWaitingWhenInterruptedWhileStoppingWithinTimeout()
+        throws Exception
+    {
+        // given
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final Answer<Object> hang = new Answer<Object>()
+        {
+            public Object answer( InvocationOnMock invocation )
+                throws Throwable
+            {
+                release.await();
+                return null;
+            }
+        };
+        doAnswer( hang ).when( ps1 ).stop();
+        doAnswer( hang ).when( ps2 ).stop();
+        Thread.currentThread().interrupt();
+
+        // when
+        try
+        {
+            sut.stopAllPersistenceServices( 10, TimeUnit.SECONDS );
+        }
+
+        // then
+        catch ( AggregatedException e )
+        {
+            assertThat( Thread.interrupted(), is( true ) );
+            assertThat( e.getNumCauses(), is( 1 ) );
+            assertThat( e.getCauses()[0], is( instanceOf( InterruptedException.class ) ) );
+            return;
+        }
+        finally
+        {
+            Thread.interrupted();
+            release.countDown();
+        }
+
+        fail( "must throw AggregatedException" );
+    }
+
+    @Test
+    public void shouldStopWithinConfiguredTimeout()
+        throws Exception
+    {
+        // given
+        sut = new AllPersistenceUnits( TimeUnit.SECONDS.toNanos( 1 ) );
+        sut.add( PS_KEY_1, UOW_KEY_1 );
+        Guice.createInjector( new AbstractModule()
+        {
+            @Override
+            protected void configure()
+            {
+                bind( PS_KEY_1 ).toInstance( ps1 );
+                bind( UOW_KEY_1 ).toInstance( uow1 );
+                requestInjection( sut );
+            }
+        } );
+        doThrow( new RuntimeException() ).when( ps1 ).stop();
+
+        // when
+        try
+        {
+            sut.stopAllPersistenceServices();
+        }
+
+        // then
+        catch ( RuntimeException e )
+        {
+            verify( ps1 ).stop();
+            return;
+        }
+
+        fail( "must throw RuntimeException" );
+    }
+
     @Test
     public void shouldBeginOnAllUnitsOfWork()
         throws Exception
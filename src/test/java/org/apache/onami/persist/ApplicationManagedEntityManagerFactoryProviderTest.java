@@ -21,15 +21,22 @@ package org.apache.onami.persist;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InOrder;
 
 import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceException;
+import java.util.Arrays;
+import java.util.Properties;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -45,14 +52,50 @@ public class ApplicationManagedEntityManagerFactoryProviderTest
 
     private EntityManagerFactoryFactory emfFactory;
 
+    private ReadReplicaRouter replicaRouter;
+
+    private ShardRouter shardRouter;
+
+    private TenantRouter tenantRouter;
+
+    private AsyncTransactionExecutor asyncExecutor;
+
+    private UnitOfWorkLeakDetector leakDetector;
+
+    private TransactionalMethodProfiler profiler;
+
+    private SlowTransactionDetector slowTransactionDetector;
+
+    private ProviderStatisticsBridge providerStatistics;
+
+    private PersistenceUnitWarmUp warmUp;
+
+    private ParkedEntityManagers parkedEntityManagers;
+
+    private PersistenceLifecycleNotifier lifecycleNotifier;
+
     @Before
     public void setup()
     {
         // input
         emfFactory = mock( EntityManagerFactoryFactory.class );
+        replicaRouter = mock( ReadReplicaRouter.class );
+        shardRouter = mock( ShardRouter.class );
+        tenantRouter = mock( TenantRouter.class );
+        asyncExecutor = mock( AsyncTransactionExecutor.class );
+        leakDetector = mock( UnitOfWorkLeakDetector.class );
+        profiler = mock( TransactionalMethodProfiler.class );
+        slowTransactionDetector = mock( SlowTransactionDetector.class );
+        providerStatistics = mock( ProviderStatisticsBridge.class );
+        warmUp = mock( PersistenceUnitWarmUp.class );
+        parkedEntityManagers = mock( ParkedEntityManagers.class );
+        lifecycleNotifier = mock( PersistenceLifecycleNotifier.class );
 
         // subject under test
-        sut = new ApplicationManagedEntityManagerFactoryProvider( emfFactory );
+        sut = new ApplicationManagedEntityManagerFactoryProvider( emfFactory, replicaRouter, shardRouter,
+                                                                  tenantRouter, asyncExecutor, leakDetector, profiler,
+                                                                  slowTransactionDetector, providerStatistics, warmUp,
+                                                                  parkedEntityManagers, lifecycleNotifier );
 
         // helpers
         emf = mock( EntityManagerFactory.class );
@@ -143,10 +186,406 @@ public class ApplicationManagedEntityManagerFactoryProviderTest
         assertThat( sut.get(), sameInstance( emf ) );
     }
 
+    @Test
+    public void shouldStartAndStopReplicas()
+    {
+        sut.start();
+        sut.stop();
+
+        verify( replicaRouter ).start( emfFactory );
+        verify( replicaRouter ).stop();
+    }
+
+    @Test
+    public void shouldCloseEmfIfStartingReplicasFails()
+    {
+        doThrow( new RuntimeException() ).when( replicaRouter ).start( emfFactory );
+
+        try
+        {
+            sut.start();
+        }
+        catch ( RuntimeException e )
+        {
+            verify( emf ).close();
+            assertThat( sut.isRunning(), is( false ) );
+            return;
+        }
+        fail( "expected RuntimeException to be thrown" );
+    }
+
+    @Test
+    public void shouldCloseEmfEvenIfStoppingReplicasFails()
+    {
+        doThrow( new RuntimeException() ).when( replicaRouter ).stop();
+        sut.start();
+
+        try
+        {
+            sut.stop();
+        }
+        catch ( RuntimeException e )
+        {
+            verify( emf ).close();
+            assertThat( sut.isRunning(), is( false ) );
+            return;
+        }
+        fail( "expected RuntimeException to be thrown" );
+    }
+
+    @Test
+    public void shouldStartAndStopShardsInsteadOfDefaultEmfForShardedUnit()
+    {
+        doReturn( true ).when( shardRouter ).isSharded();
+
+        sut.start();
+        assertThat( sut.isRunning(), is( true ) );
+        sut.stop();
+
+        assertThat( sut.isRunning(), is( false ) );
+        verify( shardRouter ).start( emfFactory );
+        verify( shardRouter ).stop();
+        verify( emfFactory, never() ).createApplicationManagedEntityManagerFactory();
+        verify( replicaRouter, never() ).start( emfFactory );
+    }
+
+    @Test
+    public void shouldStartAndStopTenantsInsteadOfDefaultEmfForMultiTenantUnit()
+    {
+        doReturn( true ).when( tenantRouter ).isMultiTenant();
+
+        sut.start();
+        assertThat( sut.isRunning(), is( true ) );
+        sut.stop();
+
+        assertThat( sut.isRunning(), is( false ) );
+        verify( tenantRouter ).start( emfFactory );
+        verify( tenantRouter ).stop();
+        verify( emfFactory, never() ).createApplicationManagedEntityManagerFactory();
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void getShouldThrowExceptionForShardedUnit()
+    {
+        doReturn( true ).when( shardRouter ).isSharded();
+        sut.start();
+
+        sut.get();
+    }
+
+    @Test
+    public void shouldStartAndStopAsyncExecutor()
+    {
+        sut.start();
+        verify( asyncExecutor ).start();
+
+        sut.stop();
+        verify( asyncExecutor ).stop();
+    }
+
+    @Test
+    public void shouldStartAndStopLeakDetector()
+    {
+        sut.start();
+        verify( leakDetector ).start();
+
+        sut.stop();
+        verify( leakDetector ).stop();
+    }
+
+    @Test
+    public void shouldStartAndStopProfiler()
+    {
+        sut.start();
+        verify( profiler ).start();
+
+        sut.stop();
+        verify( profiler ).stop();
+    }
+
+    @Test
+    public void shouldStopSlowTransactionDetector()
+    {
+        sut.start();
+
+        sut.stop();
+        verify( slowTransactionDetector ).stop();
+    }
+
+    @Test
+    public void shouldStartAndStopProviderStatistics()
+    {
+        sut.start();
+        verify( providerStatistics ).start( emf );
+
+        sut.stop();
+        verify( providerStatistics ).stop();
+    }
+
+    @Test
+    public void shouldStartAndStopParkedEntityManagers()
+    {
+        sut.start();
+        verify( parkedEntityManagers ).start();
+
+        sut.stop();
+        verify( parkedEntityManagers ).stop();
+    }
+
+    @Test
+    public void shouldWarmUpBeforeStarting()
+    {
+        sut.start();
+
+        final InOrder inOrder = inOrder( warmUp, lifecycleNotifier );
+        inOrder.verify( warmUp ).warmUp( emf );
+        inOrder.verify( lifecycleNotifier ).persistenceServiceStarted();
+    }
+
+    @Test
+    public void shouldWarmUpEveryShard()
+    {
+        // given
+        final EntityManagerFactory shard1 = mock( EntityManagerFactory.class );
+        final EntityManagerFactory shard2 = mock( EntityManagerFactory.class );
+        doReturn( true ).when( shardRouter ).isSharded();
+        doReturn( Arrays.asList( shard1, shard2 ) ).when( shardRouter ).getShards();
+
+        // when
+        sut.start();
+
+        // then
+        verify( warmUp ).warmUp( shard1 );
+        verify( warmUp ).warmUp( shard2 );
+    }
+
+    @Test
+    public void shouldNotStartIfWarmUpFails()
+    {
+        // given
+        doThrow( new PersistenceException() ).when( warmUp ).warmUp( emf );
+
+        // when
+        try
+        {
+            sut.start();
+        }
+
+        // then
+        catch ( PersistenceException e )
+        {
+            assertThat( sut.isRunning(), is( false ) );
+            verify( emf ).close();
+            verify( lifecycleNotifier, never() ).persistenceServiceStarted();
+            return;
+        }
+        fail( "expected PersistenceException to be thrown" );
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void acquireShouldThrowExceptionWhenNotStarted()
+    {
+        sut.acquire();
+    }
+
+    @Test
+    public void reconfigureShouldReplaceEmf()
+    {
+        // given
+        final Properties properties = new Properties();
+        final EntityManagerFactory replacement = mock( EntityManagerFactory.class );
+        doReturn( replacement ).when( emfFactory ).createApplicationManagedEntityManagerFactory( properties );
+        sut.start();
+
+        // when
+        sut.reconfigure( properties );
+
+        // then
+        assertThat( sut.get(), sameInstance( replacement ) );
+        assertThat( sut.acquire(), sameInstance( replacement ) );
+        verify( warmUp ).warmUp( replacement );
+        verify( providerStatistics ).start( replacement );
+        verify( emf ).close();
+        verify( replacement, never() ).close();
+    }
+
+    @Test
+    public void reconfigureShouldCloseReplacedEmfWhenLastUnitOfWorkReleasesIt()
+    {
+        // given
+        final Properties properties = new Properties();
+        final EntityManagerFactory replacement = mock( EntityManagerFactory.class );
+        doReturn( replacement ).when( emfFactory ).createApplicationManagedEntityManagerFactory( properties );
+        sut.start();
+        assertThat( sut.acquire(), sameInstance( emf ) );
+
+        // when
+        sut.reconfigure( properties );
+
+        // then
+        verify( emf, never() ).close();
+        sut.release();
+        verify( emf ).close();
+    }
+
+    @Test
+    public void reconfigureShouldKeepEmfIfWarmUpFails()
+    {
+        // given
+        final Properties properties = new Properties();
+        final EntityManagerFactory replacement = mock( EntityManagerFactory.class );
+        doReturn( replacement ).when( emfFactory ).createApplicationManagedEntityManagerFactory( properties );
+        doThrow( new PersistenceException() ).when( warmUp ).warmUp( replacement );
+        sut.start();
+
+        // when
+        try
+        {
+            sut.reconfigure( properties );
+        }
+
+        // then
+        catch ( PersistenceException e )
+        {
+            assertThat( sut.get(), sameInstance( emf ) );
+            verify( replacement ).close();
+            verify( emf, never() ).close();
+            return;
+        }
+        fail( "expected PersistenceException to be thrown" );
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void reconfigureShouldThrowExceptionWhenNotStarted()
+    {
+        sut.reconfigure( new Properties() );
+    }
+
+    @Test( expected = UnsupportedOperationException.class )
+    public void reconfigureShouldThrowExceptionForShardedPersistenceUnit()
+    {
+        doReturn( true ).when( shardRouter ).isSharded();
+        sut.start();
+
+        sut.reconfigure( new Properties() );
+    }
+
+    @Test
+    public void shouldNotifyLifecycleListenersOnStartAndStop()
+    {
+        sut.start();
+        verify( lifecycleNotifier ).persistenceServiceStarted();
+
+        sut.stop();
+        verify( lifecycleNotifier ).persistenceServiceStopped();
+    }
+
     @Test( expected = NullPointerException.class )
     public void emfFactoryIsMandatory()
     {
-        new ApplicationManagedEntityManagerFactoryProvider( null );
+        new ApplicationManagedEntityManagerFactoryProvider( null, replicaRouter, shardRouter,
+                                                            tenantRouter, asyncExecutor, leakDetector, profiler,
+                                                            slowTransactionDetector, providerStatistics, warmUp,
+                                                            parkedEntityManagers, lifecycleNotifier );
+    }
+
+    @Test( expected = NullPointerException.class )
+    public void replicaRouterIsMandatory()
+    {
+        new ApplicationManagedEntityManagerFactoryProvider( emfFactory, null, shardRouter,
+                                                            tenantRouter, asyncExecutor, leakDetector, profiler,
+                                                            slowTransactionDetector, providerStatistics, warmUp,
+                                                            parkedEntityManagers, lifecycleNotifier );
+    }
+
+    @Test( expected = NullPointerException.class )
+    public void shardRouterIsMandatory()
+    {
+        new ApplicationManagedEntityManagerFactoryProvider( emfFactory, replicaRouter, null,
+                                                            tenantRouter, asyncExecutor, leakDetector, profiler,
+                                                            slowTransactionDetector, providerStatistics, warmUp,
+                                                            parkedEntityManagers, lifecycleNotifier );
+    }
+
+    @Test( expected = NullPointerException.class )
+    public void tenantRouterIsMandatory()
+    {
+        new ApplicationManagedEntityManagerFactoryProvider( emfFactory, replicaRouter, shardRouter,
+                                                            null, asyncExecutor, leakDetector, profiler,
+                                                            slowTransactionDetector, providerStatistics, warmUp,
+                                                            parkedEntityManagers, lifecycleNotifier );
+    }
+
+    @Test( expected = NullPointerException.class )
+    public void asyncExecutorIsMandatory()
+    {
+        new ApplicationManagedEntityManagerFactoryProvider( emfFactory, replicaRouter, shardRouter,
+                                                            tenantRouter, null, leakDetector, profiler,
+                                                            slowTransactionDetector, providerStatistics, warmUp,
+                                                            parkedEntityManagers, lifecycleNotifier );
+    }
+
+    @Test( expected = NullPointerException.class )
+    public void leakDetectorIsMandatory()
+    {
+        new ApplicationManagedEntityManagerFactoryProvider( emfFactory, replicaRouter, shardRouter,
+                                                            tenantRouter, asyncExecutor, null, profiler,
+                                                            slowTransactionDetector, providerStatistics, warmUp,
+                                                            parkedEntityManagers, lifecycleNotifier );
+    }
+
+    @Test( expected = NullPointerException.class )
+    public void profilerIsMandatory()
+    {
+        new ApplicationManagedEntityManagerFactoryProvider( emfFactory, replicaRouter, shardRouter,
+                                                            tenantRouter, asyncExecutor, leakDetector, null,
+                                                            slowTransactionDetector, providerStatistics, warmUp,
+                                                            parkedEntityManagers, lifecycleNotifier );
+    }
+
+    @Test( expected = NullPointerException.class )
+    public void slowTransactionDetectorIsMandatory()
+    {
+        new ApplicationManagedEntityManagerFactoryProvider( emfFactory, replicaRouter, shardRouter,
+                                                            tenantRouter, asyncExecutor, leakDetector, profiler,
+                                                            null, providerStatistics, warmUp,
+                                                            parkedEntityManagers, lifecycleNotifier );
+    }
+
+    @Test( expected = NullPointerException.class )
+    public void providerStatisticsIsMandatory()
+    {
+        new ApplicationManagedEntityManagerFactoryProvider( emfFactory, replicaRouter, shardRouter,
+                                                            tenantRouter, asyncExecutor, leakDetector, profiler,
+                                                            slowTransactionDetector, null, warmUp,
+                                                            parkedEntityManagers, lifecycleNotifier );
+    }
+
+    @Test( expected = NullPointerException.class )
+    public void warmUpIsMandatory()
+    {
+        new ApplicationManagedEntityManagerFactoryProvider( emfFactory, replicaRouter, shardRouter,
+                                                            tenantRouter, asyncExecutor, leakDetector, profiler,
+                                                            slowTransactionDetector, providerStatistics, null,
+                                                            parkedEntityManagers, lifecycleNotifier );
+    }
+
+    @Test( expected = NullPointerException.class )
+    public void lifecycleNotifierIsMandatory()
+    {
+        new ApplicationManagedEntityManagerFactoryProvider( emfFactory, replicaRouter, shardRouter,
+                                                            tenantRouter, asyncExecutor, leakDetector, profiler,
+                                                            slowTransactionDetector, providerStatistics, warmUp,
+                                                            parkedEntityManagers, null );
+    }
+
+    @Test( expected = NullPointerException.class )
+    public void parkedEntityManagersIsMandatory()
+    {
+        new ApplicationManagedEntityManagerFactoryProvider( emfFactory, replicaRouter, shardRouter,
+                                                            tenantRouter, asyncExecutor, leakDetector, profiler,
+                                                            slowTransactionDetector, providerStatistics, warmUp, null,
+                                                            lifecycleNotifier );
     }
 
 }
@@ -0,0 +1,143 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Test for {@link AsyncTransactionExecutor}.
+ */
+public class AsyncTransactionExecutorTest
+{
+
+    private AsyncTransactionExecutor sut;
+
+    private CountDownLatch release;
+
+    @Before
+    public void setUp()
+    {
+        sut = new AsyncTransactionExecutor( new AsyncExecutorConfiguration( 1, 1 ) );
+        release = new CountDownLatch( 1 );
+    }
+
+    @After
+    public void tearDown()
+    {
+        release.countDown();
+        sut.stop();
+    }
+
+    private Callable<Boolean> blockingTransaction( final CountDownLatch started )
+    {
+        return new Callable<Boolean>()
+        {
+            public Boolean call()
+                throws Exception
+            {
+                started.countDown();
+                release.await( 10, TimeUnit.SECONDS );
+                return AsyncTransactionExecutor.isRunningAsync();
+            }
+        };
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void shouldRejectSubmissionWithoutConfiguration()
+    {
+        final AsyncTransactionExecutor unconfigured = new AsyncTransactionExecutor( null );
+        unconfigured.start();
+
+        unconfigured.submit( blockingTransaction( new CountDownLatch( 1 ) ) );
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void shouldRejectSubmissionWhenNotStarted()
+    {
+        sut.submit( blockingTransaction( new CountDownLatch( 1 ) ) );
+    }
+
+    @Test
+    public void shouldMarkWorkerThreadWhileRunning()
+        throws Exception
+    {
+        sut.start();
+        release.countDown();
+
+        final Future<Boolean> future = sut.submit( blockingTransaction( new CountDownLatch( 1 ) ) );
+
+        assertThat( future.get( 10, TimeUnit.SECONDS ), is( true ) );
+        assertThat( AsyncTransactionExecutor.isRunningAsync(), is( false ) );
+    }
+
+    @Test
+    public void shouldExposeQueueDepthAndRejectWhenSaturated()
+        throws Exception
+    {
+        sut.start();
+        final CountDownLatch started = new CountDownLatch( 1 );
+        sut.submit( blockingTransaction( started ) );
+        started.await( 10, TimeUnit.SECONDS );
+        sut.submit( blockingTransaction( new CountDownLatch( 1 ) ) );
+
+        assertThat( sut.getActiveThreads(), is( 1 ) );
+        assertThat( sut.getQueueDepth(), is( 1 ) );
+        assertThat( sut.getSaturation(), is( 1.0 ) );
+
+        try
+        {
+            sut.submit( blockingTransaction( new CountDownLatch( 1 ) ) );
+            fail( "expected RejectedExecutionException to be thrown" );
+        }
+        catch ( RejectedExecutionException e )
+        {
+            assertThat( sut.getRejectedCount(), is( 1L ) );
+        }
+    }
+
+    @Test
+    public void stopShouldCancelWaitingTransactions()
+        throws Exception
+    {
+        sut.start();
+        final CountDownLatch started = new CountDownLatch( 1 );
+        sut.submit( blockingTransaction( started ) );
+        started.await( 10, TimeUnit.SECONDS );
+        final Future<Boolean> waiting = sut.submit( blockingTransaction( new CountDownLatch( 1 ) ) );
+
+        sut.stop();
+
+        assertThat( waiting.isCancelled(), is( true ) );
+        assertThat( sut.getQueueDepth(), is( 0 ) );
+    }
+
+}
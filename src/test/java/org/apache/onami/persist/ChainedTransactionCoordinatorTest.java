@@ -0,0 +1,328 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import javax.persistence.RollbackException;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Test for {@link ChainedTransactionCoordinator}.
+ */
+public class ChainedTransactionCoordinatorTest
+{
+
+    private ChainedTransactionCoordinator sut;
+
+    private ChainedTransactionParticipant first;
+
+    private ChainedTransactionParticipant second;
+
+    private ChainedTransactionParticipant third;
+
+    @Before
+    public void setUp()
+    {
+        sut = new ChainedTransactionCoordinator();
+
+        first = createParticipant( "FirstUnit" );
+        second = createParticipant( "SecondUnit" );
+        third = createParticipant( "ThirdUnit" );
+    }
+
+    private static ChainedTransactionParticipant createParticipant( String unitName )
+    {
+        final ChainedTransactionParticipant participant = mock( ChainedTransactionParticipant.class );
+        doReturn( unitName ).when( participant ).getUnitName();
+        return participant;
+    }
+
+    private void openChainAndRegisterInInterceptorOrder( boolean parallelFlush )
+    {
+        assertThat( sut.openChain( parallelFlush ), is( true ) );
+        // the innermost interceptor returns first
+        sut.register( third );
+        sut.register( second );
+        sut.register( first );
+    }
+
+    @Test
+    public void shouldOpenOnlyOneChainPerThread()
+    {
+        assertThat( sut.openChain( false ), is( true ) );
+        assertThat( sut.openChain( false ), is( false ) );
+        assertThat( sut.isChainOpen(), is( true ) );
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void shouldRejectRegistrationWithoutOpenChain()
+    {
+        sut.register( first );
+    }
+
+    @Test
+    public void shouldFlushAllBeforeCommittingInReverseRegistrationOrder()
+        throws Throwable
+    {
+        // given
+        openChainAndRegisterInInterceptorOrder( false );
+        final InOrder inOrder = inOrder( first, second, third );
+
+        // when
+        sut.completeChain();
+
+        // then
+        inOrder.verify( first ).flush();
+        inOrder.verify( second ).flush();
+        inOrder.verify( third ).flush();
+        inOrder.verify( first ).commit();
+        inOrder.verify( second ).commit();
+        inOrder.verify( third ).commit();
+        verify( first ).end();
+        verify( second ).end();
+        verify( third ).end();
+        assertThat( sut.isChainOpen(), is( false ) );
+    }
+
+    @Test
+    public void shouldFlushAllInParallel()
+        throws Throwable
+    {
+        // given
+        openChainAndRegisterInInterceptorOrder( true );
+
+        // when
+        sut.completeChain();
+
+        // then
+        verify( first ).flush();
+        verify( second ).flush();
+        verify( third ).flush();
+        verify( first ).commit();
+        verify( second ).commit();
+        verify( third ).commit();
+    }
+
+    @Test
+    public void shouldReplaceParticipantOfTheSameUnit()
+        throws Throwable
+    {
+        // given
+        final ChainedTransactionParticipant nested = createParticipant( "FirstUnit" );
+        sut.openChain( false );
+        sut.register( nested );
+        sut.register( second );
+        sut.register( first );
+
+        // when
+        sut.completeChain();
+
+        // then
+        verify( nested, never() ).commit();
+        verify( first ).commit();
+        verify( second ).commit();
+    }
+
+    @Test
+    public void shouldRollbackAllIfFlushFails()
+        throws Throwable
+    {
+        // given
+        final RuntimeException exc = new RuntimeException();
+        doThrow( exc ).when( second ).flush();
+        openChainAndRegisterInInterceptorOrder( true );
+
+        // when
+        try
+        {
+            sut.completeChain();
+        }
+
+        // then
+        catch ( RuntimeException e )
+        {
+            assertThat( e, sameInstance( exc ) );
+            verify( first ).rollback();
+            verify( second ).rollback();
+            verify( third ).rollback();
+            verify( first, never() ).commit();
+            verify( first ).end();
+            verify( second ).end();
+            verify( third ).end();
+            return;
+        }
+        fail( "expected RuntimeException to be thrown" );
+    }
+
+    @Test
+    public void shouldThrowOriginalExceptionIfFirstCommitFails()
+        throws Throwable
+    {
+        // given
+        final RuntimeException exc = new RuntimeException();
+        doThrow( exc ).when( first ).commit();
+        openChainAndRegisterInInterceptorOrder( false );
+
+        // when
+        try
+        {
+            sut.completeChain();
+        }
+
+        // then
+        catch ( RuntimeException e )
+        {
+            assertThat( e, sameInstance( exc ) );
+            verify( second, never() ).commit();
+            verify( second ).rollback();
+            verify( third ).rollback();
+            verify( third ).end();
+            return;
+        }
+        fail( "expected RuntimeException to be thrown" );
+    }
+
+    @Test
+    public void shouldReportPartialCommit()
+        throws Throwable
+    {
+        // given
+        final RuntimeException exc = new RuntimeException();
+        doThrow( exc ).when( second ).commit();
+        openChainAndRegisterInInterceptorOrder( false );
+
+        // when
+        try
+        {
+            sut.completeChain();
+        }
+
+        // then
+        catch ( PartialCommitException e )
+        {
+            assertThat( e.getCommittedUnits(), is( asList( "FirstUnit" ) ) );
+            assertThat( e.getFailedUnit(), is( "SecondUnit" ) );
+            assertThat( e.getRolledBackUnits(), is( asList( "ThirdUnit" ) ) );
+            assertThat( e.getCause(), sameInstance( (Throwable) exc ) );
+            verify( first, never() ).rollback();
+            verify( third, never() ).commit();
+            verify( first ).end();
+            verify( second ).end();
+            verify( third ).end();
+            return;
+        }
+        fail( "expected PartialCommitException to be thrown" );
+    }
+
+    @Test
+    public void shouldRollbackAllIfMarkedRollbackOnly()
+        throws Throwable
+    {
+        // given
+        sut.openChain( false );
+        sut.register( third );
+        sut.registerRollbackOnly( second );
+        sut.register( first );
+
+        // when
+        try
+        {
+            sut.completeChain();
+        }
+
+        // then
+        catch ( RollbackException e )
+        {
+            verify( first ).rollback();
+            verify( second ).rollback();
+            verify( third ).rollback();
+            verify( first, never() ).flush();
+            verify( first, never() ).commit();
+            verify( third, never() ).commit();
+            verify( first ).end();
+            verify( second ).end();
+            verify( third ).end();
+            assertThat( sut.isChainOpen(), is( false ) );
+            return;
+        }
+        fail( "expected RollbackException to be thrown" );
+    }
+
+    @Test
+    public void shouldStayRollbackOnlyIfParticipantOfTheSameUnitIsReplaced()
+        throws Throwable
+    {
+        // given
+        final ChainedTransactionParticipant nested = createParticipant( "FirstUnit" );
+        sut.openChain( false );
+        sut.registerRollbackOnly( nested );
+        sut.register( first );
+
+        // when
+        try
+        {
+            sut.completeChain();
+        }
+
+        // then
+        catch ( RollbackException e )
+        {
+            verify( first ).rollback();
+            verify( first, never() ).commit();
+            return;
+        }
+        fail( "expected RollbackException to be thrown" );
+    }
+
+    @Test
+    public void shouldRollbackAndEndAllOnAbort()
+    {
+        // given
+        openChainAndRegisterInInterceptorOrder( false );
+        doThrow( new RuntimeException() ).when( first ).rollback();
+
+        // when
+        sut.abortChain();
+
+        // then
+        verify( first ).rollback();
+        verify( second ).rollback();
+        verify( third ).rollback();
+        verify( first ).end();
+        verify( second ).end();
+        verify( third ).end();
+        assertThat( sut.isChainOpen(), is( false ) );
+    }
+
+}
@@ -0,0 +1,100 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test for {@link ConsistentHashShardResolver}.
+ */
+public class ConsistentHashShardResolverTest
+{
+
+    private static final int NUM_KEYS = 10000;
+
+    private ConsistentHashShardResolver sut;
+
+    @Before
+    public void setUp()
+    {
+        sut = new ConsistentHashShardResolver();
+    }
+
+    @Test
+    public void shouldAlwaysReturnTheSameShardForAKey()
+    {
+        for ( int i = 0; i < 100; i++ )
+        {
+            final Long key = (long) i;
+            final int shard = sut.resolveShard( key, 5 );
+            sut.resolveShard( "other", 3 );
+            assertThat( sut.resolveShard( key, 5 ), is( shard ) );
+        }
+    }
+
+    @Test
+    public void shouldUseOnlyShardForSingleShard()
+    {
+        for ( int i = 0; i < 100; i++ )
+        {
+            assertThat( sut.resolveShard( "key" + i, 1 ), is( 0 ) );
+        }
+    }
+
+    @Test
+    public void shouldSpreadKeysOverAllShards()
+    {
+        final int[] counts = new int[4];
+        for ( int i = 0; i < NUM_KEYS; i++ )
+        {
+            counts[sut.resolveShard( "key" + i, 4 )]++;
+        }
+
+        for ( int count : counts )
+        {
+            assertTrue( "unbalanced shard with " + count + " keys", count > NUM_KEYS / 4 / 2 );
+        }
+    }
+
+    @Test
+    public void shouldMoveFewKeysWhenAddingAShard()
+    {
+        int moved = 0;
+        for ( int i = 0; i < NUM_KEYS; i++ )
+        {
+            final String key = "key" + i;
+            final int before = sut.resolveShard( key, 4 );
+            final int after = new ConsistentHashShardResolver().resolveShard( key, 5 );
+            if ( before != after )
+            {
+                assertThat( after, is( 4 ) );
+                moved++;
+            }
+        }
+
+        assertTrue( "moved " + moved + " keys", moved < NUM_KEYS / 3 );
+    }
+
+}
@@ -21,13 +21,16 @@ package org.apache.onami.persist;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InOrder;
 
 import javax.persistence.EntityManagerFactory;
+import java.util.Properties;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -45,14 +48,40 @@ public class ContainerManagedEntityManagerFactoryProviderTest
 
     private EntityManagerFactorySource emfSource;
 
+    private AsyncTransactionExecutor asyncExecutor;
+
+    private UnitOfWorkLeakDetector leakDetector;
+
+    private TransactionalMethodProfiler profiler;
+
+    private SlowTransactionDetector slowTransactionDetector;
+
+    private ProviderStatisticsBridge providerStatistics;
+
+    private PersistenceUnitWarmUp warmUp;
+
+    private ParkedEntityManagers parkedEntityManagers;
+
+    private PersistenceLifecycleNotifier lifecycleNotifier;
+
     @Before
     public void setup()
     {
         // input
         emfSource = mock( EntityManagerFactorySource.class );
+        asyncExecutor = mock( AsyncTransactionExecutor.class );
+        leakDetector = mock( UnitOfWorkLeakDetector.class );
+        profiler = mock( TransactionalMethodProfiler.class );
+        slowTransactionDetector = mock( SlowTransactionDetector.class );
+        providerStatistics = mock( ProviderStatisticsBridge.class );
+        warmUp = mock( PersistenceUnitWarmUp.class );
+        parkedEntityManagers = mock( ParkedEntityManagers.class );
+        lifecycleNotifier = mock( PersistenceLifecycleNotifier.class );
 
         // subject under test
-        sut = new ContainerManagedEntityManagerFactoryProvider( emfSource );
+        sut = new ContainerManagedEntityManagerFactoryProvider( emfSource, asyncExecutor, leakDetector, profiler,
+                                                                slowTransactionDetector, providerStatistics, warmUp,
+                                                                parkedEntityManagers, lifecycleNotifier );
 
         // helpers
         emf = mock( EntityManagerFactory.class );
@@ -111,6 +140,93 @@ public class ContainerManagedEntityManagerFactoryProviderTest
         verify( emf, never() ).close();
     }
 
+    @Test
+    public void shouldStartAndStopAsyncExecutor()
+    {
+        sut.start();
+        verify( asyncExecutor ).start();
+
+        sut.stop();
+        verify( asyncExecutor ).stop();
+    }
+
+    @Test
+    public void shouldStartAndStopLeakDetector()
+    {
+        sut.start();
+        verify( leakDetector ).start();
+
+        sut.stop();
+        verify( leakDetector ).stop();
+    }
+
+    @Test
+    public void shouldStopSlowTransactionDetector()
+    {
+        sut.start();
+
+        sut.stop();
+        verify( slowTransactionDetector ).stop();
+    }
+
+    @Test
+    public void shouldStartAndStopProfiler()
+    {
+        sut.start();
+        verify( profiler ).start();
+
+        sut.stop();
+        verify( profiler ).stop();
+    }
+
+    @Test
+    public void shouldStartAndStopParkedEntityManagers()
+    {
+        sut.start();
+        verify( parkedEntityManagers ).start();
+
+        sut.stop();
+        verify( parkedEntityManagers ).stop();
+    }
+
+    @Test
+    public void shouldStartAndStopProviderStatistics()
+    {
+        sut.start();
+        verify( providerStatistics ).start( emf );
+
+        sut.stop();
+        verify( providerStatistics ).stop();
+    }
+
+    @Test
+    public void shouldWarmUpBeforeStarting()
+    {
+        sut.start();
+
+        final InOrder inOrder = inOrder( warmUp, lifecycleNotifier );
+        inOrder.verify( warmUp ).warmUp( emf );
+        inOrder.verify( lifecycleNotifier ).persistenceServiceStarted();
+    }
+
+    @Test
+    public void shouldNotifyLifecycleListenersOnStartAndStop()
+    {
+        sut.start();
+        verify( lifecycleNotifier ).persistenceServiceStarted();
+
+        sut.stop();
+        verify( lifecycleNotifier ).persistenceServiceStopped();
+    }
+
+    @Test
+    public void stoppingStoppedServiceShouldNotNotifyLifecycleListeners()
+    {
+        sut.stop();
+
+        verify( lifecycleNotifier, never() ).persistenceServiceStopped();
+    }
+
     @Test( expected = IllegalStateException.class )
     public void getShouldThrowExceptionWhenNotStarted()
     {
@@ -125,10 +241,77 @@ public class ContainerManagedEntityManagerFactoryProviderTest
         assertThat( sut.get(), sameInstance( emf ) );
     }
 
+    @Test
+    public void acquireShouldReturnEmf()
+    {
+        sut.start();
+
+        assertThat( sut.acquire(), sameInstance( emf ) );
+        sut.release();
+    }
+
+    @Test( expected = UnsupportedOperationException.class )
+    public void reconfigureShouldNotBeSupported()
+    {
+        sut.start();
+
+        sut.reconfigure( new Properties() );
+    }
+
     @Test( expected = NullPointerException.class )
     public void emfSourceIsMandatory()
     {
-        new ContainerManagedEntityManagerFactoryProvider( null );
+        new ContainerManagedEntityManagerFactoryProvider( null, asyncExecutor, leakDetector, profiler,
+                                                          slowTransactionDetector, providerStatistics, warmUp,
+                                                          parkedEntityManagers, lifecycleNotifier );
+    }
+
+    @Test( expected = NullPointerException.class )
+    public void lifecycleNotifierIsMandatory()
+    {
+        new ContainerManagedEntityManagerFactoryProvider( emfSource, asyncExecutor, leakDetector, profiler,
+                                                          slowTransactionDetector, providerStatistics, warmUp,
+                                                          parkedEntityManagers, null );
+    }
+
+    @Test( expected = NullPointerException.class )
+    public void profilerIsMandatory()
+    {
+        new ContainerManagedEntityManagerFactoryProvider( emfSource, asyncExecutor, leakDetector, null,
+                                                          slowTransactionDetector, providerStatistics, warmUp,
+                                                          parkedEntityManagers, lifecycleNotifier );
+    }
+
+    @Test( expected = NullPointerException.class )
+    public void slowTransactionDetectorIsMandatory()
+    {
+        new ContainerManagedEntityManagerFactoryProvider( emfSource, asyncExecutor, leakDetector, profiler, null,
+                                                          providerStatistics, warmUp, parkedEntityManagers,
+                                                          lifecycleNotifier );
+    }
+
+    @Test( expected = NullPointerException.class )
+    public void providerStatisticsIsMandatory()
+    {
+        new ContainerManagedEntityManagerFactoryProvider( emfSource, asyncExecutor, leakDetector, profiler,
+                                                          slowTransactionDetector, null, warmUp, parkedEntityManagers,
+                                                          lifecycleNotifier );
+    }
+
+    @Test( expected = NullPointerException.class )
+    public void warmUpIsMandatory()
+    {
+        new ContainerManagedEntityManagerFactoryProvider( emfSource, asyncExecutor, leakDetector, profiler,
+                                                          slowTransactionDetector, providerStatistics, null,
+                                                          parkedEntityManagers, lifecycleNotifier );
+    }
+
+    @Test( expected = NullPointerException.class )
+    public void parkedEntityManagersIsMandatory()
+    {
+        new ContainerManagedEntityManagerFactoryProvider( emfSource, asyncExecutor, leakDetector, profiler,
+                                                          slowTransactionDetector, providerStatistics, warmUp, null,
+                                                          lifecycleNotifier );
     }
 
 }
@@ -0,0 +1,53 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Test for {@link DaemonThreadFactory}.
+ */
+public class DaemonThreadFactoryTest
+{
+
+    @Test
+    public void shouldCreateNumberedDaemonThreads()
+    {
+        final DaemonThreadFactory sut = new DaemonThreadFactory( "onami-persist-test" );
+
+        final Thread first = sut.newThread( mock( Runnable.class ) );
+        final Thread second = sut.newThread( mock( Runnable.class ) );
+
+        assertThat( first.isDaemon(), is( true ) );
+        assertThat( first.getName(), is( "onami-persist-test-1" ) );
+        assertThat( second.getName(), is( "onami-persist-test-2" ) );
+    }
+
+    @Test( expected = NullPointerException.class )
+    public void prefixIsMandatory()
+    {
+        new DaemonThreadFactory( null );
+    }
+
+}
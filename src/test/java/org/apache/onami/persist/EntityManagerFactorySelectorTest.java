@@ -0,0 +1,166 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManagerFactory;
+
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Test for {@link EntityManagerFactorySelector}.
+ */
+public class EntityManagerFactorySelectorTest
+{
+
+    private EntityManagerFactorySelector sut;
+
+    private EntityManagerFactoryProvider emfProvider;
+
+    private ReadReplicaRouter replicaRouter;
+
+    private ShardRouter shardRouter;
+
+    private TenantRouter tenantRouter;
+
+    private EntityManagerFactory emf;
+
+    private EntityManagerFactory other;
+
+    @Before
+    public void setUp()
+    {
+        // input
+        emfProvider = mock( EntityManagerFactoryProvider.class );
+        replicaRouter = mock( ReadReplicaRouter.class );
+        shardRouter = mock( ShardRouter.class );
+        tenantRouter = mock( TenantRouter.class );
+
+        // subject under test
+        sut = new EntityManagerFactorySelector( emfProvider, replicaRouter, shardRouter, tenantRouter );
+
+        // helpers
+        emf = mock( EntityManagerFactory.class );
+        other = mock( EntityManagerFactory.class );
+        doReturn( emf ).when( emfProvider ).acquire();
+    }
+
+    @Test
+    public void shouldSelectDefaultEntityManagerFactory()
+    {
+        assertThat( sut.select( false ), sameInstance( emf ) );
+        verify( replicaRouter, never() ).acquireReplica();
+    }
+
+    @Test
+    public void shouldSelectReplicaForReadOnlyUnitOfWork()
+    {
+        doReturn( other ).when( replicaRouter ).acquireReplica();
+
+        assertThat( sut.select( true ), sameInstance( other ) );
+    }
+
+    @Test
+    public void shouldSelectDefaultEntityManagerFactoryIfNoReplicaIsAvailable()
+    {
+        assertThat( sut.select( true ), sameInstance( emf ) );
+    }
+
+    @Test
+    public void shouldSelectShardOfShardedPersistenceUnit()
+    {
+        doReturn( other ).when( shardRouter ).acquireShard();
+
+        assertThat( sut.select( true ), sameInstance( other ) );
+        verify( emfProvider, never() ).acquire();
+        verify( replicaRouter, never() ).acquireReplica();
+    }
+
+    @Test
+    public void shouldSelectTenantOfMultiTenantPersistenceUnit()
+    {
+        doReturn( other ).when( tenantRouter ).acquireTenant();
+
+        assertThat( sut.select( false ), sameInstance( other ) );
+        verify( emfProvider, never() ).acquire();
+    }
+
+    @Test
+    public void shouldReturnAcquiredReplica()
+    {
+        final TrackedEntityManagerFactory replica = new TrackedEntityManagerFactory( other );
+        doReturn( replica ).when( replicaRouter ).getAcquiredReplica();
+
+        assertThat( sut.getAcquiredFactory(), sameInstance( replica ) );
+    }
+
+    @Test
+    public void shouldReturnAcquiredTenant()
+    {
+        final TrackedEntityManagerFactory tenant = new TrackedEntityManagerFactory( other );
+        doReturn( tenant ).when( tenantRouter ).getAcquiredFactory();
+
+        assertThat( sut.getAcquiredFactory(), sameInstance( tenant ) );
+    }
+
+    @Test
+    public void shouldReturnNoAcquiredFactoryForUntrackedProvider()
+    {
+        assertThat( sut.getAcquiredFactory(), nullValue() );
+    }
+
+    @Test
+    public void shouldReleaseAllRouters()
+    {
+        sut.release();
+
+        verify( replicaRouter ).release();
+        verify( emfProvider ).release();
+        verify( shardRouter ).release();
+        verify( tenantRouter ).release();
+    }
+
+    @Test( expected = RuntimeException.class )
+    public void shouldReleaseAllRoutersEvenInCaseOfException()
+    {
+        doThrow( new RuntimeException() ).when( replicaRouter ).release();
+
+        try
+        {
+            sut.release();
+        }
+        finally
+        {
+            verify( emfProvider ).release();
+            verify( shardRouter ).release();
+            verify( tenantRouter ).release();
+        }
+    }
+
+}
@@ -0,0 +1,237 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Test for {@link EntityManagerProviderImpl}.
+ * This class tests the behavior of the impl when entity managers are reused.
+ */
+public class EntityManagerProviderImplReuseTest
+{
+
+    private EntityManagerProviderImpl sut;
+
+    private EntityManagerFactoryProvider emfProvider;
+
+    private ParkedEntityManagers parkedEntityManagers;
+
+    private EntityManagerFactory emf;
+
+    private EntityManager em;
+
+    private EntityTransaction txn;
+
+    @Before
+    public void setUp()
+    {
+        // input
+        emfProvider = mock( EntityManagerFactoryProvider.class );
+        parkedEntityManagers = new ParkedEntityManagers();
+
+        // subject under test
+        final EntityManagerFactorySelector emfSelector =
+            new EntityManagerFactorySelector( emfProvider, new ReadReplicaRouter( null ), new ShardRouter( null ),
+                                              new TenantRouter( null, new ParkedEntityManagers() ) );
+        final PersistenceLifecycleNotifier lifecycleNotifier = new PersistenceLifecycleNotifier(
+            new PersistenceLifecycleListeners( Collections.<PersistenceLifecycleListener>emptyList() ),
+            new AnnotationHolder( null ) );
+        sut = new EntityManagerProviderImpl( emfSelector, null, new EntityManagerReuse( 2, 60000 ), null,
+                                             new UnitOfWorkBulkhead( null, null, new TransactionPriorityHolder() ),
+                                             new UnitOfWorkLeakDetector( null ), lifecycleNotifier,
+                                             new QueryCounter( null ), mock( UnitOfWorkCircuitBreaker.class ),
+                                             parkedEntityManagers );
+
+        // helpers
+        emf = mock( EntityManagerFactory.class );
+        doReturn( emf ).when( emfProvider ).acquire();
+
+        em = createEntityManagerMock( emf );
+        doReturn( em ).when( emf ).createEntityManager();
+
+        txn = mock( EntityTransaction.class );
+        doReturn( txn ).when( em ).getTransaction();
+    }
+
+    private EntityManager createEntityManagerMock( EntityManagerFactory emf )
+    {
+        final EntityManager result = mock( EntityManager.class );
+        doReturn( true ).when( result ).isOpen();
+        doReturn( emf ).when( result ).getEntityManagerFactory();
+        doReturn( mock( EntityTransaction.class ) ).when( result ).getTransaction();
+        return result;
+    }
+
+    @Test
+    public void shouldReuseEntityManagerForConsecutiveUnitsOfWork()
+    {
+        sut.begin();
+        sut.end();
+        sut.begin();
+
+        verify( emf ).createEntityManager();
+        verify( em ).clear();
+        verify( em, never() ).close();
+        assertThat( sut.get(), sameInstance( em ) );
+        assertThat( sut.isActive(), is( true ) );
+    }
+
+    @Test
+    public void shouldNotBeActiveAfterEnding()
+    {
+        sut.begin();
+        sut.end();
+
+        assertThat( sut.isActive(), is( false ) );
+    }
+
+    @Test
+    public void shouldCloseEntityManagerWhenMaxUsesReached()
+    {
+        sut.begin();
+        sut.end();
+        sut.begin();
+        sut.end();
+        sut.begin();
+
+        verify( emf, times( 2 ) ).createEntityManager();
+        verify( em ).close();
+    }
+
+    @Test
+    public void shouldCloseEntityManagerIfTransactionIsActive()
+    {
+        doReturn( true ).when( txn ).isActive();
+
+        sut.begin();
+        sut.end();
+
+        verify( em, never() ).clear();
+        verify( em ).close();
+    }
+
+    @Test
+    public void shouldCloseEntityManagerIfClearFails()
+    {
+        doThrow( new RuntimeException() ).when( em ).clear();
+
+        sut.begin();
+        sut.end();
+        sut.begin();
+
+        verify( em ).close();
+        verify( emf, times( 2 ) ).createEntityManager();
+    }
+
+    @Test
+    public void shouldNotReuseEntityManagerOfOtherEntityManagerFactory()
+    {
+        sut.begin();
+        sut.end();
+
+        final EntityManagerFactory newEmf = mock( EntityManagerFactory.class );
+        final EntityManager newEm = createEntityManagerMock( newEmf );
+        doReturn( newEm ).when( newEmf ).createEntityManager();
+        doReturn( newEmf ).when( emfProvider ).acquire();
+
+        sut.begin();
+
+        verify( em ).close();
+        assertThat( sut.get(), sameInstance( newEm ) );
+        assertThat( sut.get(), not( sameInstance( em ) ) );
+    }
+
+    @Test
+    public void shouldParkEntityManagerBetweenUnitsOfWork()
+    {
+        sut.begin();
+        assertThat( parkedEntityManagers.size(), is( 0 ) );
+
+        sut.end();
+        assertThat( parkedEntityManagers.size(), is( 1 ) );
+
+        sut.begin();
+        assertThat( parkedEntityManagers.size(), is( 0 ) );
+    }
+
+    @Test
+    public void shouldCloseParkedEntityManagerWhenStopped()
+    {
+        sut.begin();
+        sut.end();
+
+        parkedEntityManagers.stop();
+
+        verify( em ).close();
+        assertThat( parkedEntityManagers.size(), is( 0 ) );
+    }
+
+    @Test
+    public void shouldNotParkEntityManagerWhenStopped()
+    {
+        parkedEntityManagers.stop();
+
+        sut.begin();
+        sut.end();
+
+        verify( em ).close();
+        assertThat( parkedEntityManagers.size(), is( 0 ) );
+    }
+
+    @Test
+    public void shouldCreateNewEntityManagerIfParkedOneWasClosed()
+    {
+        final EntityManager newEm = createEntityManagerMock( emf );
+
+        sut.begin();
+        sut.end();
+        parkedEntityManagers.closeAll( emf );
+        doReturn( newEm ).when( emf ).createEntityManager();
+        sut.begin();
+
+        verify( em ).close();
+        assertThat( sut.get(), sameInstance( newEm ) );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void maxUsesMustBePositive()
+    {
+        new EntityManagerReuse( 0, 1000 );
+    }
+
+}
@@ -21,18 +21,24 @@ package org.apache.onami.persist;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceException;
+import javax.persistence.TypedQuery;
+import java.util.Arrays;
 import java.util.Properties;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -60,11 +66,11 @@ public class EntityManagerProviderImplTest
         properties = new Properties();
 
         // subject under test
-        sut = new EntityManagerProviderImpl( emfProvider, properties );
+        sut = provider( createSelector( emfProvider ), properties );
 
         // helpers
         emf = mock( EntityManagerFactory.class );
-        doReturn( emf ).when( emfProvider ).get();
+        doReturn( emf ).when( emfProvider ).acquire();
 
         em = mock( EntityManager.class );
         doReturn( em ).when( emf ).createEntityManager( properties );
@@ -159,27 +165,407 @@ public class EntityManagerProviderImplTest
         sut.get();
     }
 
+    @Test
+    @SuppressWarnings( "unchecked" )
+    public void shouldCloseResultStreamsWhenEnding()
+    {
+        sut.begin();
+        final ResultStream<Object> stream = sut.stream( mock( TypedQuery.class ), 10 );
+        sut.end();
+
+        assertThat( stream.isClosed(), is( true ) );
+    }
+
+    @Test( expected = IllegalStateException.class )
+    @SuppressWarnings( "unchecked" )
+    public void shouldThrowExceptionWhenStreamingAndUnitOfWorkIsNotActive()
+    {
+        sut.stream( mock( TypedQuery.class ), 10 );
+    }
+
     @Test( expected = NullPointerException.class )
-    public void entityManagerFactoryProviderIsMandatory()
+    public void entityManagerFactorySelectorIsMandatory()
     {
-        new EntityManagerProviderImpl( null, properties );
+        new EntityManagerProviderImpl( null, properties, null, null, bulkhead( null ), leakDetector( null ),
+                                       lifecycleNotifier(), new QueryCounter( null ), circuitBreaker( null ),
+                                       new ParkedEntityManagers() );
     }
 
     @Test
     public void propertiesAreOptional()
     {
-        new EntityManagerProviderImpl( emfProvider, null );
+        provider( createSelector( emfProvider ), null );
     }
 
     @Test
     public void shouldCreateEntityManagerWithoutPropertiesIfNull()
     {
         doReturn( em ).when( emf ).createEntityManager();
-        sut = new EntityManagerProviderImpl( emfProvider, null );
+        sut = provider( createSelector( emfProvider ), null );
 
         sut.begin();
 
         verify( emf ).createEntityManager();
     }
 
+    @Test
+    public void shouldSelectEntityManagerFactoryForReadOnlyUnitOfWork()
+    {
+        // given
+        final EntityManagerFactorySelector emfSelector = mock( EntityManagerFactorySelector.class );
+        final EntityManagerFactory replica = mock( EntityManagerFactory.class );
+        final EntityManager replicaEm = mock( EntityManager.class );
+        doReturn( replica ).when( emfSelector ).select( true );
+        doReturn( replicaEm ).when( replica ).createEntityManager( properties );
+        sut = provider( emfSelector, properties );
+
+        // when
+        sut.beginReadOnly();
+        final EntityManager result = sut.get();
+        sut.end();
+
+        // then
+        assertThat( result, sameInstance( replicaEm ) );
+        verify( replicaEm ).close();
+        verify( emfSelector ).release();
+    }
+
+    @Test
+    public void shouldReleaseEntityManagerFactoryIfCreatingEntityManagerFails()
+    {
+        // given
+        final EntityManagerFactorySelector emfSelector = mock( EntityManagerFactorySelector.class );
+        doReturn( emf ).when( emfSelector ).select( false );
+        doThrow( new IllegalStateException() ).when( emf ).createEntityManager( properties );
+        sut = provider( emfSelector, properties );
+
+        // when
+        try
+        {
+            sut.begin();
+        }
+
+        // then
+        catch ( IllegalStateException e )
+        {
+            verify( emfSelector ).release();
+            assertThat( sut.isActive(), is( false ) );
+            return;
+        }
+        fail( "expected IllegalStateException to be thrown" );
+    }
+
+    @Test
+    public void shouldReleaseEntityManagerFactoryIfSelectionFails()
+    {
+        // given
+        final EntityManagerFactorySelector emfSelector = mock( EntityManagerFactorySelector.class );
+        doThrow( new IllegalStateException() ).when( emfSelector ).select( false );
+        sut = provider( emfSelector, properties );
+
+        // when
+        try
+        {
+            sut.begin();
+        }
+
+        // then
+        catch ( IllegalStateException e )
+        {
+            verify( emfSelector ).release();
+            assertThat( sut.isActive(), is( false ) );
+            return;
+        }
+        fail( "expected IllegalStateException to be thrown" );
+    }
+
+    @Test
+    public void shouldReleaseBulkheadPermitOnEnd()
+    {
+        // given
+        final UnitOfWorkBulkhead bulkhead = bulkhead( new BulkheadConfiguration( 1, 0, false ) );
+        doReturn( em ).when( emf ).createEntityManager( properties );
+        sut = provider( createSelector( emfProvider ), properties, bulkhead, leakDetector( null ) );
+
+        // when
+        sut.begin();
+        final int availableWhileActive = bulkhead.getAvailablePermits();
+        sut.end();
+
+        // then
+        assertThat( availableWhileActive, is( 0 ) );
+        assertThat( bulkhead.getAvailablePermits(), is( 1 ) );
+    }
+
+    @Test
+    public void shouldReleaseBulkheadPermitIfSelectionFails()
+    {
+        // given
+        final UnitOfWorkBulkhead bulkhead = bulkhead( new BulkheadConfiguration( 1, 0, false ) );
+        final EntityManagerFactorySelector emfSelector = mock( EntityManagerFactorySelector.class );
+        doThrow( new IllegalStateException() ).when( emfSelector ).select( false );
+        sut = provider( emfSelector, properties, bulkhead, leakDetector( null ) );
+
+        // when
+        try
+        {
+            sut.begin();
+        }
+
+        // then
+        catch ( IllegalStateException e )
+        {
+            assertThat( bulkhead.getAvailablePermits(), is( 1 ) );
+            return;
+        }
+        fail( "expected IllegalStateException to be thrown" );
+    }
+
+    @Test
+    public void shouldNotSelectEntityManagerFactoryIfBulkheadRejects()
+    {
+        // given
+        final UnitOfWorkBulkhead bulkhead = bulkhead( new BulkheadConfiguration( 1, 0, false ) );
+        final EntityManagerFactorySelector emfSelector = mock( EntityManagerFactorySelector.class );
+        sut = provider( emfSelector, properties, bulkhead, leakDetector( null ) );
+        bulkhead.acquire();
+
+        // when
+        try
+        {
+            sut.begin();
+        }
+
+        // then
+        catch ( BulkheadRejectedException e )
+        {
+            verify( emfSelector, never() ).select( false );
+            verify( emfSelector, never() ).release();
+            assertThat( sut.isActive(), is( false ) );
+            return;
+        }
+        fail( "expected BulkheadRejectedException to be thrown" );
+    }
+
+    @Test
+    public void shouldRegisterUnitOfWorkAtLeakDetector()
+    {
+        // given
+        final UnitOfWorkLeakDetector leakDetector =
+            leakDetector( new LeakDetectionConfiguration( 60000, false, true ) );
+        doReturn( em ).when( emf ).createEntityManager( properties );
+        sut = provider( createSelector( emfProvider ), properties, bulkhead( null ), leakDetector );
+
+        // when
+        sut.begin();
+        final int activeWhileActive = leakDetector.getActiveUnitsOfWork();
+        sut.end();
+
+        // then
+        assertThat( activeWhileActive, is( 1 ) );
+        assertThat( leakDetector.getActiveUnitsOfWork(), is( 0 ) );
+    }
+
+    @Test
+    public void shouldNotCloseEntityManagerOfIdleUnitOfWork()
+        throws Exception
+    {
+        // given
+        final UnitOfWorkLeakDetector leakDetector = leakDetector( new LeakDetectionConfiguration( 1, false, true ) );
+        doReturn( em ).when( emf ).createEntityManager( properties );
+        doReturn( true ).when( em ).isOpen();
+        sut = provider( createSelector( emfProvider ), properties, bulkhead( null ), leakDetector );
+        sut.begin();
+        Thread.sleep( 5 );
+
+        // when
+        leakDetector.checkForLeaks();
+
+        // then
+        verify( em, never() ).close();
+        assertThat( leakDetector.getLeakedCount(), is( 1L ) );
+        assertThat( leakDetector.getForceClosedCount(), is( 0L ) );
+        assertThat( sut.isActive(), is( true ) );
+        assertThat( sut.get(), sameInstance( em ) );
+    }
+
+    @Test
+    public void shouldReleaseBulkheadPermitOfUnitOfWorkOfTerminatedThread()
+        throws Exception
+    {
+        // given
+        final UnitOfWorkLeakDetector leakDetector =
+            leakDetector( new LeakDetectionConfiguration( 60000, false, true ) );
+        final UnitOfWorkBulkhead bulkhead = bulkhead( new BulkheadConfiguration( 1, 0, false ) );
+        doReturn( em ).when( emf ).createEntityManager( properties );
+        doReturn( true ).when( em ).isOpen();
+        sut = provider( createSelector( emfProvider ), properties, bulkhead, leakDetector );
+        final Thread thread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                sut.begin();
+            }
+        };
+        thread.start();
+        thread.join();
+
+        // when
+        leakDetector.checkForLeaks();
+
+        // then
+        verify( em ).close();
+        assertThat( leakDetector.getForceClosedCount(), is( 1L ) );
+        assertThat( bulkhead.getAvailablePermits(), is( 1 ) );
+        sut.begin();
+        assertThat( sut.isActive(), is( true ) );
+    }
+
+    @Test
+    public void shouldNotifyLifecycleListenersAboutUnitOfWork()
+    {
+        // given
+        final PersistenceLifecycleListener listener = mock( PersistenceLifecycleListener.class );
+        sut = provider( createSelector( emfProvider ), properties, bulkhead( null ), leakDetector( null ),
+                        lifecycleNotifier( listener ) );
+        final ArgumentCaptor<PersistenceLifecycleEvent> begun = eventCaptor();
+        final ArgumentCaptor<PersistenceLifecycleEvent> ended = eventCaptor();
+
+        // when
+        sut.begin();
+        sut.end();
+
+        // then
+        verify( listener ).unitOfWorkBegun( begun.capture() );
+        verify( listener ).unitOfWorkEnded( ended.capture() );
+        assertThat( ended.getValue().getContext(), sameInstance( begun.getValue().getContext() ) );
+        assertThat( ended.getValue().getElapsedNanos() >= 0, is( true ) );
+    }
+
+    @Test
+    public void shouldNotNotifyLifecycleListenersAboutFailedBegin()
+    {
+        // given
+        final PersistenceLifecycleListener listener = mock( PersistenceLifecycleListener.class );
+        sut = provider( createSelector( emfProvider ), properties, bulkhead( null ), leakDetector( null ),
+                        lifecycleNotifier( listener ) );
+        doThrow( new RuntimeException() ).when( emf ).createEntityManager( properties );
+
+        // when
+        try
+        {
+            sut.begin();
+            fail( "expected RuntimeException" );
+        }
+        catch ( RuntimeException e )
+        {
+            // expected
+        }
+
+        // then
+        verify( listener, never() ).unitOfWorkBegun( any( PersistenceLifecycleEvent.class ) );
+    }
+
+    @Test
+    public void shouldRejectUnitOfWorkWhileCircuitIsOpen()
+    {
+        // given
+        final UnitOfWorkBulkhead bulkhead = bulkhead( new BulkheadConfiguration( 1, 0, false ) );
+        final UnitOfWorkCircuitBreaker circuitBreaker =
+            circuitBreaker( new CircuitBreakerConfiguration( "SELECT 1", 0, 1, 60000 ) );
+        sut = provider( createSelector( emfProvider ), properties, bulkhead, leakDetector( null ),
+                        lifecycleNotifier(), circuitBreaker );
+        doThrow( new PersistenceException() ).when( emf ).createEntityManager( properties );
+        try
+        {
+            sut.begin();
+            fail( "expected PersistenceException" );
+        }
+        catch ( PersistenceException e )
+        {
+            // expected
+        }
+
+        // when
+        try
+        {
+            sut.begin();
+            fail( "expected CircuitBreakerOpenException" );
+        }
+
+        // then
+        catch ( CircuitBreakerOpenException e )
+        {
+            verify( emf ).createEntityManager( properties );
+            assertThat( bulkhead.getAvailablePermits(), is( 1 ) );
+            assertThat( sut.isActive(), is( false ) );
+        }
+    }
+
+    private static EntityManagerProviderImpl provider( EntityManagerFactorySelector emfSelector,
+                                                       Properties properties )
+    {
+        return provider( emfSelector, properties, bulkhead( null ), leakDetector( null ) );
+    }
+
+    private static EntityManagerProviderImpl provider( EntityManagerFactorySelector emfSelector,
+                                                       Properties properties, UnitOfWorkBulkhead bulkhead,
+                                                       UnitOfWorkLeakDetector leakDetector )
+    {
+        return provider( emfSelector, properties, bulkhead, leakDetector, lifecycleNotifier() );
+    }
+
+    private static EntityManagerProviderImpl provider( EntityManagerFactorySelector emfSelector,
+                                                       Properties properties, UnitOfWorkBulkhead bulkhead,
+                                                       UnitOfWorkLeakDetector leakDetector,
+                                                       PersistenceLifecycleNotifier lifecycleNotifier )
+    {
+        return provider( emfSelector, properties, bulkhead, leakDetector, lifecycleNotifier, circuitBreaker( null ) );
+    }
+
+    private static EntityManagerProviderImpl provider( EntityManagerFactorySelector emfSelector,
+                                                       Properties properties, UnitOfWorkBulkhead bulkhead,
+                                                       UnitOfWorkLeakDetector leakDetector,
+                                                       PersistenceLifecycleNotifier lifecycleNotifier,
+                                                       UnitOfWorkCircuitBreaker circuitBreaker )
+    {
+        return new EntityManagerProviderImpl( emfSelector, properties, null, null, bulkhead, leakDetector,
+                                              lifecycleNotifier, new QueryCounter( null ), circuitBreaker,
+                                              new ParkedEntityManagers() );
+    }
+
+    private static ArgumentCaptor<PersistenceLifecycleEvent> eventCaptor()
+    {
+        return ArgumentCaptor.forClass( PersistenceLifecycleEvent.class );
+    }
+
+    private static PersistenceLifecycleNotifier lifecycleNotifier( PersistenceLifecycleListener... listeners )
+    {
+        return new PersistenceLifecycleNotifier( new PersistenceLifecycleListeners( Arrays.asList( listeners ) ),
+                                                 new AnnotationHolder( null ) );
+    }
+
+    private static UnitOfWorkBulkhead bulkhead( BulkheadConfiguration config )
+    {
+        return new UnitOfWorkBulkhead( config, null, new TransactionPriorityHolder() );
+    }
+
+    private static UnitOfWorkCircuitBreaker circuitBreaker( CircuitBreakerConfiguration config )
+    {
+        return new UnitOfWorkCircuitBreaker( config, mock( EntityManagerFactoryProvider.class ),
+                                             new AnnotationHolder( null ) );
+    }
+
+    private static UnitOfWorkLeakDetector leakDetector( LeakDetectionConfiguration config )
+    {
+        return new UnitOfWorkLeakDetector( config );
+    }
+
+    private static EntityManagerFactorySelector createSelector( EntityManagerFactoryProvider emfProvider )
+    {
+        return new EntityManagerFactorySelector( emfProvider, new ReadReplicaRouter( null ), new ShardRouter( null ),
+                                                 new TenantRouter( null, new ParkedEntityManagers() ) );
+    }
+
 }
@@ -26,6 +26,7 @@ import org.mockito.stubbing.Answer;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
+import java.util.Collections;
 import java.util.concurrent.CountDownLatch;
 
 import static org.hamcrest.CoreMatchers.is;
@@ -55,11 +56,21 @@ public class EntityManagerProviderImplThreadingTest
         final EntityManagerFactoryProvider emfProvider = mock( EntityManagerFactoryProvider.class );
 
         // subject under test
-        sut = new EntityManagerProviderImpl( emfProvider, null );
+        final EntityManagerFactorySelector emfSelector =
+            new EntityManagerFactorySelector( emfProvider, new ReadReplicaRouter( null ), new ShardRouter( null ),
+                                              new TenantRouter( null, new ParkedEntityManagers() ) );
+        final PersistenceLifecycleNotifier lifecycleNotifier = new PersistenceLifecycleNotifier(
+            new PersistenceLifecycleListeners( Collections.<PersistenceLifecycleListener>emptyList() ),
+            new AnnotationHolder( null ) );
+        sut = new EntityManagerProviderImpl( emfSelector, null, null, null,
+                                             new UnitOfWorkBulkhead( null, null, new TransactionPriorityHolder() ),
+                                             new UnitOfWorkLeakDetector( null ), lifecycleNotifier,
+                                             new QueryCounter( null ), mock( UnitOfWorkCircuitBreaker.class ),
+                                             new ParkedEntityManagers() );
 
         // helpers
         emf = mock( EntityManagerFactory.class );
-        doReturn( emf ).when( emfProvider ).get();
+        doReturn( emf ).when( emfProvider ).acquire();
 
         doAnswer( new Answer()
         {
@@ -0,0 +1,102 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.onami.persist.test.TestEntity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Test for {@link HibernateEntityCountEstimator}.
+ */
+public class HibernateEntityCountEstimatorTest
+{
+
+    private HibernateEntityCountEstimator sut;
+
+    private EntityManagerFactory emf;
+
+    @Before
+    public void setUp()
+    {
+        sut = new HibernateEntityCountEstimator();
+        emf = Persistence.createEntityManagerFactory( "testUnit" );
+    }
+
+    @After
+    public void tearDown()
+    {
+        emf.close();
+    }
+
+    @Test
+    public void shouldCountManagedEntities()
+    {
+        final EntityManager em = emf.createEntityManager();
+        try
+        {
+            em.getTransaction().begin();
+            em.persist( new TestEntity() );
+            em.persist( new TestEntity() );
+
+            assertThat( sut.estimateSize( em ), is( 2L ) );
+
+            em.getTransaction().rollback();
+        }
+        finally
+        {
+            em.close();
+        }
+    }
+
+    @Test
+    public void shouldNotBeginPendingTransaction()
+    {
+        final EntityManager em = emf.createEntityManager();
+        try
+        {
+            final EntityManager lazyEm = new LazyTransactionBegin().wrap( em );
+            LazyTransactionBegin.handlerOf( lazyEm ).deferBegin();
+
+            assertThat( sut.estimateSize( lazyEm ), is( 0L ) );
+            assertThat( em.getTransaction().isActive(), is( false ) );
+        }
+        finally
+        {
+            em.close();
+        }
+    }
+
+    @Test
+    public void shouldReturnNegativeValueForOtherProviders()
+    {
+        assertThat( sut.estimateSize( mock( EntityManager.class ) ) < 0, is( true ) );
+    }
+
+}
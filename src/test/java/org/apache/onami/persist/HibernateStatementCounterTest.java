@@ -0,0 +1,124 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.onami.persist.test.TestEntity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Test for {@link HibernateStatementCounter}.
+ */
+public class HibernateStatementCounterTest
+{
+
+    private HibernateStatementCounter sut;
+
+    private EntityManagerFactory emf;
+
+    @Before
+    public void setUp()
+    {
+        sut = new HibernateStatementCounter();
+        emf = Persistence.createEntityManagerFactory( "testUnit" );
+    }
+
+    @After
+    public void tearDown()
+    {
+        emf.close();
+    }
+
+    @Test
+    public void shouldCountPreparedStatementsOfSession()
+    {
+        final EntityManager em = emf.createEntityManager();
+        try
+        {
+            final long base = sut.countStatements( em );
+            em.getTransaction().begin();
+            em.persist( new TestEntity() );
+            em.persist( new TestEntity() );
+            em.flush();
+            em.createQuery( "SELECT e FROM TestEntity e", TestEntity.class ).getResultList();
+            em.getTransaction().rollback();
+
+            assertThat( base, is( 0L ) );
+            assertThat( sut.countStatements( em ) - base >= 2, is( true ) );
+        }
+        finally
+        {
+            em.close();
+        }
+    }
+
+    @Test
+    public void shouldNotCountStatementsOfOtherSessions()
+    {
+        final EntityManager em = emf.createEntityManager();
+        final EntityManager other = emf.createEntityManager();
+        try
+        {
+            final long base = sut.countStatements( em );
+            other.createQuery( "SELECT e FROM TestEntity e", TestEntity.class ).getResultList();
+
+            assertThat( sut.countStatements( em ), is( base ) );
+        }
+        finally
+        {
+            other.close();
+            em.close();
+        }
+    }
+
+    @Test
+    public void shouldNotBeginPendingTransaction()
+    {
+        final EntityManager em = emf.createEntityManager();
+        try
+        {
+            final EntityManager lazyEm = new LazyTransactionBegin().wrap( em );
+            LazyTransactionBegin.handlerOf( lazyEm ).deferBegin();
+
+            assertThat( sut.countStatements( lazyEm ), is( 0L ) );
+            assertThat( em.getTransaction().isActive(), is( false ) );
+        }
+        finally
+        {
+            em.close();
+        }
+    }
+
+    @Test
+    public void shouldReturnNegativeValueForOtherProviders()
+    {
+        assertThat( sut.countStatements( mock( EntityManager.class ) ) < 0, is( true ) );
+    }
+
+}
@@ -0,0 +1,109 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import javax.persistence.PersistenceException;
+import java.sql.Connection;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Test for {@link JdbcConnectionAccessor}.
+ */
+public class JdbcConnectionAccessorTest
+{
+
+    private JdbcConnectionAccessor sut;
+
+    private EntityManagerFactory emf;
+
+    @Before
+    public void setUp()
+    {
+        sut = new JdbcConnectionAccessor();
+        emf = Persistence.createEntityManagerFactory( "testUnit" );
+    }
+
+    @After
+    public void tearDown()
+    {
+        emf.close();
+    }
+
+    @Test
+    public void shouldAccessConnectionOfWrappedHibernateEntityManager()
+    {
+        final EntityManager em = emf.createEntityManager();
+        try
+        {
+            final Connection connection = sut.getConnection( new LazyTransactionBegin().wrap( em ) );
+
+            assertThat( connection, is( notNullValue() ) );
+        }
+        finally
+        {
+            em.close();
+        }
+    }
+
+    @Test
+    public void shouldAccessConnectionAfterEntityManagerOfOtherProvider()
+    {
+        // given
+        final EntityManager other = mock( EntityManager.class );
+        doThrow( new PersistenceException() ).when( other ).unwrap( any( Class.class ) );
+        try
+        {
+            sut.getConnection( other );
+            fail( "expected UnsupportedOperationException to be thrown" );
+        }
+        catch ( UnsupportedOperationException e )
+        {
+            // expected
+        }
+        final EntityManager em = emf.createEntityManager();
+        try
+        {
+            // when
+            final Connection connection = sut.getConnection( em );
+
+            // then
+            assertThat( connection, is( notNullValue() ) );
+        }
+        finally
+        {
+            em.close();
+        }
+    }
+
+}
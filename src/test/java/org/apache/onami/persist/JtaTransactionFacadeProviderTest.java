@@ -25,8 +25,11 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import javax.persistence.EntityManager;
+import javax.persistence.RollbackException;
 
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
@@ -46,15 +49,18 @@ public class JtaTransactionFacadeProviderTest
 
     private EntityManager em;
 
+    private PersistenceLifecycleNotifier lifecycleNotifier;
+
     @Before
     public void setUp()
     {
         // input
         utFacade = mock( UserTransactionFacade.class );
         emProvider = mock( EntityManagerProvider.class );
+        lifecycleNotifier = mock( PersistenceLifecycleNotifier.class );
 
         // subject under test
-        sut = new JtaTransactionFacadeFactory( utFacade, emProvider );
+        sut = new JtaTransactionFacadeFactory( utFacade, emProvider, lifecycleNotifier );
 
         // environment
         em = mock( EntityManager.class );
@@ -70,7 +76,7 @@ public class JtaTransactionFacadeProviderTest
         public void setUp()
         {
             doReturn( true ).when( utFacade ).isActive();
-            sut = JtaTransactionFacadeProviderTest.this.sut.createTransactionFacade();
+            sut = JtaTransactionFacadeProviderTest.this.sut.createTransactionFacade( NestedTransactionMode.JOIN );
         }
 
         @Test
@@ -90,6 +96,20 @@ public class JtaTransactionFacadeProviderTest
             verify( utFacade, never() ).commit();
         }
 
+        @Test
+        public void flushShouldFlushEntityManager()
+        {
+            sut.flush();
+
+            verify( em ).flush();
+        }
+
+        @Test( expected = UnsupportedOperationException.class )
+        public void savepointShouldNotBeSupported()
+        {
+            JtaTransactionFacadeProviderTest.this.sut.createTransactionFacade( NestedTransactionMode.SAVEPOINT );
+        }
+
         @Test
         public void rollbackShouldSetRollbackOnlyFlag()
         {
@@ -97,6 +117,14 @@ public class JtaTransactionFacadeProviderTest
 
             verify( utFacade ).setRollbackOnly();
         }
+
+        @Test
+        public void rollbackShouldNotifyLifecycleListeners()
+        {
+            sut.rollback();
+
+            verify( lifecycleNotifier ).transactionMarkedRollbackOnly();
+        }
     }
 
     public class OuterTransactionTest
@@ -108,7 +136,7 @@ public class JtaTransactionFacadeProviderTest
         public void setUp()
         {
             doReturn( false ).when( utFacade ).isActive();
-            sut = JtaTransactionFacadeProviderTest.this.sut.createTransactionFacade();
+            sut = JtaTransactionFacadeProviderTest.this.sut.createTransactionFacade( NestedTransactionMode.JOIN );
         }
 
         @Test
@@ -138,6 +166,14 @@ public class JtaTransactionFacadeProviderTest
             verify( utFacade ).rollback();
         }
 
+        @Test
+        public void flushShouldFlushEntityManager()
+        {
+            sut.flush();
+
+            verify( em ).flush();
+        }
+
         @Test
         public void rollbackShouldRollbackTransaction()
         {
@@ -145,6 +181,52 @@ public class JtaTransactionFacadeProviderTest
 
             verify( utFacade ).rollback();
         }
+
+        @Test
+        public void shouldNotifyLifecycleListenersAboutCommit()
+        {
+            final PersistenceLifecycleContext context = new PersistenceLifecycleContext( 0 );
+            doReturn( context ).when( lifecycleNotifier ).transactionBegun();
+
+            sut.begin();
+            sut.commit();
+
+            verify( lifecycleNotifier ).transactionCommitted( context );
+        }
+
+        @Test
+        public void shouldNotifyLifecycleListenersAboutFailedCommit()
+        {
+            final PersistenceLifecycleContext context = new PersistenceLifecycleContext( 0 );
+            doReturn( context ).when( lifecycleNotifier ).transactionBegun();
+            doThrow( new RollbackException() ).when( utFacade ).commit();
+
+            sut.begin();
+            try
+            {
+                sut.commit();
+                fail( "expected RollbackException" );
+            }
+            catch ( RollbackException e )
+            {
+                // expected
+            }
+
+            verify( lifecycleNotifier ).transactionRolledBack( context );
+            verify( lifecycleNotifier, never() ).transactionCommitted( context );
+        }
+
+        @Test
+        public void shouldNotifyLifecycleListenersAboutRollback()
+        {
+            final PersistenceLifecycleContext context = new PersistenceLifecycleContext( 0 );
+            doReturn( context ).when( lifecycleNotifier ).transactionBegun();
+
+            sut.begin();
+            sut.rollback();
+
+            verify( lifecycleNotifier ).transactionRolledBack( context );
+        }
     }
 
 }
@@ -0,0 +1,101 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test for {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest
+{
+
+    private static final long MILLIS = 1000000L;
+
+    private LatencyHistogram sut;
+
+    @Before
+    public void setUp()
+    {
+        sut = new LatencyHistogram();
+    }
+
+    @Test
+    public void shouldSortLatenciesIntoBuckets()
+    {
+        sut.record( 0 );
+        sut.record( 7 * MILLIS );
+        sut.record( 20000 * MILLIS );
+
+        final LatencyHistogramSnapshot snapshot = sut.snapshot();
+        final long[] counts = snapshot.getBucketCounts();
+
+        assertThat( snapshot.getCount(), is( 3L ) );
+        assertThat( counts[0], is( 1L ) );
+        assertThat( counts[3], is( 1L ) );
+        assertThat( counts[counts.length - 1], is( 1L ) );
+        assertThat( snapshot.getMaxMillis(), is( 20000L ) );
+    }
+
+    @Test
+    public void percentileShouldBeUpperBoundOfBucket()
+    {
+        for ( int i = 0; i < 99; i++ )
+        {
+            sut.record( MILLIS / 2 );
+        }
+        sut.record( 150 * MILLIS );
+
+        final LatencyHistogramSnapshot snapshot = sut.snapshot();
+
+        assertThat( snapshot.getPercentileMillis( 50 ), is( 1L ) );
+        assertThat( snapshot.getPercentileMillis( 99 ), is( 1L ) );
+        assertThat( snapshot.getPercentileMillis( 100 ), is( 150L ) );
+    }
+
+    @Test
+    public void percentileOfEmptyHistogramShouldBeZero()
+    {
+        assertThat( sut.snapshot().getPercentileMillis( 99 ), is( 0L ) );
+        assertThat( sut.snapshot().getMeanMillis(), is( 0.0 ) );
+    }
+
+    @Test
+    public void resetShouldDiscardLatencies()
+    {
+        sut.record( 5 * MILLIS );
+
+        sut.reset();
+
+        assertThat( sut.snapshot().getCount(), is( 0L ) );
+        assertThat( sut.snapshot().getMaxMillis(), is( 0L ) );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void invalidPercentileShouldBeRejected()
+    {
+        sut.snapshot().getPercentileMillis( 101 );
+    }
+
+}
@@ -0,0 +1,135 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Test for {@link LazyTransactionBegin}.
+ */
+public class LazyTransactionBeginTest
+{
+
+    private EntityManager em;
+
+    private EntityTransaction txn;
+
+    private EntityManager sut;
+
+    private LazyTransactionBegin.Handler handler;
+
+    @Before
+    public void setUp()
+    {
+        em = mock( EntityManager.class );
+        txn = mock( EntityTransaction.class );
+        doReturn( txn ).when( em ).getTransaction();
+
+        sut = new LazyTransactionBegin().wrap( em );
+        handler = LazyTransactionBegin.handlerOf( sut );
+    }
+
+    @Test
+    public void shouldFindHandlerOnlyForWrappedEntityManager()
+    {
+        assertThat( handler, is( notNullValue() ) );
+        assertThat( LazyTransactionBegin.handlerOf( em ), is( nullValue() ) );
+    }
+
+    @Test
+    public void shouldDelegateWithoutPendingBegin()
+    {
+        sut.persist( "entity" );
+
+        verify( em ).persist( "entity" );
+        verify( txn, never() ).begin();
+    }
+
+    @Test
+    public void shouldBeginPendingTransactionOnDataAccess()
+    {
+        handler.deferBegin();
+
+        sut.persist( "entity" );
+        sut.flush();
+
+        verify( txn ).begin();
+        verify( em ).persist( "entity" );
+        assertThat( handler.isBeginPending(), is( false ) );
+    }
+
+    @Test
+    public void shouldNotBeginPendingTransactionWithoutDataAccess()
+    {
+        handler.deferBegin();
+
+        sut.isOpen();
+        sut.getTransaction();
+        sut.clear();
+        sut.getCriteriaBuilder();
+
+        verify( txn, never() ).begin();
+        assertThat( handler.isBeginPending(), is( true ) );
+    }
+
+    @Test
+    public void shouldMarkTransactionAsRollbackOnlyWhenBegun()
+    {
+        handler.deferBegin();
+        handler.setRollbackOnly();
+
+        sut.find( Object.class, 1L );
+
+        verify( txn ).begin();
+        verify( txn ).setRollbackOnly();
+    }
+
+    @Test
+    public void shouldReportCancelledPendingBegin()
+    {
+        handler.deferBegin();
+
+        assertThat( handler.cancelPendingBegin(), is( true ) );
+        assertThat( handler.cancelPendingBegin(), is( false ) );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void shouldThrowExceptionOfEntityManager()
+    {
+        doThrow( new IllegalArgumentException() ).when( em ).find( Object.class, 2L );
+
+        sut.find( Object.class, 2L );
+    }
+
+}
@@ -0,0 +1,183 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.NoSuchElementException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Test for {@link PagedResultStream}.
+ */
+public class PagedResultStreamTest
+{
+
+    private PagedResultStream<String> sut;
+
+    private TypedQuery<String> query;
+
+    private EntityManager em;
+
+    @Before
+    @SuppressWarnings( "unchecked" )
+    public void setUp()
+    {
+        query = mock( TypedQuery.class );
+        em = mock( EntityManager.class );
+        doReturn( true ).when( em ).isOpen();
+        doReturn( true ).when( em ).contains( "a" );
+
+        sut = new PagedResultStream<String>( query, em, 2 );
+    }
+
+    @Test
+    public void shouldPassFetchSizeAsHint()
+    {
+        verify( query ).setHint( "org.hibernate.fetchSize", 2 );
+    }
+
+    @Test
+    public void shouldIterateOverAllPages()
+    {
+        doReturn( Arrays.asList( "a", "b" ) ).doReturn( Arrays.asList( "c" ) ).when( query ).getResultList();
+
+        assertThat( sut.next(), is( "a" ) );
+        assertThat( sut.next(), is( "b" ) );
+        assertThat( sut.next(), is( "c" ) );
+        assertThat( sut.hasNext(), is( false ) );
+
+        verify( query ).setFirstResult( 0 );
+        verify( query ).setFirstResult( 2 );
+        verify( query, times( 2 ) ).setMaxResults( 2 );
+        assertThat( sut.isClosed(), is( true ) );
+    }
+
+    @Test
+    public void shouldLoadNextPageIfPageWasFull()
+    {
+        doReturn( Arrays.asList( "a", "b" ) ).doReturn( Collections.emptyList() ).when( query ).getResultList();
+
+        sut.next();
+        sut.next();
+
+        assertThat( sut.hasNext(), is( false ) );
+        verify( query, times( 2 ) ).getResultList();
+    }
+
+    @Test
+    public void shouldDetachConsumedEntitiesWhenLoadingNextPage()
+    {
+        doReturn( Arrays.asList( "a", "b" ) ).doReturn( Arrays.asList( "c" ) ).when( query ).getResultList();
+
+        sut.next();
+        sut.next();
+        verify( em, never() ).detach( "a" );
+
+        sut.next();
+        verify( em ).detach( "a" );
+        verify( em, never() ).detach( "b" );
+    }
+
+    @Test
+    public void shouldFlushChangesBeforeDetachingConsumedEntities()
+    {
+        doReturn( true ).when( em ).isJoinedToTransaction();
+        doReturn( Arrays.asList( "a", "b" ) ).doReturn( Arrays.asList( "c" ) ).when( query ).getResultList();
+
+        sut.next();
+        sut.next();
+        sut.next();
+
+        final InOrder inOrder = inOrder( em, query );
+        inOrder.verify( em ).flush();
+        inOrder.verify( em ).detach( "a" );
+        inOrder.verify( query ).getResultList();
+    }
+
+    @Test
+    public void shouldNotFlushOutsideOfTransaction()
+    {
+        doReturn( Arrays.asList( "a", "b" ) ).doReturn( Arrays.asList( "c" ) ).when( query ).getResultList();
+
+        sut.next();
+        sut.next();
+        sut.next();
+
+        verify( em, never() ).flush();
+        verify( em ).detach( "a" );
+    }
+
+    @Test
+    public void shouldIgnoreNonEntityResults()
+    {
+        doReturn( Arrays.asList( "x" ) ).when( query ).getResultList();
+        doThrow( new IllegalArgumentException() ).when( em ).contains( "x" );
+
+        sut.next();
+
+        assertThat( sut.hasNext(), is( false ) );
+    }
+
+    @Test
+    public void shouldNotLoadAnythingAfterClose()
+    {
+        sut.close();
+
+        assertThat( sut.hasNext(), is( false ) );
+        verify( query, never() ).getResultList();
+    }
+
+    @Test( expected = NoSuchElementException.class )
+    public void nextShouldThrowExceptionAtEndOfResult()
+    {
+        doReturn( Collections.emptyList() ).when( query ).getResultList();
+
+        sut.next();
+    }
+
+    @Test( expected = UnsupportedOperationException.class )
+    public void removeIsNotSupported()
+    {
+        sut.remove();
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void fetchSizeMustBePositive()
+    {
+        new PagedResultStream<String>( query, em, 0 );
+    }
+
+}
@@ -0,0 +1,178 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+/**
+ * Test for {@link PersistenceContextGuard}.
+ */
+public class PersistenceContextGuardTest
+{
+
+    private EntityManagerProvider emProvider;
+
+    private EntityManager em;
+
+    private EntityTransaction txn;
+
+    private PersistenceContextSizeEstimator estimator;
+
+    @Before
+    public void setUp()
+    {
+        emProvider = mock( EntityManagerProvider.class );
+        em = mock( EntityManager.class );
+        txn = mock( EntityTransaction.class );
+        estimator = mock( PersistenceContextSizeEstimator.class );
+
+        doReturn( em ).when( emProvider ).get();
+        doReturn( true ).when( em ).isOpen();
+        doReturn( txn ).when( em ).getTransaction();
+    }
+
+    private PersistenceContextGuard createGuard( PersistenceContextSizeAction action )
+    {
+        return new PersistenceContextGuard( emProvider, new PersistenceContextSizeLimit( 10, action, estimator ) );
+    }
+
+    @Test
+    public void disabledGuardShouldDoNothing()
+    {
+        final PersistenceContextGuard sut = new PersistenceContextGuard( emProvider, null );
+
+        sut.beforeCommit();
+        sut.afterCommit();
+
+        verifyZeroInteractions( emProvider );
+    }
+
+    @Test
+    public void shouldFailBeforeCommitIfThresholdExceeded()
+    {
+        final PersistenceContextGuard sut = createGuard( PersistenceContextSizeAction.FAIL );
+        doReturn( 11L ).when( estimator ).estimateSize( em );
+
+        try
+        {
+            sut.beforeCommit();
+        }
+        catch ( PersistenceContextSizeExceededException e )
+        {
+            assertThat( e.getSize(), is( 11L ) );
+            assertThat( e.getThreshold(), is( 10L ) );
+            assertThat( sut.getThresholdExceededCount(), is( 1L ) );
+            return;
+        }
+        fail( "expected PersistenceContextSizeExceededException to be thrown" );
+    }
+
+    @Test
+    public void shouldSkipCheckWhileBeginIsPending()
+    {
+        final PersistenceContextGuard sut = createGuard( PersistenceContextSizeAction.FAIL );
+        final EntityManager lazyEm = new LazyTransactionBegin().wrap( em );
+        LazyTransactionBegin.handlerOf( lazyEm ).deferBegin();
+        doReturn( lazyEm ).when( emProvider ).get();
+        doReturn( 11L ).when( estimator ).estimateSize( lazyEm );
+
+        sut.beforeCommit();
+
+        verify( txn, never() ).begin();
+        assertThat( sut.getThresholdExceededCount(), is( 0L ) );
+    }
+
+    @Test
+    public void shouldNotFailIfThresholdNotExceeded()
+    {
+        final PersistenceContextGuard sut = createGuard( PersistenceContextSizeAction.FAIL );
+        doReturn( 10L ).when( estimator ).estimateSize( em );
+
+        sut.beforeCommit();
+
+        assertThat( sut.getLargestObservedSize(), is( 10L ) );
+        assertThat( sut.getThresholdExceededCount(), is( 0L ) );
+    }
+
+    @Test
+    public void shouldClearAfterOutermostTransaction()
+    {
+        final PersistenceContextGuard sut = createGuard( PersistenceContextSizeAction.CLEAR );
+        doReturn( 11L ).when( estimator ).estimateSize( em );
+        doReturn( false ).when( txn ).isActive();
+
+        sut.afterCommit();
+
+        verify( em ).clear();
+        assertThat( sut.getClearCount(), is( 1L ) );
+    }
+
+    @Test
+    public void shouldNotClearAfterNestedTransaction()
+    {
+        final PersistenceContextGuard sut = createGuard( PersistenceContextSizeAction.CLEAR );
+        doReturn( 11L ).when( estimator ).estimateSize( em );
+        doReturn( true ).when( txn ).isActive();
+
+        sut.afterCommit();
+
+        verify( em, never() ).clear();
+        assertThat( sut.getThresholdExceededCount(), is( 1L ) );
+    }
+
+    @Test
+    public void shouldOnlyCountWhenWarning()
+    {
+        final PersistenceContextGuard sut = createGuard( PersistenceContextSizeAction.WARN );
+        doReturn( 12L ).when( estimator ).estimateSize( em );
+
+        sut.afterCommit();
+
+        verify( em, never() ).clear();
+        assertThat( sut.getThresholdExceededCount(), is( 1L ) );
+        assertThat( sut.getLargestObservedSize(), is( 12L ) );
+    }
+
+    @Test
+    public void shouldIgnoreUnknownSize()
+    {
+        final PersistenceContextGuard sut = createGuard( PersistenceContextSizeAction.CLEAR );
+        doReturn( -1L ).when( estimator ).estimateSize( em );
+
+        sut.afterCommit();
+
+        verify( em, never() ).clear();
+        assertThat( sut.getThresholdExceededCount(), is( 0L ) );
+    }
+
+}
@@ -22,15 +22,29 @@ package org.apache.onami.persist;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 /**
@@ -50,7 +64,7 @@ public class PersistenceFilterImplTest
     {
         allPersistenceServices = mock( AllPersistenceServices.class );
         allUnitsOfWork = mock( AllUnitsOfWork.class );
-        sut = new PersistenceFilterImpl( allPersistenceServices, allUnitsOfWork );
+        sut = new PersistenceFilterImpl( allPersistenceServices, allUnitsOfWork, null );
     }
 
     @Test
@@ -115,4 +129,200 @@ public class PersistenceFilterImplTest
         }
     }
 
+    @Test
+    public void doFilterShouldRespondServiceUnavailableIfBulkheadRejects()
+        throws Exception
+    {
+        // given
+        final FilterChain chain = mock( FilterChain.class );
+        final ServletRequest request = mock( ServletRequest.class );
+        final HttpServletResponse response = mock( HttpServletResponse.class );
+
+        doThrow( new BulkheadRejectedException( 1, 0 ) ).when( allUnitsOfWork ).beginAllInactiveUnitsOfWork();
+
+        // when
+        sut.doFilter( request, response, chain );
+
+        // then
+        verify( chain, never() ).doFilter( request, response );
+        verify( response ).sendError( HttpServletResponse.SC_SERVICE_UNAVAILABLE );
+        verify( allUnitsOfWork ).endAllUnitsOfWork();
+    }
+
+    @Test
+    public void doFilterShouldRespondServiceUnavailableIfCircuitIsOpen()
+        throws Exception
+    {
+        // given
+        final FilterChain chain = mock( FilterChain.class );
+        final ServletRequest request = mock( ServletRequest.class );
+        final HttpServletResponse response = mock( HttpServletResponse.class );
+
+        doThrow( new CircuitBreakerOpenException( CircuitState.OPEN ) ).when( chain ).doFilter( request, response );
+
+        // when
+        sut.doFilter( request, response, chain );
+
+        // then
+        verify( response ).sendError( HttpServletResponse.SC_SERVICE_UNAVAILABLE );
+        verify( allUnitsOfWork ).endAllUnitsOfWork();
+    }
+
+    @Test( expected = BulkheadRejectedException.class )
+    public void doFilterShouldRethrowBulkheadRejectionIfResponseIsCommitted()
+        throws Exception
+    {
+        // given
+        final FilterChain chain = mock( FilterChain.class );
+        final ServletRequest request = mock( ServletRequest.class );
+        final HttpServletResponse response = mock( HttpServletResponse.class );
+
+        doReturn( true ).when( response ).isCommitted();
+        doThrow( new BulkheadRejectedException( 1, 0 ) ).when( chain ).doFilter( request, response );
+
+        // when
+        sut.doFilter( request, response, chain );
+    }
+
+    @Test
+    public void doFilterShouldPublishRequestTimings()
+        throws Exception
+    {
+        // given
+        final RequestTimingCollector collector = new RequestTimingCollector();
+        sut = new PersistenceFilterImpl( allPersistenceServices, allUnitsOfWork, collector );
+        final FilterChain chain = mock( FilterChain.class );
+        final ServletRequest request = mock( ServletRequest.class );
+        final HttpServletResponse response = mock( HttpServletResponse.class );
+        final PersistenceLifecycleContext uowContext = new PersistenceLifecycleContext( 0 );
+        uowContext.setSetupNanos( 2000000 );
+        uowContext.setAttachment( QueryCounts.class, new QueryCounts( 3, 1, 1, QueryCounts.UNKNOWN ) );
+        final PersistenceLifecycleContext txnContext = new PersistenceLifecycleContext( 1000000 );
+        txnContext.setCompletionStartNanos( 4000000 );
+        doAnswer( new Answer<Object>()
+        {
+            public Object answer( InvocationOnMock invocation )
+            {
+                collector.unitOfWorkBegun( new PersistenceLifecycleEvent( null, null, 0, uowContext ) );
+                return null;
+            }
+        } ).when( allUnitsOfWork ).beginAllInactiveUnitsOfWork();
+        doAnswer( new Answer<Object>()
+        {
+            public Object answer( InvocationOnMock invocation )
+            {
+                collector.transactionCommitted( new PersistenceLifecycleEvent( null, null, 5000000, txnContext ) );
+                return null;
+            }
+        } ).when( chain ).doFilter( eq( request ), any( ServletResponse.class ) );
+        doAnswer( new Answer<Object>()
+        {
+            public Object answer( InvocationOnMock invocation )
+            {
+                collector.unitOfWorkEnded( new PersistenceLifecycleEvent( null, null, 6000000, uowContext ) );
+                return null;
+            }
+        } ).when( allUnitsOfWork ).endAllUnitsOfWork();
+
+        // when
+        sut.doFilter( request, response, chain );
+
+        // then
+        verify( request ).setAttribute( eq( PersistenceFilter.REQUEST_TIMINGS_ATTRIBUTE ),
+                                        any( RequestTimings.class ) );
+        verify( response ).addHeader( "Server-Timing",
+                                      "default-setup;dur=2.000, default-uow;dur=6.000, "
+                                          + "default-txn;dur=4.000;desc=\"1 transactions, 0 rollbacks\", "
+                                          + "default-commit;dur=1.000, default-statements;desc=\"5\"" );
+    }
+
+    @Test
+    public void doFilterShouldNotAddServerTimingToCommittedResponse()
+        throws Exception
+    {
+        // given
+        final RequestTimingCollector collector = new RequestTimingCollector();
+        sut = new PersistenceFilterImpl( allPersistenceServices, allUnitsOfWork, collector );
+        final HttpServletResponse response = mock( HttpServletResponse.class );
+        doReturn( true ).when( response ).isCommitted();
+
+        // when
+        sut.doFilter( mock( ServletRequest.class ), response, mock( FilterChain.class ) );
+
+        // then
+        verify( response, never() ).addHeader( eq( "Server-Timing" ), anyString() );
+    }
+
+    @Test
+    public void doFilterShouldAddServerTimingBeforeResponseIsCommitted()
+        throws Exception
+    {
+        // given
+        final RequestTimingCollector collector = new RequestTimingCollector();
+        sut = new PersistenceFilterImpl( allPersistenceServices, allUnitsOfWork, collector );
+        final FilterChain chain = mock( FilterChain.class );
+        final HttpServletResponse response = mock( HttpServletResponse.class );
+        final AtomicBoolean committed = new AtomicBoolean();
+        final PersistenceLifecycleContext uowContext = new PersistenceLifecycleContext( 0 );
+        uowContext.setSetupNanos( 2000000 );
+        doAnswer( new Answer<Object>()
+        {
+            public Object answer( InvocationOnMock invocation )
+            {
+                collector.unitOfWorkBegun( new PersistenceLifecycleEvent( null, null, 0, uowContext ) );
+                return null;
+            }
+        } ).when( allUnitsOfWork ).beginAllInactiveUnitsOfWork();
+        doAnswer( new Answer<Object>()
+        {
+            public Object answer( InvocationOnMock invocation )
+            {
+                return committed.get();
+            }
+        } ).when( response ).isCommitted();
+        doAnswer( new Answer<Object>()
+        {
+            public Object answer( InvocationOnMock invocation )
+            {
+                committed.set( true );
+                return null;
+            }
+        } ).when( response ).flushBuffer();
+        doAnswer( new Answer<Object>()
+        {
+            public Object answer( InvocationOnMock invocation )
+                throws Throwable
+            {
+                ( (ServletResponse) invocation.getArguments()[1] ).flushBuffer();
+                return null;
+            }
+        } ).when( chain ).doFilter( any( ServletRequest.class ), any( ServletResponse.class ) );
+
+        // when
+        sut.doFilter( mock( ServletRequest.class ), response, chain );
+
+        // then
+        final InOrder inOrder = inOrder( response );
+        inOrder.verify( response ).addHeader( eq( "Server-Timing" ), startsWith( "default-setup;dur=2.000" ) );
+        inOrder.verify( response ).flushBuffer();
+        verify( response, times( 1 ) ).addHeader( eq( "Server-Timing" ), anyString() );
+    }
+
+    @Test
+    public void requestTimingsShouldFormatServerTimingHeader()
+    {
+        // given
+        final RequestTimings timings = new RequestTimings();
+        final UnitTimings unit = timings.unit( null );
+        unit.addSetup( 2000000 );
+        unit.addTransaction( 4000000, 1000000, false );
+        unit.addUnitOfWork( 6000000, new QueryCounts( 3, 1, 1, QueryCounts.UNKNOWN ) );
+
+        // then
+        assertThat( timings.toServerTimingHeader(),
+                    is( "default-setup;dur=2.000, default-uow;dur=6.000, "
+                            + "default-txn;dur=4.000;desc=\"1 transactions, 0 rollbacks\", default-commit;dur=1.000, "
+                            + "default-statements;desc=\"5\"" ) );
+    }
+
 }
@@ -0,0 +1,161 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Test for {@link PersistenceLifecycleNotifier}.
+ */
+public class PersistenceLifecycleNotifierTest
+{
+
+    private PersistenceLifecycleListeners listeners;
+
+    private PersistenceLifecycleListener listener;
+
+    private PersistenceLifecycleNotifier sut;
+
+    private ArgumentCaptor<PersistenceLifecycleEvent> event;
+
+    @Before
+    public void setUp()
+    {
+        listeners = new PersistenceLifecycleListeners( Collections.<PersistenceLifecycleListener>emptyList() );
+        listener = mock( PersistenceLifecycleListener.class );
+        sut = new PersistenceLifecycleNotifier( listeners, new AnnotationHolder( TestPersistenceUnit.class ) );
+        event = ArgumentCaptor.forClass( PersistenceLifecycleEvent.class );
+    }
+
+    @Test
+    public void shouldBeDisabledWithoutListeners()
+    {
+        assertThat( sut.isEnabled(), is( false ) );
+        assertThat( sut.unitOfWorkBegun( System.nanoTime() ), is( nullValue() ) );
+        assertThat( sut.transactionBegun(), is( nullValue() ) );
+    }
+
+    @Test
+    public void shouldShareContextFromBeginToEnd()
+    {
+        listeners.addListener( listener );
+
+        final PersistenceLifecycleContext context = sut.transactionBegun();
+        context.setAttachment( "span", "4711" );
+        sut.transactionCommitted( context );
+
+        verify( listener ).transactionCommitted( event.capture() );
+        assertThat( event.getValue().getContext(), sameInstance( context ) );
+        assertThat( event.getValue().getContext().getAttachment( "span" ), is( (Object) "4711" ) );
+        assertThat( event.getValue().getElapsedNanos() >= 0, is( true ) );
+        assertThat( event.getValue().getUnitAnnotation(), is( (Object) TestPersistenceUnit.class ) );
+    }
+
+    @Test
+    public void shouldReportBoundMethod()
+        throws Exception
+    {
+        listeners.addListener( listener );
+        final Method method = Object.class.getMethod( "toString" );
+
+        final Method previous = sut.bindMethod( method );
+        sut.transactionMarkedRollbackOnly();
+        sut.restoreMethod( previous );
+        sut.persistenceServiceStarted();
+
+        verify( listener ).transactionMarkedRollbackOnly( event.capture() );
+        assertThat( event.getValue().getMethod(), is( method ) );
+        verify( listener ).persistenceServiceStarted( event.capture() );
+        assertThat( event.getValue().getMethod(), is( nullValue() ) );
+        assertThat( event.getValue().getContext(), is( nullValue() ) );
+    }
+
+    @Test
+    public void shouldReportSetupAndCompletionTimes()
+    {
+        listeners.addListener( listener );
+        final ArgumentCaptor<PersistenceLifecycleEvent> event =
+            ArgumentCaptor.forClass( PersistenceLifecycleEvent.class );
+
+        sut.unitOfWorkBegun( System.nanoTime() - 1000000 );
+        final PersistenceLifecycleContext context = sut.transactionBegun();
+        sut.transactionCompleting( context );
+        sut.transactionCommitted( context );
+
+        verify( listener ).unitOfWorkBegun( event.capture() );
+        assertThat( event.getValue().getSetupNanos() >= 1000000, is( true ) );
+        verify( listener ).transactionCommitted( event.capture() );
+        assertThat( event.getValue().getCompletionNanos() >= 0, is( true ) );
+        assertThat( event.getValue().getCompletionNanos() <= event.getValue().getElapsedNanos(), is( true ) );
+    }
+
+    @Test
+    public void shouldNotReportEndIfBegunWithoutListeners()
+    {
+        final PersistenceLifecycleContext context = sut.unitOfWorkBegun( System.nanoTime() );
+        listeners.addListener( listener );
+
+        sut.unitOfWorkEnded( context );
+
+        verify( listener, never() ).unitOfWorkEnded( any( PersistenceLifecycleEvent.class ) );
+    }
+
+    @Test
+    public void shouldNotifyRemainingListenersIfListenerFails()
+    {
+        final PersistenceLifecycleListener failing = mock( PersistenceLifecycleListener.class );
+        doThrow( new RuntimeException() ).when( failing ).persistenceServiceStopped(
+            any( PersistenceLifecycleEvent.class ) );
+        listeners.addListener( failing );
+        listeners.addListener( listener );
+
+        sut.persistenceServiceStopped();
+
+        verify( listener ).persistenceServiceStopped( any( PersistenceLifecycleEvent.class ) );
+    }
+
+    @Test
+    public void shouldNotNotifyRemovedListener()
+    {
+        listeners.addListener( listener );
+        listeners.removeListener( listener );
+
+        sut.persistenceServiceStarted();
+
+        verify( listener, never() ).persistenceServiceStarted( any( PersistenceLifecycleEvent.class ) );
+        assertThat( sut.isEnabled(), is( false ) );
+    }
+
+}
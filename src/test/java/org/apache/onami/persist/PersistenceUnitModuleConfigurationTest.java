@@ -28,9 +28,11 @@ import javax.inject.Provider;
 import javax.persistence.EntityManagerFactory;
 import javax.transaction.UserTransaction;
 import java.lang.annotation.Annotation;
+import java.util.Arrays;
 import java.util.Properties;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.mock;
@@ -155,6 +157,224 @@ public class PersistenceUnitModuleConfigurationTest
         assertThat( sut.getProperties(), sameInstance( properties ) );
     }
 
+    @Test
+    public void shouldHandlePersistenceContextSizeLimit()
+    {
+        // given
+        final PersistenceContextSizeEstimator estimator = mock( PersistenceContextSizeEstimator.class );
+        // when
+        sut.limitPersistenceContextSize( 100, PersistenceContextSizeAction.CLEAR, estimator );
+        // then
+        assertThat( sut.getPersistenceContextSizeLimit().getThreshold(), is( 100L ) );
+        assertThat( sut.getPersistenceContextSizeLimit().getAction(), is( PersistenceContextSizeAction.CLEAR ) );
+        assertThat( sut.getPersistenceContextSizeLimit().getEstimator(), sameInstance( estimator ) );
+    }
+
+    @Test
+    public void shouldHandleEntityManagerReuse()
+    {
+        // when
+        sut.reuseEntityManagers( 100, 5000 );
+        // then
+        assertThat( sut.getEntityManagerReuse().getMaxUses(), is( 100 ) );
+        assertThat( sut.getEntityManagerReuse().getMaxAgeMillis(), is( 5000L ) );
+    }
+
+    @Test
+    public void shouldHandleLazyTransactionBegin()
+    {
+        // when
+        sut.beginTransactionsLazily();
+        // then
+        assertThat( sut.getLazyTransactionBegin(), is( notNullValue() ) );
+    }
+
+    @Test
+    public void shouldHandleSlowTransactionDetection()
+    {
+        // given
+        final SlowTransactionSink sink = new LoggingSlowTransactionSink();
+        // when
+        sut.detectSlowTransactions( 250, sink, true );
+        // then
+        assertThat( sut.getSlowTransactionConfiguration().getThresholdMillis(), is( 250L ) );
+        assertThat( sut.getSlowTransactionConfiguration().getSink(), sameInstance( sink ) );
+        assertThat( sut.getSlowTransactionConfiguration().isCaptureStackTrace(), is( true ) );
+    }
+
+    @Test
+    public void shouldHandleMethodProfiling()
+    {
+        // when
+        sut.profileTransactionalMethods( true );
+        // then
+        assertThat( sut.getMethodProfilingConfiguration().isRegisterMBean(), is( true ) );
+    }
+
+    @Test
+    public void shouldHandleProviderStatistics()
+    {
+        // when
+        sut.bridgeProviderStatistics( true );
+        // then
+        assertThat( sut.getProviderStatisticsConfiguration().isRegisterMBean(), is( true ) );
+    }
+
+    @Test
+    public void shouldHandleWarmUp()
+    {
+        // when
+        sut.warmUp( 4, 2, Arrays.asList( "TestEntity.all" ), Arrays.asList( "SELECT 1" ) );
+        // then
+        assertThat( sut.getWarmUpConfiguration().getEntityManagerCount(), is( 4 ) );
+        assertThat( sut.getWarmUpConfiguration().getParallelism(), is( 2 ) );
+        assertThat( sut.getWarmUpConfiguration().getNamedQueries(), is( Arrays.asList( "TestEntity.all" ) ) );
+        assertThat( sut.getWarmUpConfiguration().getStatements(), is( Arrays.asList( "SELECT 1" ) ) );
+    }
+
+    @Test
+    public void shouldHandleCircuitBreaker()
+    {
+        // when
+        sut.useCircuitBreaker( "SELECT 1", 1000, 3, 5000 );
+        // then
+        assertThat( sut.getCircuitBreakerConfiguration().getValidationQuery(), is( "SELECT 1" ) );
+        assertThat( sut.getCircuitBreakerConfiguration().getHealthTtlNanos(), is( 1000000000L ) );
+        assertThat( sut.getCircuitBreakerConfiguration().getFailureThreshold(), is( 3 ) );
+        assertThat( sut.getCircuitBreakerConfiguration().getProbeIntervalNanos(), is( 5000000000L ) );
+    }
+
+    @Test
+    public void shouldHandleQueryCounting()
+    {
+        // given
+        final SqlStatementCounter statementCounter = mock( SqlStatementCounter.class );
+        // when
+        sut.countQueries( 5, true, statementCounter );
+        // then
+        assertThat( sut.getQueryCountConfiguration().getRepeatedQueryThreshold(), is( 5 ) );
+        assertThat( sut.getQueryCountConfiguration().isFailOnBudgetExceeded(), is( true ) );
+        assertThat( sut.getQueryCountConfiguration().getStatementCounter(), is( statementCounter ) );
+    }
+
+    @Test
+    public void shouldCountStatementsOfHibernateByDefault()
+    {
+        // when
+        sut.countQueries( 5, false );
+        // then
+        assertThat( sut.getQueryCountConfiguration().getStatementCounter() instanceof HibernateStatementCounter,
+                    is( true ) );
+    }
+
+    @Test
+    public void shouldHandleLeakDetection()
+    {
+        // when
+        sut.detectLeakedUnitsOfWork( 30000, true, false );
+        // then
+        assertThat( sut.getLeakDetectionConfiguration().getIdleThresholdMillis(), is( 30000L ) );
+        assertThat( sut.getLeakDetectionConfiguration().isCaptureCreationStack(), is( true ) );
+        assertThat( sut.getLeakDetectionConfiguration().isCloseLeaked(), is( false ) );
+    }
+
+    @Test
+    public void shouldHandleAsyncExecutor()
+    {
+        // when
+        sut.useAsyncExecutor( 4, 100 );
+        // then
+        assertThat( sut.getAsyncExecutorConfiguration().getThreads(), is( 4 ) );
+        assertThat( sut.getAsyncExecutorConfiguration().getQueueCapacity(), is( 100 ) );
+    }
+
+    @Test
+    public void shouldHandleConcurrentUnitsOfWorkLimit()
+    {
+        // when
+        sut.limitConcurrentUnitsOfWork( 10, 500, true );
+        // then
+        assertThat( sut.getBulkheadConfiguration().getMaxConcurrent(), is( 10 ) );
+        assertThat( sut.getBulkheadConfiguration().getAcquireTimeoutMillis(), is( 500L ) );
+        assertThat( sut.getBulkheadConfiguration().isFair(), is( true ) );
+    }
+
+    @Test
+    public void shouldHandlePriorityLanes()
+    {
+        // when
+        sut.configurePriorityLane( TransactionPriority.INTERACTIVE, 5, 100 );
+        sut.configurePriorityLane( TransactionPriority.BATCH, 2, 50 );
+        // then
+        final PriorityLaneConfiguration lanes = sut.getPriorityLaneConfiguration();
+        assertThat( lanes.getReservedPermits( TransactionPriority.INTERACTIVE ), is( 5 ) );
+        assertThat( lanes.getMaxSharePercent( TransactionPriority.BATCH ), is( 50 ) );
+        assertThat( lanes.getTotalReservedPermits(), is( 7 ) );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void shouldRejectNonPositiveConcurrentUnitsOfWorkLimit()
+    {
+        sut.limitConcurrentUnitsOfWork( 0, 500, false );
+    }
+
+    @Test
+    public void shouldHandleReadReplicas()
+    {
+        // given
+        final Properties replica1 = new Properties();
+        final Properties replica2 = new Properties();
+        // when
+        sut.useReadReplicas( ReplicaSelection.LEAST_BUSY, 200, replica1, replica2 );
+        // then
+        final ReadReplicaConfiguration replicas = sut.getReadReplicaConfiguration();
+        assertThat( replicas.getSelection(), is( ReplicaSelection.LEAST_BUSY ) );
+        assertThat( replicas.getReadYourWritesWindowNanos(), is( 200L * 1000L * 1000L ) );
+        assertThat( replicas.getReplicaProperties().size(), is( 2 ) );
+        assertThat( replicas.getReplicaProperties().get( 0 ), sameInstance( replica1 ) );
+        assertThat( replicas.getReplicaProperties().get( 1 ), sameInstance( replica2 ) );
+    }
+
+    @Test
+    public void shouldHandleShards()
+    {
+        // given
+        final ShardResolver resolver = mock( ShardResolver.class );
+        final Properties shard1 = new Properties();
+        final Properties shard2 = new Properties();
+        // when
+        sut.useShards( resolver, shard1, shard2 );
+        // then
+        final ShardConfiguration shards = sut.getShardConfiguration();
+        assertThat( shards.getResolver(), sameInstance( resolver ) );
+        assertThat( shards.getShardProperties().size(), is( 2 ) );
+        assertThat( shards.getShardProperties().get( 0 ), sameInstance( shard1 ) );
+        assertThat( shards.getShardProperties().get( 1 ), sameInstance( shard2 ) );
+    }
+
+    @Test
+    public void shouldHandleTenants()
+    {
+        // given
+        final TenantPropertiesResolver resolver = mock( TenantPropertiesResolver.class );
+        // when
+        sut.useTenants( resolver, 100, 60000 );
+        // then
+        final TenantConfiguration tenants = sut.getTenantConfiguration();
+        assertThat( tenants.getResolver(), sameInstance( resolver ) );
+        assertThat( tenants.getMaxTenants(), is( 100 ) );
+        assertThat( tenants.getMaxIdleNanos(), is( 60000L * 1000L * 1000L ) );
+    }
+
+    @Test
+    public void shouldUseConsistentHashingForShardsByDefault()
+    {
+        // when
+        sut.useShards( new Properties() );
+        // then
+        assertThat( sut.getShardConfiguration().getResolver() instanceof ConsistentHashShardResolver, is( true ) );
+    }
+
     @Test
     public void shouldHandlePuName()
     {
@@ -0,0 +1,161 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceException;
+import javax.persistence.Query;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+/**
+ * Test for {@link PersistenceUnitWarmUp}.
+ */
+public class PersistenceUnitWarmUpTest
+{
+
+    private static final List<String> NAMED_QUERIES = Arrays.asList( "TestEntity.all" );
+
+    private static final List<String> STATEMENTS = Arrays.asList( "SELECT 1" );
+
+    private EntityManagerFactory emf;
+
+    private EntityManager em1;
+
+    private EntityManager em2;
+
+    private Query query;
+
+    @Before
+    public void setUp()
+    {
+        emf = mock( EntityManagerFactory.class );
+        em1 = mock( EntityManager.class );
+        em2 = mock( EntityManager.class );
+        query = mock( Query.class );
+
+        final Metamodel metamodel = mock( Metamodel.class );
+        doReturn( metamodel ).when( emf ).getMetamodel();
+        doReturn( Collections.<EntityType<?>>emptySet() ).when( metamodel ).getEntities();
+        doReturn( em1 ).doReturn( em2 ).when( emf ).createEntityManager();
+        doReturn( query ).when( em1 ).createNativeQuery( anyString() );
+        doReturn( query ).when( em2 ).createNativeQuery( anyString() );
+    }
+
+    @Test
+    public void shouldDoNothingIfDisabled()
+    {
+        new PersistenceUnitWarmUp( null ).warmUp( emf );
+
+        verifyZeroInteractions( emf );
+    }
+
+    @Test
+    public void shouldWarmUpEntityManagers()
+    {
+        new PersistenceUnitWarmUp( new WarmUpConfiguration( 2, 1, NAMED_QUERIES, STATEMENTS ) ).warmUp( emf );
+
+        verify( emf ).getMetamodel();
+        verify( emf, times( 2 ) ).createEntityManager();
+        verify( em1 ).createNamedQuery( "TestEntity.all" );
+        verify( em2, never() ).createNamedQuery( anyString() );
+        verify( em1 ).createNativeQuery( "SELECT 1" );
+        verify( em2 ).createNativeQuery( "SELECT 1" );
+        verify( query, times( 2 ) ).getResultList();
+        verify( em1 ).close();
+        verify( em2 ).close();
+    }
+
+    @Test
+    public void shouldWarmUpEntityManagersInParallel()
+    {
+        new PersistenceUnitWarmUp( new WarmUpConfiguration( 2, 2, NAMED_QUERIES, STATEMENTS ) ).warmUp( emf );
+
+        verify( em1 ).createNativeQuery( "SELECT 1" );
+        verify( em2 ).createNativeQuery( "SELECT 1" );
+        verify( query, times( 2 ) ).getResultList();
+        verify( em1 ).close();
+        verify( em2 ).close();
+    }
+
+    @Test
+    public void shouldFailAndCloseEntityManagersIfWarmUpFails()
+    {
+        doThrow( new IllegalArgumentException() ).when( em1 ).createNamedQuery( anyString() );
+
+        try
+        {
+            new PersistenceUnitWarmUp( new WarmUpConfiguration( 2, 1, NAMED_QUERIES, STATEMENTS ) ).warmUp( emf );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            verify( query, never() ).getResultList();
+            verify( em1 ).close();
+            verify( em2 ).close();
+            return;
+        }
+        fail( "expected IllegalArgumentException to be thrown" );
+    }
+
+    @Test
+    public void shouldFailIfStatementFailsInParallel()
+    {
+        final Query failing = mock( Query.class );
+        doThrow( new PersistenceException() ).when( failing ).getResultList();
+        doReturn( failing ).when( em2 ).createNativeQuery( anyString() );
+
+        try
+        {
+            new PersistenceUnitWarmUp( new WarmUpConfiguration( 2, 2, NAMED_QUERIES, STATEMENTS ) ).warmUp( emf );
+        }
+        catch ( PersistenceException e )
+        {
+            verify( query ).getResultList();
+            verify( em1 ).close();
+            verify( em2 ).close();
+            return;
+        }
+        fail( "expected PersistenceException to be thrown" );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void entityManagerCountMustBePositive()
+    {
+        new WarmUpConfiguration( 0, 1, NAMED_QUERIES, STATEMENTS );
+    }
+
+}
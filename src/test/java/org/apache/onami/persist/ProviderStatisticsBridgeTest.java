@@ -0,0 +1,151 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.onami.persist.test.TestEntity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.lang.management.ManagementFactory;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Test for {@link ProviderStatisticsBridge}.
+ */
+public class ProviderStatisticsBridgeTest
+{
+
+    private EntityManagerFactory emf;
+
+    private ProviderStatisticsBridge sut;
+
+    @Before
+    public void setUp()
+    {
+        emf = Persistence.createEntityManagerFactory( "testUnit" );
+        sut = new ProviderStatisticsBridge( new ProviderStatisticsConfiguration( false ),
+                                            new AnnotationHolder( null ) );
+    }
+
+    @After
+    public void tearDown()
+    {
+        sut.stop();
+        emf.close();
+    }
+
+    @Test
+    public void shouldBridgeHibernateStatistics()
+    {
+        sut.start( emf );
+        final EntityManager em = emf.createEntityManager();
+        try
+        {
+            em.getTransaction().begin();
+            em.persist( new TestEntity() );
+            em.flush();
+            em.createQuery( "SELECT e FROM TestEntity e" ).getResultList();
+            em.getTransaction().rollback();
+        }
+        finally
+        {
+            em.close();
+        }
+
+        assertThat( sut.isAvailable(), is( true ) );
+        assertThat( sut.getQueryExecutionCount(), is( 1L ) );
+        assertThat( sut.getPrepareStatementCount() > 0, is( true ) );
+        assertThat( sut.getConnectCount() > 0, is( true ) );
+    }
+
+    @Test
+    public void shouldClearHibernateStatistics()
+    {
+        sut.start( emf );
+        final EntityManager em = emf.createEntityManager();
+        try
+        {
+            em.createQuery( "SELECT e FROM TestEntity e" ).getResultList();
+        }
+        finally
+        {
+            em.close();
+        }
+
+        sut.clear();
+
+        assertThat( sut.getQueryExecutionCount(), is( 0L ) );
+    }
+
+    @Test
+    public void shouldNotBeAvailableForOtherProviders()
+    {
+        sut.start( mock( EntityManagerFactory.class ) );
+
+        assertThat( sut.isAvailable(), is( false ) );
+        assertThat( sut.getQueryExecutionCount(), is( -1L ) );
+        assertThat( sut.getSecondLevelCacheHitRatio(), is( -1.0 ) );
+        assertThat( sut.getQueryExecutionMaxTimeQueryString(), is( (String) null ) );
+    }
+
+    @Test
+    public void shouldNotBeAvailableIfDisabled()
+    {
+        sut = new ProviderStatisticsBridge( null, new AnnotationHolder( null ) );
+
+        sut.start( emf );
+
+        assertThat( sut.isAvailable(), is( false ) );
+    }
+
+    @Test
+    public void shouldNotBeAvailableAfterStop()
+    {
+        sut.start( emf );
+
+        sut.stop();
+
+        assertThat( sut.isAvailable(), is( false ) );
+    }
+
+    @Test
+    public void shouldRegisterAndUnregisterMBean()
+        throws Exception
+    {
+        sut = new ProviderStatisticsBridge( new ProviderStatisticsConfiguration( true ),
+                                            new AnnotationHolder( null ) );
+
+        sut.start( emf );
+        assertThat( ManagementFactory.getPlatformMBeanServer().isRegistered( ProviderStatisticsBridge.objectName(
+            null ) ), is( true ) );
+
+        sut.stop();
+        assertThat( ManagementFactory.getPlatformMBeanServer().isRegistered( ProviderStatisticsBridge.objectName(
+            null ) ), is( false ) );
+    }
+
+}
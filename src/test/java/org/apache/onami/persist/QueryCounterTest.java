@@ -0,0 +1,225 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.lang.reflect.Method;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Test for {@link QueryCounter}.
+ */
+public class QueryCounterTest
+{
+
+    private static final String JPQL = "SELECT e FROM Entity e WHERE e.parent = :parent";
+
+    private EntityManager em;
+
+    private TypedQuery<Object> query;
+
+    private Method method;
+
+    private QueryCounter sut;
+
+    @Before
+    @SuppressWarnings( "unchecked" )
+    public void setUp()
+        throws Exception
+    {
+        em = mock( EntityManager.class );
+        query = mock( TypedQuery.class );
+        doReturn( query ).when( em ).createQuery( JPQL, Object.class );
+        doReturn( query ).when( query ).setParameter( "parent", 1 );
+        doReturn( Collections.emptyList() ).when( query ).getResultList();
+        method = Object.class.getMethod( "toString" );
+        sut = new QueryCounter( new QueryCountConfiguration( 3, true, null ) );
+    }
+
+    @After
+    public void tearDown()
+    {
+        sut.unitOfWorkEnded();
+    }
+
+    private void executeQuery( EntityManager counted )
+    {
+        counted.createQuery( JPQL, Object.class ).setParameter( "parent", 1 ).getResultList();
+    }
+
+    @Test
+    public void disabledCounterShouldNotWrap()
+    {
+        final QueryCounter disabled = new QueryCounter( null );
+
+        assertThat( disabled.wrap( em ), is( sameInstance( em ) ) );
+        assertThat( disabled.enterMethod( method, 1 ), is( sameInstance( QueryCounter.DISABLED ) ) );
+    }
+
+    @Test
+    public void countQueriesFindsAndFlushes()
+    {
+        final EntityManager counted = sut.wrap( em );
+
+        executeQuery( counted );
+        counted.find( Object.class, 1 );
+        counted.flush();
+
+        final QueryCounts counts = sut.getUnitOfWorkCounts();
+        assertThat( counts.getQueryCount(), is( 1L ) );
+        assertThat( counts.getFindCount(), is( 1L ) );
+        assertThat( counts.getFlushCount(), is( 1L ) );
+        assertThat( counts.getStatementCount(), is( QueryCounts.UNKNOWN ) );
+        assertThat( counts.getBudgetedCount(), is( 3L ) );
+        verify( query ).getResultList();
+    }
+
+    @Test
+    public void noCountsAfterUnitOfWorkEnded()
+    {
+        sut.wrap( em );
+
+        sut.unitOfWorkEnded();
+
+        assertThat( sut.getUnitOfWorkCounts(), is( (QueryCounts) null ) );
+    }
+
+    @Test
+    public void reportQueryReachingThresholdOnce()
+    {
+        final EntityManager counted = sut.wrap( em );
+
+        for ( int i = 0; i < 5; i++ )
+        {
+            executeQuery( counted );
+        }
+
+        assertThat( sut.getRepeatedQueryCount(), is( 1L ) );
+    }
+
+    @Test
+    public void reportRepeatedFinds()
+    {
+        final EntityManager counted = sut.wrap( em );
+
+        for ( int i = 0; i < 3; i++ )
+        {
+            counted.find( Object.class, i );
+        }
+
+        assertThat( sut.getRepeatedQueryCount(), is( 1L ) );
+    }
+
+    @Test
+    public void countSqlStatements()
+    {
+        final SqlStatementCounter statementCounter = mock( SqlStatementCounter.class );
+        doReturn( 10L ).when( statementCounter ).countStatements( em );
+        sut = new QueryCounter( new QueryCountConfiguration( 3, true, statementCounter ) );
+        sut.wrap( em );
+
+        doReturn( 14L ).when( statementCounter ).countStatements( em );
+
+        assertThat( sut.getUnitOfWorkCounts().getStatementCount(), is( 4L ) );
+        assertThat( sut.getUnitOfWorkCounts().getBudgetedCount(), is( 4L ) );
+    }
+
+    @Test
+    public void recordLargestCountsOfMethod()
+    {
+        final EntityManager counted = sut.wrap( em );
+
+        final QueryCounter.Mark first = sut.enterMethod( method, -1 );
+        executeQuery( counted );
+        executeQuery( counted );
+        sut.exitMethod( first, true );
+        final QueryCounter.Mark second = sut.enterMethod( method, -1 );
+        executeQuery( counted );
+        sut.exitMethod( second, true );
+
+        assertThat( sut.getLargestCountsByMethod().get( method ).getQueryCount(), is( 2L ) );
+    }
+
+    @Test
+    public void failMethodExceedingBudget()
+    {
+        final EntityManager counted = sut.wrap( em );
+        executeQuery( counted );
+
+        final QueryCounter.Mark mark = sut.enterMethod( method, 1 );
+        executeQuery( counted );
+        executeQuery( counted );
+        try
+        {
+            sut.exitMethod( mark, true );
+            fail( "expected StatementBudgetExceededException to be thrown" );
+        }
+        catch ( StatementBudgetExceededException e )
+        {
+            assertThat( e.getStatementCount(), is( 2L ) );
+        }
+        assertThat( sut.getBudgetExceededCount(), is( 1L ) );
+    }
+
+    @Test
+    public void notCheckBudgetOfFailedMethod()
+    {
+        final EntityManager counted = sut.wrap( em );
+
+        final QueryCounter.Mark mark = sut.enterMethod( method, 0 );
+        executeQuery( counted );
+        sut.exitMethod( mark, false );
+
+        assertThat( sut.getBudgetExceededCount(), is( 0L ) );
+    }
+
+    @Test
+    public void onlyLogExceededBudgetIfNotFailing()
+    {
+        sut = new QueryCounter( new QueryCountConfiguration( 3, false, null ) );
+        final EntityManager counted = sut.wrap( em );
+
+        final QueryCounter.Mark mark = sut.enterMethod( method, 0 );
+        executeQuery( counted );
+        sut.exitMethod( mark, true );
+
+        assertThat( sut.getBudgetExceededCount(), is( 1L ) );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void thresholdMustBeAtLeastTwo()
+    {
+        new QueryCountConfiguration( 1, true, null );
+    }
+
+}
@@ -0,0 +1,275 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.Properties;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Test for {@link ReadReplicaRouter}.
+ */
+public class ReadReplicaRouterTest
+{
+
+    private EntityManagerFactoryFactory emfFactory;
+
+    private Properties replicaProperties1;
+
+    private Properties replicaProperties2;
+
+    private EntityManagerFactory replica1;
+
+    private EntityManagerFactory replica2;
+
+    @Before
+    public void setUp()
+    {
+        emfFactory = mock( EntityManagerFactoryFactory.class );
+        replicaProperties1 = new Properties();
+        replicaProperties1.setProperty( "replica", "1" );
+        replicaProperties2 = new Properties();
+        replicaProperties2.setProperty( "replica", "2" );
+        replica1 = mock( EntityManagerFactory.class );
+        replica2 = mock( EntityManagerFactory.class );
+        doReturn( replica1 ).when( emfFactory ).createApplicationManagedEntityManagerFactory( replicaProperties1 );
+        doReturn( replica2 ).when( emfFactory ).createApplicationManagedEntityManagerFactory( replicaProperties2 );
+    }
+
+    private ReadReplicaRouter startedRouter( ReplicaSelection selection, long readYourWritesWindowMillis )
+    {
+        final ReadReplicaRouter router = new ReadReplicaRouter(
+            new ReadReplicaConfiguration( selection, readYourWritesWindowMillis, replicaProperties1,
+                                          replicaProperties2 ) );
+        router.start( emfFactory );
+        return router;
+    }
+
+    @Test
+    public void shouldUsePrimaryWithoutReplicas()
+    {
+        final ReadReplicaRouter sut = new ReadReplicaRouter( null );
+        sut.start( emfFactory );
+
+        assertThat( sut.acquireReplica(), is( nullValue() ) );
+        assertThat( sut.isUsingReplica(), is( false ) );
+    }
+
+    @Test
+    public void shouldUsePrimaryWhenNotStarted()
+    {
+        final ReadReplicaRouter sut = new ReadReplicaRouter(
+            new ReadReplicaConfiguration( ReplicaSelection.ROUND_ROBIN, 0, replicaProperties1 ) );
+
+        assertThat( sut.acquireReplica(), is( nullValue() ) );
+    }
+
+    @Test
+    public void shouldSelectReplicasRoundRobin()
+    {
+        final ReadReplicaRouter sut = startedRouter( ReplicaSelection.ROUND_ROBIN, 0 );
+
+        final EntityManagerFactory first = sut.acquireReplica();
+        assertThat( sut.isUsingReplica(), is( true ) );
+        sut.release();
+        assertThat( sut.isUsingReplica(), is( false ) );
+        final EntityManagerFactory second = sut.acquireReplica();
+        sut.release();
+        final EntityManagerFactory third = sut.acquireReplica();
+        sut.release();
+
+        assertThat( first, sameInstance( replica1 ) );
+        assertThat( second, sameInstance( replica2 ) );
+        assertThat( third, sameInstance( replica1 ) );
+    }
+
+    @Test
+    public void shouldSelectLeastBusyReplica()
+        throws Exception
+    {
+        final ReadReplicaRouter sut = startedRouter( ReplicaSelection.LEAST_BUSY, 0 );
+
+        // keep a unit of work on replica 1 open in another thread
+        final Thread busy = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                sut.acquireReplica();
+            }
+        };
+        busy.start();
+        busy.join();
+
+        assertThat( sut.acquireReplica(), sameInstance( replica2 ) );
+        sut.release();
+        assertThat( sut.acquireReplica(), sameInstance( replica2 ) );
+        sut.release();
+    }
+
+    @Test
+    public void shouldUsePrimaryWithinReadYourWritesWindow()
+    {
+        final ReadReplicaRouter sut = startedRouter( ReplicaSelection.ROUND_ROBIN, 60000 );
+
+        sut.recordWrite();
+
+        assertThat( sut.acquireReplica(), is( nullValue() ) );
+        assertThat( sut.isUsingReplica(), is( false ) );
+    }
+
+    @Test
+    public void shouldUsePrimaryForSessionWithinReadYourWritesWindowOnOtherThread()
+        throws Exception
+    {
+        final ReadReplicaRouter sut = startedRouter( ReplicaSelection.ROUND_ROBIN, 60000 );
+
+        // write in another (pooled) thread on behalf of the same session
+        final Thread writer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                sut.setSessionKey( "session" );
+                sut.recordWrite();
+                sut.clearSessionKey();
+            }
+        };
+        writer.start();
+        writer.join();
+
+        sut.setSessionKey( "session" );
+        assertThat( sut.acquireReplica(), is( nullValue() ) );
+        sut.clearSessionKey();
+    }
+
+    @Test
+    public void shouldUseReplicaForOtherSessionWithinReadYourWritesWindow()
+    {
+        final ReadReplicaRouter sut = startedRouter( ReplicaSelection.ROUND_ROBIN, 60000 );
+
+        sut.setSessionKey( "writer" );
+        sut.recordWrite();
+        sut.setSessionKey( "reader" );
+
+        assertThat( sut.acquireReplica(), sameInstance( replica1 ) );
+        sut.release();
+        sut.clearSessionKey();
+        assertThat( sut.acquireReplica(), sameInstance( replica2 ) );
+    }
+
+    @Test
+    public void shouldPurgeExpiredSessions()
+        throws Exception
+    {
+        final ReadReplicaRouter sut = startedRouter( ReplicaSelection.ROUND_ROBIN, 1 );
+
+        sut.setSessionKey( "first" );
+        sut.recordWrite();
+        Thread.sleep( 10 );
+        sut.setSessionKey( "second" );
+        sut.recordWrite();
+        sut.clearSessionKey();
+
+        assertThat( sut.getTrackedSessionCount(), is( 1 ) );
+    }
+
+    @Test( expected = NullPointerException.class )
+    public void sessionKeyIsMandatory()
+    {
+        new ReadReplicaRouter( null ).setSessionKey( null );
+    }
+
+    @Test
+    public void shouldUseReplicaAfterWriteWithoutReadYourWritesWindow()
+    {
+        final ReadReplicaRouter sut = startedRouter( ReplicaSelection.ROUND_ROBIN, 0 );
+
+        sut.recordWrite();
+
+        assertThat( sut.acquireReplica(), sameInstance( replica1 ) );
+    }
+
+    @Test
+    public void shouldCloseReplicasWhenStopping()
+    {
+        final ReadReplicaRouter sut = startedRouter( ReplicaSelection.ROUND_ROBIN, 0 );
+
+        sut.stop();
+
+        verify( replica1 ).close();
+        verify( replica2 ).close();
+        assertThat( sut.acquireReplica(), is( nullValue() ) );
+    }
+
+    @Test
+    public void shouldCloseCreatedReplicasIfStartingFails()
+    {
+        final RuntimeException exc = new RuntimeException();
+        doThrow( exc ).when( emfFactory ).createApplicationManagedEntityManagerFactory( replicaProperties2 );
+
+        try
+        {
+            startedRouter( ReplicaSelection.ROUND_ROBIN, 0 );
+        }
+        catch ( RuntimeException e )
+        {
+            assertThat( e, sameInstance( exc ) );
+            verify( replica1 ).close();
+            return;
+        }
+        fail( "expected RuntimeException to be thrown" );
+    }
+
+    @Test
+    public void releaseWithoutReplicaShouldDoNothing()
+    {
+        final ReadReplicaRouter sut = startedRouter( ReplicaSelection.ROUND_ROBIN, 0 );
+
+        sut.release();
+
+        assertThat( sut.isUsingReplica(), is( false ) );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void atLeastOneReplicaIsRequired()
+    {
+        new ReadReplicaConfiguration( ReplicaSelection.ROUND_ROBIN, 0 );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void readYourWritesWindowMustNotBeNegative()
+    {
+        new ReadReplicaConfiguration( ReplicaSelection.ROUND_ROBIN, -1, replicaProperties1 );
+    }
+
+}
@@ -23,11 +23,21 @@ import de.bechte.junit.runners.context.HierarchicalContextRunner;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityTransaction;
-
+import javax.persistence.RollbackException;
+import java.sql.Connection;
+import java.sql.Savepoint;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
@@ -47,14 +57,17 @@ public class ResourceLocalTransactionFacadeProviderTest
 
     private EntityTransaction txn;
 
+    private PersistenceLifecycleNotifier lifecycleNotifier;
+
     @Before
     public void setUp()
     {
         // input
         emProvider = mock( EntityManagerProvider.class );
+        lifecycleNotifier = mock( PersistenceLifecycleNotifier.class );
 
         // subject under test
-        sut = new ResourceLocalTransactionFacadeFactory( emProvider );
+        sut = new ResourceLocalTransactionFacadeFactory( emProvider, lifecycleNotifier );
 
         // environment
         em = mock( EntityManager.class );
@@ -73,7 +86,14 @@ public class ResourceLocalTransactionFacadeProviderTest
         public void setUp()
         {
             doReturn( true ).when( txn ).isActive();
-            sut = ResourceLocalTransactionFacadeProviderTest.this.sut.createTransactionFacade();
+            sut = ResourceLocalTransactionFacadeProviderTest.this.sut.createTransactionFacade(
+                NestedTransactionMode.JOIN );
+        }
+
+        @Test
+        public void shouldNotBeOuter()
+        {
+            assertThat( sut.isOuter(), is( false ) );
         }
 
         @Test
@@ -92,6 +112,14 @@ public class ResourceLocalTransactionFacadeProviderTest
             verify( txn, never() ).commit();
         }
 
+        @Test
+        public void flushShouldFlushEntityManager()
+        {
+            sut.flush();
+
+            verify( em ).flush();
+        }
+
         @Test
         public void rollbackShouldSetRollbackOnlyFlag()
         {
@@ -99,6 +127,14 @@ public class ResourceLocalTransactionFacadeProviderTest
 
             verify( txn ).setRollbackOnly();
         }
+
+        @Test
+        public void rollbackShouldNotifyLifecycleListeners()
+        {
+            sut.rollback();
+
+            verify( lifecycleNotifier ).transactionMarkedRollbackOnly();
+        }
     }
 
     public class OuterTransactionTest
@@ -110,7 +146,14 @@ public class ResourceLocalTransactionFacadeProviderTest
         public void setUp()
         {
             doReturn( false ).when( txn ).isActive();
-            sut = ResourceLocalTransactionFacadeProviderTest.this.sut.createTransactionFacade();
+            sut = ResourceLocalTransactionFacadeProviderTest.this.sut.createTransactionFacade(
+                NestedTransactionMode.JOIN );
+        }
+
+        @Test
+        public void shouldBeOuter()
+        {
+            assertThat( sut.isOuter(), is( true ) );
         }
 
         @Test
@@ -139,6 +182,14 @@ public class ResourceLocalTransactionFacadeProviderTest
             verify( txn ).rollback();
         }
 
+        @Test
+        public void flushShouldFlushEntityManager()
+        {
+            sut.flush();
+
+            verify( em ).flush();
+        }
+
         @Test
         public void rollbackShouldRollbackTransaction()
         {
@@ -146,6 +197,276 @@ public class ResourceLocalTransactionFacadeProviderTest
 
             verify( txn ).rollback();
         }
+
+        @Test
+        public void shouldNotifyLifecycleListenersAboutCommit()
+        {
+            final PersistenceLifecycleContext context = new PersistenceLifecycleContext( 0 );
+            doReturn( context ).when( lifecycleNotifier ).transactionBegun();
+
+            sut.begin();
+            sut.commit();
+
+            verify( lifecycleNotifier ).transactionCommitted( context );
+        }
+
+        @Test
+        public void shouldNotifyLifecycleListenersAboutFailedCommit()
+        {
+            final PersistenceLifecycleContext context = new PersistenceLifecycleContext( 0 );
+            doReturn( context ).when( lifecycleNotifier ).transactionBegun();
+            doThrow( new RollbackException() ).when( txn ).commit();
+
+            sut.begin();
+            try
+            {
+                sut.commit();
+                fail( "expected RollbackException" );
+            }
+            catch ( RollbackException e )
+            {
+                // expected
+            }
+
+            verify( lifecycleNotifier ).transactionRolledBack( context );
+            verify( lifecycleNotifier, never() ).transactionCommitted( context );
+        }
+
+        @Test
+        public void shouldNotifyLifecycleListenersAboutRollback()
+        {
+            final PersistenceLifecycleContext context = new PersistenceLifecycleContext( 0 );
+            doReturn( context ).when( lifecycleNotifier ).transactionBegun();
+
+            sut.begin();
+            sut.rollback();
+
+            verify( lifecycleNotifier ).transactionRolledBack( context );
+        }
+    }
+
+    public class SavepointTransactionTest
+    {
+
+        private TransactionFacade sut;
+
+        private Connection connection;
+
+        private Savepoint savepoint;
+
+        @Before
+        public void setUp()
+            throws Exception
+        {
+            doReturn( true ).when( txn ).isActive();
+            connection = mock( Connection.class );
+            savepoint = mock( Savepoint.class );
+            doReturn( savepoint ).when( connection ).setSavepoint();
+            final JdbcConnectionAccessor connectionAccessor = mock( JdbcConnectionAccessor.class );
+            doReturn( connection ).when( connectionAccessor ).getConnection( em );
+
+            sut = new ResourceLocalTransactionFacadeFactory( emProvider, connectionAccessor, lifecycleNotifier )
+                .createTransactionFacade( NestedTransactionMode.SAVEPOINT );
+        }
+
+        @Test
+        public void shouldNotBeOuter()
+        {
+            assertThat( sut.isOuter(), is( false ) );
+        }
+
+        @Test
+        public void beginShouldFlushAndSetSavepoint()
+            throws Exception
+        {
+            sut.begin();
+
+            final InOrder inOrder = inOrder( em, connection );
+            inOrder.verify( em ).flush();
+            inOrder.verify( connection ).setSavepoint();
+            verify( txn, never() ).begin();
+        }
+
+        @Test
+        public void commitShouldFlushAndReleaseSavepoint()
+            throws Exception
+        {
+            sut.begin();
+            sut.commit();
+
+            verify( connection ).releaseSavepoint( savepoint );
+            verify( txn, never() ).commit();
+        }
+
+        @Test
+        public void commitShouldRollbackToSavepointIfFlushFails()
+            throws Exception
+        {
+            sut.begin();
+            final RuntimeException exc = new RuntimeException();
+            doThrow( exc ).when( em ).flush();
+
+            try
+            {
+                sut.commit();
+            }
+            catch ( RuntimeException e )
+            {
+                assertThat( e, sameInstance( exc ) );
+                verify( connection ).rollback( savepoint );
+                verify( connection, never() ).releaseSavepoint( savepoint );
+                return;
+            }
+            fail( "expected RuntimeException to be thrown" );
+        }
+
+        @Test
+        public void rollbackShouldRollbackToSavepointAndClearPersistenceContext()
+            throws Exception
+        {
+            sut.begin();
+            sut.rollback();
+
+            verify( connection ).rollback( savepoint );
+            verify( em ).clear();
+            verify( txn, never() ).setRollbackOnly();
+            verify( txn, never() ).rollback();
+        }
+
+        @Test
+        public void rollbackShouldResetRollbackOnlyMarkSetDuringNestedTransaction()
+        {
+            final ProviderTransaction providerTxn = new ProviderTransaction();
+            doReturn( providerTxn ).when( em ).getTransaction();
+
+            sut.begin();
+            // the persistence provider marks the transaction when a statement fails
+            providerTxn.setRollbackOnly();
+            sut.rollback();
+
+            assertThat( providerTxn.getRollbackOnly(), is( false ) );
+        }
+
+        @Test
+        public void rollbackShouldKeepRollbackOnlyMarkOfOuterTransaction()
+        {
+            final ProviderTransaction providerTxn = new ProviderTransaction();
+            providerTxn.setRollbackOnly();
+            doReturn( providerTxn ).when( em ).getTransaction();
+
+            sut.begin();
+            sut.rollback();
+
+            assertThat( providerTxn.getRollbackOnly(), is( true ) );
+        }
+    }
+
+    /**
+     * Transaction keeping the rollback only mark in a field like Hibernate and EclipseLink.
+     */
+    private static class ProviderTransaction
+        implements EntityTransaction
+    {
+        private boolean rollbackOnly;
+
+        public void begin()
+        {
+        }
+
+        public void commit()
+        {
+        }
+
+        public void rollback()
+        {
+        }
+
+        public void setRollbackOnly()
+        {
+            rollbackOnly = true;
+        }
+
+        public boolean getRollbackOnly()
+        {
+            return rollbackOnly;
+        }
+
+        public boolean isActive()
+        {
+            return true;
+        }
+    }
+
+    public class LazyOuterTransactionTest
+    {
+
+        private TransactionFacade sut;
+
+        private EntityManager lazyEm;
+
+        @Before
+        public void setUp()
+        {
+            doReturn( false ).when( txn ).isActive();
+            lazyEm = new LazyTransactionBegin().wrap( em );
+            doReturn( lazyEm ).when( emProvider ).get();
+            sut = ResourceLocalTransactionFacadeProviderTest.this.sut.createTransactionFacade(
+                NestedTransactionMode.JOIN );
+        }
+
+        @Test
+        public void beginShouldBeDeferredToFirstDataAccess()
+        {
+            sut.begin();
+            verify( txn, never() ).begin();
+
+            lazyEm.find( Object.class, 1L );
+            verify( txn ).begin();
+        }
+
+        @Test
+        public void commitShouldDoNothingIfTransactionWasNeverBegun()
+        {
+            sut.begin();
+            lazyEm.isOpen();
+            sut.commit();
+
+            verify( txn, never() ).begin();
+            verify( txn, never() ).commit();
+        }
+
+        @Test
+        public void commitShouldCommitTransactionAfterDataAccess()
+        {
+            sut.begin();
+            lazyEm.find( Object.class, 1L );
+            sut.commit();
+
+            verify( txn ).commit();
+        }
+
+        @Test
+        public void rollbackShouldDoNothingIfTransactionWasNeverBegun()
+        {
+            sut.begin();
+            sut.rollback();
+
+            verify( txn, never() ).rollback();
+        }
+
+        @Test
+        public void nestedTransactionShouldJoinPendingTransaction()
+        {
+            sut.begin();
+            final TransactionFacade inner = ResourceLocalTransactionFacadeProviderTest.this.sut.createTransactionFacade(
+                NestedTransactionMode.JOIN );
+            inner.begin();
+            inner.rollback();
+
+            lazyEm.find( Object.class, 1L );
+            verify( txn ).begin();
+            verify( txn ).setRollbackOnly();
+        }
     }
 
 }
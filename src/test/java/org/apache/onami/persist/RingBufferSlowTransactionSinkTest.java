@@ -0,0 +1,98 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test for {@link RingBufferSlowTransactionSink}.
+ */
+public class RingBufferSlowTransactionSinkTest
+{
+
+    private static SlowTransactionReport report()
+        throws Exception
+    {
+        return new SlowTransactionReport( Object.class.getMethod( "toString" ), null, 0, true, false, 1, 2, 3, 5,
+                                          "main", null );
+    }
+
+    @Test
+    public void shouldKeepReportsInArrivalOrder()
+        throws Exception
+    {
+        final RingBufferSlowTransactionSink sut = new RingBufferSlowTransactionSink( 3 );
+        final SlowTransactionReport first = report();
+        final SlowTransactionReport second = report();
+
+        sut.report( first );
+        sut.report( second );
+
+        final List<SlowTransactionReport> reports = sut.getReports();
+        assertThat( reports.size(), is( 2 ) );
+        assertThat( reports.get( 0 ), sameInstance( first ) );
+        assertThat( reports.get( 1 ), sameInstance( second ) );
+    }
+
+    @Test
+    public void shouldOverwriteOldestReportWhenFull()
+        throws Exception
+    {
+        final RingBufferSlowTransactionSink sut = new RingBufferSlowTransactionSink( 2 );
+        final SlowTransactionReport second = report();
+        final SlowTransactionReport third = report();
+
+        sut.report( report() );
+        sut.report( second );
+        sut.report( third );
+
+        final List<SlowTransactionReport> reports = sut.getReports();
+        assertThat( reports.size(), is( 2 ) );
+        assertThat( reports.get( 0 ), sameInstance( second ) );
+        assertThat( reports.get( 1 ), sameInstance( third ) );
+        assertThat( sut.getReportCount(), is( 3L ) );
+    }
+
+    @Test
+    public void shouldRemoveReportsOnClear()
+        throws Exception
+    {
+        final RingBufferSlowTransactionSink sut = new RingBufferSlowTransactionSink( 2 );
+        sut.report( report() );
+
+        sut.clear();
+
+        assertThat( sut.getReports().isEmpty(), is( true ) );
+        assertThat( sut.getReportCount(), is( 0L ) );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void shouldRejectNonPositiveCapacity()
+    {
+        new RingBufferSlowTransactionSink( 0 );
+    }
+
+}
@@ -0,0 +1,109 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import javax.persistence.TypedQuery;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Test for {@link ScrollingResultStream}.
+ */
+public class ScrollingResultStreamTest
+{
+
+    private TypedQuery<String> query;
+
+    private Query hibernateQuery;
+
+    private ScrollableResults results;
+
+    private EntityManager em;
+
+    @Before
+    @SuppressWarnings( "unchecked" )
+    public void setUp()
+    {
+        query = mock( TypedQuery.class );
+        hibernateQuery = mock( Query.class );
+        results = mock( ScrollableResults.class );
+        em = mock( EntityManager.class );
+        doReturn( true ).when( em ).isOpen();
+        doReturn( true ).when( em ).contains( "a" );
+        doReturn( hibernateQuery ).when( query ).unwrap( Query.class );
+        doReturn( results ).when( hibernateQuery ).scroll( ScrollMode.FORWARD_ONLY );
+    }
+
+    @Test
+    public void shouldReadAllRowsFromOneForwardOnlyCursor()
+    {
+        doReturn( true ).doReturn( true ).doReturn( true ).doReturn( false ).when( results ).next();
+        doReturn( new Object[]{ "a" } ).doReturn( new Object[]{ "b" } ).doReturn( new Object[]{ "c" } ).when(
+            results ).get();
+
+        final ScrollingResultStream<String> sut = ScrollingResultStream.open( query, em, 2 );
+
+        assertThat( sut.next(), is( "a" ) );
+        assertThat( sut.next(), is( "b" ) );
+        assertThat( sut.next(), is( "c" ) );
+        assertThat( sut.hasNext(), is( false ) );
+
+        verify( hibernateQuery ).scroll( ScrollMode.FORWARD_ONLY );
+        verify( query, never() ).setFirstResult( 2 );
+        verify( query ).setHint( "org.hibernate.fetchSize", 2 );
+        verify( em ).detach( "a" );
+        verify( results ).close();
+    }
+
+    @Test
+    public void closeShouldCloseTheCursor()
+    {
+        final ScrollingResultStream<String> sut = ScrollingResultStream.open( query, em, 2 );
+
+        sut.close();
+
+        verify( results ).close();
+        verify( results, never() ).next();
+    }
+
+    @Test
+    public void shouldReturnNullForQueriesOfOtherProviders()
+    {
+        doThrow( new PersistenceException() ).when( query ).unwrap( Query.class );
+
+        assertThat( ScrollingResultStream.open( query, em, 2 ), is( nullValue() ) );
+    }
+
+}
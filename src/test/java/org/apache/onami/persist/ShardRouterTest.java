@@ -0,0 +1,223 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.Properties;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Test for {@link ShardRouter}.
+ */
+public class ShardRouterTest
+{
+
+    private EntityManagerFactoryFactory emfFactory;
+
+    private ShardResolver resolver;
+
+    private Properties shardProperties1;
+
+    private Properties shardProperties2;
+
+    private EntityManagerFactory shard1;
+
+    private EntityManagerFactory shard2;
+
+    private ShardRouter sut;
+
+    @Before
+    public void setUp()
+    {
+        emfFactory = mock( EntityManagerFactoryFactory.class );
+        resolver = mock( ShardResolver.class );
+        shardProperties1 = new Properties();
+        shardProperties1.setProperty( "shard", "1" );
+        shardProperties2 = new Properties();
+        shardProperties2.setProperty( "shard", "2" );
+        shard1 = mock( EntityManagerFactory.class );
+        shard2 = mock( EntityManagerFactory.class );
+        doReturn( shard1 ).when( emfFactory ).createApplicationManagedEntityManagerFactory( shardProperties1 );
+        doReturn( shard2 ).when( emfFactory ).createApplicationManagedEntityManagerFactory( shardProperties2 );
+        doReturn( 0 ).when( resolver ).resolveShard( "a", 2 );
+        doReturn( 1 ).when( resolver ).resolveShard( "b", 2 );
+        doReturn( 1 ).when( resolver ).resolveShard( "c", 2 );
+
+        sut = new ShardRouter( new ShardConfiguration( resolver, shardProperties1, shardProperties2 ) );
+    }
+
+    @Test
+    public void shouldNotSelectShardForUnshardedUnit()
+    {
+        final ShardRouter unsharded = new ShardRouter( null );
+        unsharded.start( emfFactory );
+
+        assertThat( unsharded.isSharded(), is( false ) );
+        assertThat( unsharded.acquireShard(), is( nullValue() ) );
+    }
+
+    @Test
+    public void shouldSelectShardOfShardKey()
+    {
+        sut.start( emfFactory );
+
+        sut.setShardKey( "b" );
+
+        assertThat( sut.acquireShard(), sameInstance( shard2 ) );
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void shouldThrowExceptionWithoutShardKey()
+    {
+        sut.start( emfFactory );
+
+        sut.acquireShard();
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void shouldThrowExceptionWhenNotStarted()
+    {
+        sut.setShardKey( "a" );
+
+        sut.acquireShard();
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void shouldThrowExceptionForInvalidShardOfResolver()
+    {
+        doReturn( 2 ).when( resolver ).resolveShard( "x", 2 );
+        sut.start( emfFactory );
+        sut.setShardKey( "x" );
+
+        sut.acquireShard();
+    }
+
+    @Test
+    public void shouldAllowBindingKeyOfSameShardInActiveUnitOfWork()
+    {
+        sut.start( emfFactory );
+        sut.setShardKey( "b" );
+        sut.acquireShard();
+
+        final Object previous = sut.bindShardKey( "c" );
+
+        assertThat( previous, is( (Object) "b" ) );
+        assertThat( sut.getShardKey(), is( (Object) "c" ) );
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void shouldRejectBindingKeyOfOtherShardInActiveUnitOfWork()
+    {
+        sut.start( emfFactory );
+        sut.setShardKey( "a" );
+        sut.acquireShard();
+
+        sut.bindShardKey( "b" );
+    }
+
+    @Test
+    public void shouldAllowBindingKeyOfOtherShardAfterRelease()
+    {
+        sut.start( emfFactory );
+        sut.setShardKey( "a" );
+        sut.acquireShard();
+        sut.release();
+
+        sut.bindShardKey( "b" );
+
+        assertThat( sut.acquireShard(), sameInstance( shard2 ) );
+    }
+
+    @Test
+    public void shouldRestoreShardKey()
+    {
+        sut.setShardKey( "a" );
+        sut.restoreShardKey( null );
+        assertThat( sut.getShardKey(), is( nullValue() ) );
+
+        sut.restoreShardKey( "b" );
+        assertThat( sut.getShardKey(), is( (Object) "b" ) );
+    }
+
+    @Test
+    public void shouldClearShardKey()
+    {
+        sut.setShardKey( "a" );
+
+        sut.clearShardKey();
+
+        assertThat( sut.getShardKey(), is( nullValue() ) );
+    }
+
+    @Test
+    public void shouldCloseShardsWhenStopping()
+    {
+        sut.start( emfFactory );
+
+        sut.stop();
+
+        verify( shard1 ).close();
+        verify( shard2 ).close();
+    }
+
+    @Test
+    public void shouldCloseCreatedShardsIfStartingFails()
+    {
+        final RuntimeException exc = new RuntimeException();
+        doThrow( exc ).when( emfFactory ).createApplicationManagedEntityManagerFactory( shardProperties2 );
+
+        try
+        {
+            sut.start( emfFactory );
+        }
+        catch ( RuntimeException e )
+        {
+            assertThat( e, sameInstance( exc ) );
+            verify( shard1 ).close();
+            return;
+        }
+        fail( "expected RuntimeException to be thrown" );
+    }
+
+    @Test( expected = NullPointerException.class )
+    public void shardKeyIsMandatory()
+    {
+        sut.setShardKey( null );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void atLeastOneShardIsRequired()
+    {
+        new ShardConfiguration( resolver );
+    }
+
+}
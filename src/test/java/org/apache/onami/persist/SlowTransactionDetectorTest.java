@@ -0,0 +1,236 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Test for {@link SlowTransactionDetector}.
+ */
+public class SlowTransactionDetectorTest
+{
+
+    private RingBufferSlowTransactionSink sink;
+
+    private Method method;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        sink = new RingBufferSlowTransactionSink( 10 );
+        method = Object.class.getMethod( "toString" );
+    }
+
+    private SlowTransactionDetector detector( long thresholdMillis, boolean captureStackTrace )
+    {
+        final SlowTransactionConfiguration config =
+            new SlowTransactionConfiguration( thresholdMillis, sink, captureStackTrace );
+        return new SlowTransactionDetector( config, new AnnotationHolder( TestPersistenceUnit.class ),
+                                            disabledProfiler() );
+    }
+
+    private static TransactionalMethodProfiler disabledProfiler()
+    {
+        return new TransactionalMethodProfiler( null, new AnnotationHolder( null ) );
+    }
+
+    @Test
+    public void shouldReportTransactionExceedingThreshold()
+        throws Exception
+    {
+        final SlowTransactionDetector sut = detector( 10, false );
+
+        final SlowTransactionDetector.Timing timing = sut.start( method );
+        timing.unitOfWorkStarted();
+        timing.workStarted();
+        Thread.sleep( 30 );
+        timing.workEnded();
+        sut.finish( timing, false );
+
+        final SlowTransactionReport report = sink.getReports().get( 0 );
+        assertThat( report.getMethod(), is( method ) );
+        assertThat( report.getUnitAnnotation().equals( TestPersistenceUnit.class ), is( true ) );
+        assertThat( report.isUnitOfWorkStarted(), is( true ) );
+        assertThat( report.getWorkMillis() >= 20, is( true ) );
+        assertThat( report.getThresholdMillis(), is( 10L ) );
+        assertThat( report.getStackTrace(), is( nullValue() ) );
+    }
+
+    @Test
+    public void shouldNotReportTransactionBelowThreshold()
+    {
+        final SlowTransactionDetector sut = detector( 10000, false );
+
+        sut.finish( sut.start( method ), false );
+
+        assertThat( sink.getReportCount(), is( 0L ) );
+    }
+
+    @Test
+    public void shouldReportNestingDepth()
+        throws Exception
+    {
+        final SlowTransactionDetector sut = detector( 10, false );
+
+        final SlowTransactionDetector.Timing outer = sut.start( method );
+        final SlowTransactionDetector.Timing inner = sut.start( method );
+        Thread.sleep( 30 );
+        sut.finish( inner, true );
+        sut.finish( outer, false );
+
+        assertThat( sink.getReports().get( 0 ).getNestingDepth(), is( 1 ) );
+        assertThat( sink.getReports().get( 0 ).isFailed(), is( true ) );
+        assertThat( sink.getReports().get( 1 ).getNestingDepth(), is( 0 ) );
+    }
+
+    @Test
+    public void shouldSampleStackTraceWhileMethodIsRunning()
+        throws Exception
+    {
+        final SlowTransactionDetector sut = detector( 10, true );
+
+        final SlowTransactionDetector.Timing timing = sut.start( method );
+        slowWork();
+        sut.finish( timing, false );
+
+        final StackTraceElement[] stackTrace = sink.getReports().get( 0 ).getStackTrace();
+        assertThat( stackTrace, is( notNullValue() ) );
+        assertThat( containsMethod( stackTrace, "slowWork" ), is( true ) );
+    }
+
+    @Test
+    public void shouldNotCaptureStackTraceOfFastMethod()
+    {
+        final SlowTransactionDetector sut = detector( 0, true );
+
+        sut.finish( sut.start( method ), false );
+
+        assertThat( sink.getReports().get( 0 ).getStackTrace(), is( nullValue() ) );
+    }
+
+    @Test
+    public void shouldNotSampleAfterStop()
+        throws Exception
+    {
+        final SlowTransactionDetector sut = detector( 10, true );
+
+        final SlowTransactionDetector.Timing timing = sut.start( method );
+        sut.stop();
+        slowWork();
+        sut.finish( timing, false );
+
+        assertThat( sink.getReports().get( 0 ).getStackTrace(), is( nullValue() ) );
+    }
+
+    @Test
+    public void shouldRestartSamplerAfterStop()
+        throws Exception
+    {
+        final SlowTransactionDetector sut = detector( 10, true );
+        sut.finish( sut.start( method ), false );
+        sut.stop();
+
+        final SlowTransactionDetector.Timing timing = sut.start( method );
+        slowWork();
+        sut.finish( timing, false );
+
+        assertThat( sink.getReports().get( sink.getReports().size() - 1 ).getStackTrace(), is( notNullValue() ) );
+    }
+
+    private static void slowWork()
+        throws InterruptedException
+    {
+        Thread.sleep( 300 );
+    }
+
+    private static boolean containsMethod( StackTraceElement[] stackTrace, String methodName )
+    {
+        for ( StackTraceElement element : stackTrace )
+        {
+            if ( element.getMethodName().equals( methodName ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void shouldPassTimingToProfilerWithoutSlowTransactionDetection()
+    {
+        final TransactionalMethodProfiler profiler =
+            new TransactionalMethodProfiler( new MethodProfilingConfiguration( false ), new AnnotationHolder( null ) );
+        final SlowTransactionDetector sut = new SlowTransactionDetector( null, new AnnotationHolder( null ), profiler );
+
+        final SlowTransactionDetector.Timing outer = sut.start( method );
+        final SlowTransactionDetector.Timing nested = sut.start( method );
+        nested.rolledBack( new IllegalStateException() );
+        sut.finish( nested, true );
+        sut.finish( outer, false );
+
+        final TransactionalMethodProfile profile = profiler.getProfiles().get( 0 );
+        assertThat( profile.getCallCount(), is( 2L ) );
+        assertThat( profile.getNestedCount(), is( 1L ) );
+        assertThat( profile.getFailedCount(), is( 1L ) );
+        assertThat( profile.getRollbackCount(), is( 1L ) );
+        assertThat( sink.getReportCount(), is( 0L ) );
+    }
+
+    @Test
+    public void shouldIgnoreFailingSink()
+        throws Exception
+    {
+        final SlowTransactionSink failingSink = mock( SlowTransactionSink.class );
+        doThrow( new IllegalStateException() ).when( failingSink ).report( any( SlowTransactionReport.class ) );
+        final SlowTransactionDetector sut =
+            new SlowTransactionDetector( new SlowTransactionConfiguration( 0, failingSink, false ),
+                                         new AnnotationHolder( null ), disabledProfiler() );
+
+        final SlowTransactionDetector.Timing timing = sut.start( method );
+        Thread.sleep( 5 );
+        sut.finish( timing, false );
+    }
+
+    @Test
+    public void shouldDoNothingIfDisabled()
+    {
+        final SlowTransactionDetector sut =
+            new SlowTransactionDetector( null, new AnnotationHolder( null ), disabledProfiler() );
+
+        final SlowTransactionDetector.Timing timing = sut.start( method );
+        timing.workStarted();
+        sut.finish( timing, false );
+
+        assertThat( sink.getReportCount(), is( 0L ) );
+    }
+
+}
@@ -0,0 +1,342 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Test for {@link TenantRouter}.
+ */
+public class TenantRouterTest
+{
+
+    private EntityManagerFactoryFactory emfFactory;
+
+    private TenantPropertiesResolver resolver;
+
+    @Before
+    public void setUp()
+    {
+        emfFactory = mock( EntityManagerFactoryFactory.class );
+        doAnswer( new Answer<EntityManagerFactory>()
+        {
+            public EntityManagerFactory answer( InvocationOnMock invocation )
+            {
+                return mock( EntityManagerFactory.class );
+            }
+        } ).when( emfFactory ).createApplicationManagedEntityManagerFactory( any( Properties.class ) );
+
+        resolver = new TenantPropertiesResolver()
+        {
+            public Properties resolveProperties( String tenantId )
+            {
+                final Properties properties = new Properties();
+                properties.setProperty( "tenant", tenantId );
+                return properties;
+            }
+        };
+    }
+
+    private TenantRouter startedRouter( int maxTenants, long maxIdleMillis )
+    {
+        final TenantConfiguration config = new TenantConfiguration( resolver, maxTenants, maxIdleMillis );
+        final TenantRouter router = new TenantRouter( config, new ParkedEntityManagers() );
+        router.start( emfFactory );
+        return router;
+    }
+
+    private EntityManagerFactory runUnitOfWork( TenantRouter router, String tenantId )
+    {
+        router.setTenantId( tenantId );
+        try
+        {
+            return router.acquireTenant();
+        }
+        finally
+        {
+            router.release();
+            router.clearTenantId();
+        }
+    }
+
+    @Test
+    public void shouldNotSelectTenantForSingleTenantUnit()
+    {
+        final TenantRouter sut = new TenantRouter( null, new ParkedEntityManagers() );
+
+        assertThat( sut.isMultiTenant(), is( false ) );
+        assertThat( sut.acquireTenant(), is( nullValue() ) );
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void shouldThrowExceptionWithoutTenant()
+    {
+        startedRouter( 10, 0 ).acquireTenant();
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void shouldThrowExceptionWhenNotStarted()
+    {
+        final TenantRouter sut =
+            new TenantRouter( new TenantConfiguration( resolver, 10, 0 ), new ParkedEntityManagers() );
+        sut.setTenantId( "a" );
+
+        sut.acquireTenant();
+    }
+
+    @Test
+    public void shouldCreateFactoryOncePerTenant()
+    {
+        final TenantRouter sut = startedRouter( 10, 0 );
+
+        final EntityManagerFactory first = runUnitOfWork( sut, "a" );
+        final EntityManagerFactory second = runUnitOfWork( sut, "a" );
+        final EntityManagerFactory other = runUnitOfWork( sut, "b" );
+
+        assertThat( second, sameInstance( first ) );
+        assertThat( other == first, is( false ) );
+        assertThat( sut.getCachedTenantCount(), is( 2 ) );
+        verify( emfFactory ).createApplicationManagedEntityManagerFactory( resolver.resolveProperties( "a" ) );
+        verify( emfFactory ).createApplicationManagedEntityManagerFactory( resolver.resolveProperties( "b" ) );
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedTenant()
+    {
+        final TenantRouter sut = startedRouter( 2, 0 );
+
+        final EntityManagerFactory a = runUnitOfWork( sut, "a" );
+        final EntityManagerFactory b = runUnitOfWork( sut, "b" );
+        runUnitOfWork( sut, "a" );
+        runUnitOfWork( sut, "c" );
+
+        verify( b ).close();
+        verify( a, never() ).close();
+        assertThat( sut.getCachedTenantCount(), is( 2 ) );
+    }
+
+    @Test
+    public void shouldCloseEvictedFactoryAfterItsUnitOfWorkEnded()
+        throws Exception
+    {
+        final TenantRouter sut = startedRouter( 1, 0 );
+
+        sut.setTenantId( "a" );
+        final EntityManagerFactory a = sut.acquireTenant();
+        final Thread other = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                runUnitOfWork( sut, "b" );
+            }
+        };
+        other.start();
+        other.join();
+        verify( a, never() ).close();
+
+        sut.release();
+
+        verify( a ).close();
+    }
+
+    @Test
+    public void shouldEvictIdleTenants()
+        throws Exception
+    {
+        final TenantRouter sut = startedRouter( 10, 1 );
+
+        final EntityManagerFactory a = runUnitOfWork( sut, "a" );
+        Thread.sleep( 20 );
+        runUnitOfWork( sut, "b" );
+
+        verify( a ).close();
+        assertThat( sut.getCachedTenantCount(), is( 1 ) );
+    }
+
+    @Test
+    public void shouldCreateFactoryOnlyOnceForConcurrentFirstUse()
+        throws Exception
+    {
+        final CountDownLatch creationStarted = new CountDownLatch( 1 );
+        final CountDownLatch finishCreation = new CountDownLatch( 1 );
+        final EntityManagerFactory created = mock( EntityManagerFactory.class );
+        doAnswer( new Answer<EntityManagerFactory>()
+        {
+            public EntityManagerFactory answer( InvocationOnMock invocation )
+                throws Exception
+            {
+                creationStarted.countDown();
+                finishCreation.await();
+                return created;
+            }
+        } ).when( emfFactory ).createApplicationManagedEntityManagerFactory( any( Properties.class ) );
+        final TenantRouter sut = startedRouter( 10, 0 );
+
+        final ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try
+        {
+            final Callable<EntityManagerFactory> unitOfWork = new Callable<EntityManagerFactory>()
+            {
+                public EntityManagerFactory call()
+                {
+                    return runUnitOfWork( sut, "a" );
+                }
+            };
+            final Future<EntityManagerFactory> first = executor.submit( unitOfWork );
+            creationStarted.await();
+            final Future<EntityManagerFactory> second = executor.submit( unitOfWork );
+            final Future<EntityManagerFactory> third = executor.submit( unitOfWork );
+            finishCreation.countDown();
+
+            assertThat( first.get(), sameInstance( created ) );
+            assertThat( second.get(), sameInstance( created ) );
+            assertThat( third.get(), sameInstance( created ) );
+            verify( emfFactory, times( 1 ) ).createApplicationManagedEntityManagerFactory( any( Properties.class ) );
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldRetryCreationAfterFailure()
+    {
+        final RuntimeException exc = new RuntimeException();
+        final TenantRouter sut = startedRouter( 10, 0 );
+        final EntityManagerFactoryFactory failingFactory = mock( EntityManagerFactoryFactory.class );
+        doThrow( exc ).when( failingFactory ).createApplicationManagedEntityManagerFactory( any( Properties.class ) );
+        sut.stop();
+        sut.start( failingFactory );
+
+        try
+        {
+            runUnitOfWork( sut, "a" );
+            fail( "expected RuntimeException to be thrown" );
+        }
+        catch ( RuntimeException e )
+        {
+            assertThat( e, sameInstance( exc ) );
+        }
+        assertThat( sut.getCachedTenantCount(), is( 0 ) );
+
+        sut.stop();
+        sut.start( emfFactory );
+        assertThat( runUnitOfWork( sut, "a" ) == null, is( false ) );
+    }
+
+    @Test
+    public void shouldCloseAllFactoriesWhenStopping()
+    {
+        final TenantRouter sut = startedRouter( 10, 0 );
+        final EntityManagerFactory a = runUnitOfWork( sut, "a" );
+        final EntityManagerFactory b = runUnitOfWork( sut, "b" );
+
+        sut.stop();
+
+        verify( a ).close();
+        verify( b ).close();
+        assertThat( sut.getCachedTenantCount(), is( 0 ) );
+    }
+
+    @Test
+    public void shouldCloseFactoryCreatedWhileStopping()
+        throws Exception
+    {
+        final CountDownLatch creationStarted = new CountDownLatch( 1 );
+        final CountDownLatch finishCreation = new CountDownLatch( 1 );
+        final EntityManagerFactory created = mock( EntityManagerFactory.class );
+        doAnswer( new Answer<EntityManagerFactory>()
+        {
+            public EntityManagerFactory answer( InvocationOnMock invocation )
+                throws Exception
+            {
+                creationStarted.countDown();
+                finishCreation.await();
+                return created;
+            }
+        } ).when( emfFactory ).createApplicationManagedEntityManagerFactory( any( Properties.class ) );
+        final TenantRouter sut = startedRouter( 10, 0 );
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            final Future<EntityManagerFactory> unitOfWork = executor.submit( new Callable<EntityManagerFactory>()
+            {
+                public EntityManagerFactory call()
+                {
+                    return runUnitOfWork( sut, "a" );
+                }
+            } );
+            creationStarted.await();
+
+            // must not fail for the tenant which is still being created
+            sut.stop();
+            verify( created, never() ).close();
+
+            finishCreation.countDown();
+            assertThat( unitOfWork.get(), sameInstance( created ) );
+            verify( created ).close();
+            assertThat( sut.getCachedTenantCount(), is( 0 ) );
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test( expected = NullPointerException.class )
+    public void tenantIdIsMandatory()
+    {
+        new TenantRouter( null, new ParkedEntityManagers() ).setTenantId( null );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void maxTenantsMustBePositive()
+    {
+        new TenantConfiguration( resolver, 0, 0 );
+    }
+
+}
@@ -0,0 +1,115 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Test for {@link ThresholdLifecycleListener}.
+ */
+public class ThresholdLifecycleListenerTest
+{
+
+    private PersistenceLifecycleListener delegate;
+
+    private ThresholdLifecycleListener sut;
+
+    @Before
+    public void setUp()
+    {
+        delegate = mock( PersistenceLifecycleListener.class );
+        sut = new ThresholdLifecycleListener( delegate, 10 );
+    }
+
+    private static PersistenceLifecycleEvent endEvent( long elapsedMillis )
+    {
+        final PersistenceLifecycleContext context = new PersistenceLifecycleContext( 0 );
+        return new PersistenceLifecycleEvent( null, null, elapsedMillis * 1000000L, context );
+    }
+
+    @Test
+    public void shouldForwardTransactionExceedingThreshold()
+    {
+        final PersistenceLifecycleEvent event = endEvent( 10 );
+
+        sut.transactionCommitted( event );
+        sut.transactionRolledBack( event );
+        sut.unitOfWorkEnded( event );
+
+        verify( delegate ).transactionCommitted( event );
+        verify( delegate ).transactionRolledBack( event );
+        verify( delegate ).unitOfWorkEnded( event );
+    }
+
+    @Test
+    public void shouldDropTransactionBelowThreshold()
+    {
+        final PersistenceLifecycleEvent event = endEvent( 9 );
+
+        sut.transactionCommitted( event );
+        sut.transactionStatusRetried( event );
+
+        verify( delegate, never() ).transactionCommitted( any( PersistenceLifecycleEvent.class ) );
+        verify( delegate, never() ).transactionStatusRetried( any( PersistenceLifecycleEvent.class ) );
+    }
+
+    @Test
+    public void shouldDropBeginEvents()
+    {
+        final PersistenceLifecycleEvent event = endEvent( 100 );
+
+        sut.unitOfWorkBegun( event );
+        sut.transactionBegun( event );
+
+        verify( delegate, never() ).unitOfWorkBegun( any( PersistenceLifecycleEvent.class ) );
+        verify( delegate, never() ).transactionBegun( any( PersistenceLifecycleEvent.class ) );
+    }
+
+    @Test
+    public void shouldAlwaysForwardEventsWithoutDuration()
+    {
+        final PersistenceLifecycleEvent event = new PersistenceLifecycleEvent( null, null, 0, null );
+
+        sut.persistenceServiceStarted( event );
+        sut.persistenceServiceStopped( event );
+
+        verify( delegate ).persistenceServiceStarted( event );
+        verify( delegate ).persistenceServiceStopped( event );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void negativeThresholdShouldBeRejected()
+    {
+        new ThresholdLifecycleListener( delegate, -1 );
+    }
+
+    @Test( expected = NullPointerException.class )
+    public void delegateIsMandatory()
+    {
+        new ThresholdLifecycleListener( null, 10 );
+    }
+
+}
@@ -0,0 +1,144 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Test for {@link TrackedEntityManagerFactory}.
+ */
+public class TrackedEntityManagerFactoryTest
+{
+
+    private TrackedEntityManagerFactory sut;
+
+    private EntityManagerFactory emf;
+
+    @Before
+    public void setUp()
+    {
+        emf = mock( EntityManagerFactory.class );
+        sut = new TrackedEntityManagerFactory( emf );
+    }
+
+    @Test
+    public void shouldCountActiveUnitsOfWork()
+    {
+        assertThat( sut.acquire(), sameInstance( emf ) );
+        sut.acquire();
+        sut.release();
+
+        assertThat( sut.getActiveUnitsOfWork(), is( 1 ) );
+    }
+
+    @Test
+    public void shouldCloseUnusedFactoryWhenRetired()
+    {
+        sut.retire();
+
+        verify( emf ).close();
+        assertThat( sut.isClosed(), is( true ) );
+    }
+
+    @Test
+    public void shouldCloseRetiredFactoryWhenLastUnitOfWorkIsReleased()
+    {
+        sut.acquire();
+        sut.acquire();
+        sut.retire();
+        sut.release();
+        verify( emf, never() ).close();
+
+        sut.release();
+
+        verify( emf ).close();
+    }
+
+    @Test
+    public void shouldNotCloseFactoryWhichIsNotRetired()
+    {
+        sut.acquire();
+        sut.release();
+
+        verify( emf, never() ).close();
+        assertThat( sut.isClosed(), is( false ) );
+    }
+
+    @Test
+    public void shouldCloseOnlyOnce()
+    {
+        sut.retire();
+        sut.retire();
+
+        verify( emf ).close();
+    }
+
+    @Test
+    public void shouldCloseParkedEntityManagersBeforeClosingFactory()
+    {
+        final ParkedEntityManagers parkedEntityManagers = new ParkedEntityManagers();
+        final EntityManager em = mock( EntityManager.class );
+        doReturn( true ).when( em ).isOpen();
+        parkedEntityManagers.park( em, emf );
+        sut = new TrackedEntityManagerFactory( emf, parkedEntityManagers );
+
+        sut.retire();
+
+        final InOrder inOrder = inOrder( em, emf );
+        inOrder.verify( em ).close();
+        inOrder.verify( emf ).close();
+        assertThat( parkedEntityManagers.size(), is( 0 ) );
+    }
+
+    @Test
+    public void shouldNotCloseParkedEntityManagersOfOtherFactories()
+    {
+        final ParkedEntityManagers parkedEntityManagers = new ParkedEntityManagers();
+        final EntityManager em = mock( EntityManager.class );
+        parkedEntityManagers.park( em, mock( EntityManagerFactory.class ) );
+        sut = new TrackedEntityManagerFactory( emf, parkedEntityManagers );
+
+        sut.retire();
+
+        verify( em, never() ).close();
+        assertThat( parkedEntityManagers.size(), is( 1 ) );
+    }
+
+    @Test( expected = NullPointerException.class )
+    public void emfIsMandatory()
+    {
+        new TrackedEntityManagerFactory( null );
+    }
+
+}
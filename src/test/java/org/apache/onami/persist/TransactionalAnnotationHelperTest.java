@@ -31,6 +31,7 @@ import java.util.IllegalFormatException;
 import java.util.MissingFormatArgumentException;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
@@ -79,6 +80,12 @@ public class TransactionalAnnotationHelperTest
             sut = new TransactionalAnnotationHelper( new AnnotationHolder( puAnntoation ), txnAnnoReader );
         }
 
+        @Test
+        public void shouldNameTheUnit()
+        {
+            assertThat( sut.getPersistenceUnitName(), is( "default" ) );
+        }
+
         @Test
         public void participatesInTxnWhenUnitsIsNull()
         {
@@ -126,6 +133,12 @@ public class TransactionalAnnotationHelperTest
             sut = new TransactionalAnnotationHelper( new AnnotationHolder( puAnntoation ), txnAnnoReader );
         }
 
+        @Test
+        public void shouldNameTheUnit()
+        {
+            assertThat( sut.getPersistenceUnitName(), is( "TestPersistenceUnit" ) );
+        }
+
         @Test
         public void participatesInTxnWhenUnitsIsNull()
         {
@@ -227,4 +240,48 @@ public class TransactionalAnnotationHelperTest
 
     }
 
+    public class ShardKeyParameter
+    {
+
+        @Before
+        public void setUp()
+            throws Exception
+        {
+            sut = new TransactionalAnnotationHelper( new AnnotationHolder( null ), txnAnnoReader );
+        }
+
+        @Test
+        public void shouldReadArgumentOfShardKeyParameter()
+            throws Exception
+        {
+            doReturn( ShardedRepository.class.getMethod( "find", String.class, Long.class ) ).when(
+                invocation ).getMethod();
+            doReturn( new Object[]{ "name", 42L } ).when( invocation ).getArguments();
+
+            assertThat( sut.readShardKey( invocation ), is( (Object) 42L ) );
+        }
+
+        @Test
+        public void shouldReturnNullWithoutShardKeyParameter()
+            throws Exception
+        {
+            doReturn( ShardedRepository.class.getMethod( "findAll", String.class ) ).when( invocation ).getMethod();
+            doReturn( new Object[]{ "name" } ).when( invocation ).getArguments();
+
+            assertThat( sut.readShardKey( invocation ), is( nullValue() ) );
+        }
+
+    }
+
+    public static class ShardedRepository
+    {
+        public void find( String name, @ShardKey Long customerId )
+        {
+        }
+
+        public void findAll( String name )
+        {
+        }
+    }
+
 }
@@ -0,0 +1,125 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test for {@link TransactionalMethodProfiler}.
+ */
+public class TransactionalMethodProfilerTest
+{
+
+    private static final long MILLIS = 1000000L;
+
+    private TransactionalMethodProfiler sut;
+
+    private Method cheap;
+
+    private Method expensive;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        sut = new TransactionalMethodProfiler( new MethodProfilingConfiguration( true ),
+                                               new AnnotationHolder( TestPersistenceUnit.class ) );
+        cheap = Object.class.getMethod( "toString" );
+        expensive = Object.class.getMethod( "hashCode" );
+    }
+
+    @After
+    public void tearDown()
+    {
+        sut.stop();
+    }
+
+    @Test
+    public void shouldAccumulateCallsPerMethod()
+    {
+        sut.record( cheap, true, false, null, 3 * MILLIS, MILLIS );
+        sut.record( cheap, false, true, IllegalStateException.class, 4 * MILLIS, 2 * MILLIS );
+
+        final List<TransactionalMethodProfile> profiles = sut.getProfiles();
+        assertThat( profiles.size(), is( 1 ) );
+        final TransactionalMethodProfile profile = profiles.get( 0 );
+        assertThat( profile.getMethod(), is( cheap ) );
+        assertThat( profile.getCallCount(), is( 2L ) );
+        assertThat( profile.getNestedRatio(), is( 0.5 ) );
+        assertThat( profile.getFailedCount(), is( 1L ) );
+        assertThat( profile.getRollbackRate(), is( 0.5 ) );
+        assertThat( profile.getRollbacksByException().get( IllegalStateException.class.getName() ), is( 1L ) );
+        assertThat( profile.getTransactionLatency().getTotalMillis(), is( 7L ) );
+        assertThat( profile.getCommitLatency().getCount(), is( 1L ) );
+        assertThat( profile.getRollbackLatency().getMaxMillis(), is( 2L ) );
+    }
+
+    @Test
+    public void shouldOrderMostExpensiveMethodsFirst()
+    {
+        sut.record( cheap, true, false, null, MILLIS, 0 );
+        sut.record( expensive, true, false, null, 50 * MILLIS, 0 );
+
+        final List<TransactionalMethodProfile> top = sut.getMostExpensiveMethods( 1 );
+
+        assertThat( top.size(), is( 1 ) );
+        assertThat( top.get( 0 ).getMethod(), is( expensive ) );
+        assertThat( sut.mostExpensiveMethods( 5 ).length, is( 2 ) );
+    }
+
+    @Test
+    public void resetShouldDiscardProfiles()
+    {
+        sut.record( cheap, true, false, null, MILLIS, 0 );
+
+        sut.reset();
+
+        assertThat( sut.getProfiledMethodCount(), is( 0 ) );
+    }
+
+    @Test
+    public void shouldRegisterMBeanWhileStarted()
+        throws Exception
+    {
+        sut.start();
+        assertThat( ManagementFactory.getPlatformMBeanServer().isRegistered(
+            TransactionalMethodProfiler.objectName( TestPersistenceUnit.class ) ), is( true ) );
+
+        sut.stop();
+        assertThat( ManagementFactory.getPlatformMBeanServer().isRegistered(
+            TransactionalMethodProfiler.objectName( TestPersistenceUnit.class ) ), is( false ) );
+    }
+
+    @Test
+    public void shouldBeDisabledWithoutConfiguration()
+    {
+        assertThat( new TransactionalMethodProfiler( null, new AnnotationHolder( null ) ).isEnabled(), is( false ) );
+    }
+
+}
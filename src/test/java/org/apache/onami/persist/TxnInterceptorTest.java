@@ -24,16 +24,31 @@ import org.aopalliance.intercept.MethodInvocation;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import javax.persistence.RollbackException;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 /**
@@ -51,6 +66,34 @@ public class TxnInterceptorTest
 
     private TransactionFacade txnFacade;
 
+    private PersistenceContextGuard contextGuard;
+
+    private ReadReplicaRouter replicaRouter;
+
+    private ShardRouter shardRouter;
+
+    private TenantRouter tenantRouter;
+
+    private ChainedTransactionCoordinator chainCoordinator;
+
+    private AsyncTransactionExecutor asyncExecutor;
+
+    private TransactionPriorityHolder priorityHolder;
+
+    private RingBufferSlowTransactionSink slowTransactionSink;
+
+    private TransactionalMethodProfiler profiler;
+
+    private SlowTransactionDetector slowTransactionDetector;
+
+    private PersistenceLifecycleListeners lifecycleListeners;
+
+    private PersistenceLifecycleNotifier lifecycleNotifier;
+
+    private QueryCounter queryCounter;
+
+    private UnitOfWorkCircuitBreaker circuitBreaker;
+
     private TxnInterceptor sut;
 
     private MethodInvocation invocation;
@@ -62,9 +105,31 @@ public class TxnInterceptorTest
         unitOfWork = mock( UnitOfWork.class );
         tfProvider = mock( TransactionFacadeFactory.class );
         txnAnnotationHelper = mock( TransactionalAnnotationHelper.class );
+        contextGuard = mock( PersistenceContextGuard.class );
+        replicaRouter = mock( ReadReplicaRouter.class );
+        shardRouter = mock( ShardRouter.class );
+        tenantRouter = mock( TenantRouter.class );
+        chainCoordinator = new ChainedTransactionCoordinator();
+        asyncExecutor = mock( AsyncTransactionExecutor.class );
+        priorityHolder = new TransactionPriorityHolder();
+        slowTransactionSink = new RingBufferSlowTransactionSink( 10 );
+        profiler = new TransactionalMethodProfiler( new MethodProfilingConfiguration( false ),
+                                                    new AnnotationHolder( null ) );
+        slowTransactionDetector = new SlowTransactionDetector(
+            new SlowTransactionConfiguration( 50, slowTransactionSink, false ), new AnnotationHolder( null ),
+            profiler );
+        lifecycleListeners =
+            new PersistenceLifecycleListeners( Collections.<PersistenceLifecycleListener>emptyList() );
+        lifecycleNotifier = new PersistenceLifecycleNotifier( lifecycleListeners, new AnnotationHolder( null ) );
+        queryCounter = new QueryCounter( new QueryCountConfiguration( 3, true, null ) );
+        circuitBreaker = new UnitOfWorkCircuitBreaker( new CircuitBreakerConfiguration( "SELECT 1", 0, 2, 60000 ),
+                                                       mock( EntityManagerFactoryProvider.class ),
+                                                       new AnnotationHolder( null ) );
 
         sut = new TxnInterceptor();
-        sut.init( unitOfWork, tfProvider, txnAnnotationHelper );
+        sut.init( unitOfWork, tfProvider, txnAnnotationHelper, contextGuard, replicaRouter, shardRouter,
+                  tenantRouter, chainCoordinator, asyncExecutor, priorityHolder, slowTransactionDetector,
+                  lifecycleNotifier, queryCounter, circuitBreaker );
 
         invocation = mock( MethodInvocation.class );
     }
@@ -100,7 +165,7 @@ public class TxnInterceptorTest
             doReturn( true ).when( txnAnnotationHelper ).persistenceUnitParticipatesInTransactionFor( invocation );
 
             txnFacade = mock( TransactionFacade.class );
-            doReturn( txnFacade ).when( tfProvider ).createTransactionFacade();
+            doReturn( txnFacade ).when( tfProvider ).createTransactionFacade( any( NestedTransactionMode.class ) );
         }
 
         public class UnitOfWorkInactive
@@ -205,6 +270,80 @@ public class TxnInterceptorTest
                 fail( "expected RuntimeException to be thrown" );
             }
 
+            @Test
+            public void beginReadOnlyUnitOfWorkForReadOnlyTransaction()
+                throws Throwable
+            {
+                // given
+                doReturn( true ).when( txnAnnotationHelper ).isReadOnly( invocation );
+
+                // when
+                sut.invoke( invocation );
+
+                // then
+                inOrder.verify( unitOfWork ).beginReadOnly();
+                inOrder.verify( invocation ).proceed();
+                inOrder.verify( unitOfWork ).end();
+                verify( unitOfWork, never() ).begin();
+                verify( replicaRouter, never() ).recordWrite();
+            }
+
+            @Test
+            public void bindShardKeyAroundUnitOfWork()
+                throws Throwable
+            {
+                // given
+                final Object previousShardKey = new Object();
+                doReturn( 42L ).when( txnAnnotationHelper ).readShardKey( invocation );
+                doReturn( previousShardKey ).when( shardRouter ).bindShardKey( 42L );
+                inOrder = inOrder( shardRouter, unitOfWork, invocation );
+
+                // when
+                sut.invoke( invocation );
+
+                // then
+                inOrder.verify( shardRouter ).bindShardKey( 42L );
+                inOrder.verify( unitOfWork ).begin();
+                inOrder.verify( invocation ).proceed();
+                inOrder.verify( unitOfWork ).end();
+                inOrder.verify( shardRouter ).restoreShardKey( previousShardKey );
+            }
+
+            @Test
+            public void restoreShardKeyAfterException()
+                throws Throwable
+            {
+                // given
+                final RuntimeException exc = new RuntimeException();
+                doReturn( 42L ).when( txnAnnotationHelper ).readShardKey( invocation );
+                doThrow( exc ).when( invocation ).proceed();
+
+                // when
+                try
+                {
+                    sut.invoke( invocation );
+                }
+
+                // then
+                catch ( RuntimeException e )
+                {
+                    verify( shardRouter ).restoreShardKey( null );
+                    assertThat( e, sameInstance( exc ) );
+                    return;
+                }
+                fail( "expected RuntimeException to be thrown" );
+            }
+
+            @Test
+            public void doNotBindShardKeyWithoutShardKeyParameter()
+                throws Throwable
+            {
+                sut.invoke( invocation );
+
+                verify( shardRouter, never() ).bindShardKey( any() );
+                verify( shardRouter, never() ).restoreShardKey( any() );
+            }
+
         }
 
         public class UnitOfWorkActive
@@ -329,6 +468,105 @@ public class TxnInterceptorTest
                 fail( "expected RuntimeException to be thrown" );
             }
 
+            @Test
+            public void guardPersistenceContextAroundCommit()
+                throws Throwable
+            {
+                // given
+                inOrder = inOrder( txnFacade, invocation, contextGuard );
+
+                // when
+                sut.invoke( invocation );
+
+                // then
+                inOrder.verify( invocation ).proceed();
+                inOrder.verify( contextGuard ).beforeCommit();
+                inOrder.verify( txnFacade ).commit();
+                inOrder.verify( contextGuard ).afterCommit();
+            }
+
+            @Test
+            public void rollbackIfPersistenceContextGuardFails()
+                throws Throwable
+            {
+                // given
+                final RuntimeException exc = new PersistenceContextSizeExceededException( 2, 1 );
+                doThrow( exc ).when( contextGuard ).beforeCommit();
+                doReturn( true ).when( txnAnnotationHelper ).isRollbackNecessaryFor( invocation, exc );
+
+                // when
+                try
+                {
+                    sut.invoke( invocation );
+                }
+
+                // then
+                catch ( PersistenceContextSizeExceededException e )
+                {
+                    inOrder.verify( invocation ).proceed();
+                    inOrder.verify( txnFacade ).rollback();
+                    verify( txnFacade, never() ).commit();
+                    assertThat( e, sameInstance( exc ) );
+                    return;
+                }
+                fail( "expected PersistenceContextSizeExceededException to be thrown" );
+            }
+
+            @Test
+            public void recordWriteAfterCommitOfReadWriteTransaction()
+                throws Throwable
+            {
+                // given
+                inOrder = inOrder( txnFacade, replicaRouter );
+
+                // when
+                sut.invoke( invocation );
+
+                // then
+                inOrder.verify( txnFacade ).commit();
+                inOrder.verify( replicaRouter ).recordWrite();
+            }
+
+            @Test
+            public void rejectReadWriteTransactionInUnitOfWorkUsingReplica()
+                throws Throwable
+            {
+                // given
+                doReturn( true ).when( replicaRouter ).isUsingReplica();
+
+                // when
+                try
+                {
+                    sut.invoke( invocation );
+                }
+
+                // then
+                catch ( IllegalStateException e )
+                {
+                    verify( txnFacade, never() ).begin();
+                    verify( invocation, never() ).proceed();
+                    return;
+                }
+                fail( "expected IllegalStateException to be thrown" );
+            }
+
+            @Test
+            public void allowReadOnlyTransactionInUnitOfWorkUsingReplica()
+                throws Throwable
+            {
+                // given
+                doReturn( true ).when( replicaRouter ).isUsingReplica();
+                doReturn( true ).when( txnAnnotationHelper ).isReadOnly( invocation );
+
+                // when
+                sut.invoke( invocation );
+
+                // then
+                inOrder.verify( txnFacade ).begin();
+                inOrder.verify( invocation ).proceed();
+                inOrder.verify( txnFacade ).commit();
+            }
+
             @Test
             public void throwExceptionOfOriginalMethodIfExceptionOccurredInRollback()
                 throws Throwable
@@ -360,6 +598,763 @@ public class TxnInterceptorTest
 
         }
 
+        public class ChainedTransaction
+        {
+
+            private InOrder inOrder;
+
+            @Before
+            public void setup()
+            {
+                doReturn( false ).when( unitOfWork ).isActive();
+                doReturn( true ).when( txnAnnotationHelper ).isChained( invocation );
+                doReturn( "TestUnit" ).when( txnAnnotationHelper ).getPersistenceUnitName();
+                inOrder = inOrder( unitOfWork, txnFacade, invocation );
+            }
+
+            @Test
+            public void rootCommitsAfterMethodReturned()
+                throws Throwable
+            {
+                sut.invoke( invocation );
+
+                inOrder.verify( unitOfWork ).begin();
+                inOrder.verify( txnFacade ).begin();
+                inOrder.verify( invocation ).proceed();
+                inOrder.verify( txnFacade ).flush();
+                inOrder.verify( txnFacade ).commit();
+                inOrder.verify( unitOfWork ).end();
+                assertThat( chainCoordinator.isChainOpen(), is( false ) );
+            }
+
+            @Test
+            public void participantDefersCommitAndEndOfUnitOfWorkToRoot()
+                throws Throwable
+            {
+                // given
+                chainCoordinator.openChain( false );
+
+                // when
+                sut.invoke( invocation );
+
+                // then
+                verify( txnFacade, never() ).commit();
+                verify( unitOfWork, never() ).end();
+
+                // when
+                chainCoordinator.completeChain();
+
+                // then
+                inOrder.verify( txnFacade ).commit();
+                inOrder.verify( unitOfWork ).end();
+            }
+
+            @Test
+            public void participantDefersRollbackToRootAndMarksChainRollbackOnly()
+                throws Throwable
+            {
+                // given
+                final RuntimeException exc = new RuntimeException();
+                doThrow( exc ).when( invocation ).proceed();
+                doReturn( true ).when( txnAnnotationHelper ).isRollbackNecessaryFor( invocation, exc );
+                final ChainedTransactionParticipant other = mock( ChainedTransactionParticipant.class );
+                doReturn( "OtherUnit" ).when( other ).getUnitName();
+                chainCoordinator.openChain( false );
+                chainCoordinator.register( other );
+
+                // when
+                try
+                {
+                    sut.invoke( invocation );
+                    fail( "expected RuntimeException to be thrown" );
+                }
+                catch ( RuntimeException e )
+                {
+                    assertThat( e, sameInstance( exc ) );
+                }
+
+                // then
+                verify( txnFacade, never() ).rollback();
+                verify( unitOfWork, never() ).end();
+                assertThat( chainCoordinator.isChainOpen(), is( true ) );
+
+                // when
+                try
+                {
+                    chainCoordinator.completeChain();
+                    fail( "expected RollbackException to be thrown" );
+                }
+
+                // then
+                catch ( RollbackException e )
+                {
+                    inOrder.verify( txnFacade ).rollback();
+                    inOrder.verify( unitOfWork ).end();
+                    verify( other ).rollback();
+                    verify( other, never() ).commit();
+                    verify( txnFacade, never() ).commit();
+                }
+            }
+
+            @Test
+            public void participantDefersCommitToRootIfExceptionRequiresNoRollback()
+                throws Throwable
+            {
+                // given
+                final RuntimeException exc = new RuntimeException();
+                doThrow( exc ).when( invocation ).proceed();
+                doReturn( false ).when( txnAnnotationHelper ).isRollbackNecessaryFor( invocation, exc );
+                chainCoordinator.openChain( false );
+
+                // when
+                try
+                {
+                    sut.invoke( invocation );
+                    fail( "expected RuntimeException to be thrown" );
+                }
+                catch ( RuntimeException e )
+                {
+                    assertThat( e, sameInstance( exc ) );
+                }
+
+                // then
+                verify( txnFacade, never() ).commit();
+                verify( unitOfWork, never() ).end();
+
+                // when
+                chainCoordinator.completeChain();
+
+                // then
+                inOrder.verify( txnFacade ).commit();
+                inOrder.verify( unitOfWork ).end();
+            }
+
+            @Test
+            public void rootCommitsChainIfExceptionRequiresNoRollback()
+                throws Throwable
+            {
+                // given
+                final RuntimeException exc = new RuntimeException();
+                final ChainedTransactionParticipant other = mock( ChainedTransactionParticipant.class );
+                doReturn( "OtherUnit" ).when( other ).getUnitName();
+                doAnswer( new Answer<Object>()
+                {
+                    public Object answer( InvocationOnMock invocationOnMock )
+                    {
+                        chainCoordinator.register( other );
+                        throw exc;
+                    }
+                } ).when( invocation ).proceed();
+                doReturn( false ).when( txnAnnotationHelper ).isRollbackNecessaryFor( invocation, exc );
+
+                // when
+                try
+                {
+                    sut.invoke( invocation );
+                }
+
+                // then
+                catch ( RuntimeException e )
+                {
+                    verify( txnFacade ).commit();
+                    verify( other ).commit();
+                    verify( other ).end();
+                    verify( unitOfWork ).end();
+                    assertThat( chainCoordinator.isChainOpen(), is( false ) );
+                    assertThat( e, sameInstance( exc ) );
+                    return;
+                }
+                fail( "expected RuntimeException to be thrown" );
+            }
+
+            @Test
+            public void rootRollsBackChainMarkedRollbackOnlyByParticipant()
+                throws Throwable
+            {
+                // given
+                final ChainedTransactionParticipant other = mock( ChainedTransactionParticipant.class );
+                doReturn( "OtherUnit" ).when( other ).getUnitName();
+                doAnswer( new Answer<Object>()
+                {
+                    public Object answer( InvocationOnMock invocationOnMock )
+                    {
+                        // the exception of the other participant has been caught by the method
+                        chainCoordinator.registerRollbackOnly( other );
+                        return null;
+                    }
+                } ).when( invocation ).proceed();
+
+                // when
+                try
+                {
+                    sut.invoke( invocation );
+                }
+
+                // then
+                catch ( RollbackException e )
+                {
+                    verify( txnFacade ).rollback();
+                    verify( txnFacade, never() ).commit();
+                    verify( other ).rollback();
+                    verify( other, never() ).commit();
+                    verify( unitOfWork ).end();
+                    assertThat( chainCoordinator.isChainOpen(), is( false ) );
+                    return;
+                }
+                fail( "expected RollbackException to be thrown" );
+            }
+
+            @Test
+            public void rootRollsBackParticipantsIfMethodFails()
+                throws Throwable
+            {
+                // given
+                final RuntimeException exc = new RuntimeException();
+                final ChainedTransactionParticipant other = mock( ChainedTransactionParticipant.class );
+                doReturn( "OtherUnit" ).when( other ).getUnitName();
+                doAnswer( new Answer<Object>()
+                {
+                    public Object answer( InvocationOnMock invocationOnMock )
+                    {
+                        chainCoordinator.register( other );
+                        throw exc;
+                    }
+                } ).when( invocation ).proceed();
+                doReturn( true ).when( txnAnnotationHelper ).isRollbackNecessaryFor( invocation, exc );
+
+                // when
+                try
+                {
+                    sut.invoke( invocation );
+                }
+
+                // then
+                catch ( RuntimeException e )
+                {
+                    verify( txnFacade ).rollback();
+                    verify( other ).rollback();
+                    verify( other ).end();
+                    verify( other, never() ).commit();
+                    assertThat( chainCoordinator.isChainOpen(), is( false ) );
+                    assertThat( e, sameInstance( exc ) );
+                    return;
+                }
+                fail( "expected RuntimeException to be thrown" );
+            }
+
+            @Test
+            public void rejectReadWriteTransactionInUnitOfWorkUsingReplica()
+                throws Throwable
+            {
+                // given
+                doReturn( true ).when( replicaRouter ).isUsingReplica();
+
+                // when
+                try
+                {
+                    sut.invoke( invocation );
+                }
+
+                // then
+                catch ( IllegalStateException e )
+                {
+                    verify( invocation, never() ).proceed();
+                    verify( unitOfWork ).end();
+                    assertThat( chainCoordinator.isChainOpen(), is( false ) );
+                    return;
+                }
+                fail( "expected IllegalStateException to be thrown" );
+            }
+
+        }
+
+        public class AsyncTransaction
+        {
+
+            @Before
+            public void setup()
+                throws Exception
+            {
+                doReturn( true ).when( txnAnnotationHelper ).isAsync( invocation );
+                doReturn( AsyncService.class.getMethod( "run" ) ).when( invocation ).getMethod();
+            }
+
+            @Test
+            public void submitToExecutor()
+                throws Throwable
+            {
+                // given
+                final Future<?> future = mock( Future.class );
+                doReturn( future ).when( asyncExecutor ).submit( any( Callable.class ) );
+
+                // when
+                final Object result = sut.invoke( invocation );
+
+                // then
+                assertThat( result, sameInstance( (Object) future ) );
+                verify( unitOfWork, never() ).begin();
+                verify( invocation, never() ).proceed();
+            }
+
+            @Test( expected = IllegalStateException.class )
+            public void rejectMethodNotReturningFuture()
+                throws Throwable
+            {
+                doReturn( AsyncService.class.getMethod( "runWithoutFuture" ) ).when( invocation ).getMethod();
+
+                sut.invoke( invocation );
+            }
+
+        }
+
+
+        public class SlowTransaction
+        {
+
+            @Before
+            public void setup()
+                throws Throwable
+            {
+                doReturn( false ).when( unitOfWork ).isActive();
+                doReturn( AsyncService.class.getMethod( "run" ) ).when( invocation ).getMethod();
+            }
+
+            private void proceedSlowly()
+                throws Throwable
+            {
+                doAnswer( new Answer<Object>()
+                {
+                    public Object answer( InvocationOnMock invocationOnMock )
+                        throws Throwable
+                    {
+                        Thread.sleep( 80 );
+                        return null;
+                    }
+                } ).when( invocation ).proceed();
+            }
+
+            @Test
+            public void reportSlowTransaction()
+                throws Throwable
+            {
+                proceedSlowly();
+
+                sut.invoke( invocation );
+
+                assertThat( slowTransactionSink.getReports().size(), is( 1 ) );
+                final SlowTransactionReport report = slowTransactionSink.getReports().get( 0 );
+                assertThat( report.getMethod(), is( AsyncService.class.getMethod( "run" ) ) );
+                assertThat( report.getNestingDepth(), is( 0 ) );
+                assertThat( report.isUnitOfWorkStarted(), is( true ) );
+                assertThat( report.isFailed(), is( false ) );
+                assertThat( report.getWorkMillis() >= 50, is( true ) );
+            }
+
+            @Test
+            public void reportFailedSlowTransaction()
+                throws Throwable
+            {
+                proceedSlowly();
+                doThrow( new IllegalStateException() ).when( txnFacade ).commit();
+
+                try
+                {
+                    sut.invoke( invocation );
+                    fail( "expected IllegalStateException to be thrown" );
+                }
+                catch ( IllegalStateException e )
+                {
+                    // expected
+                }
+
+                assertThat( slowTransactionSink.getReports().get( 0 ).isFailed(), is( true ) );
+            }
+
+            @Test
+            public void notReportFastTransaction()
+                throws Throwable
+            {
+                sut.invoke( invocation );
+
+                assertThat( slowTransactionSink.getReportCount(), is( 0L ) );
+            }
+
+            @Test
+            public void profileRollbackByExceptionType()
+                throws Throwable
+            {
+                final IllegalStateException exc = new IllegalStateException();
+                doThrow( exc ).when( invocation ).proceed();
+                doReturn( true ).when( txnAnnotationHelper ).isRollbackNecessaryFor( invocation, exc );
+
+                try
+                {
+                    sut.invoke( invocation );
+                    fail( "expected IllegalStateException to be thrown" );
+                }
+                catch ( IllegalStateException e )
+                {
+                    // expected
+                }
+
+                final TransactionalMethodProfile profile = profiler.getProfiles().get( 0 );
+                assertThat( profile.getCallCount(), is( 1L ) );
+                assertThat( profile.getOuterCount(), is( 1L ) );
+                assertThat( profile.getRollbacksByException().get( IllegalStateException.class.getName() ),
+                            is( 1L ) );
+                assertThat( profile.getRollbackLatency().getCount(), is( 1L ) );
+            }
+
+        }
+
+        public class StatementBudget
+        {
+
+            private final EntityManager[] em = new EntityManager[1];
+
+            @Before
+            public void setup()
+                throws Throwable
+            {
+                doReturn( false ).when( unitOfWork ).isActive();
+                doReturn( AsyncService.class.getMethod( "run" ) ).when( invocation ).getMethod();
+                doReturn( 1 ).when( txnAnnotationHelper ).getStatementBudget( invocation );
+                doReturn( true ).when( txnAnnotationHelper ).isRollbackNecessaryFor( any( MethodInvocation.class ),
+                                                                                    any( Throwable.class ) );
+                doAnswer( new Answer<Object>()
+                {
+                    public Object answer( InvocationOnMock invocationOnMock )
+                    {
+                        em[0] = queryCounter.wrap( mock( EntityManager.class ) );
+                        return null;
+                    }
+                } ).when( unitOfWork ).begin();
+            }
+
+            private void proceedWithFinds( final int finds )
+                throws Throwable
+            {
+                doAnswer( new Answer<Object>()
+                {
+                    public Object answer( InvocationOnMock invocationOnMock )
+                    {
+                        for ( int i = 0; i < finds; i++ )
+                        {
+                            em[0].find( Object.class, i );
+                        }
+                        return null;
+                    }
+                } ).when( invocation ).proceed();
+            }
+
+            @Test
+            public void commitWithinBudget()
+                throws Throwable
+            {
+                proceedWithFinds( 1 );
+
+                sut.invoke( invocation );
+
+                verify( txnFacade ).commit();
+                assertThat( queryCounter.getBudgetExceededCount(), is( 0L ) );
+            }
+
+            @Test
+            public void rollbackIfBudgetIsExceeded()
+                throws Throwable
+            {
+                proceedWithFinds( 2 );
+
+                try
+                {
+                    sut.invoke( invocation );
+                    fail( "expected StatementBudgetExceededException to be thrown" );
+                }
+                catch ( StatementBudgetExceededException e )
+                {
+                    assertThat( e.getStatementCount(), is( 2L ) );
+                    assertThat( e.getBudget(), is( 1 ) );
+                }
+
+                verify( txnFacade ).rollback();
+                verify( txnFacade, never() ).commit();
+                assertThat( queryCounter.getBudgetExceededCount(), is( 1L ) );
+            }
+
+            @Test
+            public void countStatementsIssuedByCommit()
+                throws Throwable
+            {
+                // given
+                final long[] statements = new long[1];
+                final SqlStatementCounter statementCounter = mock( SqlStatementCounter.class );
+                doAnswer( new Answer<Object>()
+                {
+                    public Object answer( InvocationOnMock invocationOnMock )
+                    {
+                        return statements[0];
+                    }
+                } ).when( statementCounter ).countStatements( any( EntityManager.class ) );
+                doAnswer( new Answer<Object>()
+                {
+                    public Object answer( InvocationOnMock invocationOnMock )
+                    {
+                        statements[0] += 2;
+                        return null;
+                    }
+                } ).when( txnFacade ).flush();
+                queryCounter = new QueryCounter( new QueryCountConfiguration( 3, true, statementCounter ) );
+                sut.init( unitOfWork, tfProvider, txnAnnotationHelper, contextGuard, replicaRouter, shardRouter,
+                          tenantRouter, chainCoordinator, asyncExecutor, priorityHolder, slowTransactionDetector,
+                          lifecycleNotifier, queryCounter, circuitBreaker );
+
+                // when
+                try
+                {
+                    sut.invoke( invocation );
+                    fail( "expected StatementBudgetExceededException to be thrown" );
+                }
+                catch ( StatementBudgetExceededException e )
+                {
+                    // then
+                    assertThat( e.getStatementCount(), is( 2L ) );
+                }
+
+                verify( txnFacade ).rollback();
+                verify( txnFacade, never() ).commit();
+            }
+
+            @Test
+            public void notFlushIfStatementsAreNotCounted()
+                throws Throwable
+            {
+                proceedWithFinds( 1 );
+
+                sut.invoke( invocation );
+
+                verify( txnFacade, never() ).flush();
+            }
+
+        }
+
+        public class LifecycleListener
+        {
+
+            private PersistenceLifecycleListener listener;
+
+            @Before
+            public void setup()
+                throws Throwable
+            {
+                listener = mock( PersistenceLifecycleListener.class );
+                lifecycleListeners.addListener( listener );
+                doReturn( false ).when( unitOfWork ).isActive();
+                doReturn( AsyncService.class.getMethod( "run" ) ).when( invocation ).getMethod();
+                doAnswer( new Answer<Object>()
+                {
+                    public Object answer( InvocationOnMock invocationOnMock )
+                    {
+                        lifecycleNotifier.unitOfWorkEnded( lifecycleNotifier.unitOfWorkBegun( System.nanoTime() ) );
+                        return null;
+                    }
+                } ).when( unitOfWork ).begin();
+            }
+
+            @Test
+            public void bindMethodWhileInvoking()
+                throws Throwable
+            {
+                final ArgumentCaptor<PersistenceLifecycleEvent> event =
+                    ArgumentCaptor.forClass( PersistenceLifecycleEvent.class );
+
+                sut.invoke( invocation );
+
+                verify( listener ).unitOfWorkBegun( event.capture() );
+                assertThat( event.getValue().getMethod(), is( AsyncService.class.getMethod( "run" ) ) );
+            }
+
+            @Test
+            public void unbindMethodAfterInvocation()
+                throws Throwable
+            {
+                final ArgumentCaptor<PersistenceLifecycleEvent> event =
+                    ArgumentCaptor.forClass( PersistenceLifecycleEvent.class );
+                sut.invoke( invocation );
+
+                lifecycleNotifier.transactionMarkedRollbackOnly();
+
+                verify( listener ).transactionMarkedRollbackOnly( event.capture() );
+                assertThat( event.getValue().getMethod(), is( (Method) null ) );
+            }
+
+        }
+
+        public class CircuitBreaker
+        {
+
+            @Before
+            public void setup()
+            {
+                doReturn( true ).when( unitOfWork ).isActive();
+                doReturn( true ).when( txnFacade ).isOuter();
+            }
+
+            private void invokeExpecting( Class<? extends RuntimeException> expected )
+                throws Throwable
+            {
+                try
+                {
+                    sut.invoke( invocation );
+                    fail( "expected " + expected.getSimpleName() + " to be thrown" );
+                }
+                catch ( RuntimeException e )
+                {
+                    assertThat( expected.isInstance( e ), is( true ) );
+                }
+            }
+
+            @Test
+            public void openAfterConsecutiveFailuresToBegin()
+                throws Throwable
+            {
+                doThrow( new PersistenceException() ).when( txnFacade ).begin();
+
+                invokeExpecting( PersistenceException.class );
+                invokeExpecting( PersistenceException.class );
+                invokeExpecting( CircuitBreakerOpenException.class );
+
+                verify( txnFacade, times( 2 ) ).begin();
+                verify( invocation, never() ).proceed();
+                assertThat( circuitBreaker.getCircuitState(), is( CircuitState.OPEN ) );
+                assertThat( circuitBreaker.getRejectedCount(), is( 1L ) );
+            }
+
+            @Test
+            public void successfulBeginResetsFailures()
+                throws Throwable
+            {
+                doThrow( new PersistenceException() ).doNothing().when( txnFacade ).begin();
+
+                invokeExpecting( PersistenceException.class );
+                sut.invoke( invocation );
+
+                assertThat( circuitBreaker.getCircuitState(), is( CircuitState.CLOSED ) );
+                assertThat( circuitBreaker.getConsecutiveFailures(), is( 0 ) );
+            }
+
+            @Test
+            public void otherExceptionsDoNotCount()
+                throws Throwable
+            {
+                doThrow( new IllegalStateException() ).when( txnFacade ).begin();
+
+                invokeExpecting( IllegalStateException.class );
+                invokeExpecting( IllegalStateException.class );
+                invokeExpecting( IllegalStateException.class );
+
+                assertThat( circuitBreaker.getCircuitState(), is( CircuitState.CLOSED ) );
+            }
+
+            @Test
+            public void nestedTransactionIgnoresOpenCircuit()
+                throws Throwable
+            {
+                // given
+                doReturn( false ).when( txnFacade ).isOuter();
+                circuitBreaker.recordFailure( new PersistenceException() );
+                circuitBreaker.recordFailure( new PersistenceException() );
+
+                // when
+                sut.invoke( invocation );
+
+                // then
+                verify( invocation ).proceed();
+                verify( txnFacade ).commit();
+                assertThat( circuitBreaker.getCircuitState(), is( CircuitState.OPEN ) );
+                assertThat( circuitBreaker.getRejectedCount(), is( 0L ) );
+            }
+
+            @Test
+            public void nestedTransactionDoesNotResetFailures()
+                throws Throwable
+            {
+                // given
+                doReturn( false ).when( txnFacade ).isOuter();
+                circuitBreaker.recordFailure( new PersistenceException() );
+
+                // when
+                sut.invoke( invocation );
+
+                // then
+                assertThat( circuitBreaker.getConsecutiveFailures(), is( 1 ) );
+            }
+
+        }
+
+        public class TransactionWithPriority
+        {
+
+            private final TransactionPriority[] priorityDuringInvocation = new TransactionPriority[1];
+
+            @Before
+            public void setup()
+                throws Throwable
+            {
+                doReturn( false ).when( unitOfWork ).isActive();
+                doReturn( TransactionPriority.BATCH ).when( txnAnnotationHelper ).getPriority( invocation );
+                doAnswer( new Answer<Object>()
+                {
+                    public Object answer( InvocationOnMock invocationOnMock )
+                    {
+                        priorityDuringInvocation[0] = priorityHolder.getEffectivePriority();
+                        return null;
+                    }
+                } ).when( unitOfWork ).begin();
+            }
+
+            @Test
+            public void bindPriorityWhileBeginningUnitOfWork()
+                throws Throwable
+            {
+                sut.invoke( invocation );
+
+                assertThat( priorityDuringInvocation[0], is( TransactionPriority.BATCH ) );
+                assertThat( priorityHolder.getPriority(), is( (TransactionPriority) null ) );
+            }
+
+            @Test
+            public void restorePreviousPriority()
+                throws Throwable
+            {
+                priorityHolder.setPriority( TransactionPriority.INTERACTIVE );
+
+                sut.invoke( invocation );
+
+                assertThat( priorityDuringInvocation[0], is( TransactionPriority.BATCH ) );
+                assertThat( priorityHolder.getPriority(), is( TransactionPriority.INTERACTIVE ) );
+            }
+
+            @Test
+            public void keepPriorityOfThreadForDefaultPriority()
+                throws Throwable
+            {
+                doReturn( TransactionPriority.DEFAULT ).when( txnAnnotationHelper ).getPriority( invocation );
+                priorityHolder.setPriority( TransactionPriority.BATCH );
+
+                sut.invoke( invocation );
+
+                assertThat( priorityDuringInvocation[0], is( TransactionPriority.BATCH ) );
+            }
+
+        }
+
+    }
+
+    public interface AsyncService
+    {
+        Future<String> run();
+
+        String runWithoutFuture();
     }
 
 }
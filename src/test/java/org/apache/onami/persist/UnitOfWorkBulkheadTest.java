@@ -0,0 +1,380 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Test for {@link UnitOfWorkBulkhead}.
+ */
+public class UnitOfWorkBulkheadTest
+{
+
+    private final TransactionPriorityHolder priorityHolder = new TransactionPriorityHolder();
+
+    @After
+    public void tearDown()
+    {
+        priorityHolder.clearPriority();
+    }
+
+    private UnitOfWorkBulkhead bulkhead( BulkheadConfiguration config )
+    {
+        return new UnitOfWorkBulkhead( config, null, priorityHolder );
+    }
+
+    private UnitOfWorkBulkhead bulkhead( BulkheadConfiguration config, PriorityLaneConfiguration lanes )
+    {
+        return new UnitOfWorkBulkhead( config, lanes, priorityHolder );
+    }
+
+    @Test
+    public void shouldNotLimitWithoutConfiguration()
+    {
+        final UnitOfWorkBulkhead sut = bulkhead( null );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            sut.acquire();
+        }
+
+        assertThat( sut.getMaxConcurrent(), is( 0 ) );
+        assertThat( sut.getAvailablePermits(), is( 0 ) );
+        assertThat( sut.getRejectedCount(), is( 0L ) );
+    }
+
+    @Test
+    public void shouldGrantPermitsUpToLimit()
+    {
+        final UnitOfWorkBulkhead sut = bulkhead( new BulkheadConfiguration( 2, 0, false ) );
+
+        sut.acquire();
+        sut.acquire();
+
+        assertThat( sut.getMaxConcurrent(), is( 2 ) );
+        assertThat( sut.getAvailablePermits(), is( 0 ) );
+    }
+
+    @Test
+    public void shouldRejectWhenLimitIsReached()
+    {
+        final UnitOfWorkBulkhead sut = bulkhead( new BulkheadConfiguration( 1, 10, false ) );
+        sut.acquire();
+
+        try
+        {
+            sut.acquire();
+        }
+        catch ( BulkheadRejectedException e )
+        {
+            assertThat( e.getMaxConcurrent(), is( 1 ) );
+            assertThat( sut.getRejectedCount(), is( 1L ) );
+            return;
+        }
+        fail( "expected BulkheadRejectedException to be thrown" );
+    }
+
+    @Test
+    public void shouldGrantPermitAfterRelease()
+    {
+        final UnitOfWorkBulkhead sut = bulkhead( new BulkheadConfiguration( 1, 0, false ) );
+        sut.acquire();
+
+        sut.release();
+        sut.acquire();
+
+        assertThat( sut.getRejectedCount(), is( 0L ) );
+    }
+
+    @Test
+    public void shouldWaitForReleasedPermit()
+        throws Exception
+    {
+        final UnitOfWorkBulkhead sut = bulkhead( new BulkheadConfiguration( 1, 10000, true ) );
+        sut.acquire();
+        final CountDownLatch acquired = new CountDownLatch( 1 );
+        final Thread waiting = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                sut.acquire();
+                acquired.countDown();
+            }
+        };
+        waiting.start();
+
+        while ( sut.getWaitingThreads() == 0 )
+        {
+            Thread.sleep( 5 );
+        }
+        sut.release();
+
+        assertThat( acquired.await( 10, TimeUnit.SECONDS ), is( true ) );
+        assertThat( sut.getRejectedCount(), is( 0L ) );
+    }
+
+    @Test
+    public void shouldRejectAndKeepInterruptFlagWhenInterrupted()
+    {
+        final UnitOfWorkBulkhead sut = bulkhead( new BulkheadConfiguration( 1, 10000, false ) );
+        sut.acquire();
+        Thread.currentThread().interrupt();
+
+        try
+        {
+            sut.acquire();
+        }
+        catch ( BulkheadRejectedException e )
+        {
+            assertThat( Thread.interrupted(), is( true ) );
+            assertThat( sut.getRejectedCount(), is( 1L ) );
+            return;
+        }
+        fail( "expected BulkheadRejectedException to be thrown" );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void shouldRejectNegativeTimeout()
+    {
+        new BulkheadConfiguration( 1, -1, false );
+    }
+
+    @Test
+    public void shouldCountActiveUnitsOfWorkPerPriority()
+    {
+        final UnitOfWorkBulkhead sut = bulkhead( new BulkheadConfiguration( 2, 0, false ) );
+
+        sut.acquire();
+        priorityHolder.setPriority( TransactionPriority.BATCH );
+        sut.acquire();
+
+        assertThat( sut.getActiveUnitsOfWork( TransactionPriority.INTERACTIVE ), is( 1 ) );
+        assertThat( sut.getActiveUnitsOfWork( TransactionPriority.BATCH ), is( 1 ) );
+    }
+
+    @Test
+    public void shouldLimitLaneToItsShare()
+    {
+        final PriorityLaneConfiguration lanes = new PriorityLaneConfiguration();
+        lanes.addLane( TransactionPriority.BATCH, 0, 50 );
+        final UnitOfWorkBulkhead sut = bulkhead( new BulkheadConfiguration( 4, 0, false ), lanes );
+        priorityHolder.setPriority( TransactionPriority.BATCH );
+        sut.acquire();
+        sut.acquire();
+
+        try
+        {
+            sut.acquire();
+            fail( "expected BulkheadRejectedException to be thrown" );
+        }
+        catch ( BulkheadRejectedException e )
+        {
+            // expected
+        }
+        priorityHolder.setPriority( TransactionPriority.INTERACTIVE );
+        sut.acquire();
+
+        assertThat( sut.getActiveUnitsOfWork( TransactionPriority.BATCH ), is( 2 ) );
+        assertThat( sut.getAvailablePermits(), is( 1 ) );
+    }
+
+    @Test
+    public void shouldKeepReservedPermitsForLane()
+    {
+        final PriorityLaneConfiguration lanes = new PriorityLaneConfiguration();
+        lanes.addLane( TransactionPriority.INTERACTIVE, 1, 100 );
+        final UnitOfWorkBulkhead sut = bulkhead( new BulkheadConfiguration( 2, 0, false ), lanes );
+        priorityHolder.setPriority( TransactionPriority.BATCH );
+        sut.acquire();
+
+        try
+        {
+            sut.acquire();
+            fail( "expected BulkheadRejectedException to be thrown" );
+        }
+        catch ( BulkheadRejectedException e )
+        {
+            // expected
+        }
+        priorityHolder.setPriority( TransactionPriority.INTERACTIVE );
+        sut.acquire();
+
+        assertThat( sut.getAvailablePermits(), is( 0 ) );
+    }
+
+    @Test
+    public void shouldAdmitWaitingInteractiveBeforeWaitingBatch()
+        throws Exception
+    {
+        final PriorityLaneConfiguration lanes = new PriorityLaneConfiguration();
+        lanes.addLane( TransactionPriority.BATCH, 0, 100 );
+        final UnitOfWorkBulkhead sut = bulkhead( new BulkheadConfiguration( 1, 10000, false ), lanes );
+        sut.acquire();
+        final CountDownLatch batchAcquired = new CountDownLatch( 1 );
+        final CountDownLatch interactiveAcquired = new CountDownLatch( 1 );
+        final CountDownLatch interactiveRelease = new CountDownLatch( 1 );
+        startAcquiring( sut, TransactionPriority.BATCH, batchAcquired, new CountDownLatch( 0 ) );
+        waitForWaitingThreads( sut, 1 );
+        startAcquiring( sut, TransactionPriority.INTERACTIVE, interactiveAcquired, interactiveRelease );
+        waitForWaitingThreads( sut, 2 );
+
+        sut.release();
+
+        assertThat( interactiveAcquired.await( 10, TimeUnit.SECONDS ), is( true ) );
+        assertThat( batchAcquired.getCount(), is( 1L ) );
+        interactiveRelease.countDown();
+        assertThat( batchAcquired.await( 10, TimeUnit.SECONDS ), is( true ) );
+    }
+
+    @Test
+    public void shouldNeverAdmitMoreThanLimitConcurrently()
+        throws Exception
+    {
+        final PriorityLaneConfiguration lanes = new PriorityLaneConfiguration();
+        lanes.addLane( TransactionPriority.INTERACTIVE, 1, 100 );
+        lanes.addLane( TransactionPriority.BATCH, 0, 50 );
+        final UnitOfWorkBulkhead sut = bulkhead( new BulkheadConfiguration( 4, 30000, false ), lanes );
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        final AtomicInteger activeBatch = new AtomicInteger();
+        final AtomicInteger maxActiveBatch = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch( 1 );
+
+        final ExecutorService executor = Executors.newFixedThreadPool( 16 );
+        try
+        {
+            final List<Future<?>> futures = new ArrayList<Future<?>>();
+            for ( int i = 0; i < 16; i++ )
+            {
+                final TransactionPriority priority =
+                    i % 2 == 0 ? TransactionPriority.BATCH : TransactionPriority.INTERACTIVE;
+                futures.add( executor.submit( new Callable<Object>()
+                {
+                    public Object call()
+                        throws Exception
+                    {
+                        priorityHolder.setPriority( priority );
+                        start.await();
+                        for ( int j = 0; j < 200; j++ )
+                        {
+                            sut.acquire();
+                            try
+                            {
+                                updateMax( maxActive, active.incrementAndGet() );
+                                if ( priority == TransactionPriority.BATCH )
+                                {
+                                    updateMax( maxActiveBatch, activeBatch.incrementAndGet() );
+                                    activeBatch.decrementAndGet();
+                                }
+                                Thread.yield();
+                                active.decrementAndGet();
+                            }
+                            finally
+                            {
+                                sut.release();
+                            }
+                        }
+                        return null;
+                    }
+                } ) );
+            }
+            start.countDown();
+            for ( Future<?> future : futures )
+            {
+                future.get( 60, TimeUnit.SECONDS );
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        assertThat( maxActive.get() <= 4, is( true ) );
+        assertThat( maxActiveBatch.get() <= 2, is( true ) );
+        assertThat( sut.getAvailablePermits(), is( 4 ) );
+    }
+
+    private static void updateMax( AtomicInteger max, int value )
+    {
+        int current = max.get();
+        while ( value > current && !max.compareAndSet( current, value ) )
+        {
+            current = max.get();
+        }
+    }
+
+    private void startAcquiring( final UnitOfWorkBulkhead sut, final TransactionPriority priority,
+                                 final CountDownLatch acquired, final CountDownLatch release )
+    {
+        final Thread thread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                priorityHolder.setPriority( priority );
+                sut.acquire();
+                acquired.countDown();
+                try
+                {
+                    release.await( 10, TimeUnit.SECONDS );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+                sut.release();
+            }
+        };
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+    private static void waitForWaitingThreads( UnitOfWorkBulkhead sut, int expected )
+        throws InterruptedException
+    {
+        while ( sut.getWaitingThreads() < expected )
+        {
+            Thread.sleep( 5 );
+        }
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void shouldRejectLaneForDefaultPriority()
+    {
+        new PriorityLaneConfiguration().addLane( TransactionPriority.DEFAULT, 1, 50 );
+    }
+
+}
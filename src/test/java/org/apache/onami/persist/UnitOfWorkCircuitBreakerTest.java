@@ -0,0 +1,226 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceException;
+import javax.persistence.Query;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+/**
+ * Test for {@link UnitOfWorkCircuitBreaker}.
+ */
+public class UnitOfWorkCircuitBreakerTest
+{
+
+    private EntityManagerFactoryProvider emfProvider;
+
+    private EntityManagerFactory emf;
+
+    private Query query;
+
+    @Before
+    public void setUp()
+    {
+        emfProvider = mock( EntityManagerFactoryProvider.class );
+        emf = mock( EntityManagerFactory.class );
+        final EntityManager em = mock( EntityManager.class );
+        query = mock( Query.class );
+        doReturn( emf ).when( emfProvider ).get();
+        doReturn( em ).when( emf ).createEntityManager();
+        doReturn( query ).when( em ).createNativeQuery( anyString() );
+    }
+
+    private UnitOfWorkCircuitBreaker circuitBreaker( long healthTtlMillis, int failureThreshold,
+                                                     long probeIntervalMillis )
+    {
+        return new UnitOfWorkCircuitBreaker(
+            new CircuitBreakerConfiguration( "SELECT 1", healthTtlMillis, failureThreshold, probeIntervalMillis ),
+            emfProvider, new AnnotationHolder( null ) );
+    }
+
+    private static void assertRejected( UnitOfWorkCircuitBreaker sut )
+    {
+        try
+        {
+            sut.beforeBegin();
+            fail( "expected CircuitBreakerOpenException" );
+        }
+        catch ( CircuitBreakerOpenException e )
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void shouldDoNothingIfDisabled()
+    {
+        final UnitOfWorkCircuitBreaker sut =
+            new UnitOfWorkCircuitBreaker( null, emfProvider, new AnnotationHolder( null ) );
+
+        sut.recordFailure( new PersistenceException() );
+        sut.beforeBegin();
+
+        assertThat( sut.isHealthy(), is( true ) );
+        assertThat( sut.getCircuitState(), is( CircuitState.CLOSED ) );
+        verifyZeroInteractions( emfProvider );
+    }
+
+    @Test
+    public void shouldOpenAfterConsecutiveFailures()
+    {
+        final UnitOfWorkCircuitBreaker sut = circuitBreaker( 0, 2, 60000 );
+
+        sut.recordFailure( new PersistenceException() );
+        sut.beforeBegin();
+        sut.recordFailure( new PersistenceException() );
+
+        assertThat( sut.getCircuitState(), is( CircuitState.OPEN ) );
+        assertRejected( sut );
+        assertThat( sut.getRejectedCount(), is( 1L ) );
+        verifyZeroInteractions( emfProvider );
+    }
+
+    @Test
+    public void shouldNotOpenIfFailuresAreInterruptedBySuccess()
+    {
+        final UnitOfWorkCircuitBreaker sut = circuitBreaker( 0, 2, 60000 );
+
+        sut.recordFailure( new PersistenceException() );
+        sut.recordSuccess();
+        sut.recordFailure( new PersistenceException() );
+
+        assertThat( sut.getCircuitState(), is( CircuitState.CLOSED ) );
+        assertThat( sut.getConsecutiveFailures(), is( 1 ) );
+    }
+
+    @Test
+    public void shouldCloseIfProbeSucceeds()
+    {
+        final UnitOfWorkCircuitBreaker sut = circuitBreaker( 0, 1, 0 );
+        sut.recordFailure( new PersistenceException() );
+
+        sut.beforeBegin();
+
+        assertThat( sut.getCircuitState(), is( CircuitState.CLOSED ) );
+        assertThat( sut.getConsecutiveFailures(), is( 0 ) );
+        verify( query ).getResultList();
+    }
+
+    @Test
+    public void shouldStayOpenIfProbeFails()
+    {
+        final UnitOfWorkCircuitBreaker sut = circuitBreaker( 0, 1, 0 );
+        sut.recordFailure( new PersistenceException() );
+        doThrow( new PersistenceException() ).when( query ).getResultList();
+
+        assertRejected( sut );
+
+        assertThat( sut.getCircuitState(), is( CircuitState.OPEN ) );
+    }
+
+    @Test
+    public void shouldCacheHealthCheck()
+    {
+        final UnitOfWorkCircuitBreaker sut = circuitBreaker( 60000, 1, 0 );
+
+        assertThat( sut.isHealthy(), is( true ) );
+        assertThat( sut.isHealthy(), is( true ) );
+
+        verify( emf, times( 1 ) ).createEntityManager();
+    }
+
+    @Test
+    public void shouldReturnCachedResultWhileHealthCheckIsRefreshed()
+        throws Exception
+    {
+        // given
+        final UnitOfWorkCircuitBreaker sut = circuitBreaker( 0, 1, 0 );
+        assertThat( sut.isHealthy(), is( true ) );
+        final CountDownLatch queryStarted = new CountDownLatch( 1 );
+        final CountDownLatch releaseQuery = new CountDownLatch( 1 );
+        doAnswer( new Answer<Object>()
+        {
+            // @Override
+            public Object answer( InvocationOnMock invocation )
+                throws Throwable
+            {
+                queryStarted.countDown();
+                releaseQuery.await();
+                throw new PersistenceException();
+            }
+        } ).when( query ).getResultList();
+        final Thread refresher = new Thread( new Runnable()
+        {
+            // @Override
+            public void run()
+            {
+                sut.isHealthy();
+            }
+        } );
+        refresher.start();
+        assertThat( queryStarted.await( 5, TimeUnit.SECONDS ), is( true ) );
+
+        // when
+        final boolean healthyWhileRefreshing = sut.isHealthy();
+        releaseQuery.countDown();
+        refresher.join( 5000 );
+
+        // then
+        assertThat( healthyWhileRefreshing, is( true ) );
+        verify( emf, times( 2 ) ).createEntityManager();
+        assertThat( sut.isHealthy(), is( false ) );
+    }
+
+    @Test
+    public void shouldBeUnhealthyIfValidationQueryFails()
+    {
+        final UnitOfWorkCircuitBreaker sut = circuitBreaker( 0, 1, 0 );
+        doThrow( new PersistenceException() ).when( query ).getResultList();
+
+        assertThat( sut.isHealthy(), is( false ) );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void failureThresholdMustBePositive()
+    {
+        new CircuitBreakerConfiguration( "SELECT 1", 0, 0, 0 );
+    }
+
+}
@@ -0,0 +1,244 @@
+package org.apache.onami.persist;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Test for {@link UnitOfWorkLeakDetector}.
+ */
+public class UnitOfWorkLeakDetectorTest
+{
+
+    private EntityManager em;
+
+    private UnitOfWorkBulkhead bulkhead;
+
+    private UnitOfWorkLeakDetector sut;
+
+    @Before
+    public void setUp()
+    {
+        em = mock( EntityManager.class );
+        doReturn( true ).when( em ).isOpen();
+        bulkhead = new UnitOfWorkBulkhead( new BulkheadConfiguration( 1, 0, false ), null,
+                                           new TransactionPriorityHolder() );
+    }
+
+    @After
+    public void tearDown()
+    {
+        if ( sut != null )
+        {
+            sut.stop();
+        }
+    }
+
+    @Test
+    public void shouldRecordNothingIfDisabled()
+    {
+        sut = new UnitOfWorkLeakDetector( null );
+
+        final UnitOfWorkLeakDetector.ActiveUnitOfWork unitOfWork = sut.register( em, null, bulkhead );
+        sut.touch( unitOfWork );
+        sut.unregister( unitOfWork );
+
+        assertThat( unitOfWork == null, is( true ) );
+        assertThat( sut.getActiveUnitsOfWork(), is( 0 ) );
+    }
+
+    @Test
+    public void shouldNotReportUnitOfWorkWithinThreshold()
+    {
+        sut = new UnitOfWorkLeakDetector( new LeakDetectionConfiguration( 60000, true, true ) );
+        sut.register( em, null, bulkhead );
+
+        sut.checkForLeaks();
+
+        assertThat( sut.getActiveUnitsOfWork(), is( 1 ) );
+        assertThat( sut.getLeakedCount(), is( 0L ) );
+        verify( em, never() ).close();
+    }
+
+    @Test
+    public void shouldReportIdleUnitOfWorkOnce()
+        throws Exception
+    {
+        sut = new UnitOfWorkLeakDetector( new LeakDetectionConfiguration( 1, true, false ) );
+        sut.register( em, null, bulkhead );
+        Thread.sleep( 5 );
+
+        sut.checkForLeaks();
+        sut.checkForLeaks();
+
+        assertThat( sut.getLeakedCount(), is( 1L ) );
+        assertThat( sut.getForceClosedCount(), is( 0L ) );
+        verify( em, never() ).close();
+    }
+
+    @Test
+    public void shouldNeverCloseIdleUnitOfWorkOfLiveThread()
+        throws Exception
+    {
+        sut = new UnitOfWorkLeakDetector( new LeakDetectionConfiguration( 1, false, true ) );
+        bulkhead.acquire();
+        sut.register( em, null, bulkhead );
+        Thread.sleep( 5 );
+
+        sut.checkForLeaks();
+
+        assertThat( sut.getLeakedCount(), is( 1L ) );
+        assertThat( sut.getForceClosedCount(), is( 0L ) );
+        assertThat( sut.getActiveUnitsOfWork(), is( 1 ) );
+        assertThat( bulkhead.getAvailablePermits(), is( 0 ) );
+        verify( em, never() ).close();
+    }
+
+    @Test
+    public void shouldOnlyReportUnitOfWorkOfTerminatedThreadByDefault()
+        throws Exception
+    {
+        sut = new UnitOfWorkLeakDetector( new LeakDetectionConfiguration( 60000, false, false ) );
+        registerInTerminatedThread( null );
+
+        sut.checkForLeaks();
+
+        assertThat( sut.getLeakedCount(), is( 1L ) );
+        assertThat( sut.getForceClosedCount(), is( 0L ) );
+        verify( em, never() ).close();
+    }
+
+    @Test
+    public void shouldCloseUnitOfWorkOfTerminatedThreadIfConfigured()
+        throws Exception
+    {
+        sut = new UnitOfWorkLeakDetector( new LeakDetectionConfiguration( 60000, false, true ) );
+        registerInTerminatedThread( null );
+
+        sut.checkForLeaks();
+        sut.checkForLeaks();
+
+        assertThat( sut.getLeakedCount(), is( 1L ) );
+        assertThat( sut.getForceClosedCount(), is( 1L ) );
+        assertThat( sut.getActiveUnitsOfWork(), is( 0 ) );
+        verify( em ).close();
+    }
+
+    @Test
+    public void shouldReleaseBulkheadPermitOfTerminatedThread()
+        throws Exception
+    {
+        sut = new UnitOfWorkLeakDetector( new LeakDetectionConfiguration( 60000, false, true ) );
+        registerInTerminatedThread( null );
+        final int availableBeforeCheck = bulkhead.getAvailablePermits();
+
+        sut.checkForLeaks();
+        sut.checkForLeaks();
+
+        assertThat( availableBeforeCheck, is( 0 ) );
+        assertThat( bulkhead.getAvailablePermits(), is( 1 ) );
+    }
+
+    @Test
+    public void shouldReleaseEntityManagerFactoryOfTerminatedThread()
+        throws Exception
+    {
+        sut = new UnitOfWorkLeakDetector( new LeakDetectionConfiguration( 60000, false, true ) );
+        final EntityManagerFactory emf = mock( EntityManagerFactory.class );
+        final TrackedEntityManagerFactory trackedEmf = new TrackedEntityManagerFactory( emf );
+        registerInTerminatedThread( trackedEmf );
+        trackedEmf.retire();
+        final int activeBeforeCheck = trackedEmf.getActiveUnitsOfWork();
+
+        sut.checkForLeaks();
+        sut.checkForLeaks();
+
+        assertThat( activeBeforeCheck, is( 1 ) );
+        assertThat( trackedEmf.getActiveUnitsOfWork(), is( 0 ) );
+        assertThat( trackedEmf.isClosed(), is( true ) );
+        verify( emf ).close();
+    }
+
+    @Test
+    public void shouldRemoveEndedUnitOfWork()
+    {
+        sut = new UnitOfWorkLeakDetector( new LeakDetectionConfiguration( 60000, false, false ) );
+        final UnitOfWorkLeakDetector.ActiveUnitOfWork unitOfWork = sut.register( em, null, bulkhead );
+
+        sut.unregister( unitOfWork );
+
+        assertThat( sut.getActiveUnitsOfWork(), is( 0 ) );
+        assertThat( sut.getOldestUnitOfWorkAgeMillis(), is( 0L ) );
+    }
+
+    @Test
+    public void shouldCheckInBackground()
+        throws Exception
+    {
+        sut = new UnitOfWorkLeakDetector( new LeakDetectionConfiguration( 2, false, true ) );
+        sut.start();
+        registerInTerminatedThread( null );
+
+        for ( int i = 0; i < 1000 && sut.getForceClosedCount() == 0; i++ )
+        {
+            Thread.sleep( 5 );
+        }
+
+        assertThat( sut.getForceClosedCount(), is( 1L ) );
+    }
+
+    /**
+     * Begins a unit of work in a new thread which terminates without ending it.
+     *
+     * @param trackedEmf the entity manager factory acquired by the unit of work. May be {@code null}.
+     */
+    private void registerInTerminatedThread( final TrackedEntityManagerFactory trackedEmf )
+        throws InterruptedException
+    {
+        final Thread thread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                bulkhead.acquire();
+                if ( trackedEmf != null )
+                {
+                    trackedEmf.acquire();
+                }
+                sut.register( em, trackedEmf, bulkhead );
+            }
+        };
+        thread.start();
+        thread.join();
+    }
+
+}
@@ -47,6 +47,7 @@ import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -60,12 +61,15 @@ public class UserTransactionFacadeTest
 
     private UserTransaction txn;
 
+    private PersistenceLifecycleNotifier lifecycleNotifier;
+
     @Before
     public void setup()
         throws Exception
     {
         txn = mock( UserTransaction.class );
-        sut = new UserTransactionFacade( txn );
+        lifecycleNotifier = mock( PersistenceLifecycleNotifier.class );
+        sut = new UserTransactionFacade( txn, lifecycleNotifier );
     }
 
     @Test
@@ -241,6 +245,31 @@ public class UserTransactionFacadeTest
         assertThat( duration, is( greaterThan( 1000L ) ) );
     }
 
+    @Test
+    public void retriesShouldBeReportedToLifecycleListeners()
+        throws Exception
+    {
+        final PersistenceLifecycleContext context = new PersistenceLifecycleContext( 0 );
+        doReturn( context ).when( lifecycleNotifier ).transactionStatusUnknown();
+        doReturn( STATUS_UNKNOWN ).doReturn( STATUS_ACTIVE ).when( txn ).getStatus();
+
+        sut.isActive();
+
+        verify( txn, times( 2 ) ).getStatus();
+        verify( lifecycleNotifier ).transactionStatusRetried( context );
+    }
+
+    @Test
+    public void knownStatusShouldNotBeReportedToLifecycleListeners()
+        throws Exception
+    {
+        doReturn( STATUS_ACTIVE ).when( txn ).getStatus();
+
+        sut.isActive();
+
+        verify( lifecycleNotifier, never() ).transactionStatusUnknown();
+    }
+
     @Test
     public void isActiveUsesStatusOfTransaction()
         throws Exception
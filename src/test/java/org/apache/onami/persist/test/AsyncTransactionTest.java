@@ -0,0 +1,269 @@
+package org.apache.onami.persist.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.apache.onami.persist.AsyncExecutorStatistics;
+import org.apache.onami.persist.AsyncResult;
+import org.apache.onami.persist.EntityManagerProvider;
+import org.apache.onami.persist.PersistenceModule;
+import org.apache.onami.persist.PersistenceService;
+import org.apache.onami.persist.ShardContext;
+import org.apache.onami.persist.ShardResolver;
+import org.apache.onami.persist.TenantContext;
+import org.apache.onami.persist.TenantPropertiesResolver;
+import org.apache.onami.persist.Transactional;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.inject.Inject;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests asynchronous transactions with a real persistence provider.
+ */
+public class AsyncTransactionTest
+{
+
+    private Injector injector;
+
+    private Repository repository;
+
+    @Before
+    public void setUp()
+    {
+        injector = Guice.createInjector( new PersistenceModule()
+        {
+            @Override
+            protected void configurePersistence()
+            {
+                bindApplicationManagedPersistenceUnit( "testUnit" ).useAsyncExecutor( 2, 10 );
+            }
+        } );
+        injector.getInstance( PersistenceService.class ).start();
+        repository = injector.getInstance( Repository.class );
+    }
+
+    @After
+    public void tearDown()
+    {
+        injector.getInstance( PersistenceService.class ).stop();
+    }
+
+    @Test
+    public void futureShouldBeCompletedAfterCommit()
+        throws Exception
+    {
+        final Future<UUID> future = repository.persistAsync();
+
+        final UUID id = future.get( 10, TimeUnit.SECONDS );
+        assertThat( repository.find( id ), is( notNullValue() ) );
+    }
+
+    @Test
+    public void futureShouldFailAfterRollback()
+        throws Exception
+    {
+        final Future<UUID> future = repository.persistAsyncAndFail();
+
+        try
+        {
+            future.get( 10, TimeUnit.SECONDS );
+            fail( "expected ExecutionException to be thrown" );
+        }
+        catch ( ExecutionException e )
+        {
+            assertThat( e.getCause(), is( instanceOf( IllegalArgumentException.class ) ) );
+            assertThat( repository.find( UUID.fromString( e.getCause().getMessage() ) ), is( nullValue() ) );
+        }
+    }
+
+    @Test
+    public void nestedAsynchronousCallShouldRunOnTheSameWorker()
+        throws Exception
+    {
+        final Future<Boolean> future = repository.callNestedAsync();
+
+        assertThat( future.get( 10, TimeUnit.SECONDS ), is( true ) );
+    }
+
+    @Test
+    public void shouldExposeStatistics()
+    {
+        final AsyncExecutorStatistics statistics = injector.getInstance( AsyncExecutorStatistics.class );
+
+        assertThat( statistics.getMaximumThreads(), is( 2 ) );
+        assertThat( statistics.getQueueCapacity(), is( 10 ) );
+        assertThat( statistics.getRejectedCount(), is( 0L ) );
+    }
+
+    @Test
+    public void shouldRunWithTenantOfCaller()
+        throws Exception
+    {
+        final Injector tenantInjector = Guice.createInjector( new PersistenceModule()
+        {
+            @Override
+            protected void configurePersistence()
+            {
+                bindApplicationManagedPersistenceUnit( "testUnit" ).useAsyncExecutor( 2, 10 ).useTenants(
+                    new DatabasePerTenant(), 2, 0 );
+            }
+        } );
+        tenantInjector.getInstance( PersistenceService.class ).start();
+        final TenantContext tenantContext = tenantInjector.getInstance( TenantContext.class );
+        final Repository tenantRepository = tenantInjector.getInstance( Repository.class );
+        try
+        {
+            tenantContext.setTenantId( "alpha" );
+            final UUID id = tenantRepository.persistAsync().get( 10, TimeUnit.SECONDS );
+            assertThat( tenantRepository.find( id ), is( notNullValue() ) );
+
+            tenantContext.setTenantId( "beta" );
+            assertThat( tenantRepository.find( id ), is( nullValue() ) );
+        }
+        finally
+        {
+            tenantContext.clearTenantId();
+            tenantInjector.getInstance( PersistenceService.class ).stop();
+        }
+    }
+
+    @Test
+    public void shouldRunWithShardKeyOfCaller()
+        throws Exception
+    {
+        final Properties shard0 = new Properties();
+        shard0.setProperty( "hibernate.connection.url", "jdbc:hsqldb:mem:async_shard0" );
+        final Properties shard1 = new Properties();
+        shard1.setProperty( "hibernate.connection.url", "jdbc:hsqldb:mem:async_shard1" );
+        final Injector shardInjector = Guice.createInjector( new PersistenceModule()
+        {
+            @Override
+            protected void configurePersistence()
+            {
+                bindApplicationManagedPersistenceUnit( "testUnit" ).useAsyncExecutor( 2, 10 ).useShards(
+                    new EvenOddResolver(), shard0, shard1 );
+            }
+        } );
+        shardInjector.getInstance( PersistenceService.class ).start();
+        final ShardContext shardContext = shardInjector.getInstance( ShardContext.class );
+        final Repository shardRepository = shardInjector.getInstance( Repository.class );
+        try
+        {
+            shardContext.setShardKey( 3 );
+            final UUID id = shardRepository.persistAsync().get( 10, TimeUnit.SECONDS );
+            assertThat( shardRepository.find( id ), is( notNullValue() ) );
+
+            shardContext.setShardKey( 2 );
+            assertThat( shardRepository.find( id ), is( nullValue() ) );
+        }
+        finally
+        {
+            shardContext.clearShardKey();
+            shardInjector.getInstance( PersistenceService.class ).stop();
+        }
+    }
+
+    public static class Repository
+    {
+
+        private final EntityManagerProvider emProvider;
+
+        @Inject
+        public Repository( EntityManagerProvider emProvider )
+        {
+            this.emProvider = emProvider;
+        }
+
+        @Transactional( async = true )
+        public Future<UUID> persistAsync()
+        {
+            final TestEntity entity = new TestEntity();
+            emProvider.get().persist( entity );
+            return new AsyncResult<UUID>( entity.getId() );
+        }
+
+        @Transactional( async = true )
+        public Future<UUID> persistAsyncAndFail()
+        {
+            final TestEntity entity = new TestEntity();
+            emProvider.get().persist( entity );
+            emProvider.get().flush();
+            throw new IllegalArgumentException( entity.getId().toString() );
+        }
+
+        @Transactional( async = true )
+        public Future<Boolean> callNestedAsync()
+            throws Exception
+        {
+            final Future<String> nested = workerName();
+            final boolean sameWorker = Thread.currentThread().getName().equals( nested.get() );
+            return new AsyncResult<Boolean>( nested instanceof AsyncResult && sameWorker );
+        }
+
+        @Transactional( async = true )
+        public Future<String> workerName()
+        {
+            return new AsyncResult<String>( Thread.currentThread().getName() );
+        }
+
+        @Transactional
+        public TestEntity find( UUID id )
+        {
+            return emProvider.get().find( TestEntity.class, id );
+        }
+
+    }
+
+    private static class DatabasePerTenant
+        implements TenantPropertiesResolver
+    {
+        public Properties resolveProperties( String tenantId )
+        {
+            final Properties properties = new Properties();
+            properties.setProperty( "hibernate.connection.url", "jdbc:hsqldb:mem:async_tenant_" + tenantId );
+            return properties;
+        }
+    }
+
+    private static class EvenOddResolver
+        implements ShardResolver
+    {
+        public int resolveShard( Object shardKey, int numberOfShards )
+        {
+            return (Integer) shardKey % numberOfShards;
+        }
+    }
+
+}
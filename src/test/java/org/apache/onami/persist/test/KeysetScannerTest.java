@@ -0,0 +1,256 @@
+package org.apache.onami.persist.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.apache.onami.persist.EntityManagerProvider;
+import org.apache.onami.persist.KeysetScanner;
+import org.apache.onami.persist.PageHandler;
+import org.apache.onami.persist.PersistenceModule;
+import org.apache.onami.persist.PersistenceService;
+import org.apache.onami.persist.UnitOfWork;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the {@link KeysetScanner} with a real persistence provider.
+ */
+public class KeysetScannerTest
+{
+
+    private static final int NUM_ENTITIES = 10;
+
+    private Injector injector;
+
+    private UnitOfWork unitOfWork;
+
+    private KeysetScanner sut;
+
+    private final Set<UUID> scannedIds = Collections.synchronizedSet( new HashSet<UUID>() );
+
+    @Before
+    public void setUp()
+    {
+        injector = Guice.createInjector( new PersistenceModule()
+        {
+            @Override
+            protected void configurePersistence()
+            {
+                bindApplicationManagedPersistenceUnit( "testUnit" );
+            }
+        } );
+
+        injector.getInstance( PersistenceService.class ).start();
+        unitOfWork = injector.getInstance( UnitOfWork.class );
+        sut = injector.getInstance( KeysetScanner.class );
+
+        unitOfWork.begin();
+        try
+        {
+            final EntityManager em = injector.getInstance( EntityManagerProvider.class ).get();
+            em.getTransaction().begin();
+            for ( int i = 0; i < NUM_ENTITIES; i++ )
+            {
+                em.persist( new TestEntity() );
+            }
+            em.getTransaction().commit();
+        }
+        finally
+        {
+            unitOfWork.end();
+        }
+    }
+
+    @After
+    public void tearDown()
+    {
+        injector.getInstance( PersistenceService.class ).stop();
+    }
+
+    @Test
+    public void shouldScanAllEntitiesPageByPage()
+    {
+        final long count = sut.scan( TestEntity.class, "id", 3, new CollectingHandler() );
+
+        assertThat( count, is( (long) NUM_ENTITIES ) );
+        assertThat( scannedIds.size(), is( NUM_ENTITIES ) );
+        assertThat( unitOfWork.isActive(), is( false ) );
+    }
+
+    @Test
+    public void shouldProcessPagesInExecutor()
+    {
+        final ExecutorService executor = Executors.newFixedThreadPool( 2 );
+        try
+        {
+            final long count = sut.scan( TestEntity.class, "id", 3, new CollectingHandler(), executor, 2 );
+
+            assertThat( count, is( (long) NUM_ENTITIES ) );
+            assertThat( scannedIds.size(), is( NUM_ENTITIES ) );
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldPropagateExceptionOfHandler()
+    {
+        final ExecutorService executor = Executors.newFixedThreadPool( 2 );
+        try
+        {
+            sut.scan( TestEntity.class, "id", 3, new PageHandler<TestEntity>()
+            {
+                public void handle( List<TestEntity> page )
+                {
+                    throw new IllegalStateException( "failing handler" );
+                }
+            }, executor, 2 );
+            fail( "expected exception to be thrown" );
+        }
+        catch ( IllegalStateException e )
+        {
+            assertThat( e.getMessage(), is( "failing handler" ) );
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldRejectScanWithinRunningTransaction()
+    {
+        unitOfWork.begin();
+        final EntityManager em = injector.getInstance( EntityManagerProvider.class ).get();
+        em.getTransaction().begin();
+        try
+        {
+            sut.scan( TestEntity.class, "id", 3, new CollectingHandler() );
+            fail( "expected exception to be thrown" );
+        }
+        catch ( IllegalStateException e )
+        {
+            assertThat( scannedIds.isEmpty(), is( true ) );
+        }
+        finally
+        {
+            em.getTransaction().rollback();
+            unitOfWork.end();
+        }
+    }
+
+    @Test
+    public void shouldCancelPendingPagesWhenInterrupted()
+        throws Exception
+    {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final CountDownLatch handlerStarted = new CountDownLatch( 1 );
+        final CountDownLatch handlerInterrupted = new CountDownLatch( 1 );
+        final Thread scanningThread = Thread.currentThread();
+        final Thread interrupter = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    handlerStarted.await();
+                    Thread.sleep( 100 );
+                    scanningThread.interrupt();
+                }
+                catch ( InterruptedException e )
+                {
+                    // test is over
+                }
+            }
+        };
+        interrupter.start();
+        try
+        {
+            sut.scan( TestEntity.class, "id", 3, new PageHandler<TestEntity>()
+            {
+                public void handle( List<TestEntity> page )
+                {
+                    handlerStarted.countDown();
+                    try
+                    {
+                        new CountDownLatch( 1 ).await();
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        handlerInterrupted.countDown();
+                    }
+                }
+            }, executor, NUM_ENTITIES );
+            fail( "expected exception to be thrown" );
+        }
+        catch ( RuntimeException e )
+        {
+            assertThat( Thread.interrupted(), is( true ) );
+            assertThat( handlerInterrupted.await( 5, TimeUnit.SECONDS ), is( true ) );
+        }
+        finally
+        {
+            interrupter.interrupt();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void shouldRejectUnknownKeyAttribute()
+    {
+        sut.scan( TestEntity.class, "unknown", 3, new CollectingHandler() );
+    }
+
+    private class CollectingHandler
+        implements PageHandler<TestEntity>
+    {
+        public void handle( List<TestEntity> page )
+        {
+            for ( TestEntity entity : page )
+            {
+                if ( !scannedIds.add( entity.getId() ) )
+                {
+                    throw new IllegalStateException( "entity scanned twice: " + entity.getId() );
+                }
+            }
+        }
+    }
+
+}
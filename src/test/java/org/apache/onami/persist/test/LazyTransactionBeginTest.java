@@ -0,0 +1,118 @@
+package org.apache.onami.persist.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.apache.onami.persist.EntityManagerProvider;
+import org.apache.onami.persist.PersistenceModule;
+import org.apache.onami.persist.PersistenceService;
+import org.apache.onami.persist.Transactional;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.inject.Inject;
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests beginning transactions lazily with a real persistence provider.
+ */
+public class LazyTransactionBeginTest
+{
+
+    private Injector injector;
+
+    @Before
+    public void setUp()
+    {
+        injector = Guice.createInjector( new PersistenceModule()
+        {
+            @Override
+            protected void configurePersistence()
+            {
+                bindApplicationManagedPersistenceUnit( "testUnit" ).beginTransactionsLazily();
+            }
+        } );
+        injector.getInstance( PersistenceService.class ).start();
+    }
+
+    @After
+    public void tearDown()
+    {
+        injector.getInstance( PersistenceService.class ).stop();
+    }
+
+    @Test
+    public void methodWithoutDataAccessShouldNotBeginTransaction()
+    {
+        final Repository repository = injector.getInstance( Repository.class );
+
+        assertThat( repository.isTransactionActiveWithoutDataAccess(), is( false ) );
+    }
+
+    @Test
+    public void methodWithDataAccessShouldCommit()
+    {
+        final Repository repository = injector.getInstance( Repository.class );
+
+        final UUID id = repository.persist();
+
+        assertThat( repository.find( id ), is( notNullValue() ) );
+    }
+
+    public static class Repository
+    {
+
+        private final EntityManagerProvider emProvider;
+
+        @Inject
+        public Repository( EntityManagerProvider emProvider )
+        {
+            this.emProvider = emProvider;
+        }
+
+        @Transactional
+        public boolean isTransactionActiveWithoutDataAccess()
+        {
+            return emProvider.get().getTransaction().isActive();
+        }
+
+        @Transactional
+        public UUID persist()
+        {
+            final TestEntity entity = new TestEntity();
+            emProvider.get().persist( entity );
+            return entity.getId();
+        }
+
+        @Transactional
+        public TestEntity find( UUID id )
+        {
+            return emProvider.get().find( TestEntity.class, id );
+        }
+
+    }
+
+}
@@ -0,0 +1,129 @@
+package org.apache.onami.persist.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.apache.onami.persist.EntityManagerProvider;
+import org.apache.onami.persist.PersistenceModule;
+import org.apache.onami.persist.PersistenceService;
+import org.apache.onami.persist.TenantContext;
+import org.apache.onami.persist.TenantPropertiesResolver;
+import org.apache.onami.persist.Transactional;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.inject.Inject;
+import java.util.Properties;
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests a multi tenant persistence unit with a real persistence provider. Each tenant has its own in memory
+ * database. At most one tenant is cached, so every change of the tenant evicts the previous one.
+ */
+public class MultiTenantTest
+{
+
+    private Injector injector;
+
+    private TenantContext tenantContext;
+
+    private Repository repository;
+
+    @Before
+    public void setUp()
+    {
+        injector = Guice.createInjector( new PersistenceModule()
+        {
+            @Override
+            protected void configurePersistence()
+            {
+                bindApplicationManagedPersistenceUnit( "testUnit" ).useTenants( new DatabasePerTenant(), 1, 0 );
+            }
+        } );
+        injector.getInstance( PersistenceService.class ).start();
+        tenantContext = injector.getInstance( TenantContext.class );
+        repository = injector.getInstance( Repository.class );
+    }
+
+    @After
+    public void tearDown()
+    {
+        tenantContext.clearTenantId();
+        injector.getInstance( PersistenceService.class ).stop();
+    }
+
+    @Test
+    public void shouldSeparateDataOfTenants()
+    {
+        tenantContext.setTenantId( "alpha" );
+        final UUID id = repository.persist();
+        assertThat( repository.find( id ), is( notNullValue() ) );
+
+        tenantContext.setTenantId( "beta" );
+        assertThat( repository.find( id ), is( nullValue() ) );
+        assertThat( tenantContext.getCachedTenantCount(), is( 1 ) );
+    }
+
+    public static class Repository
+    {
+
+        private final EntityManagerProvider emProvider;
+
+        @Inject
+        public Repository( EntityManagerProvider emProvider )
+        {
+            this.emProvider = emProvider;
+        }
+
+        @Transactional
+        public UUID persist()
+        {
+            final TestEntity entity = new TestEntity();
+            emProvider.get().persist( entity );
+            return entity.getId();
+        }
+
+        @Transactional
+        public TestEntity find( UUID id )
+        {
+            return emProvider.get().find( TestEntity.class, id );
+        }
+
+    }
+
+    private static class DatabasePerTenant
+        implements TenantPropertiesResolver
+    {
+        public Properties resolveProperties( String tenantId )
+        {
+            final Properties properties = new Properties();
+            properties.setProperty( "hibernate.connection.url", "jdbc:hsqldb:mem:tenant_" + tenantId );
+            return properties;
+        }
+    }
+
+}
@@ -0,0 +1,154 @@
+package org.apache.onami.persist.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.apache.onami.persist.EntityManagerProvider;
+import org.apache.onami.persist.PersistenceModule;
+import org.apache.onami.persist.PersistenceService;
+import org.apache.onami.persist.ReplicaSelection;
+import org.apache.onami.persist.Transactional;
+import org.apache.onami.persist.UnitOfWork;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.inject.Inject;
+import java.util.Properties;
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests routing to read replicas with a real persistence provider. The replica is a separate in memory database
+ * which is never synchronized with the primary. So an entity is only found if it is read from the primary.
+ */
+public class ReadReplicaTest
+{
+
+    private Injector injector;
+
+    private void startWithReadYourWritesWindow( final long windowMillis )
+    {
+        final Properties replica = new Properties();
+        replica.setProperty( "hibernate.connection.url", "jdbc:hsqldb:mem:replica" );
+
+        injector = Guice.createInjector( new PersistenceModule()
+        {
+            @Override
+            protected void configurePersistence()
+            {
+                bindApplicationManagedPersistenceUnit( "testUnit" ).useReadReplicas( ReplicaSelection.ROUND_ROBIN,
+                                                                                      windowMillis, replica );
+            }
+        } );
+        injector.getInstance( PersistenceService.class ).start();
+    }
+
+    @After
+    public void tearDown()
+    {
+        injector.getInstance( PersistenceService.class ).stop();
+    }
+
+    @Test
+    public void readOnlyTransactionShouldReadFromReplica()
+    {
+        startWithReadYourWritesWindow( 0 );
+        final Repository repository = injector.getInstance( Repository.class );
+
+        final UUID id = repository.persist();
+
+        assertThat( repository.findReadWrite( id ), is( notNullValue() ) );
+        assertThat( repository.findReadOnly( id ), is( nullValue() ) );
+    }
+
+    @Test
+    public void readOnlyTransactionShouldReadFromPrimaryWithinReadYourWritesWindow()
+    {
+        startWithReadYourWritesWindow( 60000 );
+        final Repository repository = injector.getInstance( Repository.class );
+
+        final UUID id = repository.persist();
+
+        assertThat( repository.findReadOnly( id ), is( notNullValue() ) );
+    }
+
+    @Test
+    public void readWriteTransactionShouldFailInReadOnlyUnitOfWork()
+    {
+        startWithReadYourWritesWindow( 0 );
+        final Repository repository = injector.getInstance( Repository.class );
+        final UnitOfWork unitOfWork = injector.getInstance( UnitOfWork.class );
+
+        unitOfWork.beginReadOnly();
+        try
+        {
+            repository.persist();
+            fail( "expected IllegalStateException to be thrown" );
+        }
+        catch ( IllegalStateException e )
+        {
+            // expected
+        }
+        finally
+        {
+            unitOfWork.end();
+        }
+    }
+
+    public static class Repository
+    {
+
+        private final EntityManagerProvider emProvider;
+
+        @Inject
+        public Repository( EntityManagerProvider emProvider )
+        {
+            this.emProvider = emProvider;
+        }
+
+        @Transactional
+        public UUID persist()
+        {
+            final TestEntity entity = new TestEntity();
+            emProvider.get().persist( entity );
+            return entity.getId();
+        }
+
+        @Transactional
+        public TestEntity findReadWrite( UUID id )
+        {
+            return emProvider.get().find( TestEntity.class, id );
+        }
+
+        @Transactional( readOnly = true )
+        public TestEntity findReadOnly( UUID id )
+        {
+            return emProvider.get().find( TestEntity.class, id );
+        }
+
+    }
+
+}
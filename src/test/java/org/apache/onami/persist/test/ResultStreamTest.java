@@ -0,0 +1,129 @@
+package org.apache.onami.persist.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.apache.onami.persist.EntityManagerProvider;
+import org.apache.onami.persist.PersistenceModule;
+import org.apache.onami.persist.PersistenceService;
+import org.apache.onami.persist.ResultStream;
+import org.apache.onami.persist.ResultStreamFactory;
+import org.apache.onami.persist.UnitOfWork;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests streaming of a query result with a real persistence provider.
+ */
+public class ResultStreamTest
+{
+
+    private static final int NUM_ENTITIES = 7;
+
+    private Injector injector;
+
+    private UnitOfWork unitOfWork;
+
+    private EntityManagerProvider emProvider;
+
+    private ResultStreamFactory streamFactory;
+
+    @Before
+    public void setUp()
+    {
+        injector = Guice.createInjector( new PersistenceModule()
+        {
+            @Override
+            protected void configurePersistence()
+            {
+                bindApplicationManagedPersistenceUnit( "testUnit" );
+            }
+        } );
+
+        injector.getInstance( PersistenceService.class ).start();
+        unitOfWork = injector.getInstance( UnitOfWork.class );
+        emProvider = injector.getInstance( EntityManagerProvider.class );
+        streamFactory = injector.getInstance( ResultStreamFactory.class );
+
+        unitOfWork.begin();
+        final EntityManager em = emProvider.get();
+        em.getTransaction().begin();
+        for ( int i = 0; i < NUM_ENTITIES; i++ )
+        {
+            em.persist( new TestEntity() );
+        }
+        em.getTransaction().commit();
+        em.clear();
+    }
+
+    @After
+    public void tearDown()
+    {
+        unitOfWork.end();
+        injector.getInstance( PersistenceService.class ).stop();
+    }
+
+    @Test
+    public void shouldStreamAllEntitiesAndDetachConsumedOnes()
+    {
+        final EntityManager em = emProvider.get();
+        final TypedQuery<TestEntity> query =
+            em.createQuery( "SELECT e FROM TestEntity e ORDER BY e.id", TestEntity.class );
+
+        final ResultStream<TestEntity> stream = streamFactory.stream( query, 3 );
+        final TestEntity first = stream.next();
+        assertThat( em.contains( first ), is( true ) );
+
+        int count = 1;
+        while ( stream.hasNext() )
+        {
+            stream.next();
+            count++;
+        }
+
+        assertThat( count, is( NUM_ENTITIES ) );
+        assertThat( em.contains( first ), is( false ) );
+        assertThat( stream.isClosed(), is( true ) );
+    }
+
+    @Test
+    public void endingTheUnitOfWorkShouldCloseTheStream()
+    {
+        final TypedQuery<TestEntity> query =
+            emProvider.get().createQuery( "SELECT e FROM TestEntity e ORDER BY e.id", TestEntity.class );
+        final ResultStream<TestEntity> stream = streamFactory.stream( query, 3 );
+        stream.next();
+
+        unitOfWork.end();
+
+        assertThat( stream.isClosed(), is( true ) );
+        assertThat( stream.hasNext(), is( false ) );
+        unitOfWork.begin();
+    }
+
+}
@@ -0,0 +1,228 @@
+package org.apache.onami.persist.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.apache.onami.persist.EntityManagerProvider;
+import org.apache.onami.persist.NestedTransactionMode;
+import org.apache.onami.persist.PersistenceModule;
+import org.apache.onami.persist.PersistenceService;
+import org.apache.onami.persist.Transactional;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests nested transactions with savepoints with a real persistence provider.
+ */
+public class SavepointTest
+{
+
+    private Injector injector;
+
+    @Before
+    public void setUp()
+    {
+        injector = Guice.createInjector( new PersistenceModule()
+        {
+            @Override
+            protected void configurePersistence()
+            {
+                bindApplicationManagedPersistenceUnit( "testUnit" );
+            }
+        } );
+        injector.getInstance( PersistenceService.class ).start();
+    }
+
+    @After
+    public void tearDown()
+    {
+        injector.getInstance( PersistenceService.class ).stop();
+    }
+
+    @Test
+    public void failingNestedStepShouldOnlyRollBackItsOwnWork()
+    {
+        final BatchService batchService = injector.getInstance( BatchService.class );
+        final Repository repository = injector.getInstance( Repository.class );
+
+        final List<UUID> ids = batchService.storeBatch( 3, 1 );
+
+        assertThat( repository.find( ids.get( 0 ) ), is( notNullValue() ) );
+        assertThat( repository.find( ids.get( 1 ) ), is( nullValue() ) );
+        assertThat( repository.find( ids.get( 2 ) ), is( notNullValue() ) );
+    }
+
+    @Test
+    public void outerTransactionShouldCommitAfterDatabaseFailureInNestedStep()
+    {
+        final BatchService batchService = injector.getInstance( BatchService.class );
+        final Repository repository = injector.getInstance( Repository.class );
+
+        final List<UUID> ids = batchService.storeBatchWithFailingStatement( 3, 1 );
+
+        assertThat( repository.find( ids.get( 0 ) ), is( notNullValue() ) );
+        assertThat( repository.find( ids.get( 1 ) ), is( nullValue() ) );
+        assertThat( repository.find( ids.get( 2 ) ), is( notNullValue() ) );
+    }
+
+    @Test
+    public void failingNestedStepShouldDetachEntitiesOfOuterTransaction()
+    {
+        final BatchService batchService = injector.getInstance( BatchService.class );
+
+        assertThat( batchService.isManagedAfterFailingStep(), is( false ) );
+    }
+
+    public static class BatchService
+    {
+
+        private final Repository repository;
+
+        @Inject
+        public BatchService( Repository repository )
+        {
+            this.repository = repository;
+        }
+
+        @Transactional
+        public List<UUID> storeBatch( int size, int failingIndex )
+        {
+            final List<UUID> ids = new ArrayList<UUID>();
+            for ( int i = 0; i < size; i++ )
+            {
+                final TestEntity entity = new TestEntity();
+                ids.add( entity.getId() );
+                try
+                {
+                    repository.storeStep( entity, i == failingIndex );
+                }
+                catch ( IllegalArgumentException e )
+                {
+                    // skip the failed step and continue with the batch
+                }
+            }
+            return ids;
+        }
+
+        @Transactional
+        public List<UUID> storeBatchWithFailingStatement( int size, int failingIndex )
+        {
+            final List<UUID> ids = new ArrayList<UUID>();
+            for ( int i = 0; i < size; i++ )
+            {
+                final TestEntity entity = new TestEntity();
+                ids.add( entity.getId() );
+                try
+                {
+                    repository.storeStepWithStatement( entity, i == failingIndex );
+                }
+                catch ( PersistenceException e )
+                {
+                    // skip the failed step and continue with the batch
+                }
+            }
+            return ids;
+        }
+
+        @Transactional
+        public boolean isManagedAfterFailingStep()
+        {
+            final TestEntity outer = new TestEntity();
+            repository.store( outer );
+            try
+            {
+                repository.storeStep( new TestEntity(), true );
+            }
+            catch ( IllegalArgumentException e )
+            {
+                // skip the failed step
+            }
+            return repository.isManaged( outer );
+        }
+    }
+
+    public static class Repository
+    {
+
+        private final EntityManagerProvider emProvider;
+
+        @Inject
+        public Repository( EntityManagerProvider emProvider )
+        {
+            this.emProvider = emProvider;
+        }
+
+        @Transactional( nested = NestedTransactionMode.SAVEPOINT )
+        public void storeStep( TestEntity entity, boolean fail )
+        {
+            emProvider.get().persist( entity );
+            if ( fail )
+            {
+                throw new IllegalArgumentException( "invalid entity" );
+            }
+        }
+
+        @Transactional( nested = NestedTransactionMode.SAVEPOINT )
+        public void storeStepWithStatement( TestEntity entity, boolean fail )
+        {
+            final EntityManager em = emProvider.get();
+            em.persist( entity );
+            if ( fail )
+            {
+                // fails in the database which makes the persistence provider mark the transaction rollback only
+                em.createNativeQuery( "INSERT INTO NO_SUCH_TABLE (ID) VALUES (1)" ).executeUpdate();
+            }
+        }
+
+        @Transactional
+        public void store( TestEntity entity )
+        {
+            emProvider.get().persist( entity );
+        }
+
+        @Transactional
+        public boolean isManaged( TestEntity entity )
+        {
+            return emProvider.get().contains( entity );
+        }
+
+        @Transactional
+        public TestEntity find( UUID id )
+        {
+            return emProvider.get().find( TestEntity.class, id );
+        }
+
+    }
+
+}
@@ -0,0 +1,155 @@
+package org.apache.onami.persist.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.apache.onami.persist.EntityManagerProvider;
+import org.apache.onami.persist.PersistenceModule;
+import org.apache.onami.persist.PersistenceService;
+import org.apache.onami.persist.ShardContext;
+import org.apache.onami.persist.ShardKey;
+import org.apache.onami.persist.ShardResolver;
+import org.apache.onami.persist.Transactional;
+import org.apache.onami.persist.UnitOfWork;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.inject.Inject;
+import java.util.Properties;
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests a sharded persistence unit with a real persistence provider. Each shard is a separate in memory database.
+ * Even shard keys are stored in the first, odd shard keys in the second shard.
+ */
+public class ShardingTest
+{
+
+    private Injector injector;
+
+    private Repository repository;
+
+    @Before
+    public void setUp()
+    {
+        final Properties shard0 = new Properties();
+        shard0.setProperty( "hibernate.connection.url", "jdbc:hsqldb:mem:shard0" );
+        final Properties shard1 = new Properties();
+        shard1.setProperty( "hibernate.connection.url", "jdbc:hsqldb:mem:shard1" );
+
+        injector = Guice.createInjector( new PersistenceModule()
+        {
+            @Override
+            protected void configurePersistence()
+            {
+                bindApplicationManagedPersistenceUnit( "testUnit" ).useShards( new EvenOddResolver(), shard0,
+                                                                               shard1 );
+            }
+        } );
+        injector.getInstance( PersistenceService.class ).start();
+        repository = injector.getInstance( Repository.class );
+    }
+
+    @After
+    public void tearDown()
+    {
+        injector.getInstance( PersistenceService.class ).stop();
+    }
+
+    @Test
+    public void shouldStoreEntityInShardOfKey()
+    {
+        final UUID id = repository.persist( 2 );
+
+        assertThat( repository.find( 4, id ), is( notNullValue() ) );
+        assertThat( repository.find( 3, id ), is( nullValue() ) );
+    }
+
+    @Test
+    public void shouldUseShardKeyOfShardContext()
+    {
+        final ShardContext shardContext = injector.getInstance( ShardContext.class );
+        final UnitOfWork unitOfWork = injector.getInstance( UnitOfWork.class );
+        final UUID id = repository.persist( 1 );
+
+        shardContext.setShardKey( 5 );
+        unitOfWork.begin();
+        try
+        {
+            final EntityManagerProvider emProvider = injector.getInstance( EntityManagerProvider.class );
+            assertThat( emProvider.get().find( TestEntity.class, id ), is( notNullValue() ) );
+        }
+        finally
+        {
+            unitOfWork.end();
+            shardContext.clearShardKey();
+        }
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void shouldNotStartUnitOfWorkWithoutShardKey()
+    {
+        injector.getInstance( UnitOfWork.class ).begin();
+    }
+
+    public static class Repository
+    {
+
+        private final EntityManagerProvider emProvider;
+
+        @Inject
+        public Repository( EntityManagerProvider emProvider )
+        {
+            this.emProvider = emProvider;
+        }
+
+        @Transactional
+        public UUID persist( @ShardKey Integer customer )
+        {
+            final TestEntity entity = new TestEntity();
+            emProvider.get().persist( entity );
+            return entity.getId();
+        }
+
+        @Transactional
+        public TestEntity find( @ShardKey Integer customer, UUID id )
+        {
+            return emProvider.get().find( TestEntity.class, id );
+        }
+
+    }
+
+    private static class EvenOddResolver
+        implements ShardResolver
+    {
+        public int resolveShard( Object shardKey, int numberOfShards )
+        {
+            return (Integer) shardKey % numberOfShards;
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+package org.apache.onami.persist.test.multipersistenceunits;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.onami.persist.EntityManagerProvider;
+import org.apache.onami.persist.Transactional;
+import org.apache.onami.persist.test.TestEntity;
+import org.junit.Test;
+
+import javax.inject.Inject;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class ChainedTransactionTest
+    extends BaseMultiplePuTest
+{
+
+    @Test
+    public void storeInBothUnits()
+    {
+        // given
+        final TestEntity firstEntity = new TestEntity();
+        final TestEntity secondEntity = new TestEntity();
+
+        // when
+        getInstance( ChainedService.class ).store( firstEntity, secondEntity );
+
+        // then
+        assertStored( firstEntity, secondEntity );
+    }
+
+    @Test
+    public void storeInBothUnitsWithParallelFlush()
+    {
+        // given
+        final TestEntity firstEntity = new TestEntity();
+        final TestEntity secondEntity = new TestEntity();
+
+        // when
+        getInstance( ChainedService.class ).storeWithParallelFlush( firstEntity, secondEntity );
+
+        // then
+        assertStored( firstEntity, secondEntity );
+    }
+
+    @Test
+    public void rollBackBothUnitsIfMethodFails()
+    {
+        // given
+        final TestEntity firstEntity = new TestEntity();
+        final TestEntity secondEntity = new TestEntity();
+
+        // when
+        try
+        {
+            getInstance( ChainedService.class ).storeAndFail( firstEntity, secondEntity );
+            fail( "expected RuntimeException to be thrown" );
+        }
+        catch ( RuntimeException e )
+        {
+            // expected
+        }
+
+        // then
+        beginUnitOfWork();
+        assertNull( firstEmp.get().find( TestEntity.class, firstEntity.getId() ) );
+        assertNull( secondEmp.get().find( TestEntity.class, secondEntity.getId() ) );
+        endUnitOfWork();
+    }
+
+    private void assertStored( TestEntity firstEntity, TestEntity secondEntity )
+    {
+        beginUnitOfWork();
+        assertNotNull( firstEmp.get().find( TestEntity.class, firstEntity.getId() ) );
+        assertNotNull( secondEmp.get().find( TestEntity.class, secondEntity.getId() ) );
+        endUnitOfWork();
+    }
+
+    static class ChainedService
+    {
+
+        private final EntityManagerProvider firstEmp;
+
+        private final EntityManagerProvider secondEmp;
+
+        @Inject
+        public ChainedService( @FirstPU EntityManagerProvider firstEmp, @SecondPU EntityManagerProvider secondEmp )
+        {
+            this.firstEmp = firstEmp;
+            this.secondEmp = secondEmp;
+        }
+
+        @Transactional( chained = true )
+        public void store( TestEntity firstEntity, TestEntity secondEntity )
+        {
+            firstEmp.get().persist( firstEntity );
+            secondEmp.get().persist( secondEntity );
+        }
+
+        @Transactional( chained = true, parallelFlush = true )
+        public void storeWithParallelFlush( TestEntity firstEntity, TestEntity secondEntity )
+        {
+            firstEmp.get().persist( firstEntity );
+            secondEmp.get().persist( secondEntity );
+        }
+
+        @Transactional( chained = true )
+        public void storeAndFail( TestEntity firstEntity, TestEntity secondEntity )
+        {
+            firstEmp.get().persist( firstEntity );
+            secondEmp.get().persist( secondEntity );
+            throw new RuntimeException();
+        }
+    }
+}